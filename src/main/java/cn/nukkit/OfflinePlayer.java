@@ -37,7 +37,7 @@ public class OfflinePlayer implements IPlayer {
         this.name = name;
 
         if (new File(this.server.getDataPath() + "players/" + name.toLowerCase() + ".dat").exists()) {
-            this.namedTag = this.server.getOfflinePlayerData(this.name);
+            this.namedTag = this.server.getOfflinePlayerData(this.name, true);
         } else {
             this.namedTag = null;
         }
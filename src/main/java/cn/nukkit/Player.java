@@ -55,6 +55,7 @@ import cn.nukkit.math.*;
 import cn.nukkit.metadata.MetadataValue;
 import cn.nukkit.nbt.NBTIO;
 import cn.nukkit.nbt.tag.*;
+import cn.nukkit.network.ChunkSendWindow;
 import cn.nukkit.network.Network;
 import cn.nukkit.network.SourceInterface;
 import cn.nukkit.network.protocol.*;
@@ -209,6 +210,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
     protected int viewDistance;
     protected int chunksPerTick;
     protected final int spawnThreshold;
+    protected final ChunkSendWindow chunkSendWindow;
 
     protected Position spawnPosition = null;
 
@@ -242,6 +244,9 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
     protected int lastChorusFruitTeleport = 20;
 
     private LoginChainData loginChainData;
+    // Read on the login lane, only used if the file was not modified since
+    private CompoundTag loginPlayerData;
+    private long loginPlayerDataModified;
 
     public Block breakingBlock = null;
 
@@ -632,6 +637,9 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         this.loaderId = Level.generateChunkLoaderId(this);
         this.chunksPerTick = this.server.getConfig("chunk-sending.per-tick", 4);
         this.spawnThreshold = this.server.getConfig("chunk-sending.spawn-threshold", 56);
+        this.chunkSendWindow = new ChunkSendWindow(this.chunksPerTick,
+                this.server.getConfig("chunk-sending.min-window", 1),
+                this.server.getConfig("chunk-sending.max-window", 16));
         this.spawnPosition = null;
         this.gamemode = this.server.getGamemode();
         this.setLevel(this.server.getDefaultLevel());
@@ -801,6 +809,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         }
         level.unregisterChunkLoader(this, x, z);
         this.loadQueue.remove(index);
+        this.chunkSendWindow.onCancelled(index);
     }
 
     public Position getSpawn() {
@@ -816,14 +825,16 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             return;
         }
 
-        this.usedChunks.put(Level.chunkHash(x, z), true);
+        long index = Level.chunkHash(x, z);
+        this.usedChunks.put(index, true);
         this.chunkLoadCount++;
+        this.chunkSendWindow.onSent(index);
 
         this.dataPacket(packet.setReliability(RakNetReliability.RELIABLE_ORDERED));
 
         if (this.spawned) {
             for (Entity entity : this.level.getChunkEntities(x, z).values()) {
-                if (this != entity && !entity.closed && entity.isAlive()) {
+                if (this != entity && !entity.closed && entity.isAlive() && this.level.getEntityTracker().isInRange(entity, this)) {
                     entity.spawnTo(this);
                 }
             }
@@ -835,8 +846,10 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             return;
         }
 
-        this.usedChunks.put(Level.chunkHash(x, z), true);
+        long index = Level.chunkHash(x, z);
+        this.usedChunks.put(index, true);
         this.chunkLoadCount++;
+        this.chunkSendWindow.onSent(index);
 
         FullChunkDataPacket pk = new FullChunkDataPacket();
         pk.chunkX = x;
@@ -847,7 +860,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
 
         if (this.spawned) {
             for (Entity entity : this.level.getChunkEntities(x, z).values()) {
-                if (this != entity && !entity.closed && entity.isAlive()) {
+                if (this != entity && !entity.closed && entity.isAlive() && this.level.getEntityTracker().isInRange(entity, this)) {
                     entity.spawnTo(this);
                 }
             }
@@ -877,12 +890,25 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         return true;
     }
 
+    /**
+     * @return true if the player has chunks queued that have not been requested yet
+     */
+    public boolean isWaitingForChunks() {
+        return this.connected && !this.loadQueue.isEmpty();
+    }
+
+    public ChunkSendWindow getChunkSendWindow() {
+        return this.chunkSendWindow;
+    }
+
     protected boolean sendQueuedChunk() {
         if (!this.canSendQueuedChunk()) {
             return false;
         }
         boolean success = false;
         int count = 0;
+        // Limited by the chunks this client has not acknowledged yet and by the server-wide budget
+        int allowed = this.server.getChunkSendScheduler().acquire(this.chunkSendWindow);
 
         /*List<Map.Entry<Long, Integer>> entryList = new ArrayList<>(this.loadQueue.entrySet());
         if (entryList.size() + chunkLoadCount > spawnThreshold) {
@@ -892,9 +918,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         indexes.unstableSort(this.chunkComparator);
 
         for (long index : indexes.elements()) {
-            if (count >= this.chunksPerTick) {
-                // You should count the active transactions for each client, and only send new LevelChunkPackets if there aren't too many active transactions.
-                // In Vanilla, depending on the connection quality, we only allow between 1 and 9 concurrent transactions.
+            if (count >= allowed) {
                 break;
             }
             int chunkX = Level.getHashX(index);
@@ -926,11 +950,13 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             PlayerChunkRequestEvent ev = new PlayerChunkRequestEvent(this, chunkX, chunkZ);
             this.server.getPluginManager().callEvent(ev);
             if (!ev.isCancelled()) {
+                this.chunkSendWindow.onRequested(index, System.currentTimeMillis());
                 this.level.requestChunk(chunkX, chunkZ, this);
                 success = true;
             }
         }
 
+        this.server.getChunkSendScheduler().release(allowed - count);
         return success;
     }
 
@@ -1004,7 +1030,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             int chunkX = Level.getHashX(index);
             int chunkZ = Level.getHashZ(index);
             for (Entity entity : this.level.getChunkEntities(chunkX, chunkZ).values()) {
-                if (this != entity && !entity.closed && entity.isAlive()) {
+                if (this != entity && !entity.closed && entity.isAlive() && this.level.getEntityTracker().isInRange(entity, this)) {
                     entity.spawnTo(this);
                 }
             }
@@ -1102,10 +1128,13 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         }
 
         try (Timing timing = Timings.getSendDataPacketTiming(packet)) {
-            DataPacketSendEvent ev = new DataPacketSendEvent(this, packet);
-            this.server.getPluginManager().callEvent(ev);
-            if (ev.isCancelled()) {
-                return false;
+            // The events of a shared batch are called for each packet in it when it is broadcast
+            if (!(packet instanceof SharedBatchPacket) && this.server.getPluginManager().hasListeners(DataPacketSendEvent.class)) {
+                DataPacketSendEvent ev = new DataPacketSendEvent(this, packet);
+                this.server.getPluginManager().callEvent(ev);
+                if (ev.isCancelled()) {
+                    return false;
+                }
             }
 
             this.interfaz.putPacket(this, packet, false, true);
@@ -1113,6 +1142,26 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         return true;
     }
 
+    /**
+     * Queues a packet whose {@link DataPacketSendEvent} was already called.
+     */
+    void sendDataPacketUnchecked(DataPacket packet) {
+        if (!this.connected) {
+            return;
+        }
+
+        try (Timing timing = Timings.getSendDataPacketTiming(packet)) {
+            this.interfaz.putPacket(this, packet, false, true);
+        }
+    }
+
+    /**
+     * @return whether the interface of the player takes shared batches
+     */
+    boolean supportsSharedBatches() {
+        return this.interfaz.supportsSharedBatches();
+    }
+
     @Deprecated
     public int dataPacket(DataPacket packet, boolean needACK) {
         return dataPacket(packet) ? 1 : 0;
@@ -1363,20 +1412,6 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         return new Item[0];
     }
 
-    @Override
-    public boolean setDataProperty(EntityData data) {
-        return setDataProperty(data, true);
-    }
-
-    @Override
-    public boolean setDataProperty(EntityData data, boolean send) {
-        if (super.setDataProperty(data, send)) {
-            if (send) this.sendData(this, new EntityMetadata().put(this.getDataProperty(data.getId())));
-            return true;
-        }
-        return false;
-    }
-
     @Override
     protected void checkGroundState(double movX, double movY, double movZ, double dx, double dy, double dz) {
         if (!this.onGround || movX != 0 || movY != 0 || movZ != 0) {
@@ -1437,15 +1472,13 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
     }
 
     protected void checkNearEntities() {
-        for (Entity entity : this.level.getNearbyEntities(this.boundingBox.grow(1, 0.5, 1), this)) {
+        this.level.forEachNearbyEntity(this.boundingBox.grow(1, 0.5, 1), this, entity -> {
             entity.scheduleUpdate();
 
-            if (!entity.isAlive() || !this.isAlive()) {
-                continue;
+            if (entity.isAlive() && this.isAlive()) {
+                this.pickupEntity(entity, true);
             }
-
-            this.pickupEntity(entity, true);
-        }
+        });
     }
 
     protected void processMovement(int tickDiff) {
@@ -1521,6 +1554,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                 this.z = newPos.z;
                 double radius = this.getWidth() / 2;
                 this.boundingBox.setBounds(this.x - radius, this.y, this.z - radius, this.x + radius, this.y + this.getHeight(), this.z + radius);
+                this.level.updateEntityIndex(this);
             }
         }
 
@@ -1548,25 +1582,32 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             this.lastPitch = to.pitch;
 
             if (!isFirst) {
-                List<Block> blocksAround = new ArrayList<>(this.blocksAround);
-                List<Block> collidingBlocks = new ArrayList<>(this.collisionBlocks);
+                if (!this.server.getPluginManager().hasListeners(PlayerMoveEvent.class)) {
+                    // Nothing can cancel or redirect the move, so skip the event and the copies needed to revert it
+                    this.blocksAround = null;
+                    this.collisionBlocks = null;
+                    this.addMovement(this.x, this.y, this.z, this.yaw, this.pitch, this.yaw);
+                } else {
+                    List<Block> blocksAround = new ArrayList<>(this.blocksAround);
+                    List<Block> collidingBlocks = new ArrayList<>(this.collisionBlocks);
 
-                PlayerMoveEvent ev = new PlayerMoveEvent(this, from, to);
+                    PlayerMoveEvent ev = new PlayerMoveEvent(this, from, to);
 
-                this.blocksAround = null;
-                this.collisionBlocks = null;
+                    this.blocksAround = null;
+                    this.collisionBlocks = null;
 
-                this.server.getPluginManager().callEvent(ev);
+                    this.server.getPluginManager().callEvent(ev);
 
-                if (!(revert = ev.isCancelled())) { //Yes, this is intended
-                    if (!to.equals(ev.getTo())) { //If plugins modify the destination
-                        this.teleport(ev.getTo(), null);
+                    if (!(revert = ev.isCancelled())) { //Yes, this is intended
+                        if (!to.equals(ev.getTo())) { //If plugins modify the destination
+                            this.teleport(ev.getTo(), null);
+                        } else {
+                            this.addMovement(this.x, this.y, this.z, this.yaw, this.pitch, this.yaw);
+                        }
                     } else {
-                        this.addMovement(this.x, this.y, this.z, this.yaw, this.pitch, this.yaw);
+                        this.blocksAround = blocksAround;
+                        this.collisionBlocks = collidingBlocks;
                     }
-                } else {
-                    this.blocksAround = blocksAround;
-                    this.collisionBlocks = collidingBlocks;
                 }
             }
 
@@ -1854,6 +1895,16 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         if (!this.loadQueue.isEmpty() || !this.spawned) {
             this.sendNextChunk();
         }
+
+        long now = System.currentTimeMillis();
+        this.chunkSendWindow.expireProbes(now);
+        this.chunkSendWindow.expireRequests(now);
+        if (this.chunkSendWindow.needsProbe()) {
+            NetworkStackLatencyPacket probe = new NetworkStackLatencyPacket();
+            probe.timestamp = this.chunkSendWindow.onProbeSent(now);
+            probe.needsResponse = true;
+            this.dataPacket(probe);
+        }
     }
 
     public boolean canInteract(Vector3 pos, double maxDistance) {
@@ -1871,6 +1922,30 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         return (dot1 - dot) >= -maxDiff;
     }
 
+    /**
+     * @return whether the name has 3 to 16 characters and only letters, digits, underscores and spaces
+     */
+    public static boolean isValidUserName(String name) {
+        int len = name.length();
+        if (len > 16 || len < 3) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') ||
+                    (c >= 'A' && c <= 'Z') ||
+                    (c >= '0' && c <= '9') ||
+                    c == '_' || c == ' '
+                    ) {
+                continue;
+            }
+
+            return false;
+        }
+        return true;
+    }
+
     protected void processLogin() {
         if (!this.server.isWhitelisted((this.getName()).toLowerCase())) {
             this.kick(PlayerKickEvent.Reason.NOT_WHITELISTED, "Server is white-listed");
@@ -1897,6 +1972,8 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                     this.close(this.getLeaveMessage(), "Already connected");
                     return;
                 }
+                // The kicked player was saved, which makes the data read ahead stale
+                this.loginPlayerData = null;
             } else if (p.loggedIn && this.getUniqueId().equals(p.getUniqueId())) {
                 if (!p.kick(PlayerKickEvent.Reason.NEW_CONNECTION, "logged in from another location")) {
                     this.close(this.getLeaveMessage(), "Already connected");
@@ -1905,7 +1982,11 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             }
         }
 
-        CompoundTag nbt = this.server.getOfflinePlayerData(this.username);
+        CompoundTag nbt = this.loginPlayerData;
+        if (nbt == null || this.loginPlayerDataModified != this.server.getOfflinePlayerDataModified(this.username)) {
+            nbt = this.server.getOfflinePlayerData(this.username);
+        }
+        this.loginPlayerData = null;
         if (nbt == null) {
             this.close(this.getLeaveMessage(), "Invalid data");
 
@@ -2095,11 +2176,13 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
         }
 
         try (Timing timing = Timings.getReceiveDataPacketTiming(packet)) {
-            DataPacketReceiveEvent ev = new DataPacketReceiveEvent(this, packet);
-            this.server.getPluginManager().callEvent(ev);
-            if (ev.isCancelled()) {
-                timing.stopTiming();
-                return;
+            if (this.server.getPluginManager().hasListeners(DataPacketReceiveEvent.class)) {
+                DataPacketReceiveEvent ev = new DataPacketReceiveEvent(this, packet);
+                this.server.getPluginManager().callEvent(ev);
+                if (ev.isCancelled()) {
+                    timing.stopTiming();
+                    return;
+                }
             }
 
             if (packet.pid() == ProtocolInfo.BATCH_PACKET) {
@@ -2132,13 +2215,20 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                         break;
                     }
 
+                    // Packets from RakNet were prepared on the login lane, others are prepared here
+                    loginPacket.prepare();
+                    if (loginPacket.username == null) {
+                        this.close("", "disconnectionScreen.invalidName");
+                        break;
+                    }
+
                     this.protocol = loginPacket.protocol;
                     this.username = TextFormat.clean(loginPacket.username);
                     this.displayName = this.username;
                     this.iusername = this.username.toLowerCase();
                     this.setDataProperty(new StringEntityData(DATA_NAMETAG, this.username), false);
 
-                    this.loginChainData = ClientChainData.read(loginPacket);
+                    this.loginChainData = loginPacket.getChainData();
 
                     if (this.server.getOnlinePlayers().size() >= this.server.getMaxPlayers() && this.kick(PlayerKickEvent.Reason.SERVER_FULL, "disconnectionScreen.serverFull", false)) {
                         break;
@@ -2149,39 +2239,27 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                     this.uuid = loginPacket.clientUUID;
                     this.rawUUID = Binary.writeUUID(this.uuid);
 
-                    boolean valid = true;
-                    int len = loginPacket.username.length();
-                    if (len > 16 || len < 3) {
-                        valid = false;
-                    }
-
-                    for (int i = 0; i < len && valid; i++) {
-                        char c = loginPacket.username.charAt(i);
-                        if ((c >= 'a' && c <= 'z') ||
-                                (c >= 'A' && c <= 'Z') ||
-                                (c >= '0' && c <= '9') ||
-                                c == '_' || c == ' '
-                                ) {
-                            continue;
-                        }
+                    if (!isValidUserName(loginPacket.username) || Objects.equals(this.iusername, "rcon") || Objects.equals(this.iusername, "console")) {
+                        this.close("", "disconnectionScreen.invalidName");
 
-                        valid = false;
                         break;
                     }
 
-                    if (!valid || Objects.equals(this.iusername, "rcon") || Objects.equals(this.iusername, "console")) {
-                        this.close("", "disconnectionScreen.invalidName");
-
+                    if (this.server.isXboxAuthRequired() && !loginPacket.getChainData().isXboxAuthed()) {
+                        this.close("", "disconnectionScreen.notAuthenticated");
                         break;
                     }
 
-                    if (!loginPacket.skin.isValid()) {
+                    if (!loginPacket.isSkinValid()) {
                         this.close("", "disconnectionScreen.invalidSkin");
                         break;
                     } else {
                         this.setSkin(loginPacket.getSkinLegacy());
                     }
 
+                    this.loginPlayerData = loginPacket.getPlayerData();
+                    this.loginPlayerDataModified = loginPacket.getPlayerDataModified();
+
                     PlayerPreLoginEvent playerPreLoginEvent;
                     this.server.getPluginManager().callEvent(playerPreLoginEvent = new PlayerPreLoginEvent(this, "Plugin reason"));
                     if (playerPreLoginEvent.isCancelled()) {
@@ -2265,6 +2343,11 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                     dataPacket.progress = 1048576 * requestPacket.chunkIndex;
                     this.dataPacket(dataPacket);
                     break;
+                case ProtocolInfo.NETWORK_STACK_LATENCY_PACKET:
+                    // The client sends back the id of the probe, see ChunkSendWindow
+                    this.chunkSendWindow.onProbeResponse(((NetworkStackLatencyPacket) packet).timestamp,
+                            System.currentTimeMillis(), this.getPing());
+                    break;
                 case ProtocolInfo.PLAYER_INPUT_PACKET:
                     if (!this.isAlive() || !this.spawned) {
                         break;
@@ -3601,6 +3684,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             this.windowIndex.clear();
             this.usedChunks = new Long2BooleanOpenHashMap();
             this.loadQueue = new Long2IntOpenHashMap();
+            this.chunkSendWindow.clearRequests();
             this.hasSpawned = new Int2ObjectOpenHashMap<>();
             this.spawnPosition = null;
 
@@ -4129,6 +4213,7 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
 
     @Override
     protected void checkChunks() {
+        this.level.updateEntityIndex(this);
         if (this.chunk == null || (this.chunk.getX() != ((int) this.x >> 4) || this.chunk.getZ() != ((int) this.z >> 4))) {
             if (this.chunk != null) {
                 this.chunk.removeEntity(this);
@@ -4149,8 +4234,11 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                     }
                 }
 
+                EntityTracker tracker = this.level.getEntityTracker();
                 for (Player player : newChunk.values()) {
-                    this.spawnTo(player);
+                    if (tracker.isInRange(this, player)) {
+                        this.spawnTo(player);
+                    }
                 }
             }
 
@@ -4212,6 +4300,10 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
             return false;
         }
 
+        if (this.isLevelChangePaused(location)) {
+            return this.server.runWithLevelsPaused(() -> this.teleport(location, cause));
+        }
+
         Location from = this.getLocation();
         Location to = location;
 
@@ -4920,11 +5012,6 @@ public class Player extends EntityHuman implements CommandSender, InventoryHolde
                 ')';
     }
 
-    @Override
-    public void addMovement(double x, double y, double z, double yaw, double pitch, double headYaw) {
-        this.sendPosition(new Vector3(x, y, z), yaw, pitch, MovePlayerPacket.MODE_NORMAL, this.getViewers().values().toArray(new Player[0]));
-    }
-
     public ArrayList<Item> getCreativeItems() {
         return Item.getCreativeItems();
     }
@@ -16,6 +16,7 @@ import cn.nukkit.event.HandlerList;
 import cn.nukkit.event.level.LevelInitEvent;
 import cn.nukkit.event.level.LevelLoadEvent;
 import cn.nukkit.event.server.BatchPacketsEvent;
+import cn.nukkit.event.server.DataPacketSendEvent;
 import cn.nukkit.event.server.QueryRegenerateEvent;
 import cn.nukkit.inventory.CraftingManager;
 import cn.nukkit.inventory.Recipe;
@@ -25,6 +26,7 @@ import cn.nukkit.lang.BaseLang;
 import cn.nukkit.lang.TextContainer;
 import cn.nukkit.lang.TranslationContainer;
 import cn.nukkit.level.Level;
+import cn.nukkit.level.ParallelLevelTicker;
 import cn.nukkit.level.Position;
 import cn.nukkit.level.biome.EnumBiome;
 import cn.nukkit.level.format.LevelProvider;
@@ -45,6 +47,7 @@ import cn.nukkit.nbt.tag.CompoundTag;
 import cn.nukkit.nbt.tag.DoubleTag;
 import cn.nukkit.nbt.tag.FloatTag;
 import cn.nukkit.nbt.tag.ListTag;
+import cn.nukkit.network.ChunkSendScheduler;
 import cn.nukkit.network.CompressBatchedTask;
 import cn.nukkit.network.Network;
 import cn.nukkit.network.RakNetInterface;
@@ -53,6 +56,7 @@ import cn.nukkit.network.protocol.BatchPacket;
 import cn.nukkit.network.protocol.DataPacket;
 import cn.nukkit.network.protocol.PlayerListPacket;
 import cn.nukkit.network.protocol.ProtocolInfo;
+import cn.nukkit.network.protocol.SharedBatchPacket;
 import cn.nukkit.network.query.QueryHandler;
 import cn.nukkit.network.rcon.RCON;
 import cn.nukkit.permission.BanEntry;
@@ -84,8 +88,10 @@ import java.net.UnknownHostException;
 import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * @author MagicDroidX
@@ -160,12 +166,16 @@ public class Server {
 
     private boolean networkCompressionAsync = true;
     public int networkCompressionLevel = 7;
+    public int networkCompressionThreshold = 256;
     private int networkZlibProvider = 0;
 
     private boolean autoTickRate = true;
     private int autoTickRateLimit = 20;
     private boolean alwaysTickPlayers = false;
     private int baseTickRate = 1;
+    private ParallelLevelTicker parallelLevelTicker = null;
+    private ChunkSendScheduler chunkSendScheduler;
+    private final Queue<Runnable> levelTickTasks = new ConcurrentLinkedQueue<>();
     private Boolean getAllowFlight = null;
 
     private int autoSaveTicker = 0;
@@ -289,6 +299,7 @@ public class Server {
                 put("server-ip", "0.0.0.0");
                 put("view-distance", 10);
                 put("white-list", false);
+                put("xbox-auth", false);
                 put("achievements", true);
                 put("announce-player-achievements", true);
                 put("spawn-protection", 16);
@@ -330,20 +341,23 @@ public class Server {
         }
 
         ServerScheduler.WORKERS = (int) poolSize;
+        ServerScheduler.QUEUE_CAPACITY = this.getConfig("settings.async-queue-size", 1024);
 
         this.networkZlibProvider = this.getConfig("network.zlib-provider", 2);
         Zlib.setProvider(this.networkZlibProvider);
 
         this.networkCompressionLevel = this.getConfig("network.compression-level", 7);
-        this.networkCompressionAsync = this.getConfig("network.async-compression", true);
-
-        this.networkCompressionLevel = this.getConfig("network.compression-level", 7);
+        this.networkCompressionThreshold = this.getConfig("network.compression-threshold", 256);
         this.networkCompressionAsync = this.getConfig("network.async-compression", true);
 
         this.autoTickRate = this.getConfig("level-settings.auto-tick-rate", true);
         this.autoTickRateLimit = this.getConfig("level-settings.auto-tick-rate-limit", 20);
         this.alwaysTickPlayers = this.getConfig("level-settings.always-tick-players", false);
         this.baseTickRate = this.getConfig("level-settings.base-tick-rate", 1);
+        this.chunkSendScheduler = new ChunkSendScheduler(this.getConfig("chunk-sending.max-per-tick", 128));
+        if (this.getConfig("level-settings.parallel-ticking", false)) {
+            this.parallelLevelTicker = new ParallelLevelTicker(Math.max(1, this.getConfig("level-settings.parallel-ticking-threads", Runtime.getRuntime().availableProcessors())));
+        }
 
         this.scheduler = new ServerScheduler();
 
@@ -548,7 +562,19 @@ public class Server {
         return recipients.size();
     }
 
+    /**
+     * Sends the message to everyone subscribed to one of the permissions. Called while levels tick in parallel,
+     * the message is sent on the main thread while the levels are paused, see {@link #runWithLevelsPaused(Supplier)}.
+     *
+     * @param permissions permissions separated by {@code ;}
+     * @return the number of recipients
+     */
     public int broadcast(String message, String permissions) {
+        if (this.isLevelTickThread()) {
+            // Permission subscriptions are only safe to read from the main thread
+            return this.runWithLevelsPaused(() -> this.broadcast(message, permissions));
+        }
+
         Set<CommandSender> recipients = new HashSet<>();
 
         for (String permission : permissions.split(";")) {
@@ -566,7 +592,19 @@ public class Server {
         return recipients.size();
     }
 
+    /**
+     * Sends the message to everyone subscribed to one of the permissions. Called while levels tick in parallel,
+     * the message is sent on the main thread while the levels are paused, see {@link #runWithLevelsPaused(Supplier)}.
+     *
+     * @param permissions permissions separated by {@code ;}
+     * @return the number of recipients
+     */
     public int broadcast(TextContainer message, String permissions) {
+        if (this.isLevelTickThread()) {
+            // Permission subscriptions are only safe to read from the main thread
+            return this.runWithLevelsPaused(() -> this.broadcast(message, permissions));
+        }
+
         Set<CommandSender> recipients = new HashSet<>();
 
         for (String permission : permissions.split(";")) {
@@ -600,6 +638,96 @@ public class Server {
         }
     }
 
+    /**
+     * Encodes and compresses the packets once and queues the same compressed buffer to every player,
+     * instead of letting every session batch and deflate its own copy.
+     * <p>
+     * A {@link DataPacketSendEvent} is still called for every packet and player. Players for whom a packet
+     * was cancelled get the other packets one by one instead of the shared batch, so do players on interfaces
+     * without shared batches.
+     *
+     * @param players targets
+     * @param packets packets sent together, in order, as a single batch
+     */
+    public static void broadcastPacketsShared(Player[] players, DataPacket... packets) {
+        if (players.length == 0 || packets.length == 0) {
+            return;
+        }
+
+        if (players.length == 1) {
+            for (DataPacket packet : packets) {
+                players[0].dataPacket(packet);
+            }
+            return;
+        }
+
+        boolean events = instance.pluginManager.hasListeners(DataPacketSendEvent.class);
+        List<Player> targets = new ArrayList<>(players.length);
+        for (Player player : players) {
+            if (!player.supportsSharedBatches()) {
+                for (DataPacket packet : packets) {
+                    player.dataPacket(packet);
+                }
+            } else if (!events || callSendEvents(player, packets)) {
+                targets.add(player);
+            }
+        }
+        if (targets.size() < 2) {
+            for (Player player : targets) {
+                for (DataPacket packet : packets) {
+                    player.sendDataPacketUnchecked(packet);
+                }
+            }
+            return;
+        }
+        players = targets.toArray(new Player[0]);
+
+        SharedBatchPacket batch = instance.network.compressShared(packets);
+        try {
+            for (Player player : players) {
+                player.dataPacket(batch);
+            }
+        } finally {
+            batch.release();
+        }
+    }
+
+    /**
+     * Calls the send events of the packets for one player. If any is cancelled, the others are sent to the
+     * player right away.
+     *
+     * @return whether the player can get the shared batch
+     */
+    private static boolean callSendEvents(Player player, DataPacket[] packets) {
+        if (!player.isConnected()) {
+            return false;
+        }
+        boolean[] cancelled = null;
+        for (int i = 0; i < packets.length; i++) {
+            DataPacketSendEvent ev = new DataPacketSendEvent(player, packets[i]);
+            instance.pluginManager.callEvent(ev);
+            if (ev.isCancelled()) {
+                if (cancelled == null) {
+                    cancelled = new boolean[packets.length];
+                }
+                cancelled[i] = true;
+            }
+        }
+        if (cancelled == null) {
+            return true;
+        }
+        for (int i = 0; i < packets.length; i++) {
+            if (!cancelled[i]) {
+                player.sendDataPacketUnchecked(packets[i]);
+            }
+        }
+        return false;
+    }
+
+    public static void broadcastPacketsShared(Collection<Player> players, DataPacket... packets) {
+        broadcastPacketsShared(players.toArray(new Player[0]), packets);
+    }
+
     @Deprecated
     public void batchPackets(Player[] players, DataPacket[] packets) {
         this.batchPackets(players, packets, false);
@@ -781,6 +909,10 @@ public class Server {
             log.debug("Removing event handlers");
             HandlerList.unregisterAll();
 
+            if (this.parallelLevelTicker != null) {
+                this.parallelLevelTicker.shutdown();
+            }
+
             log.debug("Stopping all tasks");
             this.scheduler.cancelAllTasks();
             this.scheduler.mainThreadHeartbeat(Integer.MAX_VALUE);
@@ -901,7 +1033,7 @@ public class Server {
             pk.type = PlayerListPacket.TYPE_REMOVE;
             pk.entries = new PlayerListPacket.Entry[]{new PlayerListPacket.Entry(player.getUniqueId())};
 
-            Server.broadcastPacket(this.playerList.values(), pk);
+            Server.broadcastPacketsShared(this.playerList.values(), pk);
         }
     }
 
@@ -921,7 +1053,7 @@ public class Server {
         PlayerListPacket pk = new PlayerListPacket();
         pk.type = PlayerListPacket.TYPE_ADD;
         pk.entries = new PlayerListPacket.Entry[]{new PlayerListPacket.Entry(uuid, entityId, name, skin, xboxUserId)};
-        Server.broadcastPacket(players, pk);
+        Server.broadcastPacketsShared(players, pk);
     }
 
     public void updatePlayerListData(UUID uuid, long entityId, String name, Skin skin, String xboxUserId, Collection<Player> players) {
@@ -937,7 +1069,7 @@ public class Server {
         PlayerListPacket pk = new PlayerListPacket();
         pk.type = PlayerListPacket.TYPE_REMOVE;
         pk.entries = new PlayerListPacket.Entry[]{new PlayerListPacket.Entry(uuid)};
-        Server.broadcastPacket(players, pk);
+        Server.broadcastPacketsShared(players, pk);
     }
 
     public void removePlayerListData(UUID uuid, Collection<Player> players) {
@@ -983,45 +1115,99 @@ public class Server {
         }
 
         //Do level ticks
+        List<Level> toTick = new ArrayList<>();
         for (Level level : this.getLevels().values()) {
             if (level.getTickRate() > this.baseTickRate && --level.tickRateCounter > 0) {
                 continue;
             }
+            toTick.add(level);
+        }
 
-            try {
-                long levelTime = System.currentTimeMillis();
-                level.doTick(currentTick);
-                int tickMs = (int) (System.currentTimeMillis() - levelTime);
-                level.tickRateTime = tickMs;
-
-                if (this.autoTickRate) {
-                    if (tickMs < 50 && level.getTickRate() > this.baseTickRate) {
-                        int r;
-                        level.setTickRate(r = level.getTickRate() - 1);
-                        if (r > this.baseTickRate) {
-                            level.tickRateCounter = level.getTickRate();
-                        }
-                        log.debug("Raising level \"" + level.getName() + "\" tick rate to " + level.getTickRate() + " ticks");
-                    } else if (tickMs >= 50) {
-                        if (level.getTickRate() == this.baseTickRate) {
-                            level.setTickRate(Math.max(this.baseTickRate + 1, Math.min(this.autoTickRateLimit, tickMs / 50)));
-                            log.debug("Level \"" + level.getName() + "\" took " + NukkitMath.round(tickMs, 2) + "ms, setting tick rate to " + level.getTickRate() + " ticks");
-                        } else if ((tickMs / level.getTickRate()) >= 50 && level.getTickRate() < this.autoTickRateLimit) {
-                            level.setTickRate(level.getTickRate() + 1);
-                            log.debug("Level \"" + level.getName() + "\" took " + NukkitMath.round(tickMs, 2) + "ms, setting tick rate to " + level.getTickRate() + " ticks");
-                        }
-                        level.tickRateCounter = level.getTickRate();
-                    }
-                }
-            } catch (Exception e) {
-                if (Nukkit.DEBUG > 1) {
+        if (this.parallelLevelTicker != null && toTick.size() > 1) {
+            this.parallelLevelTicker.tick(toTick, level -> this.tickLevel(level, currentTick));
+
+            Runnable task;
+            while ((task = this.levelTickTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
                     this.getLogger().logException(e);
                 }
+            }
+        } else {
+            for (Level level : toTick) {
+                this.tickLevel(level, currentTick);
+            }
+        }
+    }
 
-                log.fatal(this.getLanguage().translateString("nukkit.level.tickError", new String[]{level.getName(), e.toString()}));
-                this.getLogger().logException(e);
+    private void tickLevel(Level level, int currentTick) {
+        try {
+            long levelTime = System.currentTimeMillis();
+            level.doTick(currentTick);
+            int tickMs = (int) (System.currentTimeMillis() - levelTime);
+            level.tickRateTime = tickMs;
+
+            if (this.autoTickRate) {
+                if (tickMs < 50 && level.getTickRate() > this.baseTickRate) {
+                    int r;
+                    level.setTickRate(r = level.getTickRate() - 1);
+                    if (r > this.baseTickRate) {
+                        level.tickRateCounter = level.getTickRate();
+                    }
+                    log.debug("Raising level \"" + level.getName() + "\" tick rate to " + level.getTickRate() + " ticks");
+                } else if (tickMs >= 50) {
+                    if (level.getTickRate() == this.baseTickRate) {
+                        level.setTickRate(Math.max(this.baseTickRate + 1, Math.min(this.autoTickRateLimit, tickMs / 50)));
+                        log.debug("Level \"" + level.getName() + "\" took " + NukkitMath.round(tickMs, 2) + "ms, setting tick rate to " + level.getTickRate() + " ticks");
+                    } else if ((tickMs / level.getTickRate()) >= 50 && level.getTickRate() < this.autoTickRateLimit) {
+                        level.setTickRate(level.getTickRate() + 1);
+                        log.debug("Level \"" + level.getName() + "\" took " + NukkitMath.round(tickMs, 2) + "ms, setting tick rate to " + level.getTickRate() + " ticks");
+                    }
+                    level.tickRateCounter = level.getTickRate();
+                }
             }
+        } catch (Exception e) {
+            log.fatal(this.getLanguage().translateString("nukkit.level.tickError", new String[]{level.getName(), e.toString()}));
+            this.getLogger().logException(e);
+        }
+    }
+
+    /**
+     * Runs a task that may touch other levels or global server state. When called from a level that is being
+     * ticked in parallel the task is deferred until every level has finished its tick and then runs on the main
+     * thread; otherwise it runs immediately.
+     *
+     * @param task task to run
+     */
+    public void runAfterLevelTicks(Runnable task) {
+        if (ParallelLevelTicker.isLevelTickThread()) {
+            this.levelTickTasks.offer(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs a task that may touch other levels or global server state and returns its result. When called from a
+     * level that is being ticked in parallel, that level waits while the task runs on the main thread, once no
+     * other level is being ticked; otherwise it runs immediately.
+     *
+     * @param task task to run
+     * @return the result of the task
+     */
+    public <T> T runWithLevelsPaused(Supplier<T> task) {
+        if (ParallelLevelTicker.isLevelTickThread()) {
+            return this.parallelLevelTicker.runWithLevelsPaused(task);
         }
+        return task.get();
+    }
+
+    /**
+     * @return true if the current thread is ticking a level in parallel with other levels
+     */
+    public boolean isLevelTickThread() {
+        return ParallelLevelTicker.isLevelTickThread();
     }
 
     public void doAutoSave() {
@@ -1036,7 +1222,7 @@ public class Server {
             }
 
             for (Level level : this.getLevels().values()) {
-                level.save();
+                level.autoSave();
             }
             Timings.levelSaveTimer.stopTiming();
         }
@@ -1067,6 +1253,7 @@ public class Server {
 
         this.checkTickUpdates(this.tickCounter, tickTime);
 
+        this.chunkSendScheduler.startTick(this.players.values());
         for (Player player : new ArrayList<>(this.players.values())) {
             player.checkNetwork();
         }
@@ -1107,6 +1294,10 @@ public class Server {
             }
         }
 
+        Timings.connectionTimer.startTiming();
+        this.network.flushInterfaces();
+        Timings.connectionTimer.stopTiming();
+
         Timings.fullServerTickTimer.stopTiming();
         //long now = System.currentTimeMillis();
         long nowNano = System.nanoTime();
@@ -1342,6 +1533,14 @@ public class Server {
         return this.getPropertyBoolean("white-list", false);
     }
 
+    /**
+     * @return whether players have to be logged in to Xbox Live to join, off unless xbox-auth is set. Whether a
+     * player is logged in can be read from {@link LoginChainData#isXboxAuthed()} either way.
+     */
+    public boolean isXboxAuthRequired() {
+        return this.getPropertyBoolean("xbox-auth", false);
+    }
+
     public int getSpawnRadius() {
         return this.getPropertyInt("spawn-protection", 16);
     }
@@ -1457,13 +1656,21 @@ public class Server {
     }
 
     public CompoundTag getOfflinePlayerData(String name) {
+        return this.getOfflinePlayerData(name, false);
+    }
+
+    /**
+     * @param lazy whether nested compounds such as inventory items are only parsed once accessed, for callers
+     *             that only look at a few entries
+     */
+    public CompoundTag getOfflinePlayerData(String name, boolean lazy) {
         name = name.toLowerCase();
         String path = this.getDataPath() + "players/";
         File file = new File(path + name + ".dat");
 
         if (this.shouldSavePlayerData() && file.exists()) {
             try {
-                return NBTIO.readCompressed(new FileInputStream(file));
+                return lazy ? NBTIO.readCompressedLazy(new FileInputStream(file)) : NBTIO.readCompressed(new FileInputStream(file));
             } catch (Exception e) {
                 file.renameTo(new File(path + name + ".dat.bak"));
                 log.warn(this.getLanguage().translateString("nukkit.data.playerCorrupted", name));
@@ -1502,6 +1709,31 @@ public class Server {
         return nbt;
     }
 
+    /**
+     * Reads the saved data of a player. Unlike {@link #getOfflinePlayerData(String)} this neither creates new
+     * data nor moves a corrupted file away, so it can be called from any thread.
+     *
+     * @return the data, or null if there is none or it could not be read
+     */
+    public CompoundTag readOfflinePlayerData(String name) {
+        File file = new File(this.getDataPath() + "players/" + name.toLowerCase() + ".dat");
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileInputStream stream = new FileInputStream(file)) {
+            return NBTIO.readCompressed(stream);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return when the saved data of a player was last modified, 0 if there is none
+     */
+    public long getOfflinePlayerDataModified(String name) {
+        return new File(this.getDataPath() + "players/" + name.toLowerCase() + ".dat").lastModified();
+    }
+
     public void saveOfflinePlayerData(String name, CompoundTag tag) {
         this.saveOfflinePlayerData(name, tag, false);
     }
@@ -1512,7 +1744,7 @@ public class Server {
                 if (async) {
                     this.getScheduler().scheduleAsyncTask(new FileWriteTask(this.getDataPath() + "players/" + name.toLowerCase() + ".dat", NBTIO.writeGZIPCompressed(tag, ByteOrder.BIG_ENDIAN)));
                 } else {
-                    Utils.writeFile(this.getDataPath() + "players/" + name.toLowerCase() + ".dat", new ByteArrayInputStream(NBTIO.writeGZIPCompressed(tag, ByteOrder.BIG_ENDIAN)));
+                    NBTIO.safeWriteGZIPCompressed(tag, new File(this.getDataPath() + "players/" + name.toLowerCase() + ".dat"));
                 }
             } catch (Exception e) {
                 log.fatal(this.getLanguage().translateString("nukkit.data.saveError", new String[]{name, e.getMessage()}));
@@ -1803,6 +2035,10 @@ public class Server {
         return network;
     }
 
+    public ChunkSendScheduler getChunkSendScheduler() {
+        return chunkSendScheduler;
+    }
+
     //Revising later...
     public Config getConfig() {
         return this.config;
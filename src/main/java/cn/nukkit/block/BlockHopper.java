@@ -122,7 +122,7 @@ public class BlockHopper extends BlockTransparentMeta implements Faceable {
 
     @Override
     public int onUpdate(int type) {
-        if (type == Level.BLOCK_UPDATE_NORMAL) {
+        if (type == Level.BLOCK_UPDATE_NORMAL || type == Level.BLOCK_UPDATE_REDSTONE) {
             boolean powered = this.level.isBlockPowered(this.getLocation());
 
             if (powered == this.isEnabled()) {
@@ -130,6 +130,12 @@ public class BlockHopper extends BlockTransparentMeta implements Faceable {
                 this.level.setBlock(this, this, true, false);
             }
 
+            // Sleeping hoppers look again at their neighbours and their lock
+            BlockEntity blockEntity = this.level.getBlockEntity(this);
+            if (blockEntity instanceof BlockEntityHopper) {
+                blockEntity.scheduleUpdate();
+            }
+
             return type;
         }
 
@@ -194,7 +194,7 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
     public int onUpdate(int type) {
         if (type == Level.BLOCK_UPDATE_NORMAL) {
             this.checkForHarden();
-            this.level.scheduleUpdate(this, this.tickRate());
+            this.level.scheduleLiquidUpdate(this, this.tickRate());
             return 0;
         } else if (type == Level.BLOCK_UPDATE_SCHEDULED) {
             int decay = this.getFlowDecay(this);
@@ -202,20 +202,20 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
             if (decay > 0) {
                 int smallestFlowDecay = -100;
                 this.adjacentSources = 0;
-                smallestFlowDecay = this.getSmallestFlowDecay(this.level.getBlock((int) this.x, (int) this.y, (int) this.z - 1), smallestFlowDecay);
-                smallestFlowDecay = this.getSmallestFlowDecay(this.level.getBlock((int) this.x, (int) this.y, (int) this.z + 1), smallestFlowDecay);
-                smallestFlowDecay = this.getSmallestFlowDecay(this.level.getBlock((int) this.x - 1, (int) this.y, (int) this.z), smallestFlowDecay);
-                smallestFlowDecay = this.getSmallestFlowDecay(this.level.getBlock((int) this.x + 1, (int) this.y, (int) this.z), smallestFlowDecay);
+                smallestFlowDecay = this.getSmallestFlowDecay(this.peek((int) this.x, (int) this.y, (int) this.z - 1), smallestFlowDecay);
+                smallestFlowDecay = this.getSmallestFlowDecay(this.peek((int) this.x, (int) this.y, (int) this.z + 1), smallestFlowDecay);
+                smallestFlowDecay = this.getSmallestFlowDecay(this.peek((int) this.x - 1, (int) this.y, (int) this.z), smallestFlowDecay);
+                smallestFlowDecay = this.getSmallestFlowDecay(this.peek((int) this.x + 1, (int) this.y, (int) this.z), smallestFlowDecay);
                 int newDecay = smallestFlowDecay + multiplier;
                 if (newDecay >= 8 || smallestFlowDecay < 0) {
                     newDecay = -1;
                 }
-                int topFlowDecay = this.getFlowDecay(this.level.getBlock((int) this.x, (int) this.y + 1, (int) this.z));
+                int topFlowDecay = this.getFlowDecay(this.peek((int) this.x, (int) this.y + 1, (int) this.z));
                 if (topFlowDecay >= 0) {
                     newDecay = topFlowDecay | 0x08;
                 }
                 if (this.adjacentSources >= 2 && this instanceof BlockWater) {
-                    Block bottomBlock = this.level.getBlock((int) this.x, (int) this.y - 1, (int) this.z);
+                    Block bottomBlock = this.peek((int) this.x, (int) this.y - 1, (int) this.z);
                     if (bottomBlock.isSolid()) {
                         newDecay = 0;
                     } else if (bottomBlock instanceof BlockWater && bottomBlock.getDamage() == 0) {
@@ -236,14 +236,14 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
                     if (!event.isCancelled()) {
                         this.level.setBlock(this, event.getTo(), true, true);
                         if (!decayed) {
-                            this.level.scheduleUpdate(this, this.tickRate());
+                            this.level.scheduleLiquidUpdate(this, this.tickRate());
                         }
                     }
                 }
             }
             if (decay >= 0) {
-                Block bottomBlock = this.level.getBlock((int) this.x, (int) this.y - 1, (int) this.z);
-                this.flowIntoBlock(bottomBlock, decay | 0x08);
+                Block bottomBlock = this.peek((int) this.x, (int) this.y - 1, (int) this.z);
+                this.flowIntoBlock((int) this.x, (int) this.y - 1, (int) this.z, bottomBlock, decay | 0x08);
                 if (decay == 0 || !bottomBlock.canBeFlowedInto()) {
                     int adjacentDecay;
                     if (decay >= 8) {
@@ -254,16 +254,16 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
                     if (adjacentDecay < 8) {
                         boolean[] flags = this.getOptimalFlowDirections();
                         if (flags[0]) {
-                            this.flowIntoBlock(this.level.getBlock((int) this.x - 1, (int) this.y, (int) this.z), adjacentDecay);
+                            this.flowIntoBlock((int) this.x - 1, (int) this.y, (int) this.z, adjacentDecay);
                         }
                         if (flags[1]) {
-                            this.flowIntoBlock(this.level.getBlock((int) this.x + 1, (int) this.y, (int) this.z), adjacentDecay);
+                            this.flowIntoBlock((int) this.x + 1, (int) this.y, (int) this.z, adjacentDecay);
                         }
                         if (flags[2]) {
-                            this.flowIntoBlock(this.level.getBlock((int) this.x, (int) this.y, (int) this.z - 1), adjacentDecay);
+                            this.flowIntoBlock((int) this.x, (int) this.y, (int) this.z - 1, adjacentDecay);
                         }
                         if (flags[3]) {
-                            this.flowIntoBlock(this.level.getBlock((int) this.x, (int) this.y, (int) this.z + 1), adjacentDecay);
+                            this.flowIntoBlock((int) this.x, (int) this.y, (int) this.z + 1, adjacentDecay);
                         }
                     }
                 }
@@ -282,11 +282,31 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
                     this.level.useBreakOn(block, block.getId() == COBWEB ? Item.get(Item.WOODEN_SWORD) : null);
                 }
                 this.level.setBlock(block, getBlock(newFlowDecay), true, true);
-                this.level.scheduleUpdate(block, this.tickRate());
+                this.level.scheduleLiquidUpdate(block, this.tickRate());
             }
         }
     }
 
+    private void flowIntoBlock(int x, int y, int z, int newFlowDecay) {
+        this.flowIntoBlock(x, y, z, this.peek(x, y, z), newFlowDecay);
+    }
+
+    /**
+     * Only creates the block at the position when the liquid may flow into it or react with it.
+     */
+    private void flowIntoBlock(int x, int y, int z, Block block, int newFlowDecay) {
+        if (block instanceof BlockLiquid || this.canFlowInto(block)) {
+            this.flowIntoBlock(this.level.getBlock(x, y, z), newFlowDecay);
+        }
+    }
+
+    /**
+     * @return the shared instance of the block at the position, only to be read from
+     */
+    private Block peek(int x, int y, int z) {
+        return Block.fullList[this.level.getFullBlock(x, y, z)];
+    }
+
     private int calculateFlowCost(int blockX, int blockY, int blockZ, int accumulatedCost, int maxCost, int originOpposite, int lastOpposite) {
         int cost = 1000;
         for (int j = 0; j < 4; ++j) {
@@ -307,10 +327,10 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
             }
             long hash = Level.blockHash(x, y, z);
             if (!this.flowCostVisited.containsKey(hash)) {
-                Block blockSide = this.level.getBlock(x, y, z);
+                Block blockSide = this.peek(x, y, z);
                 if (!this.canFlowInto(blockSide)) {
                     this.flowCostVisited.put(hash, BLOCKED);
-                } else if (this.level.getBlock(x, y - 1, z).canBeFlowedInto()) {
+                } else if (this.peek(x, y - 1, z).canBeFlowedInto()) {
                     this.flowCostVisited.put(hash, CAN_FLOW_DOWN);
                 } else {
                     this.flowCostVisited.put(hash, CAN_FLOW);
@@ -364,10 +384,10 @@ public abstract class BlockLiquid extends BlockTransparentMeta {
             } else {
                 ++z;
             }
-            Block block = this.level.getBlock(x, y, z);
+            Block block = this.peek(x, y, z);
             if (!this.canFlowInto(block)) {
                 this.flowCostVisited.put(Level.blockHash(x, y, z), BLOCKED);
-            } else if (this.level.getBlock(x, y - 1, z).canBeFlowedInto()) {
+            } else if (this.peek(x, y - 1, z).canBeFlowedInto()) {
                 this.flowCostVisited.put(Level.blockHash(x, y, z), CAN_FLOW_DOWN);
                 flowCost[j] = maxCost = 0;
             } else if (maxCost > 0) {
@@ -1,7 +1,6 @@
 package cn.nukkit.block;
 
 import cn.nukkit.Player;
-import cn.nukkit.event.block.BlockRedstoneEvent;
 import cn.nukkit.event.redstone.RedstoneUpdateEvent;
 import cn.nukkit.item.Item;
 import cn.nukkit.item.ItemRedstone;
@@ -12,8 +11,6 @@ import cn.nukkit.math.Vector3;
 import cn.nukkit.utils.BlockColor;
 
 import java.util.EnumSet;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * author: Angelic47
@@ -22,7 +19,6 @@ import java.util.Set;
 public class BlockRedstoneWire extends BlockFlowable {
 
     private boolean canProvidePower = true;
-    private final Set<Vector3> blocksNeedingUpdate = new HashSet<>();
 
     public BlockRedstoneWire() {
         this(0);
@@ -83,82 +79,7 @@ public class BlockRedstoneWire extends BlockFlowable {
     }
 
     private void updateSurroundingRedstone(boolean force) {
-        this.calculateCurrentChanges(force);
-    }
-
-    private void calculateCurrentChanges(boolean force) {
-        Vector3 pos = this.getLocation();
-
-        int meta = this.getDamage();
-        int maxStrength = meta;
-        this.canProvidePower = false;
-        int power = this.getIndirectPower();
-
-        this.canProvidePower = true;
-
-        if (power > 0 && power > maxStrength - 1) {
-            maxStrength = power;
-        }
-
-        int strength = 0;
-
-        for (BlockFace face : Plane.HORIZONTAL) {
-            Vector3 v = pos.getSide(face);
-
-            if (v.getX() == this.getX() && v.getZ() == this.getZ()) {
-                continue;
-            }
-
-
-            strength = this.getMaxCurrentStrength(v, strength);
-
-            boolean vNormal = this.level.getBlock(v).isNormalBlock();
-
-            if (vNormal && !this.level.getBlock(pos.up()).isNormalBlock()) {
-                strength = this.getMaxCurrentStrength(v.up(), strength);
-            } else if (!vNormal) {
-                strength = this.getMaxCurrentStrength(v.down(), strength);
-            }
-        }
-
-        if (strength > maxStrength) {
-            maxStrength = strength - 1;
-        } else if (maxStrength > 0) {
-            --maxStrength;
-        } else {
-            maxStrength = 0;
-        }
-
-        if (power > maxStrength - 1) {
-            maxStrength = power;
-        } else if (power < maxStrength && strength <= maxStrength) {
-            maxStrength = Math.max(power, strength - 1);
-        }
-
-        if (meta != maxStrength) {
-            this.level.getServer().getPluginManager().callEvent(new BlockRedstoneEvent(this, meta, maxStrength));
-
-            this.setDamage(maxStrength);
-            this.level.setBlock(this, this, false, false);
-
-            this.level.updateAroundRedstone(this, null);
-            for (BlockFace face : BlockFace.values0()) {
-                this.level.updateAroundRedstone(pos.getSide(face), face.getOpposite());
-            }
-        } else if (force) {
-            for (BlockFace face : BlockFace.values0()) {
-                this.level.updateAroundRedstone(pos.getSide(face), face.getOpposite());
-            }
-        }
-    }
-
-    private int getMaxCurrentStrength(Vector3 pos, int maxStrength) {
-        if (this.level.getBlockIdAt(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ()) != this.getId()) {
-            return maxStrength;
-        } else {
-            int strength = this.level.getBlockDataAt(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ());
-            return Math.max(strength, maxStrength);
-        }
+        this.level.getRedstoneWireEngine().update(this.getFloorX(), this.getFloorY(), this.getFloorZ(), force);
     }
 
     @Override
@@ -167,8 +88,6 @@ public class BlockRedstoneWire extends BlockFlowable {
 
         Vector3 pos = getLocation();
 
-        this.updateSurroundingRedstone(false);
-
         for (BlockFace blockFace : BlockFace.values()) {
             this.level.updateAroundRedstone(pos.getSide(blockFace), null);
         }
@@ -289,41 +208,4 @@ public class BlockRedstoneWire extends BlockFlowable {
     public boolean isPowerSource() {
         return this.canProvidePower;
     }
-
-    private int getIndirectPower() {
-        int power = 0;
-        Vector3 pos = getLocation();
-
-        for (BlockFace face : BlockFace.values()) {
-            int blockPower = this.getIndirectPower(pos.getSide(face), face);
-
-            if (blockPower >= 15) {
-                return 15;
-            }
-
-            if (blockPower > power) {
-                power = blockPower;
-            }
-        }
-
-        return power;
-    }
-
-    private int getIndirectPower(Vector3 pos, BlockFace face) {
-        Block block = this.level.getBlock(pos);
-        if (block.getId() == Block.REDSTONE_WIRE) {
-            return 0;
-        }
-        return block.isNormalBlock() ? getStrongPower(pos.getSide(face), face) : block.getWeakPower(face);
-    }
-
-    private int getStrongPower(Vector3 pos, BlockFace direction) {
-        Block block = this.level.getBlock(pos);
-
-        if (block.getId() == Block.REDSTONE_WIRE) {
-            return 0;
-        }
-
-        return block.getStrongPower(direction);
-    }
 }
@@ -34,7 +34,7 @@ public class BlockWater extends BlockLiquid {
     @Override
     public boolean place(Item item, Block block, Block target, BlockFace face, double fx, double fy, double fz, Player player) {
         boolean ret = this.getLevel().setBlock(this, this, true, false);
-        this.getLevel().scheduleUpdate(this, this.tickRate());
+        this.getLevel().scheduleLiquidUpdate(this, this.tickRate());
 
         return ret;
     }
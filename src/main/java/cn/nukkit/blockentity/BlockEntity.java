@@ -171,14 +171,29 @@ public abstract class BlockEntity extends Position {
 
     public abstract boolean isBlockEntityValid();
 
+    /**
+     * @return true to run again on the next tick, false to sleep until woken up by {@link #scheduleUpdate()} or
+     * the timer of {@link #scheduleUpdate(int)}
+     */
     public boolean onUpdate() {
         return false;
     }
 
+    /**
+     * Runs {@link #onUpdate()} on the next tick. Safe to call from any thread.
+     */
     public final void scheduleUpdate() {
         this.level.scheduleBlockEntityUpdate(this);
     }
 
+    /**
+     * Runs {@link #onUpdate()} in the given number of ticks, so cooldowns and timers sleep instead of being ticked.
+     * Must be called from the thread ticking the level.
+     */
+    public final void scheduleUpdate(int delay) {
+        this.level.scheduleBlockEntityUpdate(this, delay);
+    }
+
     public void close() {
         if (!this.closed) {
             this.closed = true;
@@ -63,14 +63,10 @@ public class BlockEntityBeacon extends BlockEntitySpawnable {
                 .putInt("Secondary", this.namedTag.getInt("Secondary"));
     }
 
-    private long currentTick = 0;
-
     @Override
     public boolean onUpdate() {
         //Only apply effects every 4 secs
-        if (currentTick++ % 80 != 0) {
-            return true;
-        }
+        this.scheduleUpdate(80);
 
         int oldPowerLevel = this.getPowerLevel();
         //Get the power level based on the pyramid
@@ -83,7 +79,7 @@ public class BlockEntityBeacon extends BlockEntitySpawnable {
                 this.getLevel().addSound(this, SoundEnum.BEACON_DEACTIVATE);
                 //this.getLevel().addLevelSoundEvent(this, LevelSoundEventPacket.SOUND_BEACON_DEACTIVATE);
             }
-            return true;
+            return false;
         } else if (oldPowerLevel < 1) {
             this.getLevel().addSound(this, SoundEnum.BEACON_ACTIVATE);
             //this.getLevel().addLevelSoundEvent(this, LevelSoundEventPacket.SOUND_BEACON_ACTIVATE);
@@ -147,7 +143,7 @@ public class BlockEntityBeacon extends BlockEntitySpawnable {
             }
         }
 
-        return true;
+        return false;
     }
 
     private static final int POWER_LEVEL_MAX = 4;
@@ -29,6 +29,9 @@ public class BlockEntityFurnace extends BlockEntitySpawnable implements Inventor
     protected int cookTime;
     protected int maxTime;
 
+    private long lastUpdateTick;
+    private boolean cookingAsleep;
+
     public BlockEntityFurnace(FullChunk chunk, CompoundTag nbt) {
         super(chunk, nbt);
     }
@@ -75,6 +78,7 @@ public class BlockEntityFurnace extends BlockEntitySpawnable implements Inventor
             this.namedTag.remove("BurnTicks");
         }
 
+        this.lastUpdateTick = this.level.getCurrentTick();
         if (burnTime > 0) {
             this.scheduleUpdate();
         }
@@ -224,7 +228,20 @@ public class BlockEntityFurnace extends BlockEntitySpawnable implements Inventor
 
         this.timing.startTiming();
 
+        // Ticks slept through while burning, only the fuel and the cooking progress moved then
+        long tick = this.level.getCurrentTick();
+        long skipped = tick - this.lastUpdateTick - 1;
+        this.lastUpdateTick = tick;
+        if (skipped > 0 && burnTime > 0) {
+            int ticks = (int) Math.min(skipped, burnTime - 1);
+            burnTime -= ticks;
+            if (this.cookingAsleep) {
+                cookTime = Math.min(199, cookTime + ticks);
+            }
+        }
+
         boolean ret = false;
+        boolean smelted = false;
         Item fuel = this.inventory.getFuel();
         Item raw = this.inventory.getSmelting();
         Item product = this.inventory.getResult();
@@ -242,6 +259,7 @@ public class BlockEntityFurnace extends BlockEntitySpawnable implements Inventor
             if (smelt != null && canSmelt) {
                 cookTime++;
                 if (cookTime >= 200) {
+                    smelted = true;
                     product = Item.get(smelt.getResult().getId(), smelt.getResult().getDamage(), product.getCount() + 1);
 
                     FurnaceSmeltEvent ev = new FurnaceSmeltEvent(this, raw, product);
@@ -274,6 +292,16 @@ public class BlockEntityFurnace extends BlockEntitySpawnable implements Inventor
             burnDuration = 0;
         }
 
+        if (ret && !smelted && this.inventory.getViewers().isEmpty()) {
+            // Nobody watches the progress bars, sleep until the fuel burns out or the item is done
+            int delay = canSmelt ? Math.min(burnTime, 200 - cookTime) : burnTime;
+            if (delay > 1) {
+                this.cookingAsleep = canSmelt;
+                this.scheduleUpdate(delay);
+                ret = false;
+            }
+        }
+
         for (Player player : this.getInventory().getViewers()) {
             int windowId = player.getWindowId(this.getInventory());
             if (windowId > 0) {
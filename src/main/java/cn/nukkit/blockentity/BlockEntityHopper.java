@@ -3,7 +3,6 @@ package cn.nukkit.blockentity;
 import cn.nukkit.Player;
 import cn.nukkit.block.Block;
 import cn.nukkit.block.BlockID;
-import cn.nukkit.entity.Entity;
 import cn.nukkit.entity.item.EntityItem;
 import cn.nukkit.event.inventory.InventoryMoveItemEvent;
 import cn.nukkit.inventory.*;
@@ -29,6 +28,8 @@ public class BlockEntityHopper extends BlockEntitySpawnable implements Inventory
     public int transferCooldown;
 
     private AxisAlignedBB pickupArea;
+    private boolean pickedUpItem;
+    private long lastUpdateTick;
 
     public BlockEntityHopper(FullChunk chunk, CompoundTag nbt) {
         super(chunk, nbt);
@@ -54,6 +55,7 @@ public class BlockEntityHopper extends BlockEntitySpawnable implements Inventory
 
         this.pickupArea = new SimpleAxisAlignedBB(this.x, this.y, this.z, this.x + 1, this.y + 2, this.z + 1);
 
+        this.lastUpdateTick = this.level.getCurrentTick();
         this.scheduleUpdate();
 
         super.initBlockEntity();
@@ -157,33 +159,41 @@ public class BlockEntityHopper extends BlockEntitySpawnable implements Inventory
             return false;
         }
 
-        this.transferCooldown--;
+        // The cooldown runs out while sleeping
+        long tick = this.level.getCurrentTick();
+        this.transferCooldown = (int) Math.max(0, this.transferCooldown - (tick - this.lastUpdateTick));
+        this.lastUpdateTick = tick;
 
         if (this.level.isBlockPowered(getBlock())) {
-            return true;
+            // Locked, the block wakes us up once the power goes away
+            return false;
         }
 
-        if (!this.isOnTransferCooldown()) {
-            BlockEntity blockEntity = this.level.getBlockEntity(this.up());
+        if (this.isOnTransferCooldown()) {
+            this.scheduleUpdate(this.transferCooldown);
+            return false;
+        }
 
-            boolean changed = pushItems();
+        BlockEntity blockEntity = this.level.getBlockEntity(this.up());
 
-            if (!changed) {
-                if (!(blockEntity instanceof BlockEntityContainer)) {
-                    changed = pickupItems();
-                } else {
-                    changed = pullItems();
-                }
-            }
+        boolean changed = pushItems();
 
-            if (changed) {
-                this.setTransferCooldown(8);
-                setDirty();
+        if (!changed) {
+            if (!(blockEntity instanceof BlockEntityContainer)) {
+                changed = pickupItems();
+            } else {
+                changed = pullItems();
             }
         }
 
+        if (changed) {
+            this.setTransferCooldown(8);
+            this.scheduleUpdate(8);
+            setDirty();
+        }
 
-        return true;
+        // Idle hoppers sleep until an inventory next to them changes or an item lands on them
+        return false;
     }
 
     public boolean pullItems() {
@@ -262,49 +272,49 @@ public class BlockEntityHopper extends BlockEntitySpawnable implements Inventory
             return false;
         }
 
-        boolean pickedUpItem = false;
+        this.pickedUpItem = false;
+        this.level.forEachNearbyEntity(this.pickupArea, null, EntityItem.class, this::pickupItem);
 
-        for (Entity entity : this.level.getCollidingEntities(this.pickupArea)) {
-            if (entity.isClosed() || !(entity instanceof EntityItem)) {
-                continue;
-            }
+        //TODO: check for minecart
+        return this.pickedUpItem;
+    }
 
-            EntityItem itemEntity = (EntityItem) entity;
-            Item item = itemEntity.getItem();
+    private void pickupItem(EntityItem itemEntity) {
+        if (itemEntity.isClosed()) {
+            return;
+        }
 
-            if (item.isNull()) {
-                continue;
-            }
+        Item item = itemEntity.getItem();
 
-            int originalCount = item.getCount();
+        if (item.isNull()) {
+            return;
+        }
 
-            if (!this.inventory.canAddItem(item)) {
-                continue;
-            }
+        int originalCount = item.getCount();
 
-            InventoryMoveItemEvent ev = new InventoryMoveItemEvent(null, this.inventory, this, item, InventoryMoveItemEvent.Action.PICKUP);
-            this.server.getPluginManager().callEvent(ev);
+        if (!this.inventory.canAddItem(item)) {
+            return;
+        }
 
-            if (ev.isCancelled()) {
-                continue;
-            }
+        InventoryMoveItemEvent ev = new InventoryMoveItemEvent(null, this.inventory, this, item, InventoryMoveItemEvent.Action.PICKUP);
+        this.server.getPluginManager().callEvent(ev);
 
-            Item[] items = this.inventory.addItem(item);
+        if (ev.isCancelled()) {
+            return;
+        }
 
-            if (items.length == 0) {
-                entity.close();
-                pickedUpItem = true;
-                continue;
-            }
+        Item[] items = this.inventory.addItem(item);
 
-            if (items[0].getCount() != originalCount) {
-                pickedUpItem = true;
-                item.setCount(items[0].getCount());
-            }
+        if (items.length == 0) {
+            itemEntity.close();
+            this.pickedUpItem = true;
+            return;
         }
 
-        //TODO: check for minecart
-        return pickedUpItem;
+        if (items[0].getCount() != originalCount) {
+            this.pickedUpItem = true;
+            item.setCount(items[0].getCount());
+        }
     }
 
     @Override
@@ -72,6 +72,8 @@ public class SimpleCommandMap implements CommandMap {
 //        if ((boolean) this.server.getConfig("debug.commands", false)) {
         this.register("nukkit", new StatusCommand("status"));
         this.register("nukkit", new GarbageCollectorCommand("gc"));
+        this.register("nukkit", new PreGenerateCommand("pregenerate"));
+        this.register("nukkit", new EntitiesCommand("entities"));
         this.register("nukkit", new TimingsCommand("timings"));
         //this.register("nukkit", new DumpMemoryCommand("dumpmemory"));
 //        }
@@ -0,0 +1,112 @@
+package cn.nukkit.command.defaults;
+
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.command.data.CommandParamType;
+import cn.nukkit.command.data.CommandParameter;
+import cn.nukkit.entity.Entity;
+import cn.nukkit.entity.item.EntityItem;
+import cn.nukkit.entity.item.EntityXPOrb;
+import cn.nukkit.lang.TranslationContainer;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.utils.TextFormat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lists the loaded chunks holding the most entities, to find farms that pile up items and experience orbs.
+ */
+public class EntitiesCommand extends VanillaCommand {
+
+    public EntitiesCommand(String name) {
+        super(name, "Lists the chunks with the most entities", "/entities [world] [count]");
+        this.setPermission("nukkit.command.entities");
+        this.commandParameters.clear();
+        this.commandParameters.put("default", new CommandParameter[]{
+                new CommandParameter("world", CommandParamType.STRING, true),
+                new CommandParameter("count", CommandParamType.INT, true)
+        });
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!this.testPermission(sender)) {
+            return true;
+        }
+
+        Collection<Level> levels = sender.getServer().getLevels().values();
+        int count = 10;
+        try {
+            if (args.length > 0) {
+                Level level = sender.getServer().getLevelByName(args[0]);
+                if (level == null) {
+                    sender.sendMessage(TextFormat.RED + "World " + args[0] + " is not loaded");
+                    return true;
+                }
+                levels = Collections.singletonList(level);
+            }
+            if (args.length > 1) {
+                count = Math.max(1, Integer.parseInt(args[1]));
+            }
+        } catch (NumberFormatException e) {
+            sender.sendMessage(new TranslationContainer("commands.generic.usage", this.usageMessage));
+            return true;
+        }
+
+        List<ChunkCount> counts = new ArrayList<>();
+        int total = 0;
+        for (Level level : levels) {
+            for (BaseFullChunk chunk : level.getChunks().values()) {
+                if (chunk.getEntities().isEmpty()) {
+                    continue;
+                }
+                ChunkCount chunkCount = new ChunkCount(level, chunk);
+                for (Entity entity : chunk.getEntities().values()) {
+                    if (entity instanceof EntityItem) {
+                        chunkCount.items++;
+                    } else if (entity instanceof EntityXPOrb) {
+                        chunkCount.orbs++;
+                    }
+                }
+                total += chunkCount.entities;
+                counts.add(chunkCount);
+            }
+        }
+        counts.sort((a, b) -> Integer.compare(b.entities, a.entities));
+
+        sender.sendMessage(TextFormat.GREEN + "---- " + TextFormat.WHITE + total + " entities in " + counts.size() + " chunks" + TextFormat.GREEN + " ----");
+        for (int i = 0; i < count && i < counts.size(); i++) {
+            ChunkCount chunkCount = counts.get(i);
+            sender.sendMessage(TextFormat.GOLD + chunkCount.level.getName() + " " + (chunkCount.x << 4) + ", " + (chunkCount.z << 4) + ": " +
+                    TextFormat.RED + chunkCount.entities + TextFormat.GOLD + " entities, " +
+                    TextFormat.RED + chunkCount.items + TextFormat.GOLD + " items, " +
+                    TextFormat.RED + chunkCount.orbs + TextFormat.GOLD + " xp orbs");
+        }
+        for (Level level : levels) {
+            sender.sendMessage(TextFormat.GOLD + level.getName() + ": " +
+                    TextFormat.RED + level.getEntityMerger().getMerged() + TextFormat.GOLD + " merged, " +
+                    TextFormat.RED + level.getEntityMerger().getDespawned() + TextFormat.GOLD + " despawned over the chunk item limit");
+        }
+        return true;
+    }
+
+    private static class ChunkCount {
+
+        private final Level level;
+        private final int x;
+        private final int z;
+        private final int entities;
+        private int items;
+        private int orbs;
+
+        private ChunkCount(Level level, BaseFullChunk chunk) {
+            this.level = level;
+            this.x = chunk.getX();
+            this.z = chunk.getZ();
+            this.entities = chunk.getEntities().size();
+        }
+    }
+}
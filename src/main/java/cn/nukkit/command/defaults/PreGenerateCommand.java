@@ -0,0 +1,98 @@
+package cn.nukkit.command.defaults;
+
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.command.data.CommandParamType;
+import cn.nukkit.command.data.CommandParameter;
+import cn.nukkit.lang.TranslationContainer;
+import cn.nukkit.level.generator.PreGenerator;
+import cn.nukkit.utils.TextFormat;
+
+/**
+ * Pre-generates an area of a world that is not loaded, see {@link PreGenerator}.
+ */
+public class PreGenerateCommand extends VanillaCommand {
+
+    private PreGenerator job;
+
+    public PreGenerateCommand(String name) {
+        super(name, "Pre-generates an area of a world that is not loaded", "/pregenerate <world> <radius> | <world> <x1> <z1> <x2> <z2> | cancel");
+        this.setPermission("nukkit.command.pregenerate");
+        this.commandParameters.clear();
+        this.commandParameters.put("radius", new CommandParameter[]{
+                new CommandParameter("world", CommandParamType.STRING, false),
+                new CommandParameter("radius", CommandParamType.INT, false)
+        });
+        this.commandParameters.put("area", new CommandParameter[]{
+                new CommandParameter("world", CommandParamType.STRING, false),
+                new CommandParameter("x1", CommandParamType.INT, false),
+                new CommandParameter("z1", CommandParamType.INT, false),
+                new CommandParameter("x2", CommandParamType.INT, false),
+                new CommandParameter("z2", CommandParamType.INT, false)
+        });
+        this.commandParameters.put("cancel", new CommandParameter[]{
+                new CommandParameter("cancel", new String[]{"cancel"})
+        });
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+        if (!this.testPermission(sender)) {
+            return true;
+        }
+
+        if (args.length == 1 && args[0].equalsIgnoreCase("cancel")) {
+            if (this.job == null || !this.job.isRunning()) {
+                sender.sendMessage(TextFormat.RED + "No pre-generation is running");
+            } else {
+                this.job.cancel();
+                sender.sendMessage("Pre-generation of " + this.job.getName() + " will stop after the current region");
+            }
+            return true;
+        }
+
+        if (args.length != 2 && args.length != 5) {
+            sender.sendMessage(new TranslationContainer("commands.generic.usage", this.usageMessage));
+            return true;
+        }
+        if (this.job != null && this.job.isRunning()) {
+            sender.sendMessage(TextFormat.RED + "Pre-generation of " + this.job.getName() + " is still running");
+            return true;
+        }
+        if (sender.getServer().getLevelByName(args[0]) != null) {
+            sender.sendMessage(TextFormat.RED + "World " + args[0] + " is loaded, unload it before pre-generating it");
+            return true;
+        }
+
+        PreGenerator job;
+        try {
+            job = new PreGenerator(sender.getServer(), args[0]);
+        } catch (Exception e) {
+            sender.sendMessage(TextFormat.RED + "Unable to pre-generate " + args[0] + ": " + e.getMessage());
+            return true;
+        }
+
+        int x1, z1, x2, z2;
+        try {
+            if (args.length == 2) {
+                int radius = Math.abs(Integer.parseInt(args[1]));
+                x1 = job.getSpawnX() - radius;
+                z1 = job.getSpawnZ() - radius;
+                x2 = job.getSpawnX() + radius;
+                z2 = job.getSpawnZ() + radius;
+            } else {
+                x1 = Integer.parseInt(args[1]);
+                z1 = Integer.parseInt(args[2]);
+                x2 = Integer.parseInt(args[3]);
+                z2 = Integer.parseInt(args[4]);
+            }
+        } catch (NumberFormatException e) {
+            sender.sendMessage(new TranslationContainer("commands.generic.usage", this.usageMessage));
+            return true;
+        }
+
+        this.job = job;
+        job.start(x1 >> 4, z1 >> 4, x2 >> 4, z2 >> 4);
+        sender.sendMessage("Pre-generating " + args[0] + " from " + x1 + ", " + z1 + " to " + x2 + ", " + z2 + ", progress is reported in the console");
+        return true;
+    }
+}
@@ -95,7 +95,9 @@ public class StatusCommand extends VanillaCommand {
                             TextFormat.RED + level.getEntities().length + TextFormat.GREEN + " entities, " +
                             TextFormat.RED + level.getBlockEntities().size() + TextFormat.GREEN + " blockEntities." +
                             " Time " + ((level.getTickRate() > 1 || level.getTickRateTime() > 40) ? TextFormat.RED : TextFormat.YELLOW) + NukkitMath.round(level.getTickRateTime(), 2) + "ms" +
-                            (level.getTickRate() > 1 ? " (tick rate " + level.getTickRate() + ")" : "")
+                            (level.getTickRate() > 1 ? " (tick rate " + level.getTickRate() + ")" : "") +
+                            (level.getSaveLag() > 0 ? TextFormat.GREEN + " Saving " + TextFormat.RED + level.getChunksPendingSave() + TextFormat.GREEN + " chunks for " + TextFormat.YELLOW + level.getSaveLag() + "ms" : "") +
+                            (level.getChunkSaveFailures() > 0 ? TextFormat.RED + " " + level.getChunkSaveFailures() + " failed chunk writes" : "")
             );
         }
 
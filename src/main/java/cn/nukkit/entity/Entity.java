@@ -15,6 +15,7 @@ import cn.nukkit.event.player.PlayerInteractEvent;
 import cn.nukkit.event.player.PlayerInteractEvent.Action;
 import cn.nukkit.event.player.PlayerTeleportEvent;
 import cn.nukkit.item.Item;
+import cn.nukkit.level.EntityTracker;
 import cn.nukkit.level.Level;
 import cn.nukkit.level.Location;
 import cn.nukkit.level.Position;
@@ -247,6 +248,12 @@ public abstract class Entity extends Location implements Metadatable {
 
     protected long id;
 
+    /**
+     * Data properties changed since they were last sent, one bit per property id.
+     */
+    private final long[] dirtyData = new long[2];
+    private boolean dataUpdateQueued;
+
     protected final EntityMetadata dataProperties = new EntityMetadata()
             .putLong(DATA_FLAGS, 0)
             .putByte(DATA_COLOR, 0)
@@ -435,7 +442,7 @@ public abstract class Entity extends Location implements Metadatable {
         this.isPlayer = this instanceof Player;
         this.temporalVector = new Vector3();
 
-        this.id = Entity.entityCount++;
+        this.id = Entity.nextEntityId();
         this.justCreated = true;
         this.namedTag = nbt;
 
@@ -737,21 +744,17 @@ public abstract class Entity extends Location implements Metadatable {
         double radius = (this.getWidth() * this.scale) / 2d;
         this.boundingBox.setBounds(x - radius, y, z - radius, x + radius, y + height, z + radius);
 
-        EntityMetadata metadata = new EntityMetadata();
-
         if (this.getHeight() > 0) {
-            FloatEntityData bbH = new FloatEntityData(DATA_BOUNDING_BOX_HEIGHT, this.getHeight());
-            this.dataProperties.put(bbH);
-            metadata.put(bbH);
+            this.dataProperties.put(new FloatEntityData(DATA_BOUNDING_BOX_HEIGHT, this.getHeight()));
+            if (send) {
+                this.markDataDirty(DATA_BOUNDING_BOX_HEIGHT);
+            }
         }
         if (this.getWidth() > 0) {
-            FloatEntityData bbW = new FloatEntityData(DATA_BOUNDING_BOX_WIDTH, this.getWidth());
-            this.dataProperties.put(bbW);
-            metadata.put(bbW);
-        }
-
-        if (send && !metadata.isEmpty()) {
-            sendData(this.hasSpawned.values().toArray(new Player[0]), metadata);
+            this.dataProperties.put(new FloatEntityData(DATA_BOUNDING_BOX_WIDTH, this.getWidth()));
+            if (send) {
+                this.markDataDirty(DATA_BOUNDING_BOX_WIDTH);
+            }
         }
     }
 
@@ -930,6 +933,7 @@ public abstract class Entity extends Location implements Metadatable {
     public void spawnTo(Player player) {
         if (!this.hasSpawned.containsKey(player.getLoaderId()) && player.usedChunks.containsKey(Level.chunkHash(this.chunk.getX(), this.chunk.getZ()))) {
             this.hasSpawned.put(player.getLoaderId(), player);
+            this.level.getEntityTracker().resetViewer(this, player);
         }
         /*
         if (this.riding != null) {
@@ -995,15 +999,22 @@ public abstract class Entity extends Location implements Metadatable {
     }
 
     public void sendData(Player[] players, EntityMetadata data) {
+        this.sendData(Arrays.asList(players), data);
+    }
+
+    /**
+     * Sends the metadata to the players and, for a player, to itself. The packet is encoded once for everyone.
+     */
+    public void sendData(Collection<Player> players, EntityMetadata data) {
         SetEntityDataPacket pk = new SetEntityDataPacket();
         pk.eid = this.getId();
         pk.metadata = data == null ? this.dataProperties : data;
+        pk.tryEncode();
 
         for (Player player : players) {
-            if (player == this) {
-                continue;
+            if (player != this) {
+                player.dataPacket(pk);
             }
-            player.dataPacket(pk.clone());
         }
         if (this instanceof Player) {
             ((Player) this).dataPacket(pk);
@@ -1016,6 +1027,7 @@ public abstract class Entity extends Location implements Metadatable {
             pk.eid = this.getId();
             player.dataPacket(pk);
             this.hasSpawned.remove(player.getLoaderId());
+            this.level.getEntityTracker().resetViewer(this, player);
         }
     }
 
@@ -1312,7 +1324,17 @@ public abstract class Entity extends Location implements Metadatable {
         }
     }
 
+    /**
+     * Queues a movement for the viewers, see {@link cn.nukkit.level.EntityTracker}.
+     */
     public void addMovement(double x, double y, double z, double yaw, double pitch, double headYaw) {
+        this.level.getEntityTracker().addMovement(this, x, y, z, yaw, pitch, headYaw);
+    }
+
+    /**
+     * Sends a movement to the given viewers right away.
+     */
+    public void sendMovement(Collection<Player> viewers, double x, double y, double z, double yaw, double pitch, double headYaw) {
         MoveEntityPacket pk = new MoveEntityPacket();
         pk.eid = this.getId();
         pk.x = (float) x;
@@ -1322,19 +1344,19 @@ public abstract class Entity extends Location implements Metadatable {
         pk.headYaw = (float) yaw;
         pk.pitch = (float) pitch;
         pk.setChannel(DataPacket.CHANNEL_MOVING);
-        Server.broadcastPacket(this.getViewers().values(), pk);
-        //this.level.addEntityMovement(this.chunk.getX(), this.chunk.getZ(), this.id, x, y, z, yaw, pitch, headYaw);
+        Server.broadcastPacket(viewers, pk);
     }
 
     public void addMotion(double motionX, double motionY, double motionZ) {
-        int chunkX = this.getFloorX() >> 4;
-        int chunkZ = this.getFloorZ() >> 4;
         SetEntityMotionPacket pk = new SetEntityMotionPacket();
         pk.eid = this.getId();
         pk.motionX = (float) motionX;
         pk.motionY = (float) motionY;
         pk.motionZ = (float) motionZ;
-        this.level.addChunkPacket(chunkX, chunkZ, pk);
+        Server.broadcastPacket(this.getViewers().values(), pk);
+        if (this instanceof Player) {
+            ((Player) this).dataPacket(pk);
+        }
     }
 
     public Vector3 getDirectionVector() {
@@ -1649,6 +1671,10 @@ public abstract class Entity extends Location implements Metadatable {
 
     public boolean isInsideOfWater(boolean eyeHeight) {
         double y = eyeHeight ? (this.y + this.getEyeHeight()) : this.y;
+        int id = this.level.getBlockIdAt(NukkitMath.floorDouble(this.x), NukkitMath.floorDouble(y), NukkitMath.floorDouble(this.z), true);
+        if (id != Block.WATER && id != Block.STILL_WATER) {
+            return false;
+        }
         Block block = this.level.getBlock(this.temporalVector.setComponents(NukkitMath.floorDouble(this.x), NukkitMath.floorDouble(y), NukkitMath.floorDouble(this.z)));
 
         if (block instanceof BlockWater) {
@@ -1661,6 +1687,10 @@ public abstract class Entity extends Location implements Metadatable {
 
     public boolean isInsideOfSolid() {
         double y = this.y + this.getEyeHeight();
+        // Checked on the shared block instance first so the common case doesn't clone a block
+        if (!Block.fullList[this.level.getFullBlock(NukkitMath.floorDouble(this.x), NukkitMath.floorDouble(y), NukkitMath.floorDouble(this.z), true)].isSolid()) {
+            return false;
+        }
         Block block = this.level.getBlock(
                 this.temporalVector.setComponents(
                         NukkitMath.floorDouble(this.x),
@@ -1945,6 +1975,7 @@ public abstract class Entity extends Location implements Metadatable {
     }
 
     protected void checkChunks() {
+        this.level.updateEntityIndex(this);
         if (this.chunk == null || (this.chunk.getX() != ((int) this.x >> 4)) || this.chunk.getZ() != ((int) this.z >> 4)) {
             if (this.chunk != null) {
                 this.chunk.removeEntity(this);
@@ -1961,8 +1992,11 @@ public abstract class Entity extends Location implements Metadatable {
                     }
                 }
 
+                EntityTracker tracker = this.level.getEntityTracker();
                 for (Player player : newChunk.values()) {
-                    this.spawnTo(player);
+                    if (tracker.isInRange(this, player)) {
+                        this.spawnTo(player);
+                    }
                 }
             }
 
@@ -2049,7 +2083,15 @@ public abstract class Entity extends Location implements Metadatable {
         return this.teleport(location, PlayerTeleportEvent.TeleportCause.PLUGIN);
     }
 
+    /**
+     * @return whether the entity was moved. A move to another level while levels tick in parallel waits for the
+     * other levels, see {@link #isLevelChangePaused(Location)}
+     */
     public boolean teleport(Location location, PlayerTeleportEvent.TeleportCause cause) {
+        if (this.isLevelChangePaused(location)) {
+            return this.server.runWithLevelsPaused(() -> this.teleport(location, cause));
+        }
+
         double yaw = location.yaw;
         double pitch = location.pitch;
 
@@ -2080,6 +2122,21 @@ public abstract class Entity extends Location implements Metadatable {
         return false;
     }
 
+    /**
+     * Moving to another level touches both levels, which is not allowed while levels tick in parallel.
+     * In that case the teleport runs on the main thread once no other level is being ticked, and the level of
+     * the entity waits for it. Its events and result are the same as when levels tick one by one.
+     *
+     * @return true if the teleport has to wait for the other levels
+     */
+    protected boolean isLevelChangePaused(Location location) {
+        return location.level != null && location.level != this.level && this.server.isLevelTickThread();
+    }
+
+    private static synchronized long nextEntityId() {
+        return entityCount++;
+    }
+
     public long getId() {
         return this.id;
     }
@@ -2096,8 +2153,9 @@ public abstract class Entity extends Location implements Metadatable {
             return;
         }
 
+        EntityTracker tracker = this.level.getEntityTracker();
         for (Player player : this.level.getChunkPlayers(this.chunk.getX(), this.chunk.getZ()).values()) {
-            if (player.isOnline()) {
+            if (player.isOnline() && tracker.isInRange(this, player)) {
                 this.spawnTo(player);
             }
         }
@@ -2132,13 +2190,55 @@ public abstract class Entity extends Location implements Metadatable {
         if (!Objects.equals(data, this.getDataProperties().get(data.getId()))) {
             this.getDataProperties().put(data);
             if (send) {
-                this.sendData(this.hasSpawned.values().toArray(new Player[0]), new EntityMetadata().put(this.dataProperties.get(data.getId())));
+                this.markDataDirty(data.getId());
             }
             return true;
         }
         return false;
     }
 
+    /**
+     * Marks a data property as changed. All the properties of the entity changed during a tick are sent to the
+     * viewers together at the end of the tick, see {@link #sendDirtyData()}.
+     */
+    protected void markDataDirty(int id) {
+        if (id < 0 || id >= this.dirtyData.length * 64) {
+            this.sendData(this.hasSpawned.values(), new EntityMetadata().put(this.dataProperties.get(id)));
+            return;
+        }
+        this.dirtyData[id >> 6] |= 1L << id;
+        if (!this.dataUpdateQueued && this.level != null) {
+            this.dataUpdateQueued = true;
+            this.level.getEntityTracker().addDataUpdate(this);
+        }
+    }
+
+    /**
+     * Sends the data properties changed since the last call in a single packet, called by the entity tracker.
+     */
+    public void sendDirtyData() {
+        this.dataUpdateQueued = false;
+        EntityMetadata metadata = null;
+        for (int i = 0; i < this.dirtyData.length; i++) {
+            long dirty = this.dirtyData[i];
+            this.dirtyData[i] = 0;
+            while (dirty != 0) {
+                int id = (i << 6) + Long.numberOfTrailingZeros(dirty);
+                dirty &= dirty - 1;
+                EntityData data = this.dataProperties.get(id);
+                if (data != null) {
+                    if (metadata == null) {
+                        metadata = new EntityMetadata();
+                    }
+                    metadata.put(data);
+                }
+            }
+        }
+        if (metadata != null && !this.closed) {
+            this.sendData(this.hasSpawned.values(), metadata);
+        }
+    }
+
     public EntityMetadata getDataProperties() {
         return this.dataProperties;
     }
@@ -2202,9 +2302,18 @@ public abstract class Entity extends Location implements Metadatable {
                 flags ^= 1 << id;
                 this.setDataProperty(new ByteEntityData(propertyId, flags), send);
             } else {
-                long flags = this.getDataPropertyLong(propertyId);
-                flags ^= 1L << id;
-                this.setDataProperty(new LongEntityData(propertyId, flags), send);
+                EntityData data = this.dataProperties.get(propertyId);
+                if (data instanceof LongEntityData) {
+                    // Flip the bit in place instead of replacing the holder on every change
+                    ((LongEntityData) data).data ^= 1L << id;
+                    if (send) {
+                        this.markDataDirty(propertyId);
+                    }
+                } else {
+                    long flags = this.getDataPropertyLong(propertyId);
+                    flags ^= 1L << id;
+                    this.setDataProperty(new LongEntityData(propertyId, flags), send);
+                }
             }
 
         }
@@ -291,11 +291,8 @@ public abstract class EntityLiving extends Entity implements EntityDamageable {
             this.attackTime -= tickDiff;
         }
         if (this.riding == null && this.needCollidingWithRideable) {
-            for (Entity entity : level.getNearbyEntities(this.boundingBox.grow(0.20000000298023224D, 0.0D, 0.20000000298023224D), this)) {
-                if (entity instanceof EntityRideable) {
-                    this.collidingWith(entity);
-                }
-            }
+            level.forEachNearbyEntity(this.boundingBox.grow(0.20000000298023224D, 0.0D, 0.20000000298023224D), this, EntityRideable.class,
+                    entity -> this.collidingWith((Entity) entity));
         }
 
         Timings.livingEntityBaseTickTimer.stopTiming();
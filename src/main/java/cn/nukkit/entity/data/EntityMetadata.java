@@ -42,24 +42,46 @@ public class EntityMetadata {
         return this;
     }
 
+    // The primitive getters read the fields of the usual holders directly, without boxing or a default holder
+
     public int getByte(int id) {
-        return (int) this.getOrDefault(id, new ByteEntityData(id, 0)).getData() & 0xff;
+        EntityData data = this.map.get(id);
+        if (data instanceof ByteEntityData) {
+            return ((ByteEntityData) data).data & 0xff;
+        }
+        return data == null ? 0 : (int) data.getData() & 0xff;
     }
 
     public int getShort(int id) {
-        return (int) this.getOrDefault(id, new ShortEntityData(id, 0)).getData();
+        EntityData data = this.map.get(id);
+        if (data instanceof ShortEntityData) {
+            return ((ShortEntityData) data).data;
+        }
+        return data == null ? 0 : (int) data.getData();
     }
 
     public int getInt(int id) {
-        return (int) this.getOrDefault(id, new IntEntityData(id, 0)).getData();
+        EntityData data = this.map.get(id);
+        if (data instanceof IntEntityData) {
+            return ((IntEntityData) data).data;
+        }
+        return data == null ? 0 : (int) data.getData();
     }
 
     public long getLong(int id) {
-        return (Long) this.getOrDefault(id, new LongEntityData(id, 0)).getData();
+        EntityData data = this.map.get(id);
+        if (data instanceof LongEntityData) {
+            return ((LongEntityData) data).data;
+        }
+        return data == null ? 0 : (Long) data.getData();
     }
 
     public float getFloat(int id) {
-        return (float) this.getOrDefault(id, new FloatEntityData(id, 0)).getData();
+        EntityData data = this.map.get(id);
+        if (data instanceof FloatEntityData) {
+            return ((FloatEntityData) data).data;
+        }
+        return data == null ? 0 : (float) data.getData();
     }
 
     public boolean getBoolean(int id) {
@@ -2,6 +2,9 @@ package cn.nukkit.entity.item;
 
 import cn.nukkit.Player;
 import cn.nukkit.Server;
+import cn.nukkit.block.Block;
+import cn.nukkit.blockentity.BlockEntity;
+import cn.nukkit.blockentity.BlockEntityHopper;
 import cn.nukkit.entity.Entity;
 import cn.nukkit.event.entity.EntityDamageEvent;
 import cn.nukkit.event.entity.EntityDamageEvent.DamageCause;
@@ -9,6 +12,7 @@ import cn.nukkit.event.entity.ItemDespawnEvent;
 import cn.nukkit.event.entity.ItemSpawnEvent;
 import cn.nukkit.item.Item;
 import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.math.NukkitMath;
 import cn.nukkit.nbt.NBTIO;
 import cn.nukkit.nbt.tag.CompoundTag;
 import cn.nukkit.network.protocol.AddItemEntityPacket;
@@ -134,39 +138,6 @@ public class EntityItem extends Entity {
 
         this.timing.startTiming();
 
-        if (this.age % 60 == 0 && this.onGround && this.pickupDelay <= 0 && this.getItem() != null && this.isAlive()) {
-            if (this.getItem().getCount() < this.getItem().getMaxStackSize()) {
-                for (Entity entity : this.getLevel().getNearbyEntities(getBoundingBox().grow(1, 1, 1), this)) {
-                    if (entity instanceof EntityItem) {
-                        if (!entity.isAlive()) {
-                            continue;
-                        }
-                        if (!entity.isOnGround()) {
-                            continue;
-                        }
-                        if (((EntityItem) entity).pickupDelay > 0) {
-                            continue;
-                        }
-                        Item closeItem = ((EntityItem) entity).getItem();
-                        if (!closeItem.equals(getItem(), true, true)) {
-                            continue;
-                        }
-                        int newAmount = this.getItem().getCount() + closeItem.getCount();
-                        if (newAmount > this.getItem().getMaxStackSize()) {
-                            continue;
-                        }
-                        entity.close();
-                        this.getItem().setCount(newAmount);
-                        EntityEventPacket packet = new EntityEventPacket();
-                        packet.eid = getId();
-                        packet.data = newAmount;
-                        packet.event = EntityEventPacket.MERGE_ITEMS;
-                        Server.broadcastPacket(this.getViewers().values(), packet);
-                    }
-                }
-            }
-        }
-
         boolean hasUpdate = this.entityBaseTick(tickDiff);
 
         if (isInsideOfFire()) {
@@ -202,6 +173,7 @@ public class EntityItem extends Entity {
             }
 
             this.move(this.motionX, this.motionY, this.motionZ);
+            this.wakeHopper();
 
             double friction = 1 - this.getDrag();
 
@@ -236,6 +208,23 @@ public class EntityItem extends Entity {
         return hasUpdate || !this.onGround || Math.abs(this.motionX) > 0.00001 || Math.abs(this.motionY) > 0.00001 || Math.abs(this.motionZ) > 0.00001;
     }
 
+    /**
+     * Wakes up the hopper this item can be picked up by, idle hoppers do not look for items by themselves.
+     */
+    private void wakeHopper() {
+        int x = NukkitMath.floorDouble(this.x);
+        int y = NukkitMath.floorDouble(this.y);
+        int z = NukkitMath.floorDouble(this.z);
+        for (int hopperY = Math.min(y, 255); hopperY >= y - 1 && hopperY >= 0; hopperY--) {
+            if (this.level.getBlockIdAt(x, hopperY, z) == Block.HOPPER_BLOCK) {
+                BlockEntity blockEntity = this.level.getBlockEntity(this.temporalVector.setComponents(x, hopperY, z));
+                if (blockEntity instanceof BlockEntityHopper) {
+                    blockEntity.scheduleUpdate();
+                }
+            }
+        }
+    }
+
     @Override
     public void saveNBT() {
         super.saveNBT();
@@ -268,6 +257,48 @@ public class EntityItem extends Entity {
         this.respawnToAll();
     }
 
+    /**
+     * @return whether the item lies still and can be merged with other items
+     */
+    public boolean canMerge() {
+        return this.item != null && this.onGround && this.pickupDelay <= 0 && this.isAlive() && !this.closed
+                && this.item.getCount() < this.item.getMaxStackSize();
+    }
+
+    /**
+     * Adds the stack of another item entity to this one and closes it, if both stacks fit together. The viewers get
+     * the new count instead of a despawn and a respawn.
+     *
+     * @return true if the other item was merged into this one
+     */
+    public boolean tryMerge(EntityItem other) {
+        if (other == this || !this.canMerge() || !other.canMerge()) {
+            return false;
+        }
+        Item closeItem = other.getItem();
+        if (!closeItem.equals(this.item, true, true)) {
+            return false;
+        }
+        int newAmount = this.item.getCount() + closeItem.getCount();
+        if (newAmount > this.item.getMaxStackSize()) {
+            return false;
+        }
+        other.close();
+        this.item.setCount(newAmount);
+        this.age = Math.min(this.age, other.age);
+
+        EntityEventPacket packet = new EntityEventPacket();
+        packet.eid = this.getId();
+        packet.data = newAmount;
+        packet.event = EntityEventPacket.MERGE_ITEMS;
+        Server.broadcastPacket(this.getViewers().values(), packet);
+        return true;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
     @Override
     public boolean canCollideWith(Entity entity) {
         return false;
@@ -3,6 +3,7 @@ package cn.nukkit.entity.item;
 import cn.nukkit.Player;
 import cn.nukkit.entity.Entity;
 import cn.nukkit.entity.data.EntityMetadata;
+import cn.nukkit.entity.data.IntEntityData;
 import cn.nukkit.event.entity.EntityDamageEvent;
 import cn.nukkit.event.entity.EntityDamageEvent.DamageCause;
 import cn.nukkit.level.format.FullChunk;
@@ -219,6 +220,27 @@ public class EntityXPOrb extends Entity {
         this.exp = exp;
     }
 
+    /**
+     * Adds the experience of another orb to this one and closes it. The viewers get the new value as metadata
+     * instead of a despawn and a respawn.
+     *
+     * @return true if the other orb was merged into this one
+     */
+    public boolean tryMerge(EntityXPOrb other) {
+        if (other == this || this.closed || other.closed || !this.isAlive() || !other.isAlive()) {
+            return false;
+        }
+        int newExp = this.exp + other.exp;
+        if (newExp > Short.MAX_VALUE) { // Saved as a short
+            return false;
+        }
+        other.close();
+        this.exp = newExp;
+        this.age = Math.min(this.age, other.age);
+        this.setDataProperty(new IntEntityData(DATA_EXPERIENCE_VALUE, newExp));
+        return true;
+    }
+
     @Override
     public boolean canCollideWith(Entity entity) {
         return false;
@@ -2,6 +2,7 @@ package cn.nukkit.inventory;
 
 import cn.nukkit.Player;
 import cn.nukkit.blockentity.BlockEntityChest;
+import cn.nukkit.item.Item;
 import cn.nukkit.level.Level;
 import cn.nukkit.level.sound.SoundEnum;
 import cn.nukkit.network.protocol.BlockEventPacket;
@@ -60,4 +61,18 @@ public class ChestInventory extends ContainerInventory {
 
         super.onClose(who);
     }
+
+    @Override
+    public void onSlotChange(int index, Item before, boolean send) {
+        super.onSlotChange(index, before, send);
+
+        // Hoppers around the other half of a double chest work with this half too
+        BlockEntityChest chest = this.getHolder();
+        if (chest.isValid() && chest.isPaired()) {
+            BlockEntityChest pair = chest.getPair();
+            if (pair != null && pair.isValid()) {
+                chest.getLevel().scheduleBlockEntityUpdatesAround(pair);
+            }
+        }
+    }
 }
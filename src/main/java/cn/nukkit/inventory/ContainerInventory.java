@@ -1,6 +1,7 @@
 package cn.nukkit.inventory;
 
 import cn.nukkit.Player;
+import cn.nukkit.blockentity.BlockEntity;
 import cn.nukkit.entity.Entity;
 import cn.nukkit.item.Item;
 import cn.nukkit.math.NukkitMath;
@@ -54,6 +55,17 @@ public abstract class ContainerInventory extends BaseInventory {
         this.sendContents(who);
     }
 
+    @Override
+    public void onSlotChange(int index, Item before, boolean send) {
+        super.onSlotChange(index, before, send);
+
+        // Hoppers and furnaces sleep until the inventories they work with change
+        InventoryHolder holder = this.getHolder();
+        if (holder instanceof BlockEntity && ((BlockEntity) holder).isValid()) {
+            ((BlockEntity) holder).getLevel().scheduleBlockEntityUpdatesAround((BlockEntity) holder);
+        }
+    }
+
     @Override
     public void onClose(Player who) {
         ContainerClosePacket pk = new ContainerClosePacket();
@@ -1,5 +1,6 @@
 package cn.nukkit.inventory;
 
+import cn.nukkit.Player;
 import cn.nukkit.blockentity.BlockEntityFurnace;
 import cn.nukkit.item.Item;
 
@@ -48,4 +49,12 @@ public class FurnaceInventory extends ContainerInventory {
 
         this.getHolder().scheduleUpdate();
     }
+
+    @Override
+    public void onOpen(Player who) {
+        super.onOpen(who);
+
+        // Catches up a furnace sleeping while nobody watched its progress
+        this.getHolder().scheduleUpdate();
+    }
 }
@@ -0,0 +1,177 @@
+package cn.nukkit.level;
+
+import cn.nukkit.Server;
+import cn.nukkit.entity.Entity;
+import cn.nukkit.entity.item.EntityItem;
+import cn.nukkit.entity.item.EntityXPOrb;
+import cn.nukkit.event.entity.ItemDespawnEvent;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Merges item entities and experience orbs lying close to each other, and despawns the oldest items of chunks
+ * holding more items than allowed.
+ * <p>
+ * Every chunk is looked at once per interval, and the chunks are spread over the ticks of the interval, so farms do
+ * not make one tick pay for every item of the level. Idle items are merged too, even though they are not ticked.
+ * The level tells the merger about loaded and unloaded chunks, which it keeps in one bucket per tick of the interval.
+ */
+public class EntityMerger {
+
+    private static final Comparator<EntityItem> OLDEST_FIRST = (a, b) -> Integer.compare(b.getAge(), a.getAge());
+
+    private final Level level;
+
+    private final int interval;
+    private final double itemRadius;
+    private final double orbRadius;
+    private final int maxItemsPerChunk;
+
+    // Hashes of the loaded chunks by the tick of the interval they are looked at in
+    private final LongOpenHashSet[] slots;
+    private final LongArrayList due = new LongArrayList();
+
+    private final List<EntityItem> items = new ArrayList<>();
+    private final List<EntityXPOrb> orbs = new ArrayList<>();
+
+    private EntityItem itemTarget;
+    private EntityXPOrb orbTarget;
+    private final Consumer<EntityItem> mergeItem = item -> {
+        if (this.itemTarget.tryMerge(item)) {
+            this.merged++;
+        }
+    };
+    private final Consumer<EntityXPOrb> mergeOrb = orb -> {
+        if (this.orbTarget.tryMerge(orb)) {
+            this.merged++;
+        }
+    };
+
+    private int merged;
+    private int despawned;
+
+    public EntityMerger(Level level) {
+        this.level = level;
+        Server server = level.getServer();
+        this.interval = Math.max(0, server.getConfig("entity-merging.interval", 20));
+        this.itemRadius = server.<Number>getConfig("entity-merging.item-radius", 1).doubleValue();
+        this.orbRadius = server.<Number>getConfig("entity-merging.xp-orb-radius", 1).doubleValue();
+        this.maxItemsPerChunk = server.getConfig("entity-merging.max-items-per-chunk", 256);
+        this.slots = new LongOpenHashSet[this.interval];
+        for (int i = 0; i < this.interval; i++) {
+            this.slots[i] = new LongOpenHashSet();
+        }
+    }
+
+    private int getSlot(int chunkX, int chunkZ) {
+        return Math.floorMod(chunkX * 31 + chunkZ, this.interval);
+    }
+
+    public void addChunk(int chunkX, int chunkZ) {
+        if (this.interval != 0) {
+            this.slots[this.getSlot(chunkX, chunkZ)].add(Level.chunkHash(chunkX, chunkZ));
+        }
+    }
+
+    public void removeChunk(int chunkX, int chunkZ) {
+        if (this.interval != 0) {
+            this.slots[this.getSlot(chunkX, chunkZ)].remove(Level.chunkHash(chunkX, chunkZ));
+        }
+    }
+
+    public void tick(int currentTick) {
+        if (this.interval == 0) {
+            return;
+        }
+        // Copied, an item despawn listener may load or unload chunks
+        this.due.addAll(this.slots[currentTick % this.interval]);
+        try {
+            for (int i = 0; i < this.due.size(); i++) {
+                BaseFullChunk chunk = this.level.getChunks().get(this.due.getLong(i));
+                if (chunk != null) {
+                    this.processChunk(chunk);
+                }
+            }
+        } finally {
+            this.due.clear();
+        }
+    }
+
+    private void processChunk(BaseFullChunk chunk) {
+        if (chunk.getEntities().size() < 2) {
+            return;
+        }
+        for (Entity entity : chunk.getEntities().values()) {
+            if (entity.closed) {
+                continue;
+            }
+            if (entity instanceof EntityItem) {
+                this.items.add((EntityItem) entity);
+            } else if (entity instanceof EntityXPOrb) {
+                this.orbs.add((EntityXPOrb) entity);
+            }
+        }
+
+        try {
+            if (this.itemRadius > 0) {
+                for (EntityItem item : this.items) {
+                    if (item.canMerge()) {
+                        this.itemTarget = item;
+                        this.level.forEachNearbyEntity(item.getBoundingBox().grow(this.itemRadius, this.itemRadius, this.itemRadius), item, EntityItem.class, this.mergeItem);
+                    }
+                }
+            }
+            if (this.orbRadius > 0) {
+                for (EntityXPOrb orb : this.orbs) {
+                    if (!orb.closed) {
+                        this.orbTarget = orb;
+                        this.level.forEachNearbyEntity(orb.getBoundingBox().grow(this.orbRadius, this.orbRadius, this.orbRadius), orb, EntityXPOrb.class, this.mergeOrb);
+                    }
+                }
+            }
+
+            if (this.maxItemsPerChunk > 0) {
+                this.items.removeIf(item -> item.closed);
+                if (this.items.size() > this.maxItemsPerChunk) {
+                    this.items.sort(OLDEST_FIRST);
+                    int excess = this.items.size() - this.maxItemsPerChunk;
+                    for (int i = 0; i < this.items.size() && excess > 0; i++) {
+                        EntityItem item = this.items.get(i);
+                        ItemDespawnEvent ev = new ItemDespawnEvent(item);
+                        this.level.getServer().getPluginManager().callEvent(ev);
+                        if (!ev.isCancelled()) {
+                            item.close();
+                            this.despawned++;
+                            excess--;
+                        }
+                    }
+                }
+            }
+        } finally {
+            this.items.clear();
+            this.orbs.clear();
+            this.itemTarget = null;
+            this.orbTarget = null;
+        }
+    }
+
+    /**
+     * @return how many items and orbs were merged into others since the level was loaded
+     */
+    public int getMerged() {
+        return merged;
+    }
+
+    /**
+     * @return how many items were despawned because their chunk held too many
+     */
+    public int getDespawned() {
+        return despawned;
+    }
+}
@@ -0,0 +1,244 @@
+package cn.nukkit.level;
+
+import cn.nukkit.entity.Entity;
+import cn.nukkit.math.AxisAlignedBB;
+import cn.nukkit.math.NukkitMath;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Grid of 4x4x4 block cells holding the entities of a level, so range queries only look at the entities close to
+ * the queried box instead of every entity of the chunks around it.
+ * <p>
+ * An entity sits in the cell of the bottom centre of its bounding box. Queries are widened by the largest width
+ * and height seen so far, so an entity is found by every box its bounding box intersects. The index is only used
+ * from the thread ticking the level, like the rest of the level state.
+ */
+public class EntitySpatialIndex {
+
+    private static final int CELL_SHIFT = 2;
+
+    /**
+     * Smallest margin queries are widened by, covers entities whose bounding box grows after they were indexed
+     * until they move again.
+     */
+    private static final double MIN_HALF_WIDTH = 2;
+    private static final double MIN_HEIGHT = 3;
+
+    private final Long2ObjectMap<Cell> cells = new Long2ObjectOpenHashMap<>();
+    private final Long2LongMap entityCells = new Long2LongOpenHashMap();
+
+    private double maxHalfWidth = MIN_HALF_WIDTH;
+    private double maxHeight = MIN_HEIGHT;
+
+    // One buffer per nesting level, so consumers can run queries of their own
+    private Entity[][] buffers = new Entity[4][16];
+    private int depth;
+
+    public EntitySpatialIndex() {
+        this.entityCells.defaultReturnValue(Long.MIN_VALUE);
+    }
+
+    private static long cellKey(int x, int y, int z) {
+        return ((long) (x & 0x3ffffff) << 38) | ((long) (z & 0x3ffffff) << 12) | (Math.max(-2048, Math.min(2047, y)) & 0xfff);
+    }
+
+    private static long cellKey(AxisAlignedBB bb) {
+        return cellKey(
+                NukkitMath.floorDouble((bb.getMinX() + bb.getMaxX()) / 2) >> CELL_SHIFT,
+                NukkitMath.floorDouble(bb.getMinY()) >> CELL_SHIFT,
+                NukkitMath.floorDouble((bb.getMinZ() + bb.getMaxZ()) / 2) >> CELL_SHIFT);
+    }
+
+    public int size() {
+        return this.entityCells.size();
+    }
+
+    public void add(Entity entity) {
+        if (this.entityCells.containsKey(entity.getId())) {
+            this.update(entity);
+            return;
+        }
+        long key = cellKey(entity.boundingBox);
+        this.addToCell(key, entity);
+        this.entityCells.put(entity.getId(), key);
+        this.grow(entity.boundingBox);
+    }
+
+    public void remove(Entity entity) {
+        long key = this.entityCells.remove(entity.getId());
+        if (key != Long.MIN_VALUE) {
+            this.removeFromCell(key, entity);
+        }
+    }
+
+    /**
+     * Moves an entity to the cell of its current bounding box. Does nothing for entities that are not indexed.
+     */
+    public void update(Entity entity) {
+        long old = this.entityCells.get(entity.getId());
+        if (old == Long.MIN_VALUE) {
+            return;
+        }
+        AxisAlignedBB bb = entity.boundingBox;
+        long key = cellKey(bb);
+        if (key != old) {
+            this.removeFromCell(old, entity);
+            this.addToCell(key, entity);
+            this.entityCells.put(entity.getId(), key);
+        }
+        this.grow(bb);
+    }
+
+    private void addToCell(long key, Entity entity) {
+        Cell cell = this.cells.get(key);
+        if (cell == null) {
+            this.cells.put(key, cell = new Cell());
+        }
+        cell.add(entity);
+    }
+
+    private void removeFromCell(long key, Entity entity) {
+        Cell cell = this.cells.get(key);
+        if (cell != null && cell.remove(entity) && cell.size == 0) {
+            this.cells.remove(key);
+        }
+    }
+
+    private void grow(AxisAlignedBB bb) {
+        double halfWidth = Math.max(bb.getMaxX() - bb.getMinX(), bb.getMaxZ() - bb.getMinZ()) / 2;
+        if (halfWidth > this.maxHalfWidth) {
+            this.maxHalfWidth = halfWidth;
+        }
+        double height = bb.getMaxY() - bb.getMinY();
+        if (height > this.maxHeight) {
+            this.maxHeight = height;
+        }
+    }
+
+    /**
+     * Calls the consumer with every entity whose bounding box intersects the given box.
+     *
+     * @param exclude entity to leave out, may be null
+     * @param type    only entities of this type are visited
+     */
+    public <T> void forEach(AxisAlignedBB bb, Entity exclude, boolean colliding, Class<T> type, Consumer<? super T> consumer) {
+        int level = this.depth;
+        int count = this.collect(bb, exclude, colliding, type);
+        Entity[] found = this.buffers[level];
+        this.depth++;
+        try {
+            for (int i = 0; i < count; i++) {
+                //noinspection unchecked
+                consumer.accept((T) found[i]);
+            }
+        } finally {
+            this.depth--;
+            Arrays.fill(found, 0, count, null);
+        }
+    }
+
+    /**
+     * @return the entities whose bounding box intersects the given box
+     * @see #forEach(AxisAlignedBB, Entity, boolean, Class, Consumer)
+     */
+    public Entity[] toArray(AxisAlignedBB bb, Entity exclude, boolean colliding) {
+        int count = this.collect(bb, exclude, colliding, Entity.class);
+        Entity[] found = this.buffers[this.depth];
+        Entity[] result = Arrays.copyOf(found, count);
+        Arrays.fill(found, 0, count, null);
+        return result;
+    }
+
+    /**
+     * Fills the buffer of the current depth with the matching entities.
+     *
+     * @param colliding only keep entities {@code exclude} can collide with
+     * @return the number of entities found
+     */
+    private int collect(AxisAlignedBB bb, Entity exclude, boolean colliding, Class<?> type) {
+        if (this.depth == this.buffers.length) {
+            this.buffers = Arrays.copyOf(this.buffers, this.depth * 2);
+        }
+        if (this.buffers[this.depth] == null) {
+            this.buffers[this.depth] = new Entity[16];
+        }
+
+        int minX = NukkitMath.floorDouble(bb.getMinX() - this.maxHalfWidth) >> CELL_SHIFT;
+        int maxX = NukkitMath.floorDouble(bb.getMaxX() + this.maxHalfWidth) >> CELL_SHIFT;
+        int minY = Math.max(-2048, NukkitMath.floorDouble(bb.getMinY() - this.maxHeight) >> CELL_SHIFT);
+        int maxY = Math.min(2047, NukkitMath.floorDouble(bb.getMaxY()) >> CELL_SHIFT);
+        int minZ = NukkitMath.floorDouble(bb.getMinZ() - this.maxHalfWidth) >> CELL_SHIFT;
+        int maxZ = NukkitMath.floorDouble(bb.getMaxZ() + this.maxHalfWidth) >> CELL_SHIFT;
+
+        int count = 0;
+        long cellCount = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (cellCount > this.cells.size()) {
+            // Huge boxes are cheaper to answer by looking at every occupied cell
+            for (Cell cell : this.cells.values()) {
+                count = this.collect(cell, bb, exclude, colliding, type, count);
+            }
+            return count;
+        }
+
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int y = minY; y <= maxY; y++) {
+                    Cell cell = this.cells.get(cellKey(x, y, z));
+                    if (cell != null) {
+                        count = this.collect(cell, bb, exclude, colliding, type, count);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private int collect(Cell cell, AxisAlignedBB bb, Entity exclude, boolean colliding, Class<?> type, int count) {
+        Entity[] entities = cell.entities;
+        for (int i = 0, size = cell.size; i < size; i++) {
+            Entity entity = entities[i];
+            if (entity == exclude || !type.isInstance(entity) || !entity.boundingBox.intersectsWith(bb)) {
+                continue;
+            }
+            if (colliding && exclude != null && !exclude.canCollideWith(entity)) {
+                continue;
+            }
+            Entity[] found = this.buffers[this.depth];
+            if (count == found.length) {
+                found = this.buffers[this.depth] = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = entity;
+        }
+        return count;
+    }
+
+    private static class Cell {
+
+        private Entity[] entities = new Entity[4];
+        private int size;
+
+        private void add(Entity entity) {
+            if (this.size == this.entities.length) {
+                this.entities = Arrays.copyOf(this.entities, this.size * 2);
+            }
+            this.entities[this.size++] = entity;
+        }
+
+        private boolean remove(Entity entity) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.entities[i] == entity) {
+                    this.entities[i] = this.entities[--this.size];
+                    this.entities[this.size] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package cn.nukkit.level;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.entity.Entity;
+import cn.nukkit.entity.EntityHuman;
+import cn.nukkit.entity.EntityLiving;
+import cn.nukkit.entity.item.EntityItem;
+import cn.nukkit.entity.item.EntityXPOrb;
+import cn.nukkit.entity.projectile.EntityProjectile;
+import cn.nukkit.math.SimpleAxisAlignedBB;
+import cn.nukkit.network.protocol.DataPacket;
+import cn.nukkit.network.protocol.MoveEntityDeltaPacket;
+import cn.nukkit.network.protocol.MoveEntityPacket;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which players see the entities of a level and sends them entity movements.
+ * <p>
+ * Each {@link Category} of entity has a tracking range: an entity is only spawned to the players within that many
+ * blocks of it, and despawned once they move a few blocks further away. A range of 0 keeps the old behaviour, where
+ * every player having the chunk of the entity loaded sees it.
+ * <p>
+ * Movements are not sent when they happen but once per tick, to each viewer at an interval depending on its
+ * distance: viewers close to the entity get every update, viewers twice as far every second tick and so on. As
+ * movements are absolute, skipped ones are simply replaced by the next. When enabled, entities other than humans
+ * are moved with {@link MoveEntityDeltaPacket}s relative to what each viewer got last.
+ * <p>
+ * Changed data properties are sent at the end of the tick as well, in one packet per entity for all its viewers.
+ */
+public class EntityTracker {
+
+    public enum Category {
+        PLAYER("players", 0),
+        MOB("mobs", 64),
+        ITEM("items", 32),
+        PROJECTILE("projectiles", 64),
+        XP_ORB("xp-orbs", 32),
+        OTHER("other", 0);
+
+        private final String configName;
+        private final int defaultRange;
+
+        Category(String configName, int defaultRange) {
+            this.configName = configName;
+            this.defaultRange = defaultRange;
+        }
+
+        public static Category of(Entity entity) {
+            if (entity instanceof Player) {
+                return PLAYER;
+            } else if (entity instanceof EntityItem) {
+                return ITEM;
+            } else if (entity instanceof EntityXPOrb) {
+                return XP_ORB;
+            } else if (entity instanceof EntityProjectile) {
+                return PROJECTILE;
+            } else if (entity instanceof EntityLiving) {
+                return MOB;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * How much further than its range a viewer has to be before an entity is despawned from it, so walking along the
+     * edge of the range does not spawn and despawn the entity over and over.
+     */
+    private static final int DESPAWN_MARGIN = 4;
+
+    private static final int TIERS = 4;
+    private static final int ALL_TIERS = (1 << TIERS) - 1;
+
+    private final Level level;
+
+    private final int[] ranges = new int[Category.values().length];
+    private final int maxRange;
+    private final int visibilityInterval;
+    private final double fullRateDistance;
+    private final boolean deltaMovement;
+
+    private final Long2ObjectMap<Entry> entries = new Long2ObjectOpenHashMap<>();
+    private final List<Entry> moved = new ArrayList<>();
+    private final List<Entity> dataUpdates = new ArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    private final List<Player>[] tierViewers = new List[TIERS];
+
+    public EntityTracker(Level level) {
+        this.level = level;
+        Server server = level.getServer();
+        int maxRange = 0;
+        for (Category category : Category.values()) {
+            int range = Math.max(0, server.getConfig("entity-tracking.ranges." + category.configName, category.defaultRange));
+            this.ranges[category.ordinal()] = range;
+            maxRange = Math.max(maxRange, range);
+        }
+        this.maxRange = maxRange;
+        this.visibilityInterval = Math.max(1, server.getConfig("entity-tracking.visibility-interval", 10));
+        this.fullRateDistance = server.<Number>getConfig("entity-tracking.full-rate-distance", 16).doubleValue();
+        this.deltaMovement = server.getConfig("entity-tracking.delta-movement", false);
+        for (int i = 0; i < TIERS; i++) {
+            this.tierViewers[i] = new ArrayList<>();
+        }
+    }
+
+    public int getRange(Category category) {
+        return this.ranges[category.ordinal()];
+    }
+
+    public int getRange(Entity entity) {
+        return this.ranges[Category.of(entity).ordinal()];
+    }
+
+    /**
+     * @return whether the entity is close enough to the player to be spawned to it
+     */
+    public boolean isInRange(Entity entity, Player player) {
+        return this.isInRange(entity, player, this.getRange(entity));
+    }
+
+    private boolean isInRange(Entity entity, Player player, int range) {
+        return range <= 0 || (Math.abs(entity.x - player.x) <= range && Math.abs(entity.y - player.y) <= range && Math.abs(entity.z - player.z) <= range);
+    }
+
+    /**
+     * Queues a movement of the entity, it is sent to the viewers by {@link #tick(int)}.
+     */
+    public void addMovement(Entity entity, double x, double y, double z, double yaw, double pitch, double headYaw) {
+        Entry entry = this.entries.get(entity.getId());
+        if (entry == null) {
+            entry = new Entry(entity);
+            this.entries.put(entity.getId(), entry);
+        }
+        entry.x = x;
+        entry.y = y;
+        entry.z = z;
+        entry.yaw = yaw;
+        entry.pitch = pitch;
+        entry.headYaw = headYaw;
+        if (entry.pendingTiers == 0) {
+            this.moved.add(entry);
+        }
+        entry.pendingTiers = ALL_TIERS;
+    }
+
+    /**
+     * Called when the entity was spawned to or despawned from a player. The next movement sent to that player is
+     * absolute, as the client knows nothing about the entity anymore or only its spawn position.
+     */
+    public void resetViewer(Entity entity, Player player) {
+        Entry entry = this.entries.get(entity.getId());
+        if (entry != null && entry.sent != null) {
+            entry.sent.remove(player.getLoaderId());
+        }
+    }
+
+    /**
+     * Queues the entity to send its changed data properties at the end of the tick.
+     */
+    public void addDataUpdate(Entity entity) {
+        this.dataUpdates.add(entity);
+    }
+
+    public void remove(Entity entity) {
+        Entry entry = this.entries.remove(entity.getId());
+        if (entry != null) {
+            entry.pendingTiers = 0;
+        }
+    }
+
+    public void tick(int currentTick) {
+        if (currentTick % this.visibilityInterval == 0 && this.maxRange > 0) {
+            this.updateVisibility();
+        }
+        if (!this.moved.isEmpty()) {
+            this.sendMovements(currentTick);
+        }
+        if (!this.dataUpdates.isEmpty()) {
+            // Entities queued while sending are sent next tick
+            int count = this.dataUpdates.size();
+            for (int i = 0; i < count; i++) {
+                this.dataUpdates.get(i).sendDirtyData();
+            }
+            this.dataUpdates.subList(0, count).clear();
+        }
+    }
+
+    private void updateVisibility() {
+        for (Entity entity : this.level.getEntities()) {
+            int range = this.getRange(entity);
+            if (range <= 0 || entity.getViewers().isEmpty()) {
+                continue;
+            }
+            for (Player viewer : entity.getViewers().values()) {
+                if (viewer != entity && !this.isInRange(entity, viewer, range + DESPAWN_MARGIN)) {
+                    entity.despawnFrom(viewer);
+                }
+            }
+        }
+
+        for (Player player : this.level.getPlayers().values()) {
+            if (!player.spawned || !player.isAlive()) {
+                continue;
+            }
+            this.level.forEachNearbyEntity(new SimpleAxisAlignedBB(
+                    player.x - this.maxRange, player.y - this.maxRange, player.z - this.maxRange,
+                    player.x + this.maxRange, player.y + this.maxRange, player.z + this.maxRange), player, entity -> {
+                int range = this.getRange(entity);
+                if (range > 0 && !entity.closed && entity.isAlive() && entity.chunk != null
+                        && !entity.getViewers().containsKey(player.getLoaderId())
+                        && player.usedChunks.containsKey(Level.chunkHash(entity.chunk.getX(), entity.chunk.getZ()))
+                        && this.isInRange(entity, player, range)) {
+                    entity.spawnTo(player);
+                }
+            });
+        }
+    }
+
+    private void sendMovements(int currentTick) {
+        int dueTiers = 0;
+        for (int tier = 0; tier < TIERS; tier++) {
+            if (currentTick % (1 << tier) == 0) {
+                dueTiers |= 1 << tier;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < this.moved.size(); i++) {
+            Entry entry = this.moved.get(i);
+            if (entry.pendingTiers == 0 || entry.entity.closed) {
+                continue;
+            }
+            int sending = entry.pendingTiers & dueTiers;
+            if (sending != 0) {
+                this.send(entry, sending);
+                entry.pendingTiers &= ~sending;
+            }
+            if (entry.pendingTiers != 0) {
+                this.moved.set(kept++, entry);
+            }
+        }
+        this.moved.subList(kept, this.moved.size()).clear();
+    }
+
+    private void send(Entry entry, int tiers) {
+        Entity entity = entry.entity;
+        for (Player viewer : entity.getViewers().values()) {
+            if (viewer == entity) {
+                continue;
+            }
+            double distance = Math.max(Math.abs(entity.x - viewer.x), Math.max(Math.abs(entity.y - viewer.y), Math.abs(entity.z - viewer.z)));
+            int tier = 0;
+            while (tier < TIERS - 1 && distance > this.fullRateDistance * (1 << tier)) {
+                tier++;
+            }
+            if ((tiers & (1 << tier)) != 0) {
+                this.tierViewers[tier].add(viewer);
+            }
+        }
+
+        for (List<Player> viewers : this.tierViewers) {
+            if (viewers.isEmpty()) {
+                continue;
+            }
+            if (this.deltaMovement && !(entity instanceof EntityHuman)) {
+                for (Player viewer : viewers) {
+                    this.sendDelta(entry, viewer);
+                }
+            } else {
+                entity.sendMovement(viewers, entry.x, entry.y, entry.z, entry.yaw, entry.pitch, entry.headYaw);
+            }
+            viewers.clear();
+        }
+    }
+
+    private void sendDelta(Entry entry, Player viewer) {
+        if (entry.sent == null) {
+            entry.sent = new Int2ObjectOpenHashMap<>();
+        }
+        int x = Float.floatToIntBits((float) entry.x);
+        int y = Float.floatToIntBits((float) entry.y);
+        int z = Float.floatToIntBits((float) entry.z);
+        int yaw = (byte) (entry.yaw / (360d / 256d));
+        int headYaw = (byte) (entry.headYaw / (360d / 256d));
+        int pitch = (byte) (entry.pitch / (360d / 256d));
+
+        int[] sent = entry.sent.get(viewer.getLoaderId());
+        DataPacket pk;
+        if (sent == null) {
+            MoveEntityPacket move = new MoveEntityPacket();
+            move.eid = entry.entity.getId();
+            move.x = (float) entry.x;
+            move.y = (float) entry.y;
+            move.z = (float) entry.z;
+            move.yaw = (float) entry.yaw;
+            move.headYaw = (float) entry.headYaw;
+            move.pitch = (float) entry.pitch;
+            pk = move;
+            entry.sent.put(viewer.getLoaderId(), new int[]{x, y, z, yaw, headYaw, pitch});
+        } else {
+            MoveEntityDeltaPacket delta = new MoveEntityDeltaPacket();
+            delta.eid = entry.entity.getId();
+            if (x != sent[0]) {
+                delta.flags |= MoveEntityDeltaPacket.FLAG_HAS_X;
+                delta.xDelta = x - sent[0];
+            }
+            if (y != sent[1]) {
+                delta.flags |= MoveEntityDeltaPacket.FLAG_HAS_Y;
+                delta.yDelta = y - sent[1];
+            }
+            if (z != sent[2]) {
+                delta.flags |= MoveEntityDeltaPacket.FLAG_HAS_Z;
+                delta.zDelta = z - sent[2];
+            }
+            if (yaw != sent[3]) {
+                delta.flags |= MoveEntityDeltaPacket.FLAG_HAS_YAW;
+                delta.yaw = entry.yaw;
+            }
+            if (headYaw != sent[4]) {
+                delta.flags |= MoveEntityDeltaPacket.FLAG_HAS_HEAD_YAW;
+                delta.headYaw = entry.headYaw;
+            }
+            if (pitch != sent[5]) {
+                delta.flags |= MoveEntityDeltaPacket.FLAG_HAS_PITCH;
+                delta.pitch = entry.pitch;
+            }
+            if (delta.flags == 0) {
+                return;
+            }
+            pk = delta;
+            sent[0] = x;
+            sent[1] = y;
+            sent[2] = z;
+            sent[3] = yaw;
+            sent[4] = headYaw;
+            sent[5] = pitch;
+        }
+        pk.setChannel(DataPacket.CHANNEL_MOVING);
+        viewer.dataPacket(pk);
+    }
+
+    private static class Entry {
+
+        private final Entity entity;
+
+        private double x;
+        private double y;
+        private double z;
+        private double yaw;
+        private double pitch;
+        private double headYaw;
+
+        /**
+         * Tiers of viewers that did not get the last movement yet.
+         */
+        private int pendingTiers;
+
+        /**
+         * Position and rotation each viewer got last, only used for delta movements.
+         */
+        private Int2ObjectMap<int[]> sent;
+
+        private Entry(Entity entity) {
+            this.entity = entity;
+        }
+    }
+}
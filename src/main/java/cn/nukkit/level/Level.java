@@ -20,6 +20,7 @@ import cn.nukkit.item.Item;
 import cn.nukkit.item.ItemBlock;
 import cn.nukkit.item.enchantment.Enchantment;
 import cn.nukkit.level.biome.Biome;
+import cn.nukkit.level.biome.BiomeMapCache;
 import cn.nukkit.level.format.Chunk;
 import cn.nukkit.level.format.ChunkSection;
 import cn.nukkit.level.format.FullChunk;
@@ -33,6 +34,8 @@ import cn.nukkit.level.generator.PopChunkManager;
 import cn.nukkit.level.generator.task.GenerationTask;
 import cn.nukkit.level.generator.task.LightPopulationTask;
 import cn.nukkit.level.generator.task.PopulationTask;
+import cn.nukkit.level.light.BlockLightEngine;
+import cn.nukkit.level.light.SkyLightEngine;
 import cn.nukkit.level.particle.DestroyBlockParticle;
 import cn.nukkit.level.particle.Particle;
 import cn.nukkit.level.sound.BlockPlaceSound;
@@ -50,7 +53,10 @@ import cn.nukkit.network.protocol.*;
 import cn.nukkit.plugin.Plugin;
 import cn.nukkit.potion.Effect;
 import cn.nukkit.scheduler.AsyncTask;
+import cn.nukkit.scheduler.AsyncLane;
+import cn.nukkit.scheduler.BlockEntityScheduler;
 import cn.nukkit.scheduler.BlockUpdateScheduler;
+import cn.nukkit.scheduler.LiquidFlowScheduler;
 import cn.nukkit.timings.LevelTimings;
 import cn.nukkit.utils.*;
 import co.aikar.timings.Timings;
@@ -71,6 +77,7 @@ import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 /**
  * author: MagicDroidX Nukkit Project
@@ -141,13 +148,27 @@ public class Level implements ChunkManager, Metadatable {
     private final Long2ObjectOpenHashMap<Player> players = new Long2ObjectOpenHashMap<>();
 
     private final Long2ObjectOpenHashMap<Entity> entities = new Long2ObjectOpenHashMap<>();
+    private final EntitySpatialIndex entityIndex = new EntitySpatialIndex();
+    private final EntityMerger entityMerger;
+    private final EntityTracker entityTracker;
+    private final RedstoneWireEngine redstoneWireEngine = new RedstoneWireEngine(this);
 
     public final Long2ObjectOpenHashMap<Entity> updateEntities = new Long2ObjectOpenHashMap<>();
 
-    private final ConcurrentLinkedQueue<BlockEntity> updateBlockEntities = new ConcurrentLinkedQueue<>();
+    private BlockEntityScheduler blockEntityScheduler;
+    private final LiquidFlowScheduler liquidFlow;
 
     private boolean cacheChunks = false;
 
+    private static final int MAX_PENDING_CHUNK_WRITES = 256;
+    // Changed chunks the running autosave did not serialize yet, in the order they were queued
+    private final LongLinkedOpenHashSet autoSaveQueue = new LongLinkedOpenHashSet();
+    private long autoSaveStarted;
+    // Unloaded chunks whose snapshot could not be written, written again by the next autosave
+    private final LongSet failedChunkWrites = new LongOpenHashSet();
+    // Nanoseconds per tick spent serializing chunks for an autosave
+    private long autoSaveBudget;
+
     private final Server server;
 
     private final int levelId;
@@ -191,6 +212,8 @@ public class Level implements ChunkManager, Metadatable {
 
 
     private final BlockUpdateScheduler updateQueue;
+    private final BlockLightEngine blockLightEngine = new BlockLightEngine(this);
+    private final SkyLightEngine skyLightEngine = new SkyLightEngine(this);
     private final Queue<Block> normalUpdateQueue = new ConcurrentLinkedDeque<>();
 //    private final TreeSet<BlockUpdateEntry> updateQueue = new TreeSet<>();
 //    private final List<BlockUpdateEntry> nextTickUpdates = Lists.newArrayList();
@@ -331,21 +354,28 @@ public class Level implements ChunkManager, Metadatable {
 
         this.levelCurrentTick = this.provider.getCurrentTick();
         this.updateQueue = new BlockUpdateScheduler(this, levelCurrentTick);
+        this.blockEntityScheduler = new BlockEntityScheduler(this, levelCurrentTick);
+        this.liquidFlow = new LiquidFlowScheduler(this);
 
         this.chunkTickRadius = Math.min(this.server.getViewDistance(),
                 Math.max(1, this.server.getConfig("chunk-ticking.tick-radius", 4)));
         this.chunksPerTicks = this.server.getConfig("chunk-ticking.per-tick", 40);
-        this.chunkGenerationQueueSize = this.server.getConfig("chunk-generation.queue-size", 8);
-        this.chunkPopulationQueueSize = this.server.getConfig("chunk-generation.population-queue-size", 2);
+        // Enough chunks in flight to keep every generation worker busy
+        int generationWorkers = this.server.getScheduler().getAsyncPool().getWorkers(AsyncLane.GENERATION);
+        this.chunkGenerationQueueSize = this.server.getConfig("chunk-generation.queue-size", Math.max(8, generationWorkers * 2));
+        this.chunkPopulationQueueSize = this.server.getConfig("chunk-generation.population-queue-size", Math.max(2, generationWorkers));
         this.chunkTickList.clear();
         this.clearChunksOnTick = this.server.getConfig("chunk-ticking.clear-tick-list", true);
         this.cacheChunks = this.server.getConfig("chunk-sending.cache-chunks", false);
+        this.autoSaveBudget = TimeUnit.MILLISECONDS.toNanos(this.server.getConfig("level-settings.auto-save-budget", 5));
         this.temporalPosition = new Position(0, 0, 0, this);
         this.temporalVector = new Vector3(0, 0, 0);
         this.tickRate = 1;
 
         this.skyLightSubtracted = this.calculateSkylightSubtracted(1);
         this.timings = new LevelTimings(this);
+        this.entityMerger = new EntityMerger(this);
+        this.entityTracker = new EntityTracker(this);
     }
 
     public static long chunkHash(int x, int z) {
@@ -458,11 +488,19 @@ public class Level implements ChunkManager, Metadatable {
             this.unloadChunk(chunk.getX(), chunk.getZ(), false);
         }
 
+        long seed = this.provider.getSeed();
         this.provider.close();
         this.provider = null;
         this.blockMetadata = null;
         this.temporalPosition = null;
         this.server.getLevels().remove(this.levelId);
+
+        for (Level level : this.server.getLevels().values()) {
+            if (level.getProvider() != null && level.getSeed() == seed) {
+                return;
+            }
+        }
+        BiomeMapCache.release(seed);
     }
 
     public void addSound(Sound sound) {
@@ -484,11 +522,7 @@ public class Level implements ChunkManager, Metadatable {
             }
         } else {
             if (packets != null) {
-                if (packets.length == 1) {
-                    Server.broadcastPacket(players, packets[0]);
-                } else {
-                    this.server.batchPackets(players, packets, false);
-                }
+                Server.broadcastPacketsShared(players, packets);
             }
         }
     }
@@ -524,7 +558,7 @@ public class Level implements ChunkManager, Metadatable {
         if (players == null || players.length == 0) {
             addChunkPacket(pos.getFloorX() >> 4, pos.getFloorZ() >> 4, packet);
         } else {
-            Server.broadcastPacket(players, packet);
+            Server.broadcastPacketsShared(players, packet);
         }
     }
 
@@ -574,7 +608,7 @@ public class Level implements ChunkManager, Metadatable {
         pk.z = (float) pos.z;
         pk.isGlobal = isGlobal;
 
-        Server.broadcastPacket(viewers, pk);
+        Server.broadcastPacketsShared(viewers, pk);
     }
 
     public void addLevelSoundEvent(Vector3 pos, int type) {
@@ -617,7 +651,7 @@ public class Level implements ChunkManager, Metadatable {
 
         if (viewers == null || viewers.length == 0) this.addChunkPacket(pos.getFloorX() >> 4, pos.getFloorZ() >> 4, pk);
         else {
-            Server.broadcastPacket(viewers, pk);
+            Server.broadcastPacketsShared(viewers, pk);
         }
     }
 
@@ -640,11 +674,7 @@ public class Level implements ChunkManager, Metadatable {
             }
         } else {
             if (packets != null) {
-                if (packets.length == 1) {
-                    Server.broadcastPacket(players, packets[0]);
-                } else {
-                    this.server.batchPackets(players, packets, false);
-                }
+                Server.broadcastPacketsShared(players, packets);
             }
         }
     }
@@ -806,7 +836,8 @@ public class Level implements ChunkManager, Metadatable {
     public void doTick(int currentTick) {
         this.timings.doTick.startTiming();
 
-        updateBlockLight(lightQueue);
+        this.blockLightEngine.process();
+        this.skyLightEngine.tick();
         this.checkTime();
 
         if (currentTick % 1200 == 0) { // Send time to client every 60 seconds to make sure it stay in sync
@@ -866,6 +897,10 @@ public class Level implements ChunkManager, Metadatable {
         this.updateQueue.tick(this.getCurrentTick());
         this.timings.doTickPending.stopTiming();
 
+        this.timings.liquidFlow.startTiming();
+        this.liquidFlow.tick(this.getCurrentTick());
+        this.timings.liquidFlow.stopTiming();
+
         Block block;
         while ((block = this.normalUpdateQueue.poll()) != null) {
             block.onUpdate(BLOCK_UPDATE_NORMAL);
@@ -888,9 +923,17 @@ public class Level implements ChunkManager, Metadatable {
         }
         this.timings.entityTick.stopTiming();
 
-        TimingsHistory.tileEntityTicks += this.updateBlockEntities.size();
+        this.timings.entityMerge.startTiming();
+        this.entityMerger.tick(currentTick);
+        this.timings.entityMerge.stopTiming();
+
+        this.timings.entityTrack.startTiming();
+        this.entityTracker.tick(currentTick);
+        this.timings.entityTrack.stopTiming();
+
+        TimingsHistory.tileEntityTicks += this.blockEntityScheduler.getActiveCount();
         this.timings.blockEntityTick.startTiming();
-        this.updateBlockEntities.removeIf(blockEntity -> !blockEntity.isValid() || !blockEntity.onUpdate());
+        this.blockEntityScheduler.tick(this.getCurrentTick());
         this.timings.blockEntityTick.stopTiming();
 
         this.timings.tickChunks.startTiming();
@@ -931,6 +974,7 @@ public class Level implements ChunkManager, Metadatable {
         }
 
         this.processChunkRequest();
+        this.processAutoSave();
 
         if (this.sleepTicks > 0 && --this.sleepTicks <= 0) {
             this.checkSleep();
@@ -942,9 +986,7 @@ public class Level implements ChunkManager, Metadatable {
                 int chunkZ = Level.getHashZ(index);
                 Player[] chunkPlayers = this.getChunkPlayers(chunkX, chunkZ).values().toArray(new Player[0]);
                 if (chunkPlayers.length > 0) {
-                    for (DataPacket pk : this.chunkPackets.get(index)) {
-                        Server.broadcastPacket(chunkPlayers, pk);
-                    }
+                    Server.broadcastPacketsShared(chunkPlayers, this.chunkPackets.get(index).toArray(new DataPacket[0]));
                 }
             }
             this.chunkPackets.clear();
@@ -1248,6 +1290,48 @@ public class Level implements ChunkManager, Metadatable {
             return false;
         }
 
+        this.updateProviderData();
+        this.saveChunks();
+        if (this.provider instanceof BaseLevelProvider) {
+            this.provider.saveLevelData();
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves the level without stalling its tick. Changed chunks are queued and serialized a few per tick by
+     * {@link #processAutoSave()}, then compressed and written on the I/O lane. Levels whose provider cannot write
+     * chunks asynchronously are saved with {@link #save()}.
+     */
+    public boolean autoSave() {
+        if (!(this.provider instanceof Anvil)) {
+            return this.save();
+        }
+        if (!this.getAutoSave()) {
+            return false;
+        }
+
+        this.updateProviderData();
+        for (BaseFullChunk chunk : this.chunks.values()) {
+            if (chunk.hasChanged()) {
+                this.autoSaveQueue.add(chunk.getIndex());
+            }
+        }
+        LongIterator failed = this.failedChunkWrites.iterator();
+        while (failed.hasNext()) {
+            long index = failed.nextLong();
+            ((Anvil) this.provider).retryPendingWrite(getHashX(index), getHashZ(index));
+        }
+        this.failedChunkWrites.clear();
+        if (this.autoSaveStarted == 0) {
+            this.autoSaveStarted = System.currentTimeMillis();
+        }
+        this.provider.saveLevelData();
+        return true;
+    }
+
+    private void updateProviderData() {
         this.server.getPluginManager().callEvent(new LevelSaveEvent(this));
 
         this.provider.setTime((int) this.time);
@@ -1256,12 +1340,92 @@ public class Level implements ChunkManager, Metadatable {
         this.provider.setThundering(this.thundering);
         this.provider.setThunderTime(this.thunderTime);
         this.provider.setCurrentTick(this.levelCurrentTick);
-        this.saveChunks();
-        if (this.provider instanceof BaseLevelProvider) {
-            this.provider.saveLevelData();
+    }
+
+    /**
+     * Serializes the chunks queued by {@link #autoSave()} until the time budget of the tick is used up. Stops
+     * early while enough chunks wait to be written, so snapshots do not pile up in memory.
+     */
+    private void processAutoSave() {
+        if (!(this.provider instanceof Anvil)) {
+            return;
+        }
+        Anvil anvil = (Anvil) this.provider;
+        for (long index : anvil.pollFailedWrites()) {
+            BaseFullChunk chunk = this.chunks.get(index);
+            if (chunk != null) {
+                // Saved again by the next autosave, or when it is unloaded
+                chunk.setChanged(true);
+                anvil.dropPendingWrite(getHashX(index), getHashZ(index));
+            } else {
+                this.failedChunkWrites.add(index);
+            }
+        }
+        if (this.autoSaveStarted == 0) {
+            return;
+        }
+        if (this.autoSaveQueue.isEmpty()) {
+            if (anvil.getPendingWrites() == 0) {
+                this.autoSaveStarted = 0;
+            }
+            return;
         }
 
-        return true;
+        this.timings.doChunkSave.startTiming();
+        long deadline = System.nanoTime() + this.autoSaveBudget;
+        do {
+            if (anvil.getPendingWrites() >= MAX_PENDING_CHUNK_WRITES) {
+                break;
+            }
+            BaseFullChunk chunk = this.chunks.get(this.autoSaveQueue.removeFirstLong());
+            // Chunks unloaded since were saved while unloading
+            if (chunk != null && chunk.hasChanged()) {
+                anvil.saveChunkAsync(chunk);
+                chunk.setChanged(false);
+            }
+        } while (!this.autoSaveQueue.isEmpty() && System.nanoTime() < deadline);
+        this.timings.doChunkSave.stopTiming();
+    }
+
+    /**
+     * @return the number of chunks of the running autosave that were not written yet
+     */
+    public int getChunksPendingSave() {
+        return this.autoSaveQueue.size() + (this.provider instanceof Anvil ? ((Anvil) this.provider).getPendingWrites() : 0);
+    }
+
+    /**
+     * @return how many chunk writes of autosaves failed, the chunks are saved again
+     */
+    public long getChunkSaveFailures() {
+        return this.provider instanceof Anvil ? ((Anvil) this.provider).getWriteFailures() : 0;
+    }
+
+    /**
+     * @return the compressed size of all chunks written by autosaves
+     */
+    public long getChunkBytesSaved() {
+        return this.provider instanceof Anvil ? ((Anvil) this.provider).getBytesWritten() : 0;
+    }
+
+    /**
+     * @return how long the running autosave has been going for in milliseconds, 0 if none is running
+     */
+    public long getSaveLag() {
+        // At least 1 while running, also in the millisecond it started
+        return this.autoSaveStarted == 0 ? 0 : Math.max(1, System.currentTimeMillis() - this.autoSaveStarted);
+    }
+
+    public EntityMerger getEntityMerger() {
+        return entityMerger;
+    }
+
+    public EntityTracker getEntityTracker() {
+        return entityTracker;
+    }
+
+    public RedstoneWireEngine getRedstoneWireEngine() {
+        return redstoneWireEngine;
     }
 
     public void saveChunks() {
@@ -1277,6 +1441,12 @@ public class Level implements ChunkManager, Metadatable {
                 }
             }
         }
+        // Every changed chunk was just written, only the snapshots taken before are left
+        this.autoSaveQueue.clear();
+        if (this.provider instanceof Anvil) {
+            ((Anvil) this.provider).flushPendingWrites();
+        }
+        this.autoSaveStarted = 0;
     }
 
     public void updateAroundRedstone(Vector3 pos, BlockFace face) {
@@ -1393,13 +1563,19 @@ public class Level implements ChunkManager, Metadatable {
         return this.updateQueue.isBlockTickPending(pos, block);
     }
 
-    public Set<BlockUpdateEntry> getPendingBlockUpdates(FullChunk chunk) {
-        int minX = (chunk.getX() << 4) - 2;
-        int maxX = minX + 16 + 2;
-        int minZ = (chunk.getZ() << 4) - 2;
-        int maxZ = minZ + 16 + 2;
+    /**
+     * Runs the next flow step of the liquid at the position, see {@link LiquidFlowScheduler}.
+     */
+    public void scheduleLiquidUpdate(Vector3 pos, int delay) {
+        this.liquidFlow.schedule(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ(), delay);
+    }
 
-        return this.getPendingBlockUpdates(new SimpleAxisAlignedBB(minX, 0, minZ, maxX, 256, maxZ));
+    public LiquidFlowScheduler getLiquidFlow() {
+        return liquidFlow;
+    }
+
+    public Set<BlockUpdateEntry> getPendingBlockUpdates(FullChunk chunk) {
+        return this.liquidFlow.addPendingUpdates(chunk, this.updateQueue.getPendingBlockUpdates(chunk.getX(), chunk.getZ()));
     }
 
     public Set<BlockUpdateEntry> getPendingBlockUpdates(AxisAlignedBB boundingBox) {
@@ -1428,8 +1604,12 @@ public class Level implements ChunkManager, Metadatable {
                             this.server.getLogger().logException(new AxisAlignedBBLoopException("Level.getCollisionBlocks bb=" + bb.toString() + " minX=" + minX + " maxX=" + maxX + " minY=" + minY + " maxY=" + maxY + " minZ=" + minZ + " maxZ=" + maxZ + " x=" + x + " y=" + y + " z=" + z));
                             return new Block[0];
                         }
-                        Block block = this.getBlock(this.temporalVector.setComponents(x, y, z));
-                        if (block.getId() != 0 && block.collidesWithBB(bb)) {
+                        int fullId = this.getFullBlock(x, y, z, true);
+                        if (fullId >> 4 == 0) {
+                            continue;
+                        }
+                        Block block = Block.get(fullId, this, x, y, z);
+                        if (block.collidesWithBB(bb)) {
                             return new Block[]{block};
                         }
                     }
@@ -1443,8 +1623,12 @@ public class Level implements ChunkManager, Metadatable {
                             this.server.getLogger().logException(new AxisAlignedBBLoopException("Level.getCollisionBlocks bb=" + bb.toString() + " minX=" + minX + " maxX=" + maxX + " minY=" + minY + " maxY=" + maxY + " minZ=" + minZ + " maxZ=" + maxZ + " x=" + x + " y=" + y + " z=" + z));
                             return collides.toArray(new Block[0]);
                         }
-                        Block block = this.getBlock(this.temporalVector.setComponents(x, y, z));
-                        if (block.getId() != 0 && block.collidesWithBB(bb)) {
+                        int fullId = this.getFullBlock(x, y, z, true);
+                        if (fullId >> 4 == 0) {
+                            continue;
+                        }
+                        Block block = Block.get(fullId, this, x, y, z);
+                        if (block.collidesWithBB(bb)) {
                             collides.add(block);
                         }
                     }
@@ -1486,7 +1670,11 @@ public class Level implements ChunkManager, Metadatable {
         for (int z = minZ; z <= maxZ; ++z) {
             for (int x = minX; x <= maxX; ++x) {
                 for (int y = minY; y <= maxY; ++y) {
-                    Block block = this.getBlock(this.temporalVector.setComponents(x, y, z));
+                    int fullId = this.getFullBlock(x, y, z, true);
+                    if (fullId >> 4 == 0) {
+                        continue;
+                    }
+                    Block block = Block.get(fullId, this, x, y, z);
                     if (!block.canPassThrough() && block.collidesWithBB(bb)) {
                         collides.add(block.getBoundingBox());
                     }
@@ -1514,7 +1702,11 @@ public class Level implements ChunkManager, Metadatable {
         for (int z = minZ; z <= maxZ; ++z) {
             for (int x = minX; x <= maxX; ++x) {
                 for (int y = minY; y <= maxY; ++y) {
-                    Block block = this.getBlock(this.temporalVector.setComponents(x, y, z));
+                    int fullId = this.getFullBlock(x, y, z, true);
+                    if (fullId >> 4 == 0) {
+                        continue;
+                    }
+                    Block block = Block.get(fullId, this, x, y, z);
                     if (!block.canPassThrough() && block.collidesWithBB(bb)) {
                         return true;
                     }
@@ -1576,40 +1768,51 @@ public class Level implements ChunkManager, Metadatable {
     }
 
     public int getFullBlock(int x, int y, int z) {
-        return this.getChunk(x >> 4, z >> 4, false).getFullBlock(x & 0x0f, y & 0xff, z & 0x0f);
+        return this.getFullBlock(x, y, z, true);
+    }
+
+    /**
+     * Reads the full id ({@code id << 4 | meta}) of a block without creating a {@link Block}.
+     *
+     * @param load whether to load the chunk if it is not loaded
+     * @return the full id, or 0 (air) outside the world or in a chunk that is not available
+     */
+    public int getFullBlock(int x, int y, int z, boolean load) {
+        if (y < 0 || y > 255) {
+            return 0;
+        }
+        BaseFullChunk chunk = load ? this.getChunk(x >> 4, z >> 4) : this.getChunkIfLoaded(x >> 4, z >> 4);
+        return chunk == null ? 0 : chunk.getFullBlock(x & 0x0f, y, z & 0x0f);
+    }
+
+    /**
+     * Reads the id of a block without creating a {@link Block}.
+     *
+     * @param load whether to load the chunk if it is not loaded
+     * @return the block id, or 0 (air) outside the world or in a chunk that is not available
+     */
+    public int getBlockIdAt(int x, int y, int z, boolean load) {
+        if (y < 0 || y > 255) {
+            return 0;
+        }
+        BaseFullChunk chunk = load ? this.getChunk(x >> 4, z >> 4) : this.getChunkIfLoaded(x >> 4, z >> 4);
+        return chunk == null ? 0 : chunk.getBlockId(x & 0x0f, y, z & 0x0f);
     }
 
-    public synchronized Block getBlock(Vector3 pos) {
+    public Block getBlock(Vector3 pos) {
         return this.getBlock(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ());
     }
 
-    public synchronized Block getBlock(Vector3 pos, boolean load) {
+    public Block getBlock(Vector3 pos, boolean load) {
         return this.getBlock(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ(), load);
     }
 
-    public synchronized Block getBlock(int x, int y, int z) {
+    public Block getBlock(int x, int y, int z) {
         return getBlock(x, y, z, true);
     }
 
-    public synchronized Block getBlock(int x, int y, int z, boolean load) {
-        int fullState;
-        if (y >= 0 && y < 256) {
-            int cx = x >> 4;
-            int cz = z >> 4;
-            BaseFullChunk chunk;
-            if (load) {
-                chunk = getChunk(cx, cz);
-            } else {
-                chunk = getChunkIfLoaded(cx, cz);
-            }
-            if (chunk != null) {
-                fullState = chunk.getFullBlock(x & 0xF, y, z & 0xF);
-            } else {
-                fullState = 0;
-            }
-        } else {
-            fullState = 0;
-        }
+    public Block getBlock(int x, int y, int z, boolean load) {
+        int fullState = this.getFullBlock(x, y, z, load);
         Block block = Block.fullList[fullState & 0xFFF].clone();
         block.x = x;
         block.y = y;
@@ -1624,170 +1827,53 @@ public class Level implements ChunkManager, Metadatable {
     }
 
     public void updateBlockSkyLight(int x, int y, int z) {
-        // todo
+        this.skyLightEngine.queue(x, y, z);
     }
 
+    /**
+     * @deprecated block light updates are queued with {@link #addLightUpdate(int, int, int)} and processed each tick
+     */
+    @Deprecated
     public void updateBlockLight(Map<Long, Map<Character, Object>> map) {
-        int size = map.size();
-        if (size == 0) {
-            return;
-        }
-        Queue<Long> lightPropagationQueue = new ConcurrentLinkedQueue<>();
-        Queue<Object[]> lightRemovalQueue = new ConcurrentLinkedQueue<>();
-        Long2ObjectOpenHashMap<Object> visited = new Long2ObjectOpenHashMap<>();
-        Long2ObjectOpenHashMap<Object> removalVisited = new Long2ObjectOpenHashMap<>();
-
-        Iterator<Map.Entry<Long, Map<Character, Object>>> iter = map.entrySet().iterator();
-        while (iter.hasNext() && size-- > 0) {
-            Map.Entry<Long, Map<Character, Object>> entry = iter.next();
-            iter.remove();
-            long index = entry.getKey();
-            Map<Character, Object> blocks = entry.getValue();
-            int chunkX = Level.getHashX(index);
-            int chunkZ = Level.getHashZ(index);
-            int bx = chunkX << 4;
-            int bz = chunkZ << 4;
-            for (char blockHash : blocks.keySet()) {
+        for (Map.Entry<Long, Map<Character, Object>> entry : map.entrySet()) {
+            int bx = Level.getHashX(entry.getKey()) << 4;
+            int bz = Level.getHashZ(entry.getKey()) << 4;
+            for (char blockHash : entry.getValue().keySet()) {
                 int hi = (byte) (blockHash >>> 8);
                 int lo = (byte) blockHash;
-                int y = lo & 0xFF;
-                int x = (hi & 0xF) + bx;
-                int z = ((hi >> 4) & 0xF) + bz;
-                BaseFullChunk chunk = getChunk(x >> 4, z >> 4, false);
-                if (chunk != null) {
-                    int lcx = x & 0xF;
-                    int lcz = z & 0xF;
-                    int oldLevel = chunk.getBlockLight(lcx, y, lcz);
-                    int newLevel = Block.light[chunk.getBlockId(lcx, y, lcz)];
-                    if (oldLevel != newLevel) {
-                        this.setBlockLightAt(x, y, z, newLevel);
-                        if (newLevel < oldLevel) {
-                            removalVisited.put(Hash.hashBlock(x, y, z), changeBlocksPresent);
-                            lightRemovalQueue.add(new Object[]{Hash.hashBlock(x, y, z), oldLevel});
-                        } else {
-                            visited.put(Hash.hashBlock(x, y, z), changeBlocksPresent);
-                            lightPropagationQueue.add(Hash.hashBlock(x, y, z));
-                        }
-                    }
-                }
-            }
-        }
-
-        while (!lightRemovalQueue.isEmpty()) {
-            Object[] val = lightRemovalQueue.poll();
-            long node = (long) val[0];
-            int x = Hash.hashBlockX(node);
-            int y = Hash.hashBlockY(node);
-            int z = Hash.hashBlockZ(node);
-
-            int lightLevel = (int) val[1];
-
-            this.computeRemoveBlockLight(x - 1, y, z, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            this.computeRemoveBlockLight(x + 1, y, z, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            this.computeRemoveBlockLight(x, y - 1, z, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            this.computeRemoveBlockLight(x, y + 1, z, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            this.computeRemoveBlockLight(x, y, z - 1, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            this.computeRemoveBlockLight(x, y, z + 1, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-        }
-
-        while (!lightPropagationQueue.isEmpty()) {
-            long node = lightPropagationQueue.poll();
-
-            int x = Hash.hashBlockX(node);
-            int y = Hash.hashBlockY(node);
-            int z = Hash.hashBlockZ(node);
-
-            int lightLevel = this.getBlockLightAt(x, y, z)
-                    - Block.lightFilter[this.getBlockIdAt(x, y, z)];
-
-            if (lightLevel >= 1) {
-                this.computeSpreadBlockLight(x - 1, y, z, lightLevel, lightPropagationQueue, visited);
-                this.computeSpreadBlockLight(x + 1, y, z, lightLevel, lightPropagationQueue, visited);
-                this.computeSpreadBlockLight(x, y - 1, z, lightLevel, lightPropagationQueue, visited);
-                this.computeSpreadBlockLight(x, y + 1, z, lightLevel, lightPropagationQueue, visited);
-                this.computeSpreadBlockLight(x, y, z - 1, lightLevel, lightPropagationQueue, visited);
-                this.computeSpreadBlockLight(x, y, z + 1, lightLevel, lightPropagationQueue, visited);
+                this.blockLightEngine.queue((hi & 0xF) + bx, lo & 0xFF, ((hi >> 4) & 0xF) + bz);
             }
         }
+        map.clear();
+        this.blockLightEngine.process();
     }
 
-    private void computeRemoveBlockLight(int x, int y, int z, int currentLight, Queue<Object[]> queue,
-                                         Queue<Long> spreadQueue, Map<Long, Object> visited, Map<Long, Object> spreadVisited) {
-        int current = this.getBlockLightAt(x, y, z);
-        long index = Hash.hashBlock(x, y, z);
-        if (current != 0 && current < currentLight) {
-            this.setBlockLightAt(x, y, z, 0);
-            if (current > 1) {
-                if (!visited.containsKey(index)) {
-                    visited.put(index, changeBlocksPresent);
-                    queue.add(new Object[]{Hash.hashBlock(x, y, z), current});
-                }
-            }
-        } else if (current >= currentLight) {
-            if (!spreadVisited.containsKey(index)) {
-                spreadVisited.put(index, changeBlocksPresent);
-                spreadQueue.add(Hash.hashBlock(x, y, z));
-            }
-        }
-    }
-
-    private void computeSpreadBlockLight(int x, int y, int z, int currentLight, Queue<Long> queue,
-                                         Map<Long, Object> visited) {
-        int current = this.getBlockLightAt(x, y, z);
-        long index = Hash.hashBlock(x, y, z);
-
-        if (current < currentLight - 1) {
-            this.setBlockLightAt(x, y, z, currentLight);
-
-            if (!visited.containsKey(index)) {
-                visited.put(index, changeBlocksPresent);
-                if (currentLight > 1) {
-                    queue.add(Hash.hashBlock(x, y, z));
-                }
-            }
-        }
-    }
-
-    private Map<Long, Map<Character, Object>> lightQueue = new ConcurrentHashMap<>(8, 0.9f, 1);
-
     public void addLightUpdate(int x, int y, int z) {
-        long index = chunkHash(x >> 4, z >> 4);
-        Map<Character, Object> currentMap = lightQueue.get(index);
-        if (currentMap == null) {
-            currentMap = new ConcurrentHashMap<>(8, 0.9f, 1);
-            this.lightQueue.put(index, currentMap);
-        }
-        currentMap.put(Level.localBlockHash(x, y, z), changeBlocksPresent);
+        this.blockLightEngine.queue(x, y, z);
     }
 
     @Override
-    public synchronized void setBlockFullIdAt(int x, int y, int z, int fullId) {
+    public void setBlockFullIdAt(int x, int y, int z, int fullId) {
         setBlock(x, y, z, Block.fullList[fullId], false, false);
     }
 
-    public synchronized boolean setBlock(Vector3 pos, Block block) {
+    public boolean setBlock(Vector3 pos, Block block) {
         return this.setBlock(pos, block, false);
     }
 
-    public synchronized boolean setBlock(Vector3 pos, Block block, boolean direct) {
+    public boolean setBlock(Vector3 pos, Block block, boolean direct) {
         return this.setBlock(pos, block, direct, true);
     }
 
-    public synchronized boolean setBlock(Vector3 pos, Block block, boolean direct, boolean update) {
+    public boolean setBlock(Vector3 pos, Block block, boolean direct, boolean update) {
         return setBlock(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ(), block, direct, update);
     }
 
-    public synchronized boolean setBlock(int x, int y, int z, Block block, boolean direct, boolean update) {
+    public boolean setBlock(int x, int y, int z, Block block, boolean direct, boolean update) {
         return setBlock(x, y, z, block, direct, update, this.getChunkPlayers(x >> 4, z >> 4).values().toArray(new Player[0]));
     }
 
-    public synchronized boolean setBlock(int x, int y, int z, Block block, boolean direct, boolean update, Player[] sends) {
+    public boolean setBlock(int x, int y, int z, Block block, boolean direct, boolean update, Player[] sends) {
         if (y < 0 || y >= 256) {
             return false;
         }
@@ -1825,6 +1911,11 @@ public class Level implements ChunkManager, Metadatable {
             if (blockPrevious.isTransparent() != block.isTransparent() || blockPrevious.getLightLevel() != block.getLightLevel()) {
                 addLightUpdate(x, y, z);
             }
+            int previousId = blockPrevious.getId();
+            int id = block.getId();
+            if (Block.solid[previousId] != Block.solid[id] || Block.lightFilter[previousId] != Block.lightFilter[id]) {
+                updateBlockSkyLight(x, y, z);
+            }
             BlockUpdateEvent ev = new BlockUpdateEvent(block);
             this.server.getPluginManager().callEvent(ev);
             if (!ev.isCancelled()) {
@@ -2281,27 +2372,10 @@ public class Level implements ChunkManager, Metadatable {
     }
 
     public Entity[] getCollidingEntities(AxisAlignedBB bb, Entity entity) {
-        List<Entity> nearby = new ArrayList<>();
-
-        if (entity == null || entity.canCollide()) {
-            int minX = NukkitMath.floorDouble((bb.getMinX() - 2) / 16);
-            int maxX = NukkitMath.ceilDouble((bb.getMaxX() + 2) / 16);
-            int minZ = NukkitMath.floorDouble((bb.getMinZ() - 2) / 16);
-            int maxZ = NukkitMath.ceilDouble((bb.getMaxZ() + 2) / 16);
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int z = minZ; z <= maxZ; ++z) {
-                    for (Entity ent : this.getChunkEntities(x, z).values()) {
-                        if ((entity == null || (ent != entity && entity.canCollideWith(ent)))
-                                && ent.boundingBox.intersectsWith(bb)) {
-                            nearby.add(ent);
-                        }
-                    }
-                }
-            }
+        if (entity != null && !entity.canCollide()) {
+            return new Entity[0];
         }
-
-        return nearby.toArray(new Entity[0]);
+        return this.entityIndex.toArray(bb, entity, true);
     }
 
     public Entity[] getNearbyEntities(AxisAlignedBB bb) {
@@ -2309,29 +2383,40 @@ public class Level implements ChunkManager, Metadatable {
     }
 
     public Entity[] getNearbyEntities(AxisAlignedBB bb, Entity entity) {
-        List<Entity> nearby = new ArrayList<>();
+        return this.entityIndex.toArray(bb, entity, false);
+    }
 
-        int minX = NukkitMath.floorDouble((bb.getMinX() - 2) / 16);
-        int maxX = NukkitMath.ceilDouble((bb.getMaxX() + 2) / 16);
-        int minZ = NukkitMath.floorDouble((bb.getMinZ() - 2) / 16);
-        int maxZ = NukkitMath.ceilDouble((bb.getMaxZ() + 2) / 16);
+    /**
+     * Calls the consumer with every entity whose bounding box intersects the given box, without building an array
+     * like {@link #getNearbyEntities(AxisAlignedBB, Entity)}. Entities removed by the consumer are still visited.
+     *
+     * @param entity entity to leave out, may be null
+     */
+    public void forEachNearbyEntity(AxisAlignedBB bb, Entity entity, Consumer<? super Entity> consumer) {
+        this.entityIndex.forEach(bb, entity, false, Entity.class, consumer);
+    }
 
-        long loops = 0;
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                if (loops++ > 1000000) {
-                    this.server.getLogger().logException(new AxisAlignedBBLoopException("Level.getNearbyEntities bb=" + bb.toString() + " minX=" + minX + " maxX=" + maxX + " minZ=" + minZ + " maxZ=" + maxZ + " x=" + x + " z=" + z));
-                    return nearby.toArray(new Entity[0]);
-                }
-                for (Entity ent : this.getChunkEntities(x, z).values()) {
-                    if (ent != entity && ent.boundingBox.intersectsWith(bb)) {
-                        nearby.add(ent);
-                    }
-                }
-            }
+    /**
+     * Like {@link #forEachNearbyEntity(AxisAlignedBB, Entity, Consumer)}, only visiting entities of the given type.
+     */
+    public <T> void forEachNearbyEntity(AxisAlignedBB bb, Entity entity, Class<T> type, Consumer<? super T> consumer) {
+        this.entityIndex.forEach(bb, entity, false, type, consumer);
+    }
+
+    /**
+     * Calls the consumer with every entity {@link #getCollidingEntities(AxisAlignedBB, Entity)} would return.
+     */
+    public void forEachCollidingEntity(AxisAlignedBB bb, Entity entity, Consumer<? super Entity> consumer) {
+        if (entity == null || entity.canCollide()) {
+            this.entityIndex.forEach(bb, entity, true, Entity.class, consumer);
         }
+    }
 
-        return nearby.toArray(new Entity[0]);
+    /**
+     * Moves an entity of this level in the index used by the entity range queries, called whenever it moved.
+     */
+    public void updateEntityIndex(Entity entity) {
+        this.entityIndex.update(entity);
     }
 
     public Map<Long, BlockEntity> getBlockEntities() {
@@ -2395,7 +2480,7 @@ public class Level implements ChunkManager, Metadatable {
         }
     }
 
-    public synchronized void setBlockAt(int x, int y, int z, int id, int data) {
+    public void setBlockAt(int x, int y, int z, int id, int data) {
         BaseFullChunk chunk = this.getChunk(x >> 4, z >> 4, true);
         chunk.setBlockId(x & 0x0f, y & 0xff, z & 0x0f, id & 0xff);
         chunk.setBlockData(x & 0x0f, y & 0xff, z & 0x0f, data & 0xf);
@@ -2762,6 +2847,8 @@ public class Level implements ChunkManager, Metadatable {
 
         this.entities.remove(entity.getId());
         this.updateEntities.remove(entity.getId());
+        this.entityIndex.remove(entity);
+        this.entityTracker.remove(entity);
     }
 
     public void addEntity(Entity entity) {
@@ -2773,6 +2860,7 @@ public class Level implements ChunkManager, Metadatable {
             this.players.put(entity.getId(), (Player) entity);
         }
         this.entities.put(entity.getId(), entity);
+        this.entityIndex.add(entity);
     }
 
     public void addBlockEntity(BlockEntity blockEntity) {
@@ -2785,16 +2873,31 @@ public class Level implements ChunkManager, Metadatable {
     public void scheduleBlockEntityUpdate(BlockEntity entity) {
         Preconditions.checkNotNull(entity, "entity");
         Preconditions.checkArgument(entity.getLevel() == this, "BlockEntity is not in this level");
-        if (!updateBlockEntities.contains(entity)) {
-            updateBlockEntities.add(entity);
-        }
+        blockEntityScheduler.wake(entity);
+    }
+
+    public void scheduleBlockEntityUpdate(BlockEntity entity, int delay) {
+        Preconditions.checkNotNull(entity, "entity");
+        Preconditions.checkArgument(entity.getLevel() == this, "BlockEntity is not in this level");
+        blockEntityScheduler.schedule(entity, delay);
+    }
+
+    /**
+     * Wakes up the block entity at the position and the ones next to it, which may move items from or into it.
+     */
+    public void scheduleBlockEntityUpdatesAround(Vector3 pos) {
+        blockEntityScheduler.wakeAround(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ());
+    }
+
+    public BlockEntityScheduler getBlockEntityScheduler() {
+        return blockEntityScheduler;
     }
 
     public void removeBlockEntity(BlockEntity entity) {
         Preconditions.checkNotNull(entity, "entity");
         Preconditions.checkArgument(entity.getLevel() == this, "BlockEntity is not in this level");
         blockEntities.remove(entity.getId());
-        updateBlockEntities.remove(entity);
+        blockEntityScheduler.remove(entity);
     }
 
     public boolean isChunkInUse(int x, int z) {
@@ -2830,6 +2933,7 @@ public class Level implements ChunkManager, Metadatable {
         }
 
         this.chunks.put(index, chunk);
+        this.entityMerger.addChunk(x, z);
         chunk.initChunk();
 
         if (chunk.getProvider() != null) {
@@ -2941,6 +3045,8 @@ public class Level implements ChunkManager, Metadatable {
 
         this.chunks.remove(index);
         this.chunkTickList.remove(index);
+        this.liquidFlow.removeChunk(x, z);
+        this.entityMerger.removeChunk(x, z);
 
         this.timings.doChunkUnload.stopTiming();
 
@@ -3383,6 +3489,9 @@ public class Level implements ChunkManager, Metadatable {
     }
 
     public int getStrongPower(Vector3 pos, BlockFace direction) {
+        if (this.getBlockIdAt(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ(), true) == Block.AIR) {
+            return 0;
+        }
         return this.getBlock(pos).getStrongPower(direction);
     }
 
@@ -3437,6 +3546,9 @@ public class Level implements ChunkManager, Metadatable {
     }
 
     public int getRedstonePower(Vector3 pos, BlockFace face) {
+        if (this.getBlockIdAt(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ(), true) == Block.AIR) {
+            return 0;
+        }
         Block block = this.getBlock(pos);
         return block.isNormalBlock() ? this.getStrongPower(pos) : block.getWeakPower(face);
     }
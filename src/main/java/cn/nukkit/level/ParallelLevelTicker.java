@@ -0,0 +1,182 @@
+package cn.nukkit.level;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Ticks levels concurrently on a fixed pool of worker threads, one level per worker at a time.
+ * The main thread blocks until every level has finished its tick, so everything that runs before or
+ * after the level ticks keeps its single-threaded guarantees.
+ * <p>
+ * Work that touches more than one level while a level is ticking (teleports between levels, for example)
+ * has to go through {@link cn.nukkit.Server#runWithLevelsPaused(Supplier)}, or
+ * {@link cn.nukkit.Server#runAfterLevelTicks(Runnable)} when it does not need to run right away.
+ */
+public class ParallelLevelTicker {
+
+    private final ExecutorService executor;
+
+    private final Object lock = new Object();
+    private final Queue<FutureTask<?>> pausedTasks = new ArrayDeque<>();
+    // Level ticks not finished yet, and those of them running and not waiting for the other levels
+    private int remaining;
+    private int running;
+
+    public ParallelLevelTicker(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new LevelTickThread(this, runnable, "Level Tick Worker #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return true if the current thread is ticking a level in parallel with other levels
+     */
+    public static boolean isLevelTickThread() {
+        return Thread.currentThread() instanceof LevelTickThread;
+    }
+
+    public void tick(List<Level> levels, Consumer<Level> ticker) {
+        synchronized (this.lock) {
+            this.remaining = levels.size();
+        }
+        for (Level level : levels) {
+            this.executor.execute(() -> {
+                this.resume();
+                try {
+                    ticker.accept(level);
+                } finally {
+                    synchronized (this.lock) {
+                        this.running--;
+                        this.remaining--;
+                        this.lock.notifyAll();
+                    }
+                }
+            });
+        }
+
+        boolean interrupted = false;
+        synchronized (this.lock) {
+            while (this.remaining > 0) {
+                if (this.running == 0 && !this.pausedTasks.isEmpty()) {
+                    // No level is running, the levels waiting for these tasks go on once the lock is released
+                    FutureTask<?> task;
+                    while ((task = this.pausedTasks.poll()) != null) {
+                        task.run();
+                    }
+                    continue;
+                }
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a task on the main thread while no level is being ticked and waits for its result. The level calling
+     * it stays where it is until then, the same as if the task ran right there.
+     *
+     * @param task task to run, it may touch every level
+     * @return the result of the task
+     */
+    public <T> T runWithLevelsPaused(Supplier<T> task) {
+        if (!(Thread.currentThread() instanceof LevelTickThread)) {
+            return task.get();
+        }
+
+        FutureTask<T> future = new FutureTask<>(task::get);
+        synchronized (this.lock) {
+            this.pausedTasks.add(future);
+            this.running--;
+            this.lock.notifyAll();
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            this.resume();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for something another level's thread may hold while it waits in
+     * {@link #runWithLevelsPaused(Supplier)}, such as a lock. The tasks of paused levels may run meanwhile.
+     *
+     * @param blocking the blocking call
+     */
+    public static void waitFor(Runnable blocking) {
+        Thread thread = Thread.currentThread();
+        if (!(thread instanceof LevelTickThread)) {
+            blocking.run();
+            return;
+        }
+
+        ParallelLevelTicker ticker = ((LevelTickThread) thread).ticker;
+        synchronized (ticker.lock) {
+            ticker.running--;
+            ticker.lock.notifyAll();
+        }
+        try {
+            blocking.run();
+        } finally {
+            ticker.resume();
+        }
+    }
+
+    /**
+     * Counts the current level as running again, after the tasks of paused levels the main thread is running
+     * right now.
+     */
+    private void resume() {
+        synchronized (this.lock) {
+            this.running++;
+        }
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private static class LevelTickThread extends Thread {
+        private final ParallelLevelTicker ticker;
+
+        private LevelTickThread(ParallelLevelTicker ticker, Runnable target, String name) {
+            super(target, name);
+            this.ticker = ticker;
+        }
+    }
+}
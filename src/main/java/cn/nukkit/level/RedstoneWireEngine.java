@@ -0,0 +1,324 @@
+package cn.nukkit.level;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.event.block.BlockRedstoneEvent;
+import cn.nukkit.math.BlockFace;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+/**
+ * Works out the power of the redstone wire of a level.
+ * <p>
+ * Wires used to recalculate themselves one by one and update every block around them after each change, so the
+ * wires of a line kept recalculating each other. Here a wire update solves every wire it can affect in one pass:
+ * the wires reachable within 15 steps, as power does not travel further, with the wires just beyond taken as they
+ * are. Power is spread from the strongest wires down, each wire ending up with the most of its own input power and
+ * its strongest neighbour wire minus one, the same result the wires settled on before. Changed wires are then
+ * written and every block around them gets a single redstone update. Wire updates raised by those blocks are
+ * queued and solved together once they all ran.
+ * <p>
+ * Only used from the thread ticking the level.
+ */
+public class RedstoneWireEngine {
+
+    private static final int MAX_POWER = 15;
+
+    private static final int[][] HORIZONTAL = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
+
+    private final Level level;
+
+    private final LongLinkedOpenHashSet pending = new LongLinkedOpenHashSet();
+    private final LongOpenHashSet forced = new LongOpenHashSet();
+    private boolean solving;
+
+    // Scratch state of one pass
+    private final Long2IntOpenHashMap distance = new Long2IntOpenHashMap();
+    private final Long2IntOpenHashMap power = new Long2IntOpenHashMap();
+    private final LongArrayList wires = new LongArrayList();
+    private final LongArrayList[] buckets = new LongArrayList[MAX_POWER + 1];
+    private final LongLinkedOpenHashSet notify = new LongLinkedOpenHashSet();
+    private final long[] neighbours = new long[8];
+
+    public RedstoneWireEngine(Level level) {
+        this.level = level;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongArrayList();
+        }
+    }
+
+    private static int getX(long key) {
+        return (int) (key >> 36);
+    }
+
+    private static int getY(long key) {
+        return (int) (key >>> 28) & 0xff;
+    }
+
+    private static int getZ(long key) {
+        return ((int) key << 4) >> 4;
+    }
+
+    /**
+     * Recalculates the wire at the position and every wire depending on it.
+     *
+     * @param force update the blocks around the wire even if its power does not change
+     */
+    public void update(int x, int y, int z, boolean force) {
+        if (y < 0 || y > 255) {
+            return;
+        }
+        long key = Level.blockHash(x, y, z);
+        pending.add(key);
+        if (force) {
+            forced.add(key);
+        }
+        if (solving) {
+            return;
+        }
+
+        solving = true;
+        try {
+            while (!pending.isEmpty()) {
+                solve();
+                notifyBlocks();
+            }
+        } finally {
+            solving = false;
+            pending.clear();
+            forced.clear();
+            distance.clear();
+            power.clear();
+            wires.clear();
+            notify.clear();
+            for (LongArrayList bucket : buckets) {
+                bucket.clear();
+            }
+        }
+    }
+
+    private void solve() {
+        distance.clear();
+        power.clear();
+        wires.clear();
+        notify.clear();
+
+        LongIterator iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            long key = iterator.nextLong();
+            if (isWire(getX(key), getY(key), getZ(key))) {
+                distance.put(key, 0);
+                wires.add(key);
+            }
+        }
+        pending.clear();
+
+        // Wires reachable within the range of power, the last ring is only read
+        for (int i = 0; i < wires.size(); i++) {
+            long key = wires.getLong(i);
+            int d = distance.get(key);
+            if (d == MAX_POWER) {
+                continue;
+            }
+            int count = findNeighbours(key);
+            for (int j = 0; j < count; j++) {
+                long neighbour = neighbours[j];
+                if (!distance.containsKey(neighbour)) {
+                    distance.put(neighbour, d + 1);
+                    wires.add(neighbour);
+                }
+            }
+        }
+
+        for (int i = 0; i < wires.size(); i++) {
+            long key = wires.getLong(i);
+            int x = getX(key);
+            int y = getY(key);
+            int z = getZ(key);
+            if (distance.get(key) == MAX_POWER) {
+                power.put(key, level.getBlockDataAt(x, y, z));
+                continue;
+            }
+            int p = getInputPower(x, y, z);
+            int count = findNeighbours(key);
+            for (int j = 0; j < count; j++) {
+                long neighbour = neighbours[j];
+                if (distance.get(neighbour) == MAX_POWER) {
+                    p = Math.max(p, level.getBlockDataAt(getX(neighbour), getY(neighbour), getZ(neighbour)) - 1);
+                }
+            }
+            power.put(key, p);
+            buckets[p].add(key);
+        }
+
+        for (int p = MAX_POWER; p > 0; p--) {
+            LongArrayList bucket = buckets[p];
+            for (int i = 0; i < bucket.size(); i++) {
+                long key = bucket.getLong(i);
+                if (power.get(key) != p) {
+                    continue;
+                }
+                int count = findNeighbours(key);
+                for (int j = 0; j < count; j++) {
+                    long neighbour = neighbours[j];
+                    if (distance.get(neighbour) < MAX_POWER && power.get(neighbour) < p - 1) {
+                        power.put(neighbour, p - 1);
+                        buckets[p - 1].add(neighbour);
+                    }
+                }
+            }
+            bucket.clear();
+        }
+        buckets[0].clear();
+
+        for (int i = 0; i < wires.size(); i++) {
+            long key = wires.getLong(i);
+            if (distance.get(key) == MAX_POWER) {
+                continue;
+            }
+            int x = getX(key);
+            int y = getY(key);
+            int z = getZ(key);
+            int old = level.getBlockDataAt(x, y, z);
+            int p = power.get(key);
+            if (old != p) {
+                Block block = level.getBlock(x, y, z);
+                level.getServer().getPluginManager().callEvent(new BlockRedstoneEvent(block, old, p));
+                block.setDamage(p);
+                level.setBlock(block, block, false, false);
+                addAround(x, y, z, true);
+            } else if (forced.contains(key)) {
+                addAround(x, y, z, false);
+            }
+        }
+        forced.clear();
+    }
+
+    /**
+     * Sends a redstone update to every block around the changed wires, once each. Wires solved in this pass are
+     * left out, they already have their final power.
+     */
+    private void notifyBlocks() {
+        long[] keys = notify.toLongArray();
+        notify.clear();
+        for (long key : keys) {
+            if (distance.containsKey(key)) {
+                continue;
+            }
+            int x = getX(key);
+            int y = getY(key);
+            int z = getZ(key);
+            if (level.getFullBlock(x, y, z) == 0) {
+                continue;
+            }
+            level.getBlock(x, y, z).onUpdate(Level.BLOCK_UPDATE_REDSTONE);
+        }
+    }
+
+    /**
+     * Queues the blocks two steps around a wire, the blocks a wire updated after changing.
+     *
+     * @param sides also queue the blocks right next to the wire
+     */
+    private void addAround(int x, int y, int z, boolean sides) {
+        for (BlockFace face : BlockFace.values0()) {
+            int sx = x + face.getXOffset();
+            int sy = y + face.getYOffset();
+            int sz = z + face.getZOffset();
+            if (sides) {
+                addNotify(sx, sy, sz);
+            }
+            for (BlockFace second : BlockFace.values0()) {
+                addNotify(sx + second.getXOffset(), sy + second.getYOffset(), sz + second.getZOffset());
+            }
+        }
+    }
+
+    private void addNotify(int x, int y, int z) {
+        if (y >= 0 && y <= 255) {
+            notify.add(Level.blockHash(x, y, z));
+        }
+    }
+
+    /**
+     * Fills {@link #neighbours} with the wires this wire takes power from: next to it, one block up when the wire
+     * is not covered, or one block down beside a block that does not hold power.
+     *
+     * @return the number of wires found
+     */
+    private int findNeighbours(long key) {
+        int x = getX(key);
+        int y = getY(key);
+        int z = getZ(key);
+        boolean covered = isNormalBlock(x, y + 1, z);
+        int count = 0;
+        for (int[] offset : HORIZONTAL) {
+            int vx = x + offset[0];
+            int vz = z + offset[1];
+            int fullId = level.getFullBlock(vx, y, vz);
+            if (fullId >> 4 == Block.REDSTONE_WIRE) {
+                neighbours[count++] = Level.blockHash(vx, y, vz);
+            }
+            boolean normal = Block.fullList[fullId].isNormalBlock();
+            if (normal && !covered) {
+                if (y < 255 && isWire(vx, y + 1, vz)) {
+                    neighbours[count++] = Level.blockHash(vx, y + 1, vz);
+                }
+            } else if (!normal) {
+                if (y > 0 && isWire(vx, y - 1, vz)) {
+                    neighbours[count++] = Level.blockHash(vx, y - 1, vz);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the strongest power given to the wire by anything but other wires
+     */
+    private int getInputPower(int x, int y, int z) {
+        int power = 0;
+        for (BlockFace face : BlockFace.values()) {
+            int sx = x + face.getXOffset();
+            int sy = y + face.getYOffset();
+            int sz = z + face.getZOffset();
+            int fullId = level.getFullBlock(sx, sy, sz);
+            int id = fullId >> 4;
+            if (id == Block.AIR || id == Block.REDSTONE_WIRE) {
+                continue;
+            }
+
+            int blockPower;
+            if (Block.fullList[fullId].isNormalBlock()) {
+                int bx = sx + face.getXOffset();
+                int by = sy + face.getYOffset();
+                int bz = sz + face.getZOffset();
+                int behind = level.getFullBlock(bx, by, bz) >> 4;
+                if (behind == Block.AIR || behind == Block.REDSTONE_WIRE) {
+                    continue;
+                }
+                blockPower = level.getBlock(bx, by, bz).getStrongPower(face);
+            } else {
+                blockPower = level.getBlock(sx, sy, sz).getWeakPower(face);
+            }
+
+            if (blockPower >= MAX_POWER) {
+                return MAX_POWER;
+            }
+            if (blockPower > power) {
+                power = blockPower;
+            }
+        }
+        return power;
+    }
+
+    private boolean isWire(int x, int y, int z) {
+        return level.getFullBlock(x, y, z) >> 4 == Block.REDSTONE_WIRE;
+    }
+
+    private boolean isNormalBlock(int x, int y, int z) {
+        return Block.fullList[level.getFullBlock(x, y, z)].isNormalBlock();
+    }
+}
@@ -0,0 +1,133 @@
+package cn.nukkit.level.biome;
+
+import cn.nukkit.level.Level;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the biomes a {@link BiomeSelector} picked, in tiles of 16x16 columns grouped by region.
+ * <p>
+ * Terrain generation smooths heights over the biomes a few columns around every chunk, so the same columns
+ * are picked again and again by neighbouring chunks, each pick sampling several noises. With the cache a
+ * column is picked once while its region stays cached. There is one cache per seed, shared by every
+ * generator using that seed and so by all generation workers. Tiles are filled on first use. Two workers
+ * may fill the same tile at the same time, which is harmless as they pick the same biomes. Once more than
+ * {@link #MAX_REGIONS} regions are cached, the least recently used one is dropped. The cache of a seed is
+ * dropped with {@link #release(long)} once no level with that seed is loaded any more.
+ */
+public class BiomeMapCache {
+
+    private static final int MAX_REGIONS = 64;
+
+    private static final Long2ObjectMap<BiomeMapCache> caches = new Long2ObjectOpenHashMap<>();
+
+    private final BiomeSelector selector;
+    private final Long2ObjectOpenHashMap<Region> regions = new Long2ObjectOpenHashMap<>();
+    private long clock;
+
+    private BiomeMapCache(BiomeSelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * @param selector used to pick biomes if there is no cache for the seed yet, it must have been created from that seed
+     */
+    public static BiomeMapCache get(long seed, BiomeSelector selector) {
+        synchronized (caches) {
+            BiomeMapCache cache = caches.get(seed);
+            if (cache == null) {
+                cache = new BiomeMapCache(selector);
+                caches.put(seed, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Drops the cache of the seed. Generators that still hold it keep using it, the next generator created
+     * for the seed starts a new one.
+     */
+    public static void release(long seed) {
+        synchronized (caches) {
+            caches.remove(seed);
+        }
+    }
+
+    public Biome getBiome(int x, int z) {
+        return Biome.getBiome(this.getTile(x >> 4, z >> 4)[(x & 0x0f) | (z & 0x0f) << 4] & 0xff);
+    }
+
+    /**
+     * Fills {@code biomes} with the biomes of the area starting at the given column, row by row along the x axis.
+     */
+    public void fill(Biome[] biomes, int x, int z, int width, int depth) {
+        for (int chunkZ = z >> 4; chunkZ <= (z + depth - 1) >> 4; chunkZ++) {
+            for (int chunkX = x >> 4; chunkX <= (x + width - 1) >> 4; chunkX++) {
+                byte[] tile = this.getTile(chunkX, chunkZ);
+                int fromX = Math.max(x, chunkX << 4);
+                int toX = Math.min(x + width, (chunkX + 1) << 4);
+                int fromZ = Math.max(z, chunkZ << 4);
+                int toZ = Math.min(z + depth, (chunkZ + 1) << 4);
+                for (int zz = fromZ; zz < toZ; zz++) {
+                    int index = (fromX - x) + (zz - z) * width;
+                    for (int xx = fromX; xx < toX; xx++) {
+                        biomes[index++] = Biome.getBiome(tile[(xx & 0x0f) | (zz & 0x0f) << 4] & 0xff);
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] getTile(int chunkX, int chunkZ) {
+        long index = Level.chunkHash(chunkX >> 5, chunkZ >> 5);
+        Region region;
+        synchronized (this.regions) {
+            region = this.regions.get(index);
+            if (region == null) {
+                if (this.regions.size() >= MAX_REGIONS) {
+                    this.evictOldest();
+                }
+                region = new Region();
+                this.regions.put(index, region);
+            }
+            region.lastUsed = ++this.clock;
+        }
+
+        int slot = (chunkX & 0x1f) | (chunkZ & 0x1f) << 5;
+        byte[] tile = region.tiles.get(slot);
+        if (tile == null) {
+            tile = new byte[256];
+            int baseX = chunkX << 4;
+            int baseZ = chunkZ << 4;
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    tile[x | z << 4] = (byte) this.selector.pickBiome(baseX | x, baseZ | z).getId();
+                }
+            }
+            region.tiles.set(slot, tile);
+        }
+        return tile;
+    }
+
+    private void evictOldest() {
+        long oldest = 0;
+        long oldestUse = Long.MAX_VALUE;
+        ObjectIterator<Long2ObjectMap.Entry<Region>> iter = this.regions.long2ObjectEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Long2ObjectMap.Entry<Region> entry = iter.next();
+            if (entry.getValue().lastUsed < oldestUse) {
+                oldestUse = entry.getValue().lastUsed;
+                oldest = entry.getLongKey();
+            }
+        }
+        this.regions.remove(oldest);
+    }
+
+    private static class Region {
+        private final AtomicReferenceArray<byte[]> tiles = new AtomicReferenceArray<>(1024);
+        private long lastUsed;
+    }
+}
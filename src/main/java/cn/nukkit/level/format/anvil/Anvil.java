@@ -10,13 +10,18 @@ import cn.nukkit.level.generator.Generator;
 import cn.nukkit.math.XXHash64;
 import cn.nukkit.nbt.NBTIO;
 import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.scheduler.AsyncTask;
 import cn.nukkit.utils.BinaryStream;
 import cn.nukkit.utils.ChunkException;
 import cn.nukkit.utils.ThreadCache;
+import cn.nukkit.utils.Zlib;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import lombok.extern.log4j.Log4j2;
@@ -29,6 +34,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -40,6 +46,15 @@ public class Anvil extends BaseLevelProvider {
     public static final int VERSION = 19133;
     static private final byte[] PAD_256 = new byte[256];
 
+    // Chunks serialized by saveChunkAsync that were not written yet, guarded by itself
+    private final Long2ObjectMap<PendingWrite> pendingWrites = new Long2ObjectOpenHashMap<>();
+    // Held while writing a chunk of the region, so a write of older data can never land after a newer one
+    private final Long2ObjectMap<Object> regionWriteLocks = new Long2ObjectOpenHashMap<>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    // Chunks whose last pending write failed and was not handed to the level yet, guarded by pendingWrites
+    private final LongLinkedOpenHashSet failedWrites = new LongLinkedOpenHashSet();
+    private final AtomicLong writeFailures = new AtomicLong();
+
     public Anvil(Level level, String path) throws IOException {
         super(level, path);
     }
@@ -129,6 +144,11 @@ public class Anvil extends BaseLevelProvider {
             byte[] payloadOld;
             ChunkPacketCache chunkPacketCache;
 
+            @Override
+            public AsyncLane getLane() {
+                return AsyncLane.CHUNK_SEND;
+            }
+
             @Override
             public void onRun() {
                 try {
@@ -285,16 +305,25 @@ public class Anvil extends BaseLevelProvider {
     }
 
     @Override
-    public synchronized BaseFullChunk loadChunk(long index, int chunkX, int chunkZ, boolean create) {
+    public BaseFullChunk loadChunk(long index, int chunkX, int chunkZ, boolean create) {
         int regionX = getRegionIndexX(chunkX);
         int regionZ = getRegionIndexZ(chunkZ);
         BaseRegionLoader region = this.loadRegion(regionX, regionZ);
         this.level.timings.syncChunkLoadDataTimer.startTiming();
         BaseFullChunk chunk;
-        try {
-            chunk = region.readChunk(chunkX - regionX * 32, chunkZ - regionZ * 32);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        PendingWrite pending;
+        synchronized (this.pendingWrites) {
+            pending = this.pendingWrites.get(Level.chunkHash(chunkX, chunkZ));
+        }
+        if (pending != null) {
+            // The region still has the data from before the save
+            chunk = Chunk.fromFastBinary(pending.data, this);
+        } else {
+            try {
+                chunk = region.readChunk(chunkX - regionX * 32, chunkZ - regionZ * 32);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
         if (chunk == null) {
             if (create) {
@@ -309,11 +338,11 @@ public class Anvil extends BaseLevelProvider {
     }
 
     @Override
-    public synchronized void saveChunk(int X, int Z) {
+    public void saveChunk(int X, int Z) {
         BaseFullChunk chunk = this.getChunk(X, Z);
         if (chunk != null) {
             try {
-                this.loadRegion(X >> 5, Z >> 5).writeChunk(chunk);
+                this.writeChunk(X, Z, chunk);
             } catch (Exception e) {
                 throw new ChunkException("Error saving chunk (" + X + ", " + Z + ")", e);
             }
@@ -322,29 +351,208 @@ public class Anvil extends BaseLevelProvider {
 
 
     @Override
-    public synchronized void saveChunk(int x, int z, FullChunk chunk) {
+    public void saveChunk(int x, int z, FullChunk chunk) {
         if (!(chunk instanceof Chunk)) {
             throw new ChunkException("Invalid Chunk class");
         }
-        int regionX = x >> 5;
-        int regionZ = z >> 5;
-        this.loadRegion(regionX, regionZ);
         chunk.setX(x);
         chunk.setZ(z);
         try {
-            this.getRegion(regionX, regionZ).writeChunk(chunk);
+            this.writeChunk(x, z, chunk);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    private void writeChunk(int x, int z, FullChunk chunk) throws Exception {
+        synchronized (this.getRegionWriteLock(x >> 5, z >> 5)) {
+            // The chunk is written as it is now, which is newer than a pending snapshot
+            synchronized (this.pendingWrites) {
+                this.pendingWrites.remove(Level.chunkHash(x, z));
+                this.failedWrites.remove(Level.chunkHash(x, z));
+            }
+            this.loadRegion(x >> 5, z >> 5).writeChunk(chunk);
+        }
+    }
+
+    private Object getRegionWriteLock(int regionX, int regionZ) {
+        long index = Level.chunkHash(regionX, regionZ);
+        synchronized (this.regionWriteLocks) {
+            Object lock = this.regionWriteLocks.get(index);
+            if (lock == null) {
+                lock = new Object();
+                this.regionWriteLocks.put(index, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Serializes a chunk and queues it to be compressed and written on the I/O lane. Must be called from the
+     * thread that ticks the level. A later save of the same chunk replaces the pending write, so the newest data
+     * ends up on disk.
+     */
+    public void saveChunkAsync(FullChunk chunk) {
+        long index = Level.chunkHash(chunk.getX(), chunk.getZ());
+        PendingWrite write = new PendingWrite(chunk.getX(), chunk.getZ(), chunk.toFastBinary());
+        synchronized (this.pendingWrites) {
+            this.pendingWrites.put(index, write);
+            this.failedWrites.remove(index);
+        }
+        if (!this.getServer().getScheduler().getAsyncPool().tryExecute(() -> this.writePending(index, write), AsyncLane.IO)) {
+            this.writePending(index, write);
+        }
+    }
+
+    private void writePending(long index, PendingWrite write) {
+        byte[] compressed;
+        try {
+            compressed = Zlib.deflate(write.data, RegionLoader.COMPRESSION_LEVEL);
+        } catch (Exception e) {
+            log.error("Unable to compress chunk (" + write.x + ", " + write.z + ")", e);
+            compressed = null;
+        }
+        synchronized (this.getRegionWriteLock(write.x >> 5, write.z >> 5)) {
+            // Taken off the map only once the region is locked, so a newer save of the chunk is written after this one
+            synchronized (this.pendingWrites) {
+                if (this.pendingWrites.get(index) != write) {
+                    return; // Saved again since
+                }
+            }
+            boolean written = compressed != null && this.writeCompressed(write, compressed);
+            synchronized (this.pendingWrites) {
+                if (written) {
+                    // Kept until written, so loadChunk reads the snapshot instead of the older data in the region
+                    this.pendingWrites.remove(index, write);
+                } else if (this.pendingWrites.get(index) == write) {
+                    // Kept as the newest data of the chunk until the level saved it again
+                    this.failedWrites.add(index);
+                }
+            }
+            if (!written) {
+                this.writeFailures.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean writeCompressed(PendingWrite write, byte[] compressed) {
+        try {
+            RegionLoader region = (RegionLoader) this.loadRegion(write.x >> 5, write.z >> 5);
+            region.lastUsed = System.currentTimeMillis();
+            region.saveChunk(write.x & 0x1f, write.z & 0x1f, compressed);
+            this.bytesWritten.addAndGet(compressed.length);
+            return true;
+        } catch (Exception e) {
+            log.error("Error saving chunk (" + write.x + ", " + write.z + ")", e);
+            return false;
+        }
+    }
+
+    /**
+     * Hands over the chunks whose last write queued by {@link #saveChunkAsync(FullChunk)} failed. Their snapshots
+     * stay pending until {@link #dropPendingWrite(int, int)} or {@link #retryPendingWrite(int, int)}.
+     *
+     * @return the indexes of the chunks, see {@link Level#chunkHash(int, int)}
+     */
+    public long[] pollFailedWrites() {
+        synchronized (this.pendingWrites) {
+            if (this.failedWrites.isEmpty()) {
+                return LongArrays.EMPTY_ARRAY;
+            }
+            long[] failed = this.failedWrites.toLongArray();
+            this.failedWrites.clear();
+            return failed;
+        }
+    }
+
+    /**
+     * Forgets the pending write of a chunk that is going to be saved again.
+     */
+    public void dropPendingWrite(int chunkX, int chunkZ) {
+        synchronized (this.pendingWrites) {
+            this.pendingWrites.remove(Level.chunkHash(chunkX, chunkZ));
+        }
+    }
+
+    /**
+     * Queues the pending write of a chunk on the I/O lane again.
+     */
+    public void retryPendingWrite(int chunkX, int chunkZ) {
+        long index = Level.chunkHash(chunkX, chunkZ);
+        PendingWrite write;
+        synchronized (this.pendingWrites) {
+            write = this.pendingWrites.get(index);
+        }
+        if (write != null && !this.getServer().getScheduler().getAsyncPool().tryExecute(() -> this.writePending(index, write), AsyncLane.IO)) {
+            this.writePending(index, write);
+        }
+    }
+
+    /**
+     * Writes every chunk queued by {@link #saveChunkAsync(FullChunk)} on the calling thread.
+     */
+    public void flushPendingWrites() {
+        Long2ObjectMap<PendingWrite> writes;
+        synchronized (this.pendingWrites) {
+            writes = new Long2ObjectOpenHashMap<>(this.pendingWrites);
+        }
+        for (Long2ObjectMap.Entry<PendingWrite> entry : writes.long2ObjectEntrySet()) {
+            this.writePending(entry.getLongKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return the number of chunks queued by {@link #saveChunkAsync(FullChunk)} that were not written yet
+     */
+    public int getPendingWrites() {
+        synchronized (this.pendingWrites) {
+            return this.pendingWrites.size();
+        }
+    }
+
+    /**
+     * @return how many writes queued by {@link #saveChunkAsync(FullChunk)} failed
+     */
+    public long getWriteFailures() {
+        return this.writeFailures.get();
+    }
+
+    /**
+     * @return the compressed size of all chunks written by {@link #saveChunkAsync(FullChunk)}
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.flushPendingWrites();
+        super.close();
+    }
+
+    private static class PendingWrite {
+        private final int x;
+        private final int z;
+        private final byte[] data;
+
+        private PendingWrite(int x, int z, byte[] data) {
+            this.x = x;
+            this.z = z;
+            this.data = data;
+        }
+    }
+
     public static ChunkSection createChunkSection(int y) {
         ChunkSection cs = new ChunkSection(y);
         cs.hasSkyLight = true;
         return cs;
     }
 
-    protected synchronized BaseRegionLoader loadRegion(int x, int z) {
+    /**
+     * Only the lookup is done under the lock of the region map, region loaders synchronize their own I/O, so
+     * chunks of different regions can be read in parallel.
+     */
+    protected BaseRegionLoader loadRegion(int x, int z) {
         BaseRegionLoader tmp = lastRegion.get();
         if (tmp != null && x == tmp.getX() && z == tmp.getZ()) {
             return tmp;
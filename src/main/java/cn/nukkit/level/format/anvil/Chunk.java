@@ -9,17 +9,13 @@ import cn.nukkit.level.format.LevelProvider;
 import cn.nukkit.level.format.anvil.palette.BiomePalette;
 import cn.nukkit.level.format.generic.BaseChunk;
 import cn.nukkit.level.format.generic.EmptyChunkSection;
-import cn.nukkit.nbt.NBTIO;
+import cn.nukkit.nbt.stream.*;
 import cn.nukkit.nbt.tag.*;
-import cn.nukkit.utils.BinaryStream;
-import cn.nukkit.utils.BlockUpdateEntry;
-import cn.nukkit.utils.ChunkException;
-import cn.nukkit.utils.Zlib;
+import cn.nukkit.utils.*;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 
 import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.nio.ByteOrder;
@@ -35,6 +31,12 @@ public class Chunk extends BaseChunk {
     protected boolean terrainPopulated;
     protected boolean terrainGenerated;
 
+    // Tile ticks of a chunk read without a level to schedule them on, written back unchanged
+    protected ListTag<CompoundTag> NBTtileTicks;
+
+    private static final ThreadLocal<byte[][]> SECTION_BUFFERS = ThreadLocal.withInitial(() -> new byte[][]{new byte[4096], new byte[2048]});
+    private static final ThreadLocal<FastByteArrayOutputStream> NBT_BUFFER = ThreadLocal.withInitial(() -> new FastByteArrayOutputStream(1 << 16));
+
     @Override
     public Chunk clone() {
         return (Chunk) super.clone();
@@ -83,15 +85,9 @@ public class Chunk extends BaseChunk {
             }
         }
 
-        Int2IntMap extraData = new Int2IntOpenHashMap();
-
         Tag extra = nbt.get("ExtraData");
         if (extra instanceof ByteArrayTag) {
-            BinaryStream stream = new BinaryStream(((ByteArrayTag) extra).data);
-            for (int i = 0; i < stream.getInt(); i++) {
-                int key = stream.getInt();
-                extraData.put(key, stream.getShort());
-            }
+            this.setExtraData(((ByteArrayTag) extra).data);
         }
 
         this.setPosition(nbt.getInt("xPos"), nbt.getInt("zPos"));
@@ -100,40 +96,63 @@ public class Chunk extends BaseChunk {
         }
 
         if (nbt.contains("BiomeColors")) {
-            this.biomes = new byte[16 * 16];
-            int[] biomeColors = nbt.getIntArray("BiomeColors");
-            if (biomeColors != null && biomeColors.length == 256) {
-                BiomePalette palette = new BiomePalette(biomeColors);
-                for (int x = 0; x < 16; x++)    {
-                    for (int z = 0; z < 16; z++)    {
-                        this.biomes[(x << 4) | z] = (byte) (palette.get(x, z) >> 24);
-                    }
-                }
-            }
+            this.setBiomeColors(nbt.getIntArray("BiomeColors"));
         } else {
             this.biomes = Arrays.copyOf(nbt.getByteArray("Biomes"), 256);
         }
 
-        int[] heightMap = nbt.getIntArray("HeightMap");
+        this.setHeightMap(nbt.getIntArray("HeightMap"));
+
+        this.NBTentities = nbt.getList("Entities", CompoundTag.class).getAll();
+        this.NBTtiles = nbt.getList("TileEntities", CompoundTag.class).getAll();
+        if (this.NBTentities.isEmpty()) this.NBTentities = null;
+        if (this.NBTtiles.isEmpty()) this.NBTtiles = null;
+
+        this.loadTileTicks(nbt.getList("TileTicks", CompoundTag.class));
+
+        this.inhabitedTime = nbt.getLong("InhabitedTime");
+        this.terrainPopulated = nbt.getBoolean("TerrainPopulated");
+        this.terrainGenerated = nbt.getBoolean("TerrainGenerated");
+    }
+
+    private void setExtraData(byte[] data) {
+        Int2IntMap extraData = new Int2IntOpenHashMap();
+        BinaryStream stream = new BinaryStream(data);
+        int count = stream.getInt();
+        for (int i = 0; i < count; i++) {
+            int key = stream.getInt();
+            extraData.put(key, stream.getShort());
+        }
+        if (!extraData.isEmpty()) this.extraData = extraData;
+    }
+
+    private void setBiomeColors(int[] biomeColors) {
+        this.biomes = new byte[16 * 16];
+        if (biomeColors != null && biomeColors.length == 256) {
+            BiomePalette palette = new BiomePalette(biomeColors);
+            for (int x = 0; x < 16; x++)    {
+                for (int z = 0; z < 16; z++)    {
+                    this.biomes[(x << 4) | z] = (byte) (palette.get(x, z) >> 24);
+                }
+            }
+        }
+    }
+
+    private void setHeightMap(int[] heightMap) {
         this.heightMap = new byte[256];
-        if (heightMap.length != 256) {
+        if (heightMap == null || heightMap.length != 256) {
             Arrays.fill(this.heightMap, (byte) 255);
         } else {
             for (int i = 0; i < heightMap.length; i++) {
                 this.heightMap[i] = (byte) heightMap[i];
             }
         }
+    }
 
-        if (!extraData.isEmpty()) this.extraData = extraData;
-
-        this.NBTentities = nbt.getList("Entities", CompoundTag.class).getAll();
-        this.NBTtiles = nbt.getList("TileEntities", CompoundTag.class).getAll();
-        if (this.NBTentities.isEmpty()) this.NBTentities = null;
-        if (this.NBTtiles.isEmpty()) this.NBTtiles = null;
-
-        ListTag<CompoundTag> updateEntries = nbt.getList("TileTicks", CompoundTag.class);
-
-        if (updateEntries != null && updateEntries.size() > 0) {
+    private void loadTileTicks(ListTag<CompoundTag> updateEntries) {
+        if (this.provider == null) {
+            this.NBTtileTicks = updateEntries != null && updateEntries.size() > 0 ? updateEntries : null;
+        } else if (updateEntries != null && updateEntries.size() > 0) {
             for (CompoundTag entryNBT : updateEntries.getAll()) {
                 Block block = null;
 
@@ -164,10 +183,6 @@ public class Chunk extends BaseChunk {
                 this.provider.getLevel().scheduleUpdate(block, block, entryNBT.getInt("t"), entryNBT.getInt("p"), false);
             }
         }
-
-        this.inhabitedTime = nbt.getLong("InhabitedTime");
-        this.terrainPopulated = nbt.getBoolean("TerrainPopulated");
-        this.terrainGenerated = nbt.getBoolean("TerrainGenerated");
     }
 
     @Override
@@ -226,13 +241,7 @@ public class Chunk extends BaseChunk {
 
     public static Chunk fromBinary(byte[] data, LevelProvider provider) {
         try {
-            CompoundTag chunk = NBTIO.read(new ByteArrayInputStream(Zlib.inflate(data)), ByteOrder.BIG_ENDIAN);
-
-            if (!chunk.contains("Level") || !(chunk.get("Level") instanceof CompoundTag)) {
-                return null;
-            }
-
-            return new Chunk(provider, chunk.getCompound("Level"));
+            return read(Zlib.inflate(data), provider);
         } catch (Exception e) {
             Server.getInstance().getLogger().logException(e);
             return null;
@@ -246,196 +255,338 @@ public class Chunk extends BaseChunk {
 
     public static Chunk fromFastBinary(byte[] data, LevelProvider provider) {
         try {
-            CompoundTag chunk = NBTIO.read(new DataInputStream(new ByteArrayInputStream(data)), ByteOrder.BIG_ENDIAN);
-            if (!chunk.contains("Level") || !(chunk.get("Level") instanceof CompoundTag)) {
-                return null;
-            }
-
-            return new Chunk(provider, chunk.getCompound("Level"));
+            return read(data, provider);
         } catch (Exception e) {
             return null;
         }
     }
 
+    /**
+     * Reads a chunk straight from its NBT, without building the tree of the whole chunk.
+     *
+     * @return the chunk, or null if there is no Level compound
+     */
+    private static Chunk read(byte[] data, LevelProvider provider) throws IOException {
+        NBTStreamReader reader = new NBTStreamReader(new NBTInputStream(new ByteArrayInputStream(data), ByteOrder.BIG_ENDIAN));
+        reader.readRoot();
+        Chunk chunk = null;
+        while (reader.next() != Tag.TAG_End) {
+            if (chunk == null && reader.getType() == Tag.TAG_Compound && reader.getName().equals("Level")) {
+                chunk = new Chunk(provider);
+                chunk.readLevel(reader);
+            } else {
+                reader.skip();
+            }
+        }
+        return chunk;
+    }
 
-    @Override
-    public byte[] toFastBinary() {
-        CompoundTag nbt = this.getNBT().copy();
-        nbt.remove("BiomeColors");
+    private void readLevel(NBTStreamReader reader) throws IOException {
+        // Chunks without a level are written back as they are, so what they do not use is not parsed
+        boolean lazy = this.provider == null;
+        int chunkX = 0;
+        int chunkZ = 0;
+        byte[] biomes = null;
+        int[] biomeColors = null;
+        int[] heightMap = null;
+        List<CompoundTag> tileTicks = null;
+
+        while (reader.next() != Tag.TAG_End) {
+            switch (reader.getName()) {
+                case "xPos":
+                    chunkX = (int) readNumber(reader);
+                    break;
+                case "zPos":
+                    chunkZ = (int) readNumber(reader);
+                    break;
+                case "Sections":
+                    this.readSections(reader);
+                    break;
+                case "Biomes":
+                    biomes = readByteArray(reader);
+                    break;
+                case "BiomeColors":
+                    biomeColors = reader.getType() == Tag.TAG_Int_Array ? reader.readIntArray() : skip(reader, new int[0]);
+                    break;
+                case "HeightMap":
+                    heightMap = reader.getType() == Tag.TAG_Int_Array ? reader.readIntArray() : skip(reader, null);
+                    break;
+                case "ExtraData":
+                    byte[] extraData = readByteArray(reader);
+                    if (extraData != null) {
+                        this.setExtraData(extraData);
+                    }
+                    break;
+                case "Entities":
+                    this.NBTentities = readCompoundList(reader, lazy);
+                    break;
+                case "TileEntities":
+                    this.NBTtiles = readCompoundList(reader, lazy);
+                    break;
+                case "TileTicks":
+                    tileTicks = readCompoundList(reader, lazy);
+                    break;
+                case "InhabitedTime":
+                    this.inhabitedTime = readNumber(reader);
+                    break;
+                case "TerrainPopulated":
+                    this.terrainPopulated = readNumber(reader) != 0;
+                    break;
+                case "TerrainGenerated":
+                    this.terrainGenerated = readNumber(reader) != 0;
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
+        }
 
-        nbt.putInt("xPos", this.getX());
-        nbt.putInt("zPos", this.getZ());
+        this.setPosition(chunkX, chunkZ);
+        if (biomeColors != null) {
+            this.setBiomeColors(biomeColors);
+        } else if (biomes != null) {
+            this.biomes = Arrays.copyOf(biomes, 256);
+        }
+        this.setHeightMap(heightMap);
+        if (this.NBTentities != null && this.NBTentities.isEmpty()) this.NBTentities = null;
+        if (this.NBTtiles != null && this.NBTtiles.isEmpty()) this.NBTtiles = null;
+        if (tileTicks != null) {
+            ListTag<CompoundTag> updateEntries = new ListTag<>("TileTicks");
+            updateEntries.setAll(tileTicks);
+            this.loadTileTicks(updateEntries);
+        }
+    }
 
-        nbt.putByteArray("Biomes", this.getBiomeIdArray());
-        int[] heightInts = new int[256];
-        byte[] heightBytes = this.getHeightMapArray();
-        for (int i = 0; i < heightInts.length; i++) {
-            heightInts[i] = heightBytes[i] & 0xFF;
+    private void readSections(NBTStreamReader reader) throws IOException {
+        if (reader.getType() != Tag.TAG_List) {
+            reader.skip();
+            return;
+        }
+        int count = reader.readListHeader();
+        if (reader.getListType() != Tag.TAG_Compound) {
+            for (int i = 0; i < count; i++) {
+                reader.skip(reader.getListType());
+            }
+            return;
         }
 
-        for (cn.nukkit.level.format.ChunkSection section : this.getSections()) {
-            if (section instanceof EmptyChunkSection) {
-                continue;
+        // Ids and data are only read into the block storage, so their arrays are reused
+        byte[][] buffers = SECTION_BUFFERS.get();
+        for (int i = 0; i < count; i++) {
+            int y = 0;
+            byte[] blocks = null;
+            byte[] data = null;
+            byte[] blockLight = null;
+            byte[] skyLight = null;
+            while (reader.next() != Tag.TAG_End) {
+                switch (reader.getName()) {
+                    case "Y":
+                        y = (int) readNumber(reader);
+                        break;
+                    case "Blocks":
+                        blocks = reader.getType() == Tag.TAG_Byte_Array ? reader.readByteArray(buffers[0]) : skip(reader, null);
+                        break;
+                    case "Data":
+                        data = reader.getType() == Tag.TAG_Byte_Array ? reader.readByteArray(buffers[1]) : skip(reader, null);
+                        break;
+                    case "BlockLight":
+                        blockLight = readByteArray(reader);
+                        break;
+                    case "SkyLight":
+                        skyLight = readByteArray(reader);
+                        break;
+                    default:
+                        reader.skip();
+                        break;
+                }
             }
-            CompoundTag s = new CompoundTag(null);
-            s.putByte("Y", section.getY());
-            s.putByteArray("Blocks", section.getIdArray());
-            s.putByteArray("Data", section.getDataArray());
-            s.putByteArray("BlockLight", section.getLightArray());
-            s.putByteArray("SkyLight", section.getSkyLightArray());
-            nbt.getList("Sections", CompoundTag.class).add(s);
-        }
-
-        ArrayList<CompoundTag> entities = new ArrayList<>();
-        for (Entity entity : this.getEntities().values()) {
-            if (!(entity instanceof Player) && !entity.closed) {
-                entity.saveNBT();
-                entities.add(entity.namedTag);
+            if (blocks == null || data == null) {
+                throw new ChunkException("Section " + y + " has no blocks");
             }
-        }
-        ListTag<CompoundTag> entityListTag = new ListTag<>("Entities");
-        entityListTag.setAll(entities);
-        nbt.putList(entityListTag);
-
-        ArrayList<CompoundTag> tiles = new ArrayList<>();
-        for (BlockEntity blockEntity : this.getBlockEntities().values()) {
-            blockEntity.saveNBT();
-            tiles.add(blockEntity.namedTag);
-        }
-        ListTag<CompoundTag> tileListTag = new ListTag<>("TileEntities");
-        tileListTag.setAll(tiles);
-        nbt.putList(tileListTag);
-
-        Set<BlockUpdateEntry> entries = this.provider.getLevel().getPendingBlockUpdates(this);
-
-        if (entries != null) {
-            ListTag<CompoundTag> tileTickTag = new ListTag<>("TileTicks");
-            long totalTime = this.provider.getLevel().getCurrentTick();
-
-            for (BlockUpdateEntry entry : entries) {
-                CompoundTag entryNBT = new CompoundTag()
-                        .putString("i", entry.block.getSaveId())
-                        .putInt("x", entry.pos.getFloorX())
-                        .putInt("y", entry.pos.getFloorY())
-                        .putInt("z", entry.pos.getFloorZ())
-                        .putInt("t", (int) (entry.delay - totalTime))
-                        .putInt("p", entry.priority);
-                tileTickTag.add(entryNBT);
+            if (y >= 0 && y < 16) {
+                this.sections[y] = new ChunkSection(y, blocks, data,
+                        blockLight != null ? blockLight : new byte[0], skyLight != null ? skyLight : new byte[0]);
             }
-
-            nbt.putList(tileTickTag);
         }
+    }
 
-        BinaryStream extraData = new BinaryStream();
-        Int2IntMap extraDataArray = this.getBlockExtraDataArray();
-        extraData.putInt(extraDataArray.size());
-        for (int key : extraDataArray.keySet()) {
-            extraData.putInt(key);
-            extraData.putShort(extraDataArray.get(key));
+    private static long readNumber(NBTStreamReader reader) throws IOException {
+        switch (reader.getType()) {
+            case Tag.TAG_Byte:
+                return reader.readByte();
+            case Tag.TAG_Short:
+                return reader.readShort();
+            case Tag.TAG_Int:
+                return reader.readInt();
+            case Tag.TAG_Long:
+                return reader.readLong();
+            default:
+                reader.skip();
+                return 0;
         }
+    }
 
-        nbt.putByteArray("ExtraData", extraData.getBuffer());
+    private static byte[] readByteArray(NBTStreamReader reader) throws IOException {
+        return reader.getType() == Tag.TAG_Byte_Array ? reader.readByteArray() : skip(reader, null);
+    }
 
-        CompoundTag chunk = new CompoundTag("");
-        chunk.putCompound("Level", nbt);
+    private static <T> T skip(NBTStreamReader reader, T value) throws IOException {
+        reader.skip();
+        return value;
+    }
 
-        try {
-            return NBTIO.write(chunk, ByteOrder.BIG_ENDIAN);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private static List<CompoundTag> readCompoundList(NBTStreamReader reader, boolean lazy) throws IOException {
+        if (reader.getType() != Tag.TAG_List) {
+            reader.skip();
+            return null;
+        }
+        int count = reader.readListHeader();
+        if (reader.getListType() != Tag.TAG_Compound) {
+            for (int i = 0; i < count; i++) {
+                reader.skip(reader.getListType());
+            }
+            return null;
         }
+        List<CompoundTag> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(lazy ? reader.readLazyCompound("") : (CompoundTag) reader.readTag(Tag.TAG_Compound, ""));
+        }
+        return list;
+    }
 
+    @Override
+    public byte[] toFastBinary() {
+        FastByteArrayOutputStream buffer = this.writeNBT();
+        return Arrays.copyOf(buffer.array, buffer.length);
     }
 
     @Override
     public byte[] toBinary() {
-        CompoundTag nbt = this.getNBT().copy();
-        nbt.remove("BiomeColors");
-
-        nbt.putInt("xPos", this.getX());
-        nbt.putInt("zPos", this.getZ());
+        FastByteArrayOutputStream buffer = this.writeNBT();
+        try {
+            return Zlib.deflate(buffer.array, 0, buffer.length, RegionLoader.COMPRESSION_LEVEL);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        ListTag<CompoundTag> sectionList = new ListTag<>("Sections");
-        for (cn.nukkit.level.format.ChunkSection section : this.getSections()) {
-            if (section instanceof EmptyChunkSection) {
-                continue;
+    /**
+     * Writes the chunk straight into a buffer of the calling thread, without building a tree for it first.
+     */
+    private FastByteArrayOutputStream writeNBT() {
+        FastByteArrayOutputStream buffer = NBT_BUFFER.get().reset();
+        try {
+            NBTStreamWriter writer = new NBTStreamWriter(new NBTOutputStream(buffer, ByteOrder.BIG_ENDIAN));
+            writer.beginCompound("");
+            writer.beginCompound("Level");
+
+            writer.putByte("LightPopulated", isLightPopulated() ? 1 : 0);
+            writer.putLong("InhabitedTime", this.inhabitedTime);
+            writer.putByte("V", 1);
+            writer.putByte("TerrainGenerated", isGenerated() ? 1 : 0);
+            writer.putByte("TerrainPopulated", isPopulated() ? 1 : 0);
+
+            writer.putInt("xPos", this.getX());
+            writer.putInt("zPos", this.getZ());
+
+            cn.nukkit.level.format.ChunkSection[] sections = this.getSections();
+            int sectionCount = 0;
+            for (cn.nukkit.level.format.ChunkSection section : sections) {
+                if (!(section instanceof EmptyChunkSection)) {
+                    sectionCount++;
+                }
             }
-            CompoundTag s = new CompoundTag(null);
-            s.putByte("Y", (section.getY()));
-            s.putByteArray("Blocks", section.getIdArray());
-            s.putByteArray("Data", section.getDataArray());
-            s.putByteArray("BlockLight", section.getLightArray());
-            s.putByteArray("SkyLight", section.getSkyLightArray());
-            sectionList.add(s);
-        }
-        nbt.putList(sectionList);
-
-        nbt.putByteArray("Biomes", this.getBiomeIdArray());
-        int[] heightInts = new int[256];
-        byte[] heightBytes = this.getHeightMapArray();
-        for (int i = 0; i < heightInts.length; i++) {
-            heightInts[i] = heightBytes[i] & 0xFF;
-        }
-        nbt.putIntArray("HeightMap", heightInts);
-
-        ArrayList<CompoundTag> entities = new ArrayList<>();
-        for (Entity entity : this.getEntities().values()) {
-            if (!(entity instanceof Player) && !entity.closed) {
-                entity.saveNBT();
-                entities.add(entity.namedTag);
+            byte[][] buffers = SECTION_BUFFERS.get();
+            writer.beginList("Sections", Tag.TAG_Compound, sectionCount);
+            for (cn.nukkit.level.format.ChunkSection section : sections) {
+                if (section instanceof EmptyChunkSection) {
+                    continue;
+                }
+                writer.putByte("Y", section.getY());
+                if (section instanceof ChunkSection) {
+                    ((ChunkSection) section).writeAnvilArrays(buffers[0], buffers[1]);
+                    writer.putByteArray("Blocks", buffers[0]);
+                    writer.putByteArray("Data", buffers[1]);
+                } else {
+                    writer.putByteArray("Blocks", section.getIdArray());
+                    writer.putByteArray("Data", section.getDataArray());
+                }
+                writer.putByteArray("BlockLight", section.getLightArray());
+                writer.putByteArray("SkyLight", section.getSkyLightArray());
+                writer.endCompound();
             }
-        }
-        ListTag<CompoundTag> entityListTag = new ListTag<>("Entities");
-        entityListTag.setAll(entities);
-        nbt.putList(entityListTag);
-
-        ArrayList<CompoundTag> tiles = new ArrayList<>();
-        for (BlockEntity blockEntity : this.getBlockEntities().values()) {
-            blockEntity.saveNBT();
-            tiles.add(blockEntity.namedTag);
-        }
-        ListTag<CompoundTag> tileListTag = new ListTag<>("TileEntities");
-        tileListTag.setAll(tiles);
-        nbt.putList(tileListTag);
-
-        Set<BlockUpdateEntry> entries = this.provider.getLevel().getPendingBlockUpdates(this);
-
-        if (entries != null) {
-            ListTag<CompoundTag> tileTickTag = new ListTag<>("TileTicks");
-            long totalTime = this.provider.getLevel().getCurrentTick();
-
-            for (BlockUpdateEntry entry : entries) {
-                CompoundTag entryNBT = new CompoundTag()
-                        .putString("i", entry.block.getSaveId())
-                        .putInt("x", entry.pos.getFloorX())
-                        .putInt("y", entry.pos.getFloorY())
-                        .putInt("z", entry.pos.getFloorZ())
-                        .putInt("t", (int) (entry.delay - totalTime))
-                        .putInt("p", entry.priority);
-                tileTickTag.add(entryNBT);
+
+            writer.putByteArray("Biomes", this.getBiomeIdArray());
+            int[] heightInts = ThreadCache.intCache256.get();
+            byte[] heightBytes = this.getHeightMapArray();
+            for (int i = 0; i < heightInts.length; i++) {
+                heightInts[i] = heightBytes[i] & 0xFF;
             }
+            writer.putIntArray("HeightMap", heightInts);
 
-            nbt.putList(tileTickTag);
-        }
+            ArrayList<CompoundTag> entities = new ArrayList<>();
+            for (Entity entity : this.getEntities().values()) {
+                if (!(entity instanceof Player) && !entity.closed) {
+                    entity.saveNBT();
+                    entities.add(entity.namedTag);
+                }
+            }
+            if (this.NBTentities != null) {
+                // Never initialised, so the entities are still in their saved form
+                entities.addAll(this.NBTentities);
+            }
+            writer.beginList("Entities", Tag.TAG_Compound, entities.size());
+            for (CompoundTag entity : entities) {
+                writer.writeTag(entity);
+            }
 
-        BinaryStream extraData = new BinaryStream();
-        Int2IntMap extraDataArray = this.getBlockExtraDataArray();
-        extraData.putInt(extraDataArray.size());
-        for (int key : extraDataArray.keySet()) {
-            extraData.putInt(key);
-            extraData.putShort(extraDataArray.get(key));
-        }
+            ArrayList<CompoundTag> tiles = new ArrayList<>();
+            for (BlockEntity blockEntity : this.getBlockEntities().values()) {
+                blockEntity.saveNBT();
+                tiles.add(blockEntity.namedTag);
+            }
+            if (this.NBTtiles != null) {
+                tiles.addAll(this.NBTtiles);
+            }
+            writer.beginList("TileEntities", Tag.TAG_Compound, tiles.size());
+            for (CompoundTag tile : tiles) {
+                writer.writeTag(tile);
+            }
 
-        nbt.putByteArray("ExtraData", extraData.getBuffer());
+            Set<BlockUpdateEntry> entries = this.provider != null ? this.provider.getLevel().getPendingBlockUpdates(this) : null;
+
+            if (entries == null && this.NBTtileTicks != null) {
+                writer.put("TileTicks", this.NBTtileTicks);
+            } else if (entries != null) {
+                long totalTime = this.provider.getLevel().getCurrentTick();
+
+                writer.beginList("TileTicks", Tag.TAG_Compound, entries.size());
+                for (BlockUpdateEntry entry : entries) {
+                    writer.putString("i", entry.block.getSaveId())
+                            .putInt("x", entry.pos.getFloorX())
+                            .putInt("y", entry.pos.getFloorY())
+                            .putInt("z", entry.pos.getFloorZ())
+                            .putInt("t", (int) (entry.delay - totalTime))
+                            .putInt("p", entry.priority)
+                            .endCompound();
+                }
+            }
 
-        CompoundTag chunk = new CompoundTag("");
-        chunk.putCompound("Level", nbt);
+            BinaryStream extraData = new BinaryStream();
+            Int2IntMap extraDataArray = this.getBlockExtraDataArray();
+            extraData.putInt(extraDataArray.size());
+            for (int key : extraDataArray.keySet()) {
+                extraData.putInt(key);
+                extraData.putShort(extraDataArray.get(key));
+            }
+            writer.putByteArray("ExtraData", extraData.getBuffer());
 
-        try {
-            return Zlib.deflate(NBTIO.write(chunk, ByteOrder.BIG_ENDIAN), RegionLoader.COMPRESSION_LEVEL);
-        } catch (Exception e) {
+            writer.endCompound();
+            writer.endCompound();
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return buffer;
     }
 
     @Override
@@ -2,7 +2,6 @@ package cn.nukkit.level.format.anvil;
 
 import cn.nukkit.block.Block;
 import cn.nukkit.level.format.anvil.util.BlockStorage;
-import cn.nukkit.level.format.anvil.util.NibbleArray;
 import cn.nukkit.level.format.generic.EmptyChunkSection;
 import cn.nukkit.nbt.tag.CompoundTag;
 import cn.nukkit.utils.*;
@@ -13,6 +12,9 @@ import java.util.Arrays;
 /**
  * author: MagicDroidX
  * Nukkit Project
+ * <p>
+ * Block reads go straight to the storage without locking. Writes lock the storage, so writers to the
+ * same section are serialised while readers and writers to other sections are not held up.
  */
 public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
 
@@ -46,30 +48,23 @@ public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
     }
 
     public ChunkSection(CompoundTag nbt) {
-        this.y = nbt.getByte("Y");
+        this(nbt.getByte("Y"), nbt.getByteArray("Blocks"), nbt.getByteArray("Data"), nbt.getByteArray("BlockLight"), nbt.getByteArray("SkyLight"));
+    }
 
-        byte[] blocks = nbt.getByteArray("Blocks");
-        NibbleArray data = new NibbleArray(nbt.getByteArray("Data"));
+    /**
+     * @param blocks     the Anvil block ids, only read here so a reused buffer may be passed
+     * @param data       the Anvil block data, only read here so a reused buffer may be passed
+     * @param blockLight kept by the section
+     * @param skyLight   kept by the section
+     */
+    public ChunkSection(int y, byte[] blocks, byte[] data, byte[] blockLight, byte[] skyLight) {
+        this.y = y;
 
         storage = new BlockStorage();
+        storage.readAnvil(blocks, data);
 
-        // Convert YZX to XZY
-        for (int x = 0; x < 16; x++) {
-            for (int z = 0; z < 16; z++) {
-                for (int y = 0; y < 16; y++) {
-                    int index = getAnvilIndex(x, y, z);
-                    storage.setBlockId(x, y, z, blocks[index]);
-                    storage.setBlockData(x, y, z, data.get(index));
-                }
-            }
-        }
-
-        this.blockLight = nbt.getByteArray("BlockLight");
-        this.skyLight = nbt.getByteArray("SkyLight");
-    }
-
-    private static int getAnvilIndex(int x, int y, int z) {
-        return (y << 8) + (z << 4) + x;
+        this.blockLight = blockLight;
+        this.skyLight = skyLight;
     }
 
     @Override
@@ -79,9 +74,7 @@ public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
 
     @Override
     public int getBlockId(int x, int y, int z) {
-        synchronized (storage) {
-            return storage.getBlockId(x, y, z);
-        }
+        return storage.getBlockId(x, y, z);
     }
 
     @Override
@@ -101,9 +94,7 @@ public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
 
     @Override
     public int getBlockData(int x, int y, int z) {
-        synchronized (storage) {
-            return storage.getBlockData(x, y, z);
-        }
+        return storage.getBlockData(x, y, z);
     }
 
     @Override
@@ -115,9 +106,7 @@ public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
 
     @Override
     public int getFullBlock(int x, int y, int z) {
-        synchronized (storage) {
-            return storage.getFullBlock(x, y, z);
-        }
+        return storage.getFullBlock(x, y, z);
     }
 
     @Override
@@ -128,10 +117,11 @@ public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
     }
 
     public Block getAndSetBlock(int x, int y, int z, Block block) {
+        int fullId;
         synchronized (storage) {
-            int fullId = storage.getAndSetFullBlock(x, y, z, block.getFullId());
-            return Block.fullList[fullId].clone();
+            fullId = storage.getAndSetFullBlock(x, y, z, block.getFullId());
         }
+        return Block.fullList[fullId].clone();
     }
 
     @Override
@@ -216,34 +206,23 @@ public class ChunkSection implements cn.nukkit.level.format.ChunkSection {
 
     @Override
     public byte[] getIdArray() {
-        synchronized (storage) {
-            byte[] anvil = new byte[4096];
-            for (int x = 0; x < 16; x++) {
-                for (int z = 0; z < 16; z++) {
-                    for (int y = 0; y < 16; y++) {
-                        int index = getAnvilIndex(x, y, z);
-                        anvil[index] = (byte) storage.getBlockId(x, y, z);
-                    }
-                }
-            }
-            return anvil;
-        }
+        byte[] ids = new byte[4096];
+        storage.writeAnvil(ids, null);
+        return ids;
     }
 
     @Override
     public byte[] getDataArray() {
-        synchronized (storage) {
-            NibbleArray anvil = new NibbleArray(4096);
-            for (int x = 0; x < 16; x++) {
-                for (int z = 0; z < 16; z++) {
-                    for (int y = 0; y < 16; y++) {
-                        int index = getAnvilIndex(x, y, z);
-                        anvil.set(index, (byte) storage.getBlockData(x, y, z));
-                    }
-                }
-            }
-            return anvil.getData();
-        }
+        byte[] data = new byte[2048];
+        storage.writeAnvil(null, data);
+        return data;
+    }
+
+    /**
+     * Writes the block ids and data in Anvil order into the given arrays of 4096 and 2048 bytes, so they can be reused.
+     */
+    public void writeAnvilArrays(byte[] ids, byte[] data) {
+        storage.writeAnvil(ids, data);
     }
 
     @Override
@@ -0,0 +1,189 @@
+package cn.nukkit.level.format.anvil;
+
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseRegionLoader;
+import cn.nukkit.utils.ChunkException;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Writes whole Anvil region files in one sequential pass.
+ * <p>
+ * Chunks are handed in already compressed with {@link #put(int, int, byte[])} and kept per region until
+ * {@link #flush(int, int)} writes the region: the header, then every chunk back to back in slot order, into a
+ * temporary file that replaces the region file once it is complete. Slots without a new chunk keep the chunk
+ * the old region file had, copied over without being decompressed. Unlike {@link RegionLoader#writeChunk}
+ * this never seeks and never leaves a region half written.
+ * <p>
+ * Only meant for worlds no level has loaded, an open {@link RegionLoader} would not notice the new file.
+ */
+@Log4j2
+public class RegionBulkWriter {
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = SECTOR_SIZE * 2;
+
+    private final File directory;
+    private final Long2ObjectMap<byte[][]> pending = new Long2ObjectOpenHashMap<>();
+
+    public RegionBulkWriter(File directory) {
+        this.directory = directory;
+    }
+
+    public static File getRegionFile(File directory, int regionX, int regionZ) {
+        return new File(directory, "r." + regionX + "." + regionZ + ".mca");
+    }
+
+    /**
+     * Reads the compressed data of every chunk in a region file in one go.
+     *
+     * @return the zlib compressed chunks by slot, null for empty slots, or null if there is no such region file
+     */
+    public static byte[][] readRegion(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        byte[] region = Files.readAllBytes(file.toPath());
+        byte[][] chunks = new byte[1024][];
+        for (int i = 0; i < 1024; i++) {
+            int offset = recordOffset(region, i);
+            if (offset < 0) {
+                continue;
+            }
+            int length = ByteBuffer.wrap(region, offset, 4).getInt();
+            if (region[offset + 4] != BaseRegionLoader.COMPRESSION_ZLIB) {
+                log.warn("Skipping chunk " + i + " of " + file.getName() + " with unsupported compression " + region[offset + 4]);
+                continue;
+            }
+            chunks[i] = Arrays.copyOfRange(region, offset + 5, offset + 4 + length);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the offset of the chunk record in the slot, or -1 if the slot is empty or the record is broken
+     */
+    private static int recordOffset(byte[] region, int index) {
+        if (region.length < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(region);
+        int location = buffer.getInt(index << 2);
+        int offset = (location >>> 8) * SECTOR_SIZE;
+        if (location == 0 || offset < HEADER_SIZE || offset + 5 > region.length) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 1 || offset + 4 + length > region.length) {
+            return -1;
+        }
+        return offset;
+    }
+
+    /**
+     * Queues a chunk compressed by {@link Chunk#toBinary()}, replacing any chunk queued for the same position.
+     */
+    public void put(int chunkX, int chunkZ, byte[] chunkData) {
+        if (chunkData.length + 5 > BaseRegionLoader.MAX_SECTOR_LENGTH) {
+            throw new ChunkException("Chunk is too big! " + (chunkData.length + 5) + " > " + BaseRegionLoader.MAX_SECTOR_LENGTH);
+        }
+        long index = Level.chunkHash(chunkX >> 5, chunkZ >> 5);
+        synchronized (this.pending) {
+            byte[][] chunks = this.pending.get(index);
+            if (chunks == null) {
+                chunks = new byte[1024][];
+                this.pending.put(index, chunks);
+            }
+            chunks[(chunkX & 0x1f) | (chunkZ & 0x1f) << 5] = chunkData;
+        }
+    }
+
+    public boolean hasPending(int regionX, int regionZ) {
+        synchronized (this.pending) {
+            return this.pending.containsKey(Level.chunkHash(regionX, regionZ));
+        }
+    }
+
+    /**
+     * Writes the chunks queued for the region, merged with the existing region file.
+     */
+    public void flush(int regionX, int regionZ) throws IOException {
+        byte[][] chunks;
+        synchronized (this.pending) {
+            chunks = this.pending.remove(Level.chunkHash(regionX, regionZ));
+        }
+        if (chunks == null) {
+            return;
+        }
+
+        File file = getRegionFile(this.directory, regionX, regionZ);
+        byte[] old = file.isFile() ? Files.readAllBytes(file.toPath()) : new byte[0];
+        ByteBuffer oldBuffer = ByteBuffer.wrap(old);
+
+        // The whole layout is known up front, so the header can go first
+        int[] locations = new int[1024];
+        int[] timestamps = new int[1024];
+        int[] oldOffsets = new int[1024];
+        int now = (int) (System.currentTimeMillis() / 1000);
+        int sector = 2;
+        for (int i = 0; i < 1024; i++) {
+            int length;
+            if (chunks[i] != null) {
+                length = chunks[i].length + 1;
+                timestamps[i] = now;
+            } else {
+                oldOffsets[i] = recordOffset(old, i);
+                if (oldOffsets[i] < 0) {
+                    continue;
+                }
+                length = oldBuffer.getInt(oldOffsets[i]);
+                timestamps[i] = oldBuffer.getInt(SECTOR_SIZE + (i << 2));
+            }
+            int sectors = (length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+            if (sectors > 0xff) {
+                log.warn("Dropping chunk " + i + " of " + file.getName() + ", it is too big for a region file");
+                chunks[i] = null;
+                oldOffsets[i] = -1;
+                timestamps[i] = 0;
+                continue;
+            }
+            locations[i] = sector << 8 | sectors;
+            sector += sectors;
+        }
+
+        File temp = new File(this.directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            for (int location : locations) {
+                out.writeInt(location);
+            }
+            for (int timestamp : timestamps) {
+                out.writeInt(timestamp);
+            }
+            byte[] padding = new byte[SECTOR_SIZE];
+            for (int i = 0; i < 1024; i++) {
+                if (locations[i] == 0) {
+                    continue;
+                }
+                int length;
+                if (chunks[i] != null) {
+                    length = chunks[i].length + 1;
+                    out.writeInt(length);
+                    out.writeByte(BaseRegionLoader.COMPRESSION_ZLIB);
+                    out.write(chunks[i]);
+                } else {
+                    length = oldBuffer.getInt(oldOffsets[i]);
+                    out.write(old, oldOffsets[i], length + 4);
+                }
+                out.write(padding, 0, (locations[i] & 0xff) * SECTOR_SIZE - length - 4);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -3,86 +3,195 @@ package cn.nukkit.level.format.anvil;
 import cn.nukkit.level.format.FullChunk;
 import cn.nukkit.level.format.LevelProvider;
 import cn.nukkit.level.format.generic.BaseRegionLoader;
-import cn.nukkit.utils.*;
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import it.unimi.dsi.fastutil.ints.Int2IntRBTreeMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import cn.nukkit.utils.ChunkException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import lombok.extern.log4j.Log4j2;
 
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * author: MagicDroidX
  * Nukkit Project
+ * <p>
+ * The location table is kept in int arrays and chunks are read and written with positional {@link FileChannel}
+ * I/O, so chunks can be read by several threads at once. A region that is read often is mapped into memory and
+ * read from the mapping. Used sectors are tracked in a bitmap, so a chunk that outgrows its sectors moves to the
+ * first gap it fits into instead of the end of the file.
  */
 @Log4j2
 public class RegionLoader extends BaseRegionLoader {
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SECTORS = 2;
+    /**
+     * Reads outside of the mapping after which the region is mapped (again)
+     */
+    private static final int MAPPED_READS = 128;
+
+    // Assigned by loadLocationTable or createBlank, which are called from the super constructor
+    private int[] locations; // sector offset << 8 | sector count, as in the file
+    private int[] timestamps;
+    private BitSet usedSectors;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger unmappedReads = new AtomicInteger();
+    private volatile MappedByteBuffer mapped;
+    /**
+     * Whether the file was ever mapped. A mapping is only released once its buffer is garbage collected, there is
+     * no way to unmap it before that.
+     */
+    private volatile boolean wasMapped;
+    private boolean closed;
+
     public RegionLoader(LevelProvider level, int regionX, int regionZ) throws IOException {
         super(level, regionX, regionZ, "mca");
     }
 
+    private FileChannel getChannel() {
+        return this.getRandomAccessFile().getChannel();
+    }
+
     @Override
     protected boolean isChunkGenerated(int index) {
-        Integer[] array = this.locationTable.get(index);
-        return !(array[0] == 0 || array[1] == 0);
+        int location = this.locations[index];
+        return (location >>> 8) != 0 && (location & 0xff) != 0;
     }
 
     @Override
     public Chunk readChunk(int x, int z) throws IOException {
         int index = getChunkOffset(x, z);
-        if (index < 0 || index >= 4096) {
+        if (index < 0 || index >= 1024) {
             return null;
         }
 
         this.lastUsed = System.currentTimeMillis();
 
-        if (!this.isChunkGenerated(index)) {
-            return null;
-        }
-
+        byte[] data;
+        this.lock.readLock().lock();
         try {
-            Integer[] table = this.locationTable.get(index);
-            RandomAccessFile raf = this.getRandomAccessFile();
-            raf.seek(table[0] << 12);
-            int length = raf.readInt();
-            byte compression = raf.readByte();
-            if (length <= 0 || length >= MAX_SECTOR_LENGTH) {
-                if (length >= MAX_SECTOR_LENGTH) {
-                    table[0] = ++this.lastSector;
-                    table[1] = 1;
-                    this.locationTable.put(index, table);
-                    log.error("Corrupted chunk header detected");
-                }
-                return null;
+            if (this.closed) {
+                throw new ClosedChannelException();
             }
-
-            if (length > (table[1] << 12)) {
-                log.error("Corrupted bigger chunk detected");
-                table[1] = length >> 12;
-                this.locationTable.put(index, table);
-                this.writeLocationIndex(index);
-            } else if (compression != COMPRESSION_ZLIB && compression != COMPRESSION_GZIP) {
-                log.error("Invalid compression type");
+            if (!this.isChunkGenerated(index)) {
                 return null;
             }
+            int location = this.locations[index];
+            data = this.readRecord(location >>> 8, location & 0xff);
+        } finally {
+            this.lock.readLock().unlock();
+        }
 
-            byte[] data = new byte[length - 1];
-            raf.readFully(data);
-            Chunk chunk = this.unserializeChunk(data);
-            if (chunk != null) {
-                return chunk;
-            } else {
-                log.error("Corrupted chunk detected at (" + x + ", " + z + ") in " + levelProvider.getName());
-                return null;
+        if (data == null) {
+            return null;
+        }
+        // Decompressed outside of the lock, this is the expensive part
+        Chunk chunk = this.unserializeChunk(data);
+        if (chunk == null) {
+            log.error("Corrupted chunk detected at (" + x + ", " + z + ") in " + levelProvider.getName());
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the compressed chunk stored at the sectors, or null if it is broken
+     */
+    private byte[] readRecord(int offset, int sectors) throws IOException {
+        long position = (long) offset * SECTOR_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(5);
+        if (!this.read(header, position)) {
+            log.error("Your world is corrupt, because some code is bad and corrupted it. oops. ");
+            return null;
+        }
+        int length = header.getInt(0);
+        byte compression = header.get(4);
+        if (length <= 0 || length >= MAX_SECTOR_LENGTH) {
+            if (length >= MAX_SECTOR_LENGTH) {
+                log.error("Corrupted chunk header detected");
             }
-        } catch (EOFException e) {
+            return null;
+        }
+
+        if (length + 4 > sectors * SECTOR_SIZE) {
+            log.error("Corrupted bigger chunk detected");
+        } else if (compression != COMPRESSION_ZLIB && compression != COMPRESSION_GZIP) {
+            log.error("Invalid compression type");
+            return null;
+        }
+
+        byte[] data = new byte[length - 1];
+        if (!this.read(ByteBuffer.wrap(data), position + 5)) {
             log.error("Your world is corrupt, because some code is bad and corrupted it. oops. ");
             return null;
         }
+        return data;
+    }
+
+    /**
+     * Fills the buffer from the file, from the mapping if the region is mapped and the range is inside of it.
+     *
+     * @return false if the file ended first
+     */
+    private boolean read(ByteBuffer target, long position) throws IOException {
+        long end = position + target.remaining();
+        MappedByteBuffer mapped = this.mapped;
+        if (mapped == null || end > mapped.capacity()) {
+            mapped = this.map();
+        }
+        if (mapped != null && end <= mapped.capacity()) {
+            ByteBuffer source = mapped.duplicate();
+            source.limit((int) end).position((int) position);
+            target.put(source);
+            return true;
+        }
+        return this.readUnmapped(target, position);
+    }
+
+    private boolean readUnmapped(ByteBuffer target, long position) throws IOException {
+        FileChannel channel = this.getChannel();
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * Maps the whole file once enough reads missed the mapping. Chunks written later at the end of the file are
+     * outside of the mapping until it is mapped again.
+     */
+    private MappedByteBuffer map() throws IOException {
+        if (this.unmappedReads.incrementAndGet() < MAPPED_READS) {
+            return null;
+        }
+        this.unmappedReads.set(0);
+        long size = this.getChannel().size();
+        if (size > Integer.MAX_VALUE) {
+            return null;
+        }
+        MappedByteBuffer mapped = this.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        this.wasMapped = true;
+        this.mapped = mapped;
+        return mapped;
+    }
+
+    private void write(ByteBuffer source, long position) throws IOException {
+        FileChannel channel = this.getChannel();
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
     }
 
     @Override
@@ -101,52 +210,78 @@ public class RegionLoader extends BaseRegionLoader {
         if (length + 4 > MAX_SECTOR_LENGTH) {
             throw new ChunkException("Chunk is too big! " + (length + 4) + " > " + MAX_SECTOR_LENGTH);
         }
-        int sectors = (int) Math.ceil((length + 4) / 4096d);
+        int sectors = (length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+        record.putInt(length).put(COMPRESSION_ZLIB).put(chunkData).clear();
+
         int index = getChunkOffset(x, z);
-        boolean indexChanged = false;
-        Integer[] table = this.locationTable.get(index);
-
-        if (table[1] < sectors) {
-            table[0] = this.lastSector + 1;
-            this.locationTable.put(index, table);
-            this.lastSector += sectors;
-            indexChanged = true;
-        } else if (table[1] != sectors) {
-            indexChanged = true;
-        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) {
+                throw new ClosedChannelException();
+            }
+            int location = this.locations[index];
+            int oldOffset = location >>> 8;
+            int oldSectors = location & 0xff;
+
+            int offset;
+            if (oldOffset != 0 && sectors <= oldSectors) {
+                offset = oldOffset;
+                this.usedSectors.clear(oldOffset + sectors, oldOffset + oldSectors);
+            } else {
+                offset = this.allocate(sectors);
+            }
+            this.write(record, (long) offset * SECTOR_SIZE);
+            // Freed only once the chunk was written elsewhere, so it always has data on disk
+            if (offset != oldOffset && oldOffset != 0) {
+                this.usedSectors.clear(oldOffset, oldOffset + oldSectors);
+            }
 
-        table[1] = sectors;
-        table[2] = (int) (System.currentTimeMillis() / 1000d);
-
-        this.locationTable.put(index, table);
-        RandomAccessFile raf = this.getRandomAccessFile();
-        raf.seek(table[0] << 12);
-
-        BinaryStream stream = new BinaryStream();
-        stream.put(Binary.writeInt(length));
-        stream.putByte(COMPRESSION_ZLIB);
-        stream.put(chunkData);
-        byte[] data = stream.getBuffer();
-        if (data.length < sectors << 12) {
-            byte[] newData = new byte[sectors << 12];
-            System.arraycopy(data, 0, newData, 0, data.length);
-            data = newData;
+            this.locations[index] = (offset << 8) | sectors;
+            this.timestamps[index] = (int) (System.currentTimeMillis() / 1000d);
+            if (offset != oldOffset || sectors != oldSectors) {
+                this.writeLocationIndex(index);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
         }
+    }
 
-        raf.write(data);
-
-        if (indexChanged) {
-            this.writeLocationIndex(index);
+    /**
+     * Marks the first gap of free sectors that is big enough as used.
+     *
+     * @return the first sector of the gap
+     */
+    private int allocate(int sectors) {
+        int start = HEADER_SECTORS;
+        while (true) {
+            start = this.usedSectors.nextClearBit(start);
+            int end = this.usedSectors.nextSetBit(start);
+            if (end < 0 || end - start >= sectors) {
+                this.usedSectors.set(start, start + sectors);
+                return start;
+            }
+            start = end;
         }
     }
 
     @Override
     public void removeChunk(int x, int z) {
         int index = getChunkOffset(x, z);
-        Integer[] table = this.locationTable.get(0);
-        table[0] = 0;
-        table[1] = 0;
-        this.locationTable.put(index, table);
+        this.lock.writeLock().lock();
+        try {
+            int location = this.locations[index];
+            if (location == 0) {
+                return;
+            }
+            this.usedSectors.clear(location >>> 8, (location >>> 8) + (location & 0xff));
+            this.locations[index] = 0;
+            this.writeLocationIndex(index);
+        } catch (IOException e) {
+            throw new ChunkException("Unable to remove chunk (" + x + ", " + z + ")", e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -162,155 +297,131 @@ public class RegionLoader extends BaseRegionLoader {
 
     @Override
     public void close() throws IOException {
-        this.writeLocationTable();
-        this.levelProvider = null;
-        super.close();
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.mapped = null;
+            this.writeLocationTable();
+            this.levelProvider = null;
+            super.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
     }
 
+    /**
+     * Moves every chunk as far to the start of the file as it goes and cuts off the free sectors at the end,
+     * unless the file was mapped since it was opened.
+     *
+     * @return the number of sectors the file got shorter by
+     */
     @Override
     public int doSlowCleanUp() throws Exception {
-        RandomAccessFile raf = this.getRandomAccessFile();
-        for (int i = 0; i < 1024; i++) {
-            Integer[] table = this.locationTable.get(i);
-            if (table[0] == 0 || table[1] == 0) {
-                continue;
-            }
-            raf.seek(table[0] << 12);
-            byte[] chunk = new byte[table[1] << 12];
-            raf.readFully(chunk);
-            int length = Binary.readInt(Arrays.copyOfRange(chunk, 0, 3));
-            if (length <= 1) {
-                this.locationTable.put(i, (table = new Integer[]{0, 0, 0}));
+        this.lock.writeLock().lock();
+        try {
+            // Chunks are moved with plain reads, the moved sectors are not in the mapping any more
+            this.mapped = null;
+
+            IntArrayList slots = new IntArrayList();
+            for (int i = 0; i < 1024; i++) {
+                if (this.isChunkGenerated(i)) {
+                    slots.add(i);
+                }
             }
-            try {
-                chunk = Zlib.inflate(Arrays.copyOf(chunk, 5));
-            } catch (Exception e) {
-                this.locationTable.put(i, new Integer[]{0, 0, 0});
-                continue;
+            int[] order = slots.toIntArray();
+            IntArrays.quickSort(order, (a, b) -> Integer.compare(this.locations[a] >>> 8, this.locations[b] >>> 8));
+
+            int next = HEADER_SECTORS;
+            for (int index : order) {
+                int offset = this.locations[index] >>> 8;
+                int sectors = this.locations[index] & 0xff;
+                if (offset > next) {
+                    ByteBuffer record = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+                    this.readUnmapped(record, (long) offset * SECTOR_SIZE);
+                    record.clear();
+                    this.write(record, (long) next * SECTOR_SIZE);
+                    this.locations[index] = (next << 8) | sectors;
+                    this.writeLocationIndex(index);
+                    offset = next;
+                }
+                next = Math.max(next, offset + sectors);
             }
-            chunk = Zlib.deflate(chunk, 9);
-            ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + chunk.length);
-            buffer.put(Binary.writeInt(chunk.length + 1));
-            buffer.put(COMPRESSION_ZLIB);
-            buffer.put(chunk);
-            chunk = buffer.array();
-            int sectors = (int) Math.ceil(chunk.length / 4096d);
-            if (sectors > table[1]) {
-                table[0] = this.lastSector + 1;
-                this.lastSector += sectors;
-                this.locationTable.put(i, table);
+
+            this.usedSectors = this.buildUsedSectors();
+            if (this.wasMapped) {
+                // Dropping the buffer does not unmap the file. Truncating a mapped file fails on Windows and makes
+                // touching the cut off pages crash elsewhere, so the free sectors stay and are reused by later writes
+                return 0;
             }
-            raf.seek(table[0] << 12);
-            byte[] bytes = new byte[sectors << 12];
-            ByteBuffer buffer1 = ByteBuffer.wrap(bytes);
-            buffer1.put(chunk);
-            raf.write(buffer1.array());
+            long oldSectors = (this.getChannel().size() + SECTOR_SIZE - 1) / SECTOR_SIZE;
+            this.getChannel().truncate((long) next * SECTOR_SIZE);
+            return (int) Math.max(0, oldSectors - next);
+        } finally {
+            this.lock.writeLock().unlock();
         }
-        this.writeLocationTable();
-        int n = this.cleanGarbage();
-        this.writeLocationTable();
-        return n;
     }
 
-    @Override
-    protected void loadLocationTable() throws IOException {
-        RandomAccessFile raf = this.getRandomAccessFile();
-        raf.seek(0);
-        this.lastSector = 1;
-        int[] data = new int[1024 * 2]; //1024 records * 2 times
-        for (int i = 0; i < 1024 * 2; i++) {
-            data[i] = raf.readInt();
-        }
-        for (int i = 0; i < 1024; ++i) {
-            int index = data[i];
-            this.locationTable.put(i, new Integer[]{index >> 8, index & 0xff, data[1024 + i]});
-            int value = this.locationTable.get(i)[0] + this.locationTable.get(i)[1] - 1;
-            if (value > this.lastSector) {
-                this.lastSector = value;
+    private BitSet buildUsedSectors() {
+        BitSet used = new BitSet();
+        used.set(0, HEADER_SECTORS);
+        for (int location : this.locations) {
+            int offset = location >>> 8;
+            if (offset >= HEADER_SECTORS && (location & 0xff) != 0) {
+                used.set(offset, offset + (location & 0xff));
             }
         }
+        return used;
     }
 
-    private void writeLocationTable() throws IOException {
-        RandomAccessFile raf = this.getRandomAccessFile();
-        raf.seek(0);
-        for (int i = 0; i < 1024; ++i) {
-            Integer[] array = this.locationTable.get(i);
-            raf.writeInt((array[0] << 8) | array[1]);
-        }
-        for (int i = 0; i < 1024; ++i) {
-            Integer[] array = this.locationTable.get(i);
-            raf.writeInt(array[2]);
-        }
+    @Override
+    protected void loadLocationTable() throws IOException {
+        // A header cut short reads as empty slots
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        this.readUnmapped(header, 0);
+        header.clear();
+
+        this.locations = new int[1024];
+        this.timestamps = new int[1024];
+        header.asIntBuffer().get(this.locations).get(this.timestamps);
+        this.usedSectors = this.buildUsedSectors();
     }
 
-    private int cleanGarbage() throws IOException {
-        RandomAccessFile raf = this.getRandomAccessFile();
-        Int2IntMap sectors = new Int2IntRBTreeMap();
-        for (Int2ObjectMap.Entry<Integer[]> entry : this.locationTable.int2ObjectEntrySet()) {
-            int index = entry.getIntKey();
-            Integer[] data = entry.getValue();
-            if (data[0] == 0 || data[1] == 0) {
-                this.locationTable.put(index, new Integer[]{0, 0, 0});
-                continue;
-            }
-            sectors.put(data[0], (Integer) index);
-        }
-
-        if (sectors.size() == (this.lastSector - 2)) {
-            return 0;
-        }
-        int shift = 0;
-        int lastSector = 1;
-
-        raf.seek(8192);
-        int s = 2;
-        for (int sector : sectors.keySet()) {
-            s = sector;
-            int index = sectors.get(sector);
-            if ((sector - lastSector) > 1) {
-                shift += sector - lastSector - 1;
-            }
-            if (shift > 0) {
-                raf.seek(sector << 12);
-                byte[] old = new byte[4096];
-                raf.readFully(old);
-                raf.seek((sector - shift) << 12);
-                raf.write(old);
-            }
-            Integer[] v = this.locationTable.get(index);
-            v[0] -= shift;
-            this.locationTable.put(index, v);
-            this.lastSector = sector;
-        }
-        raf.setLength((s + 1) << 12);
-        return shift;
+    private void writeLocationTable() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        header.asIntBuffer().put(this.locations).put(this.timestamps);
+        this.write(header, 0);
     }
 
     @Override
     protected void writeLocationIndex(int index) throws IOException {
-        RandomAccessFile raf = this.getRandomAccessFile();
-        Integer[] array = this.locationTable.get(index);
-        raf.seek(index << 2);
-        raf.writeInt((array[0] << 8) | array[1]);
-        raf.seek(4096 + (index << 2));
-        raf.writeInt(array[2]);
+        ByteBuffer entry = ByteBuffer.allocate(4);
+        entry.putInt(0, this.locations[index]);
+        this.write(entry, index << 2);
+        entry.clear();
+        entry.putInt(0, this.timestamps[index]);
+        this.write(entry, SECTOR_SIZE + (index << 2));
     }
 
     @Override
     protected void createBlank() throws IOException {
-        RandomAccessFile raf = this.getRandomAccessFile();
-        raf.seek(0);
-        raf.setLength(0);
-        this.lastSector = 1;
-        int time = (int) (System.currentTimeMillis() / 1000d);
-        for (int i = 0; i < 1024; ++i) {
-            this.locationTable.put(i, new Integer[]{0, 0, time});
-            raf.writeInt(0);
-        }
-        for (int i = 0; i < 1024; ++i) {
-            raf.writeInt(time);
+        this.getChannel().truncate(0);
+        this.locations = new int[1024];
+        this.timestamps = new int[1024];
+        Arrays.fill(this.timestamps, (int) (System.currentTimeMillis() / 1000d));
+        this.usedSectors = this.buildUsedSectors();
+        this.writeLocationTable();
+    }
+
+    @Override
+    public Integer[] getLocationIndexes() {
+        Integer[] indexes = new Integer[1024];
+        for (int i = 0; i < 1024; i++) {
+            indexes[i] = i;
         }
+        return indexes;
     }
 
     @Override
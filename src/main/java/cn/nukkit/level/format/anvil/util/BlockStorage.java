@@ -6,21 +6,22 @@ import cn.nukkit.level.util.PalettedBlockStorage;
 import cn.nukkit.utils.BinaryStream;
 import com.google.common.base.Preconditions;
 
-import java.util.Arrays;
 
+/**
+ * Blocks of one 16x16x16 section. Each block is a single char holding {@code id << 4 | meta}, so a block
+ * is always read and written as a whole and readers never see the id of one block with the meta of
+ * another. Reads need no lock, writers are expected to hold the section's lock.
+ */
 public class BlockStorage {
     private static final int SECTION_SIZE = 4096;
-    private final byte[] blockIds;
-    private final NibbleArray blockData;
+    private final char[] blocks;
 
     public BlockStorage() {
-        blockIds = new byte[SECTION_SIZE];
-        blockData = new NibbleArray(SECTION_SIZE);
+        blocks = new char[SECTION_SIZE];
     }
 
-    private BlockStorage(byte[] blockIds, NibbleArray blockData) {
-        this.blockIds = blockIds;
-        this.blockData = blockData;
+    private BlockStorage(char[] blocks) {
+        this.blocks = blocks;
     }
 
     private static int getIndex(int x, int y, int z) {
@@ -30,69 +31,95 @@ public class BlockStorage {
     }
 
     public int getBlockData(int x, int y, int z) {
-        return blockData.get(getIndex(x, y, z)) & 0xf;
+        return blocks[getIndex(x, y, z)] & 0xf;
     }
 
     public int getBlockId(int x, int y, int z) {
-        return blockIds[getIndex(x, y, z)] & 0xFF;
+        return blocks[getIndex(x, y, z)] >> 4;
     }
 
     public void setBlockId(int x, int y, int z, int id) {
-        blockIds[getIndex(x, y, z)] = (byte) (id & 0xff);
+        int index = getIndex(x, y, z);
+        blocks[index] = (char) ((id & 0xff) << 4 | (blocks[index] & 0xf));
     }
 
     public void setBlockData(int x, int y, int z, int data) {
-        blockData.set(getIndex(x, y, z), (byte) data);
+        Preconditions.checkArgument(data >= 0 && data < 16, "Nibbles must have a value between 0 and 15.");
+        int index = getIndex(x, y, z);
+        blocks[index] = (char) (blocks[index] & 0xff0 | data);
     }
 
     public int getFullBlock(int x, int y, int z) {
-        return getFullBlock(getIndex(x, y, z));
+        return blocks[getIndex(x, y, z)];
     }
 
     public void setFullBlock(int x, int y, int z, int value) {
-        this.setFullBlock(getIndex(x, y, z), (short) value);
+        Preconditions.checkArgument(value < 0xfff, "Invalid full block");
+        blocks[getIndex(x, y, z)] = (char) (value & 0xfff);
     }
 
     public int getAndSetFullBlock(int x, int y, int z, int value) {
-        return getAndSetFullBlock(getIndex(x, y, z), (short) value);
-    }
-
-    private int getAndSetFullBlock(int index, short value) {
         Preconditions.checkArgument(value < 0xfff, "Invalid full block");
-        byte oldBlock = blockIds[index];
-        byte oldData = blockData.get(index);
-        byte newBlock = (byte) ((value & 0xff0) >> 4);
-        byte newData = (byte) (value & 0xf);
-        if (oldBlock != newBlock) {
-            blockIds[index] = newBlock;
+        int index = getIndex(x, y, z);
+        char old = blocks[index];
+        char block = (char) (value & 0xfff);
+        if (old != block) {
+            blocks[index] = block;
         }
-        if (oldData != newData) {
-            blockData.set(index, newData);
+        return old;
+    }
+
+    /**
+     * Replaces all blocks with the ones of Anvil's YZX ordered id and data arrays.
+     */
+    public void readAnvil(byte[] ids, byte[] data) {
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                int anvil = (y << 8) | (z << 4);
+                for (int x = 0; x < 16; x++, anvil++) {
+                    int meta = (data[anvil >> 1] >> ((anvil & 1) << 2)) & 0xf;
+                    blocks[(x << 8) | (z << 4) | y] = (char) ((ids[anvil] & 0xff) << 4 | meta);
+                }
+            }
         }
-        return ((oldBlock & 0xff) << 4) | oldData;
     }
 
-    private int getFullBlock(int index) {
-        byte block = blockIds[index];
-        byte data = blockData.get(index);
-        return ((block & 0xff) << 4) | data;
-    }
-
-    private void setFullBlock(int index, short value) {
-        Preconditions.checkArgument(value < 0xfff, "Invalid full block");
-        byte block = (byte) ((value & 0xff0) >> 4);
-        byte data = (byte) (value & 0xf);
-
-        blockIds[index] = block;
-        blockData.set(index, data);
+    /**
+     * Writes all blocks into Anvil's YZX ordered id and data arrays, of 4096 and 2048 bytes. Either may be null.
+     */
+    public void writeAnvil(byte[] ids, byte[] data) {
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                int anvil = (y << 8) | (z << 4);
+                for (int x = 0; x < 16; x += 2, anvil += 2) {
+                    char first = blocks[(x << 8) | (z << 4) | y];
+                    char second = blocks[((x + 1) << 8) | (z << 4) | y];
+                    if (ids != null) {
+                        ids[anvil] = (byte) (first >> 4);
+                        ids[anvil + 1] = (byte) (second >> 4);
+                    }
+                    if (data != null) {
+                        data[anvil >> 1] = (byte) ((second & 0xf) << 4 | (first & 0xf));
+                    }
+                }
+            }
+        }
     }
 
     public byte[] getBlockIds() {
-        return Arrays.copyOf(blockIds, blockIds.length);
+        byte[] ids = new byte[SECTION_SIZE];
+        for (int i = 0; i < SECTION_SIZE; i++) {
+            ids[i] = (byte) (blocks[i] >> 4);
+        }
+        return ids;
     }
 
     public byte[] getBlockData() {
-        return blockData.getData();
+        byte[] data = new byte[SECTION_SIZE / 2];
+        for (int i = 0; i < SECTION_SIZE; i += 2) {
+            data[i >> 1] = (byte) ((blocks[i + 1] & 0xf) << 4 | (blocks[i] & 0xf));
+        }
+        return data;
     }
 
     public void writeTo(BinaryStream stream) {
@@ -101,7 +128,7 @@ public class BlockStorage {
         for (int i = 0; i < SECTION_SIZE; i++) {
             int runtimeId;
             try {
-                runtimeId = GlobalBlockPalette.getOrCreateRuntimeId(blockIds[i] & 0xff, blockData.get(i));
+                runtimeId = GlobalBlockPalette.getOrCreateRuntimeId(blocks[i] >> 4, blocks[i] & 0xf);
             } catch (Exception e) {
                 runtimeId = airBlockRuntimeId;
                 //Server.getInstance().getLogger().logException(e);
@@ -114,12 +141,12 @@ public class BlockStorage {
     public void writeToCache(BinaryStream stream) {
         PalettedBlockStorage storage = new PalettedBlockStorage(true);
         for (int i = 0; i < SECTION_SIZE; i++) {
-            storage.setBlock(i, (blockIds[i] & 0xff) << 4 | blockData.get(i));
+            storage.setBlock(i, blocks[i]);
         }
         storage.writeToCache(stream);
     }
 
     public BlockStorage copy() {
-        return new BlockStorage(blockIds.clone(), blockData.copy());
+        return new BlockStorage(blocks.clone());
     }
 }
\ No newline at end of file
@@ -60,11 +60,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             setChanged();
             return this.sections[Y].getAndSetBlock(x, y & 0x0f, z, block);
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             return this.sections[Y].getAndSetBlock(x, y & 0x0f, z, block);
         } finally {
             removeInvalidTile(x, y, z);
@@ -78,11 +74,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             setChanged();
             return this.sections[Y].setFullBlockId(x, y & 0x0f, z, fullId);
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             return this.sections[Y].setFullBlockId(x, y & 0x0f, z, fullId);
         } finally {
             removeInvalidTile(x, y, z);
@@ -96,11 +88,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             setChanged();
             return this.sections[Y].setBlock(x, y & 0x0f, z, blockId, meta);
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             return this.sections[Y].setBlock(x, y & 0x0f, z, blockId, meta);
         } finally {
             removeInvalidTile(x, y, z);
@@ -114,11 +102,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             this.sections[Y].setBlockId(x, y & 0x0f, z, id);
             setChanged();
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             this.sections[Y].setBlockId(x, y & 0x0f, z, id);
         } finally {
             removeInvalidTile(x, y, z);
@@ -142,11 +126,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             this.sections[Y].setBlockData(x, y & 0x0f, z, data);
             setChanged();
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             this.sections[Y].setBlockData(x, y & 0x0f, z, data);
         } finally {
             removeInvalidTile(x, y, z);
@@ -165,11 +145,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             this.sections[Y].setBlockSkyLight(x, y & 0x0f, z, level);
             setChanged();
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             this.sections[Y].setBlockSkyLight(x, y & 0x0f, z, level);
         }
     }
@@ -186,11 +162,7 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
             this.sections[Y].setBlockLight(x, y & 0x0f, z, level);
             setChanged();
         } catch (ChunkException e) {
-            try {
-                this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
-            } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e1) {
-                Server.getInstance().getLogger().logException(e1);
-            }
+            this.createSection(Y);
             this.sections[Y].setBlockLight(x, y & 0x0f, z, level);
         }
     }
@@ -223,6 +195,21 @@ public abstract class BaseChunk extends BaseFullChunk implements Chunk {
         setChanged();
     }
 
+    /**
+     * Replaces the empty section at Y with a real one. Writers racing on the same empty section all end
+     * up here, only the first one creates it so no write goes to a section that is then thrown away.
+     */
+    private synchronized void createSection(int Y) {
+        if (!(this.sections[Y] instanceof EmptyChunkSection)) {
+            return;
+        }
+        try {
+            this.setInternalSection(Y, (ChunkSection) this.providerClass.getMethod("createChunkSection", int.class).invoke(this.providerClass, Y));
+        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+            Server.getInstance().getLogger().logException(e);
+        }
+    }
+
     @Override
     public boolean load() throws IOException {
         return this.load(true);
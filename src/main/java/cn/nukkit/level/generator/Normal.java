@@ -3,6 +3,7 @@ package cn.nukkit.level.generator;
 import cn.nukkit.block.*;
 import cn.nukkit.level.ChunkManager;
 import cn.nukkit.level.biome.Biome;
+import cn.nukkit.level.biome.BiomeMapCache;
 import cn.nukkit.level.biome.BiomeSelector;
 import cn.nukkit.level.biome.EnumBiome;
 import cn.nukkit.level.format.generic.BaseFullChunk;
@@ -15,7 +16,6 @@ import cn.nukkit.math.MathHelper;
 import cn.nukkit.math.NukkitRandom;
 import cn.nukkit.math.Vector3;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Nukkit's terrain generator
@@ -121,7 +121,9 @@ public class Normal extends Generator {
     private long localSeed1;
     private long localSeed2;
     private BiomeSelector selector;
-    private ThreadLocal<Biome[]> biomes = ThreadLocal.withInitial(() -> new Biome[10 * 10]);
+    private BiomeMapCache biomeMap;
+    // The biomes of the chunk and the two columns around it that heights are smoothed over
+    private ThreadLocal<Biome[]> biomes = ThreadLocal.withInitial(() -> new Biome[21 * 21]);
     private ThreadLocal<float[]> depthRegion = ThreadLocal.withInitial(() -> null);
     private ThreadLocal<float[]> mainNoiseRegion = ThreadLocal.withInitial(() -> null);
     private ThreadLocal<float[]> minLimitRegion = ThreadLocal.withInitial(() -> null);
@@ -161,19 +163,21 @@ public class Normal extends Generator {
     }
 
     public Biome pickBiome(int x, int z) {
-        return this.selector.pickBiome(x, z);
+        return this.biomeMap.getBiome(x, z);
     }
 
     @Override
     public void init(ChunkManager level, NukkitRandom random) {
         this.level = level;
         this.nukkitRandom = random;
-        this.random = ThreadLocalRandom.current();
+        // Every worker thread has its own generator, they must all derive the same chunk seeds
+        this.random = new Random(this.level.getSeed());
         this.nukkitRandom.setSeed(this.level.getSeed());
         this.localSeed1 = this.random.nextLong();
         this.localSeed2 = this.random.nextLong();
         this.nukkitRandom.setSeed(this.level.getSeed());
         this.selector = new BiomeSelector(this.nukkitRandom);
+        this.biomeMap = BiomeMapCache.get(this.level.getSeed(), this.selector);
 
         this.minLimitPerlinNoise = new NoiseGeneratorOctavesF(random, 16);
         this.maxLimitPerlinNoise = new NoiseGeneratorOctavesF(random, 16);
@@ -231,6 +235,8 @@ public class Normal extends Generator {
         float[] maxLimitRegion = this.maxLimitPerlinNoise.generateNoiseOctaves(this.maxLimitRegion.get(), chunkX * 4, 0, chunkZ * 4, 5, 33, 5, 684.412f, 684.412f, 684.412f);
         this.maxLimitRegion.set(maxLimitRegion);
         float[] heightMap = this.heightMap.get();
+        Biome[] biomes = this.biomes.get();
+        this.biomeMap.fill(biomes, baseX - 2, baseZ - 2, 21, 21);
 
         //generate heightmap and smooth biome heights
         int horizCounter = 0;
@@ -240,11 +246,11 @@ public class Normal extends Generator {
                 float heightVariationSum = 0.0F;
                 float baseHeightSum = 0.0F;
                 float biomeWeightSum = 0.0F;
-                Biome biome = pickBiome(baseX + (xSeg * 4), baseZ + (zSeg * 4));
+                Biome biome = biomes[(xSeg * 4 + 2) + (zSeg * 4 + 2) * 21];
 
                 for (int xSmooth = -2; xSmooth <= 2; ++xSmooth) {
                     for (int zSmooth = -2; zSmooth <= 2; ++zSmooth) {
-                        Biome biome1 = pickBiome(baseX + (xSeg * 4) + xSmooth, baseZ + (zSeg * 4) + zSmooth);
+                        Biome biome1 = biomes[(xSeg * 4 + xSmooth + 2) + (zSeg * 4 + zSmooth + 2) * 21];
                         float baseHeight = biome1.getBaseHeight();
                         float heightVariation = biome1.getHeightVariation();
 
@@ -373,9 +379,7 @@ public class Normal extends Generator {
 
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
-                Biome biome = selector.pickBiome(baseX | x, baseZ | z);
-
-                chunk.setBiome(x, z, biome);
+                chunk.setBiome(x, z, biomes[(x + 2) + (z + 2) * 21]);
             }
         }
 
@@ -0,0 +1,527 @@
+package cn.nukkit.level.generator;
+
+import cn.nukkit.Server;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.biome.BiomeMapCache;
+import cn.nukkit.level.format.LevelProviderManager;
+import cn.nukkit.level.format.anvil.Anvil;
+import cn.nukkit.level.format.anvil.Chunk;
+import cn.nukkit.level.format.anvil.RegionBulkWriter;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.light.BlockLightEngine;
+import cn.nukkit.math.NukkitMath;
+import cn.nukkit.math.NukkitRandom;
+import cn.nukkit.nbt.NBTIO;
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.scheduler.AsyncLane;
+import cn.nukkit.scheduler.AsyncPool;
+import cn.nukkit.utils.Config;
+import cn.nukkit.utils.LevelException;
+import it.unimi.dsi.fastutil.longs.*;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Generates, populates and lights an area of a world that is not loaded, writing it straight to its region files.
+ * <p>
+ * The area is worked through one region at a time by a thread of its own. All chunks of the region and the
+ * ring around it are generated in parallel on the generation lane, then populated in nine passes. The
+ * chunks of one pass are three chunks apart, so their population areas never overlap and every pass runs
+ * in parallel too. A chunk is finished once no chunk within two chunks of it is left to populate, so neither
+ * its blocks nor those of its neighbours change any more. Finished chunks are lit, block light included,
+ * and compressed on the generation lane and a region is written by a {@link RegionBulkWriter} on the IO lane
+ * once all of its chunks are finished, while the next region is being generated. A saved chunk stays in
+ * memory until its neighbours are saved too, their block light needs its blocks.
+ * <p>
+ * Regions that have been written are recorded in {@code pregeneration.yml} in the world folder, so a job that
+ * was cancelled or stopped with the server continues where it left off when it is started again for the same
+ * area. Chunks that are populated already, by an earlier job or by players, are kept.
+ */
+@Log4j2
+public class PreGenerator {
+
+    private static final long REPORT_INTERVAL = 10000;
+
+    private final Server server;
+    private final String name;
+    private final File regionDirectory;
+    private final File progressFile;
+    private final long seed;
+    private final Class<? extends Generator> generatorClass;
+    private final Map<String, Object> generatorOptions = new HashMap<>();
+    private final int spawnX;
+    private final int spawnZ;
+
+    private final ThreadLocal<Generator> generators = ThreadLocal.withInitial(this::createGenerator);
+    private final RegionBulkWriter writer;
+    private final Executor generationExecutor;
+    private final Executor ioExecutor;
+
+    // Only used by the job's own thread, tasks get the chunks they work on handed in
+    private final Long2ObjectOpenHashMap<BaseFullChunk> chunks = new Long2ObjectOpenHashMap<>();
+    private final LongOpenHashSet savedChunks = new LongOpenHashSet();
+    private final Long2ObjectOpenHashMap<byte[][]> storedRegions = new Long2ObjectOpenHashMap<>();
+    private final LongOpenHashSet processedRegions = new LongOpenHashSet();
+    private final LongOpenHashSet openRegions = new LongOpenHashSet();
+    private final LongOpenHashSet dirtyRegions = new LongOpenHashSet();
+    private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+    private int minX;
+    private int minZ;
+    private int maxX;
+    private int maxZ;
+    private Config progress;
+
+    private Thread thread;
+    private volatile boolean cancelled;
+
+    private long totalChunks;
+    private long doneChunks;
+    private long processedChunks;
+    private long startTime;
+    private long lastReport;
+
+    public PreGenerator(Server server, String name) throws IOException {
+        String path = server.getDataPath() + "worlds/" + name + "/";
+        if (LevelProviderManager.getProvider(path) != Anvil.class) {
+            throw new LevelException("Only existing Anvil worlds can be pre-generated");
+        }
+        CompoundTag levelData;
+        try (InputStream stream = new FileInputStream(new File(path, "level.dat"))) {
+            levelData = NBTIO.readCompressed(stream, ByteOrder.BIG_ENDIAN).getCompound("Data");
+        }
+
+        this.server = server;
+        this.name = name;
+        this.regionDirectory = new File(path, "region");
+        this.progressFile = new File(path, "pregeneration.yml");
+        this.seed = levelData.getLong("RandomSeed");
+        this.generatorClass = levelData.contains("generatorName") ? Generator.getGenerator(levelData.getString("generatorName")) : Generator.getGenerator("DEFAULT");
+        this.generatorOptions.put("preset", levelData.getString("generatorOptions"));
+        this.spawnX = levelData.getInt("SpawnX");
+        this.spawnZ = levelData.getInt("SpawnZ");
+
+        this.writer = new RegionBulkWriter(this.regionDirectory);
+        AsyncPool pool = server.getScheduler().getAsyncPool();
+        this.generationExecutor = task -> pool.execute(task, AsyncLane.GENERATION);
+        this.ioExecutor = task -> pool.execute(task, AsyncLane.IO);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSpawnX() {
+        return spawnX;
+    }
+
+    public int getSpawnZ() {
+        return spawnZ;
+    }
+
+    public boolean isRunning() {
+        return this.thread != null && this.thread.isAlive();
+    }
+
+    /**
+     * Starts pre-generating the chunks between the two corners, both included.
+     */
+    public void start(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        if (this.thread != null) {
+            throw new IllegalStateException("Pre-generation has already been started");
+        }
+        this.minX = Math.min(minChunkX, maxChunkX);
+        this.minZ = Math.min(minChunkZ, maxChunkZ);
+        this.maxX = Math.max(minChunkX, maxChunkX);
+        this.maxZ = Math.max(minChunkZ, maxChunkZ);
+        this.thread = new Thread(this::run, "Nukkit Pre-generation - " + this.name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops after the region that is being generated, the job can be resumed later.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    private void run() {
+        this.startTime = this.lastReport = System.currentTimeMillis();
+        this.totalChunks = (long) (this.maxX - this.minX + 1) * (this.maxZ - this.minZ + 1);
+        try {
+            this.loadProgress();
+            log.info("Pre-generating " + this.totalChunks + " chunks of " + this.name + ", " + this.doneChunks + " done already");
+
+            for (int rz = this.minZ >> 5; rz <= this.maxZ >> 5 && !this.cancelled; rz++) {
+                for (int rx = this.minX >> 5; rx <= this.maxX >> 5 && !this.cancelled; rx++) {
+                    if (!this.processedRegions.contains(Level.chunkHash(rx, rz))) {
+                        this.processRegion(rx, rz);
+                        this.report(false);
+                    }
+                }
+            }
+
+            CompletableFuture.allOf(this.writes.toArray(new CompletableFuture[0])).join();
+            if (this.cancelled) {
+                log.info("Pre-generation of " + this.name + " cancelled, start it again with the same area to resume");
+            } else {
+                this.report(true);
+                if (this.progressFile.exists() && !this.progressFile.delete()) {
+                    log.warn("Unable to delete " + this.progressFile);
+                }
+                log.info("Pre-generation of " + this.name + " finished");
+            }
+        } catch (Exception e) {
+            log.error("Pre-generation of " + this.name + " failed, regions written so far are kept", e);
+        } finally {
+            this.server.getScheduler().scheduleTask(this::releaseBiomeCache);
+        }
+    }
+
+    /**
+     * Drops the biomes cached for the seed, unless a loaded level still generates with it.
+     */
+    private void releaseBiomeCache() {
+        for (Level level : this.server.getLevels().values()) {
+            if (level.getProvider() != null && level.getSeed() == this.seed) {
+                return;
+            }
+        }
+        BiomeMapCache.release(this.seed);
+    }
+
+    private void processRegion(int regionX, int regionZ) {
+        int fromX = Math.max(this.minX, regionX << 5);
+        int fromZ = Math.max(this.minZ, regionZ << 5);
+        int toX = Math.min(this.maxX, (regionX << 5) + 31);
+        int toZ = Math.min(this.maxZ, (regionZ << 5) + 31);
+
+        // Population reaches one chunk beyond the chunk being populated
+        this.loadChunks(fromX - 1, fromZ - 1, toX + 1, toZ + 1);
+        List<BaseFullChunk> ungenerated = new ArrayList<>();
+        for (int x = fromX - 1; x <= toX + 1; x++) {
+            for (int z = fromZ - 1; z <= toZ + 1; z++) {
+                BaseFullChunk chunk = this.chunks.get(Level.chunkHash(x, z));
+                if (!chunk.isGenerated()) {
+                    ungenerated.add(chunk);
+                }
+            }
+        }
+        this.runAll(ungenerated, this::generate);
+
+        for (int pass = 0; pass < 9; pass++) {
+            List<BaseFullChunk[]> areas = new ArrayList<>();
+            for (int x = fromX + Math.floorMod(pass % 3 - fromX, 3); x <= toX; x += 3) {
+                for (int z = fromZ + Math.floorMod(pass / 3 - fromZ, 3); z <= toZ; z += 3) {
+                    if (!this.chunks.get(Level.chunkHash(x, z)).isPopulated()) {
+                        areas.add(this.getArea(x, z));
+                    }
+                }
+            }
+            this.runAll(areas, this::populate);
+        }
+
+        long region = Level.chunkHash(regionX, regionZ);
+        this.processedRegions.add(region);
+        this.openRegions.add(region);
+        long chunks = (long) (toX - fromX + 1) * (toZ - fromZ + 1);
+        this.doneChunks += chunks;
+        this.processedChunks += chunks;
+
+        this.saveFinishedChunks();
+        this.writeFinishedRegions();
+    }
+
+    private void loadChunks(int fromX, int fromZ, int toX, int toZ) {
+        List<CompletableFuture<BaseFullChunk>> loads = new ArrayList<>();
+        for (int x = fromX; x <= toX; x++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                if (this.chunks.containsKey(Level.chunkHash(x, z))) {
+                    continue;
+                }
+                byte[] data = this.getStoredChunk(x, z);
+                if (data == null) {
+                    this.chunks.put(Level.chunkHash(x, z), Chunk.getEmptyChunk(x, z));
+                } else {
+                    int chunkX = x;
+                    int chunkZ = z;
+                    loads.add(CompletableFuture.supplyAsync(() -> {
+                        Chunk chunk = Chunk.fromBinary(data);
+                        if (chunk == null) {
+                            log.warn("Regenerating corrupted chunk (" + chunkX + ", " + chunkZ + ") of " + this.name);
+                            chunk = Chunk.getEmptyChunk(chunkX, chunkZ);
+                        }
+                        chunk.setPosition(chunkX, chunkZ);
+                        return chunk;
+                    }, this.generationExecutor));
+                }
+            }
+        }
+        for (CompletableFuture<BaseFullChunk> load : loads) {
+            BaseFullChunk chunk = load.join();
+            this.chunks.put(Level.chunkHash(chunk.getX(), chunk.getZ()), chunk);
+        }
+    }
+
+    private byte[] getStoredChunk(int chunkX, int chunkZ) {
+        long region = Level.chunkHash(chunkX >> 5, chunkZ >> 5);
+        byte[][] stored = this.storedRegions.get(region);
+        if (stored == null && !this.storedRegions.containsKey(region)) {
+            try {
+                stored = RegionBulkWriter.readRegion(RegionBulkWriter.getRegionFile(this.regionDirectory, chunkX >> 5, chunkZ >> 5));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.storedRegions.put(region, stored);
+        }
+        return stored == null ? null : stored[(chunkX & 0x1f) | (chunkZ & 0x1f) << 5];
+    }
+
+    /**
+     * @return the chunks around the given one, in the order {@link PopChunkManager} expects them, null where a
+     * chunk is not in memory
+     */
+    private BaseFullChunk[] getArea(int chunkX, int chunkZ) {
+        BaseFullChunk[] area = new BaseFullChunk[9];
+        int i = 0;
+        for (int z = -1; z <= 1; z++) {
+            for (int x = -1; x <= 1; x++) {
+                area[i++] = this.chunks.get(Level.chunkHash(chunkX + x, chunkZ + z));
+            }
+        }
+        return area;
+    }
+
+    private void saveFinishedChunks() {
+        List<BaseFullChunk[]> finished = new ArrayList<>();
+        ObjectIterator<Long2ObjectMap.Entry<BaseFullChunk>> iter = this.chunks.long2ObjectEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Long2ObjectMap.Entry<BaseFullChunk> entry = iter.next();
+            BaseFullChunk chunk = entry.getValue();
+            if (!this.savedChunks.contains(entry.getLongKey()) && this.isChunkFinished(chunk.getX(), chunk.getZ())) {
+                this.savedChunks.add(entry.getLongKey());
+                // Chunks read from disk that nothing touched are left as they are
+                if (chunk.hasChanged()) {
+                    finished.add(this.getArea(chunk.getX(), chunk.getZ()));
+                    this.dirtyRegions.add(Level.chunkHash(chunk.getX() >> 5, chunk.getZ() >> 5));
+                }
+            }
+        }
+        this.runAll(finished, this::save);
+
+        // Saved chunks are dropped once no neighbour in memory needs their blocks for its light any more
+        LongArrayList unneeded = new LongArrayList();
+        LongIterator saved = this.savedChunks.iterator();
+        while (saved.hasNext()) {
+            long index = saved.nextLong();
+            if (this.isNeighbourhoodSaved(Level.getHashX(index), Level.getHashZ(index))) {
+                unneeded.add(index);
+            }
+        }
+        for (int i = 0; i < unneeded.size(); i++) {
+            this.chunks.remove(unneeded.getLong(i));
+            this.savedChunks.remove(unneeded.getLong(i));
+        }
+    }
+
+    private boolean isNeighbourhoodSaved(int chunkX, int chunkZ) {
+        for (int x = chunkX - 1; x <= chunkX + 1; x++) {
+            for (int z = chunkZ - 1; z <= chunkZ + 1; z++) {
+                long index = Level.chunkHash(x, z);
+                if (this.chunks.containsKey(index) && !this.savedChunks.contains(index)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void writeFinishedRegions() {
+        LongIterator iter = this.openRegions.iterator();
+        while (iter.hasNext()) {
+            long region = iter.nextLong();
+            if (this.isRegionFinished(Level.getHashX(region), Level.getHashZ(region))) {
+                iter.remove();
+                if (!this.dirtyRegions.contains(region)) {
+                    this.recordRegion(region);
+                }
+            }
+        }
+
+        iter = this.dirtyRegions.iterator();
+        while (iter.hasNext()) {
+            long region = iter.nextLong();
+            int regionX = Level.getHashX(region);
+            int regionZ = Level.getHashZ(region);
+            if (this.isRegionFinished(regionX, regionZ)) {
+                iter.remove();
+                this.writes.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        this.writer.flush(regionX, regionZ);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    this.recordRegion(region);
+                }, this.ioExecutor));
+            }
+        }
+        Iterator<CompletableFuture<Void>> writes = this.writes.iterator();
+        while (writes.hasNext()) {
+            CompletableFuture<Void> write = writes.next();
+            if (write.isDone()) {
+                // Throws if the region could not be written
+                write.join();
+                writes.remove();
+            }
+        }
+
+        iter = this.storedRegions.keySet().iterator();
+        while (iter.hasNext()) {
+            long region = iter.nextLong();
+            if (this.isRegionFinished(Level.getHashX(region), Level.getHashZ(region))) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if nothing left to populate can change the chunk or its neighbours any more
+     */
+    private boolean isChunkFinished(int chunkX, int chunkZ) {
+        for (int x = chunkX - 2; x <= chunkX + 2; x++) {
+            for (int z = chunkZ - 2; z <= chunkZ + 2; z++) {
+                if (x >= this.minX && x <= this.maxX && z >= this.minZ && z <= this.maxZ && !this.processedRegions.contains(Level.chunkHash(x >> 5, z >> 5))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isRegionFinished(int regionX, int regionZ) {
+        for (int x = regionX - 1; x <= regionX + 1; x++) {
+            for (int z = regionZ - 1; z <= regionZ + 1; z++) {
+                if (x >= this.minX >> 5 && x <= this.maxX >> 5 && z >= this.minZ >> 5 && z <= this.maxZ >> 5 && !this.processedRegions.contains(Level.chunkHash(x, z))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private <T> void runAll(List<T> tasks, Consumer<T> action) {
+        CompletableFuture<?>[] futures = new CompletableFuture[tasks.size()];
+        for (int i = 0; i < futures.length; i++) {
+            T task = tasks.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> action.accept(task), this.generationExecutor);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    private Generator createGenerator() {
+        try {
+            Generator generator = this.generatorClass.getConstructor(Map.class).newInstance(this.generatorOptions);
+            generator.init(new PopChunkManager(this.seed), new NukkitRandom(this.seed));
+            return generator;
+        } catch (ReflectiveOperationException e) {
+            throw new LevelException("Unable to create generator " + this.generatorClass.getSimpleName());
+        }
+    }
+
+    private void generate(BaseFullChunk chunk) {
+        Generator generator = this.generators.get();
+        SimpleChunkManager manager = (SimpleChunkManager) generator.getChunkManager();
+        manager.cleanChunks(this.seed);
+        try {
+            manager.setChunk(chunk.getX(), chunk.getZ(), chunk);
+            generator.generateChunk(chunk.getX(), chunk.getZ());
+            chunk.setGenerated();
+        } finally {
+            manager.cleanChunks(this.seed);
+        }
+    }
+
+    private void populate(BaseFullChunk[] area) {
+        Generator generator = this.generators.get();
+        SimpleChunkManager manager = (SimpleChunkManager) generator.getChunkManager();
+        manager.cleanChunks(this.seed);
+        try {
+            for (BaseFullChunk chunk : area) {
+                manager.setChunk(chunk.getX(), chunk.getZ(), chunk);
+            }
+            BaseFullChunk center = area[4];
+            generator.populateChunk(center.getX(), center.getZ());
+            center.setPopulated();
+        } finally {
+            manager.cleanChunks(this.seed);
+        }
+    }
+
+    private void save(BaseFullChunk[] area) {
+        BaseFullChunk chunk = area[4];
+        chunk.recalculateHeightMap();
+        chunk.populateSkyLight();
+        BlockLightEngine.populate(area);
+        chunk.setLightPopulated();
+        this.writer.put(chunk.getX(), chunk.getZ(), chunk.toBinary());
+    }
+
+    private void loadProgress() {
+        this.progress = new Config(this.progressFile, Config.YAML);
+        List<Integer> area = Arrays.asList(this.minX, this.minZ, this.maxX, this.maxZ);
+        if (!area.equals(this.progress.getIntegerList("area"))) {
+            // Another area, nothing done so far counts
+            this.progress.set("area", area);
+            this.progress.set("regions", new ArrayList<String>());
+            this.progress.save();
+            return;
+        }
+        for (String region : this.progress.getStringList("regions")) {
+            String[] position = region.split(",");
+            int regionX = Integer.parseInt(position[0]);
+            int regionZ = Integer.parseInt(position[1]);
+            this.processedRegions.add(Level.chunkHash(regionX, regionZ));
+            this.doneChunks += (long) (Math.min(this.maxX, (regionX << 5) + 31) - Math.max(this.minX, regionX << 5) + 1)
+                    * (Math.min(this.maxZ, (regionZ << 5) + 31) - Math.max(this.minZ, regionZ << 5) + 1);
+        }
+    }
+
+    private void recordRegion(long region) {
+        int regionX = Level.getHashX(region);
+        int regionZ = Level.getHashZ(region);
+        // Regions around the area only had their border touched
+        if (regionX < this.minX >> 5 || regionX > this.maxX >> 5 || regionZ < this.minZ >> 5 || regionZ > this.maxZ >> 5) {
+            return;
+        }
+        synchronized (this.progress) {
+            List<String> regions = new ArrayList<>(this.progress.getStringList("regions"));
+            regions.add(regionX + "," + regionZ);
+            this.progress.set("regions", regions);
+            this.progress.save();
+        }
+    }
+
+    private void report(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - this.lastReport < REPORT_INTERVAL) {
+            return;
+        }
+        this.lastReport = now;
+        double seconds = Math.max(1, now - this.startTime) / 1000d;
+        log.info("Pre-generating " + this.name + ": " + this.doneChunks + "/" + this.totalChunks + " chunks ("
+                + NukkitMath.round(this.doneChunks * 100d / this.totalChunks, 1) + "%), "
+                + NukkitMath.round(this.processedChunks / seconds, 1) + " chunks/s");
+    }
+}
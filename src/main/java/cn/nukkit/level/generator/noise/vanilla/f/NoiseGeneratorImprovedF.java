@@ -53,18 +53,35 @@ public class NoiseGeneratorImprovedF {
 
     /*
      * noiseArray should be xSize*ySize*zSize in size
+     *
+     * The inner axis is the same for every row, so its lattice cells and fade curve are worked out once per call.
+     * Each row is then done in two loops: one looking up the gradients at the lattice corners and one blending
+     * them into noiseArray, which is plain float arithmetic over arrays that the JIT can vectorise.
      */
     public void populateNoiseArray(float[] noiseArray, float xOffset, float yOffset, float zOffset, int xSize, int ySize, int zSize, float xScale, float yScale, float zScale, float noiseScale) {
         if (ySize == 1) {
-            int i5 = 0;
-            int j5 = 0;
-            int j = 0;
-            int k5 = 0;
-            float d14 = 0.0f;
-            float d15 = 0.0f;
             int l5 = 0;
             float d16 = 1.0f / noiseScale;
 
+            int[] zCells = new int[zSize];
+            float[] zFractions = new float[zSize];
+            float[] zFades = new float[zSize];
+            for (int j6 = 0; j6 < zSize; ++j6) {
+                float d19 = zOffset + (float) j6 * zScale + this.zCoord;
+                int k6 = (int) d19;
+
+                if (d19 < (float) k6) {
+                    --k6;
+                }
+
+                zCells[j6] = k6 & 255;
+                d19 = d19 - (float) k6;
+                zFractions[j6] = d19;
+                zFades[j6] = d19 * d19 * d19 * (d19 * (d19 * 6.0f - 15.0f) + 10.0f);
+            }
+
+            float[] lower = new float[zSize];
+            float[] upper = new float[zSize];
             for (int j2 = 0; j2 < xSize; ++j2) {
                 float d17 = xOffset + (float) j2 * xScale + this.xCoord;
                 int i6 = (int) d17;
@@ -76,44 +93,48 @@ public class NoiseGeneratorImprovedF {
                 int k2 = i6 & 255;
                 d17 = d17 - (float) i6;
                 float d18 = d17 * d17 * d17 * (d17 * (d17 * 6.0f - 15.0f) + 10.0f);
+                int i5 = this.permutations[k2];
+                int j = this.permutations[k2 + 1];
 
                 for (int j6 = 0; j6 < zSize; ++j6) {
-                    float d19 = zOffset + (float) j6 * zScale + this.zCoord;
-                    int k6 = (int) d19;
-
-                    if (d19 < (float) k6) {
-                        --k6;
-                    }
+                    int l6 = zCells[j6];
+                    float d19 = zFractions[j6];
+                    int j5 = this.permutations[i5] + l6;
+                    int k5 = this.permutations[j] + l6;
+                    lower[j6] = this.lerp(d18, this.grad2(this.permutations[j5], d17, d19), this.grad(this.permutations[k5], d17 - 1.0f, 0.0f, d19));
+                    upper[j6] = this.lerp(d18, this.grad(this.permutations[j5 + 1], d17, 0.0f, d19 - 1.0f), this.grad(this.permutations[k5 + 1], d17 - 1.0f, 0.0f, d19 - 1.0f));
+                }
 
-                    int l6 = k6 & 255;
-                    d19 = d19 - (float) k6;
-                    float d20 = d19 * d19 * d19 * (d19 * (d19 * 6.0f - 15.0f) + 10.0f);
-                    i5 = this.permutations[k2];
-                    j5 = this.permutations[i5] + l6;
-                    j = this.permutations[k2 + 1];
-                    k5 = this.permutations[j] + l6;
-                    d14 = this.lerp(d18, this.grad2(this.permutations[j5], d17, d19), this.grad(this.permutations[k5], d17 - 1.0f, 0.0f, d19));
-                    d15 = this.lerp(d18, this.grad(this.permutations[j5 + 1], d17, 0.0f, d19 - 1.0f), this.grad(this.permutations[k5 + 1], d17 - 1.0f, 0.0f, d19 - 1.0f));
-                    float d21 = this.lerp(d20, d14, d15);
-                    int i7 = l5++;
-                    noiseArray[i7] += d21 * d16;
+                for (int j6 = 0; j6 < zSize; ++j6) {
+                    noiseArray[l5 + j6] += this.lerp(zFades[j6], lower[j6], upper[j6]) * d16;
                 }
+                l5 += zSize;
             }
         } else {
             int i = 0;
             float d0 = 1.0f / noiseScale;
-            int k = -1;
-            int l = 0;
-            int i1 = 0;
-            int j1 = 0;
-            int k1 = 0;
-            int l1 = 0;
-            int i2 = 0;
-            float d1 = 0.0f;
-            float d2 = 0.0f;
-            float d3 = 0.0f;
-            float d4 = 0.0f;
 
+            int[] yCells = new int[ySize];
+            float[] yFractions = new float[ySize];
+            float[] yFades = new float[ySize];
+            for (int j4 = 0; j4 < ySize; ++j4) {
+                float d9 = yOffset + (float) j4 * yScale + this.yCoord;
+                int k4 = (int) d9;
+
+                if (d9 < (float) k4) {
+                    --k4;
+                }
+
+                yCells[j4] = k4 & 255;
+                d9 = d9 - (float) k4;
+                yFractions[j4] = d9;
+                yFades[j4] = d9 * d9 * d9 * (d9 * (d9 * 6.0f - 15.0f) + 10.0f);
+            }
+
+            float[] corners1 = new float[ySize];
+            float[] corners2 = new float[ySize];
+            float[] corners3 = new float[ySize];
+            float[] corners4 = new float[ySize];
             for (int l2 = 0; l2 < xSize; ++l2) {
                 float d5 = xOffset + (float) l2 * xScale + this.xCoord;
                 int i3 = (int) d5;
@@ -138,38 +159,42 @@ public class NoiseGeneratorImprovedF {
                     d7 = d7 - (float) l3;
                     float d8 = d7 * d7 * d7 * (d7 * (d7 * 6.0f - 15.0f) + 10.0f);
 
+                    int k = -1;
+                    float d1 = 0.0f;
+                    float d2 = 0.0f;
+                    float d3 = 0.0f;
+                    float d4 = 0.0f;
                     for (int j4 = 0; j4 < ySize; ++j4) {
-                        float d9 = yOffset + (float) j4 * yScale + this.yCoord;
-                        int k4 = (int) d9;
-
-                        if (d9 < (float) k4) {
-                            --k4;
-                        }
-
-                        int l4 = k4 & 255;
-                        d9 = d9 - (float) k4;
-                        float d10 = d9 * d9 * d9 * (d9 * (d9 * 6.0f - 15.0f) + 10.0f);
+                        int l4 = yCells[j4];
 
+                        // Like vanilla, the corners are only taken again when the lattice cell changes
                         if (j4 == 0 || l4 != k) {
+                            float d9 = yFractions[j4];
                             k = l4;
-                            l = this.permutations[j3] + l4;
-                            i1 = this.permutations[l] + i4;
-                            j1 = this.permutations[l + 1] + i4;
-                            k1 = this.permutations[j3 + 1] + l4;
-                            l1 = this.permutations[k1] + i4;
-                            i2 = this.permutations[k1 + 1] + i4;
+                            int l = this.permutations[j3] + l4;
+                            int i1 = this.permutations[l] + i4;
+                            int j1 = this.permutations[l + 1] + i4;
+                            int k1 = this.permutations[j3 + 1] + l4;
+                            int l1 = this.permutations[k1] + i4;
+                            int i2 = this.permutations[k1 + 1] + i4;
                             d1 = this.lerp(d6, this.grad(this.permutations[i1], d5, d9, d7), this.grad(this.permutations[l1], d5 - 1.0f, d9, d7));
                             d2 = this.lerp(d6, this.grad(this.permutations[j1], d5, d9 - 1.0f, d7), this.grad(this.permutations[i2], d5 - 1.0f, d9 - 1.0f, d7));
                             d3 = this.lerp(d6, this.grad(this.permutations[i1 + 1], d5, d9, d7 - 1.0f), this.grad(this.permutations[l1 + 1], d5 - 1.0f, d9, d7 - 1.0f));
                             d4 = this.lerp(d6, this.grad(this.permutations[j1 + 1], d5, d9 - 1.0f, d7 - 1.0f), this.grad(this.permutations[i2 + 1], d5 - 1.0f, d9 - 1.0f, d7 - 1.0f));
                         }
 
-                        float d11 = this.lerp(d10, d1, d2);
-                        float d12 = this.lerp(d10, d3, d4);
-                        float d13 = this.lerp(d8, d11, d12);
-                        int j7 = i++;
-                        noiseArray[j7] += d13 * d0;
+                        corners1[j4] = d1;
+                        corners2[j4] = d2;
+                        corners3[j4] = d3;
+                        corners4[j4] = d4;
+                    }
+
+                    for (int j4 = 0; j4 < ySize; ++j4) {
+                        float d11 = this.lerp(yFades[j4], corners1[j4], corners2[j4]);
+                        float d12 = this.lerp(yFades[j4], corners3[j4], corners4[j4]);
+                        noiseArray[i + j4] += this.lerp(d8, d11, d12) * d0;
                     }
+                    i += ySize;
                 }
             }
         }
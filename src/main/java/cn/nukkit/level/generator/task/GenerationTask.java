@@ -5,6 +5,7 @@ import cn.nukkit.level.Level;
 import cn.nukkit.level.format.generic.BaseFullChunk;
 import cn.nukkit.level.generator.Generator;
 import cn.nukkit.level.generator.SimpleChunkManager;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.scheduler.AsyncTask;
 
 /**
@@ -23,6 +24,11 @@ public class GenerationTask extends AsyncTask {
         this.level = level;
     }
 
+    @Override
+    public AsyncLane getLane() {
+        return AsyncLane.GENERATION;
+    }
+
     @Override
     public void onRun() {
         Generator generator = level.getGenerator();
@@ -38,28 +44,27 @@ public class GenerationTask extends AsyncTask {
             return;
         }
 
+        // The generator and its manager belong to this worker thread, so no lock is needed
         manager.cleanChunks(level.getSeed());
-        synchronized (manager) {
-            try {
-                BaseFullChunk chunk = this.chunk;
+        try {
+            BaseFullChunk chunk = this.chunk;
 
-                if (chunk == null) {
-                    return;
-                }
+            if (chunk == null) {
+                return;
+            }
 
-                synchronized (chunk) {
-                    if (!chunk.isGenerated()) {
-                        manager.setChunk(chunk.getX(), chunk.getZ(), chunk);
-                        generator.generateChunk(chunk.getX(), chunk.getZ());
-                        chunk = manager.getChunk(chunk.getX(), chunk.getZ());
-                        chunk.setGenerated();
-                    }
+            synchronized (chunk) {
+                if (!chunk.isGenerated()) {
+                    manager.setChunk(chunk.getX(), chunk.getZ(), chunk);
+                    generator.generateChunk(chunk.getX(), chunk.getZ());
+                    chunk = manager.getChunk(chunk.getX(), chunk.getZ());
+                    chunk.setGenerated();
                 }
-                this.chunk = chunk;
-                state = true;
-            } finally {
-                manager.cleanChunks(level.getSeed());
             }
+            this.chunk = chunk;
+            state = true;
+        } finally {
+            manager.cleanChunks(level.getSeed());
         }
 
     }
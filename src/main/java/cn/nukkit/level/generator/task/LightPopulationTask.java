@@ -3,6 +3,7 @@ package cn.nukkit.level.generator.task;
 import cn.nukkit.Server;
 import cn.nukkit.level.Level;
 import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.scheduler.AsyncTask;
 
 /**
@@ -19,6 +20,11 @@ public class LightPopulationTask extends AsyncTask {
         this.chunk = chunk;
     }
 
+    @Override
+    public AsyncLane getLane() {
+        return AsyncLane.GENERATION;
+    }
+
     @Override
     public void onRun() {
         BaseFullChunk chunk = this.chunk.clone();
@@ -0,0 +1,315 @@
+package cn.nukkit.level.light;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.ChunkSection;
+import cn.nukkit.level.format.generic.BaseChunk;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.util.LongRingBuffer;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.Arrays;
+
+import static cn.nukkit.level.light.LightNodes.*;
+
+/**
+ * Incremental block light propagation for a single level.
+ * <p>
+ * Positions are queued with {@link #queue(int, int, int)} from any thread and propagated together by
+ * {@link #process()} on the thread ticking the level. Removal and spreading run as breadth-first passes
+ * over primitive ring buffers, each entry packing a block position and a light level into one long.
+ * Chunks are looked up once per pass and then cached, so propagation that crosses chunk borders does
+ * not go back to the level for every neighbour. The queues and the chunk cache are reused between
+ * passes, so a pass allocates nothing once the buffers have grown to the size of the largest update.
+ * <p>
+ * Chunks that are not part of a level, such as those written by the pre-generator, are lit from scratch
+ * by {@link #populate(BaseFullChunk[])}.
+ */
+public class BlockLightEngine {
+
+    /**
+     * Light of the 3x3 chunks {@link #populate(BaseFullChunk[])} works on, indexed like {@link #areaIndex(int, int, int)}
+     */
+    private static final ThreadLocal<byte[]> AREA_LIGHT = ThreadLocal.withInitial(() -> new byte[48 * 48 * 256]);
+
+    private final Level level;
+
+    private LongRingBuffer pending = new LongRingBuffer();
+    private LongRingBuffer processing = new LongRingBuffer();
+    private final LongRingBuffer removalQueue = new LongRingBuffer(1024);
+    private final LongRingBuffer spreadQueue = new LongRingBuffer(1024);
+
+    private final Long2ObjectOpenHashMap<BaseFullChunk> chunkCache = new Long2ObjectOpenHashMap<>();
+    private int lastChunkX;
+    private int lastChunkZ;
+    private BaseFullChunk lastChunk;
+
+    public BlockLightEngine(Level level) {
+        this.level = level;
+    }
+
+    public void queue(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return;
+        }
+        synchronized (this) {
+            this.pending.add(pack(x, y, z, 0));
+        }
+    }
+
+    public synchronized boolean hasPendingUpdates() {
+        return !this.pending.isEmpty();
+    }
+
+    /**
+     * Recomputes the block light around every queued position and propagates the changes.
+     * Must only be called by the thread that ticks the level.
+     */
+    public void process() {
+        LongRingBuffer work;
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            work = this.pending;
+            this.pending = this.processing;
+            this.processing = work;
+        }
+
+        try {
+            while (!work.isEmpty()) {
+                long node = work.poll();
+                int x = unpackX(node);
+                int y = unpackY(node);
+                int z = unpackZ(node);
+                BaseFullChunk chunk = this.chunkAt(x >> 4, z >> 4);
+                if (chunk == null) {
+                    continue;
+                }
+                int lx = x & 0x0f;
+                int lz = z & 0x0f;
+                int oldLevel = chunk.getBlockLight(lx, y, lz);
+                int newLevel = Block.light[chunk.getBlockId(lx, y, lz)];
+                if (oldLevel != newLevel) {
+                    chunk.setBlockLight(lx, y, lz, newLevel);
+                    if (newLevel < oldLevel) {
+                        this.removalQueue.add(pack(x, y, z, oldLevel));
+                    } else {
+                        this.spreadQueue.add(pack(x, y, z, 0));
+                    }
+                }
+            }
+
+            this.propagateRemoval();
+            this.propagateSpread();
+        } finally {
+            work.clear();
+            this.removalQueue.clear();
+            this.spreadQueue.clear();
+            this.chunkCache.clear();
+            this.lastChunk = null;
+        }
+    }
+
+    private void propagateRemoval() {
+        LongRingBuffer queue = this.removalQueue;
+        while (!queue.isEmpty()) {
+            long node = queue.poll();
+            int x = unpackX(node);
+            int y = unpackY(node);
+            int z = unpackZ(node);
+            int lightLevel = unpackLevel(node);
+
+            for (int face = 0; face < 6; face++) {
+                int nx = x + OFFSET_X[face];
+                int ny = y + OFFSET_Y[face];
+                int nz = z + OFFSET_Z[face];
+                if (ny < 0 || ny > 255) {
+                    continue;
+                }
+                BaseFullChunk chunk = this.chunkAt(nx >> 4, nz >> 4);
+                if (chunk == null) {
+                    continue;
+                }
+                int lx = nx & 0x0f;
+                int lz = nz & 0x0f;
+                int current = chunk.getBlockLight(lx, ny, lz);
+                if (current != 0 && current < lightLevel) {
+                    chunk.setBlockLight(lx, ny, lz, 0);
+                    if (current > 1) {
+                        queue.add(pack(nx, ny, nz, current));
+                    }
+                } else if (current >= lightLevel) {
+                    this.spreadQueue.add(pack(nx, ny, nz, 0));
+                }
+            }
+        }
+    }
+
+    private void propagateSpread() {
+        LongRingBuffer queue = this.spreadQueue;
+        while (!queue.isEmpty()) {
+            long node = queue.poll();
+            int x = unpackX(node);
+            int y = unpackY(node);
+            int z = unpackZ(node);
+            BaseFullChunk source = this.chunkAt(x >> 4, z >> 4);
+            if (source == null) {
+                continue;
+            }
+            int lightLevel = source.getBlockLight(x & 0x0f, y, z & 0x0f)
+                    - Block.lightFilter[source.getBlockId(x & 0x0f, y, z & 0x0f)];
+            if (lightLevel < 1) {
+                continue;
+            }
+
+            for (int face = 0; face < 6; face++) {
+                int nx = x + OFFSET_X[face];
+                int ny = y + OFFSET_Y[face];
+                int nz = z + OFFSET_Z[face];
+                if (ny < 0 || ny > 255) {
+                    continue;
+                }
+                BaseFullChunk chunk = this.chunkAt(nx >> 4, nz >> 4);
+                if (chunk == null) {
+                    continue;
+                }
+                int lx = nx & 0x0f;
+                int lz = nz & 0x0f;
+                if (chunk.getBlockLight(lx, ny, lz) < lightLevel - 1) {
+                    chunk.setBlockLight(lx, ny, lz, lightLevel);
+                    if (lightLevel > 1) {
+                        queue.add(pack(nx, ny, nz, 0));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the block light of the center chunk of a 3x3 area from scratch, including the light of
+     * sources in the neighbouring chunks. The blocks of all nine chunks must be final, missing neighbours
+     * may be null and are treated as dark and closed. Only the center chunk is written to.
+     *
+     * @param area the chunks from north west to south east, x first
+     */
+    public static void populate(BaseFullChunk[] area) {
+        BaseFullChunk center = area[4];
+        byte[] light = AREA_LIGHT.get();
+        Arrays.fill(light, (byte) 0);
+        IntArrayList[] levels = new IntArrayList[16];
+        for (int i = 1; i < levels.length; i++) {
+            levels[i] = new IntArrayList();
+        }
+
+        for (int i = 0; i < area.length; i++) {
+            BaseFullChunk chunk = area[i];
+            if (chunk != null) {
+                seed(chunk, (i % 3) << 4, (i / 3) << 4, light, levels);
+            }
+        }
+
+        // Brightest first, so every position is raised to its final level before it spreads
+        for (int level = 15; level > 1; level--) {
+            IntArrayList nodes = levels[level];
+            for (int i = 0; i < nodes.size(); i++) {
+                int index = nodes.getInt(i);
+                if (light[index] != level) {
+                    continue;
+                }
+                int x = (index >> 8) % 48;
+                int z = (index >> 8) / 48;
+                int y = index & 0xff;
+                BaseFullChunk chunk = area[(x >> 4) + (z >> 4) * 3];
+                int spread = level - Block.lightFilter[chunk.getBlockId(x & 0x0f, y, z & 0x0f)];
+                if (spread < 1) {
+                    continue;
+                }
+                for (int face = 0; face < 6; face++) {
+                    int nx = x + OFFSET_X[face];
+                    int ny = y + OFFSET_Y[face];
+                    int nz = z + OFFSET_Z[face];
+                    // Light that is too far from the center chunk to come back to it is not followed
+                    if (ny < 0 || ny > 255 || distanceToCenter(nx, nz) >= spread
+                            || area[(nx >> 4) + (nz >> 4) * 3] == null) {
+                        continue;
+                    }
+                    int neighbour = areaIndex(nx, ny, nz);
+                    if (light[neighbour] < spread - 1) {
+                        light[neighbour] = (byte) spread;
+                        if (spread > 1) {
+                            levels[spread].add(neighbour);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int column = areaIndex(x + 16, 0, z + 16);
+                for (int y = 0; y < 256; y++) {
+                    center.setBlockLight(x, y, z, light[column + y]);
+                }
+            }
+        }
+    }
+
+    private static void seed(BaseFullChunk chunk, int offsetX, int offsetZ, byte[] light, IntArrayList[] levels) {
+        for (int y = 0; y < 256; y++) {
+            // Skips the empty sections of chunks that have them
+            if ((y & 0x0f) == 0 && chunk instanceof BaseChunk) {
+                ChunkSection section = ((BaseChunk) chunk).getSections()[y >> 4];
+                if (section == null || section.isEmpty()) {
+                    y += 15;
+                    continue;
+                }
+            }
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    int emitted = Block.light[chunk.getBlockId(x, y, z)];
+                    if (emitted > 0 && distanceToCenter(x + offsetX, z + offsetZ) < emitted) {
+                        int index = areaIndex(x + offsetX, y, z + offsetZ);
+                        light[index] = (byte) emitted;
+                        levels[emitted].add(index);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int areaIndex(int x, int y, int z) {
+        return (z * 48 + x) << 8 | y;
+    }
+
+    /**
+     * @return the number of steps from a column of the area to the nearest column of the center chunk
+     */
+    private static int distanceToCenter(int x, int z) {
+        return Math.max(0, 16 - x) + Math.max(0, x - 31) + Math.max(0, 16 - z) + Math.max(0, z - 31);
+    }
+
+    private BaseFullChunk chunkAt(int chunkX, int chunkZ) {
+        if (this.lastChunk != null && this.lastChunkX == chunkX && this.lastChunkZ == chunkZ) {
+            return this.lastChunk;
+        }
+        long index = Level.chunkHash(chunkX, chunkZ);
+        BaseFullChunk chunk = this.chunkCache.get(index);
+        if (chunk == null) {
+            if (this.chunkCache.containsKey(index)) {
+                return null;
+            }
+            // Light does not spread into chunks that are not generated yet, they are lit when populated
+            chunk = this.level.getChunk(chunkX, chunkZ, false);
+            this.chunkCache.put(index, chunk);
+            if (chunk == null) {
+                return null;
+            }
+        }
+        this.lastChunkX = chunkX;
+        this.lastChunkZ = chunkZ;
+        this.lastChunk = chunk;
+        return chunk;
+    }
+}
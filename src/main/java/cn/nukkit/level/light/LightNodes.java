@@ -0,0 +1,35 @@
+package cn.nukkit.level.light;
+
+/**
+ * Packs a block position and a light level into a single long for the light propagation queues.
+ * x and z take 26 bits each, y 8 bits and the light level the low 4 bits.
+ */
+final class LightNodes {
+
+    static final int[] OFFSET_X = {-1, 1, 0, 0, 0, 0};
+    static final int[] OFFSET_Y = {0, 0, -1, 1, 0, 0};
+    static final int[] OFFSET_Z = {0, 0, 0, 0, -1, 1};
+
+    private LightNodes() {
+    }
+
+    static long pack(int x, int y, int z, int level) {
+        return ((long) x & 0x3ffffffL) << 38 | ((long) z & 0x3ffffffL) << 12 | (long) (y & 0xff) << 4 | (level & 0x0f);
+    }
+
+    static int unpackX(long node) {
+        return (int) (node >> 38);
+    }
+
+    static int unpackZ(long node) {
+        return (int) (node << 26 >> 38);
+    }
+
+    static int unpackY(long node) {
+        return (int) (node >>> 4) & 0xff;
+    }
+
+    static int unpackLevel(long node) {
+        return (int) node & 0x0f;
+    }
+}
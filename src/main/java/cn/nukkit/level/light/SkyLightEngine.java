@@ -0,0 +1,330 @@
+package cn.nukkit.level.light;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.util.LongRingBuffer;
+import cn.nukkit.scheduler.AsyncLane;
+import cn.nukkit.scheduler.AsyncTask;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.*;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static cn.nukkit.level.light.LightNodes.*;
+
+/**
+ * Incremental sky light for a single level.
+ * <p>
+ * Positions whose blocks changed are queued per chunk with {@link #queue(int, int, int)}. Once a tick
+ * {@link #tick()} hands everything queued so far to an async worker as one batch. The worker recomputes
+ * the direct sky columns of the touched columns, then removes and spreads sky light breadth-first. It
+ * reads the live chunks but writes only into a private overlay. The finished overlay is published
+ * through an atomic reference and applied in one go by the next {@link #tick()} on the thread ticking the
+ * level, which also refreshes the height map of the touched columns. Only one batch is in flight at a
+ * time, so a batch always starts from the light published by the previous one.
+ * <p>
+ * Positions at or above the lowest non-solid block of an open column get direct sky light of 15, the
+ * same rule {@link BaseFullChunk#populateSkyLight()} uses. Everything else is lit by its neighbours,
+ * losing the receiving block's light filter on every step.
+ */
+@Log4j2
+public class SkyLightEngine {
+
+    private final Level level;
+
+    private Long2ObjectOpenHashMap<IntOpenHashSet> pending = new Long2ObjectOpenHashMap<>();
+    private final AtomicReference<Result> published = new AtomicReference<>();
+    private boolean running;
+
+    public SkyLightEngine(Level level) {
+        this.level = level;
+    }
+
+    public void queue(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return;
+        }
+        long index = Level.chunkHash(x >> 4, z >> 4);
+        synchronized (this) {
+            IntOpenHashSet blocks = this.pending.get(index);
+            if (blocks == null) {
+                blocks = new IntOpenHashSet();
+                this.pending.put(index, blocks);
+            }
+            blocks.add((x & 0x0f) | (z & 0x0f) << 4 | y << 8);
+        }
+    }
+
+    public synchronized boolean hasPendingUpdates() {
+        return this.running || !this.pending.isEmpty();
+    }
+
+    /**
+     * Applies the last published batch, if any, and starts the next one.
+     * Must only be called by the thread that ticks the level.
+     */
+    public void tick() {
+        Result result = this.published.getAndSet(null);
+        if (result != null) {
+            this.apply(result);
+            this.running = false;
+        }
+        if (this.running) {
+            return;
+        }
+
+        Long2ObjectOpenHashMap<IntOpenHashSet> batch;
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            batch = this.pending;
+            this.pending = new Long2ObjectOpenHashMap<>();
+        }
+        this.running = true;
+        this.level.getServer().getScheduler().scheduleAsyncTask(new SkyLightTask(batch));
+    }
+
+    private void apply(Result result) {
+        BaseFullChunk chunk = null;
+        long chunkIndex = 0;
+        ObjectIterator<Long2ByteMap.Entry> iter = result.light.long2ByteEntrySet().fastIterator();
+        while (iter.hasNext()) {
+            Long2ByteMap.Entry entry = iter.next();
+            long node = entry.getLongKey();
+            int x = unpackX(node);
+            int z = unpackZ(node);
+            long index = Level.chunkHash(x >> 4, z >> 4);
+            if (chunk == null || index != chunkIndex) {
+                chunk = this.level.getChunkIfLoaded(x >> 4, z >> 4);
+                chunkIndex = index;
+                if (chunk == null) {
+                    continue;
+                }
+            }
+            // Marks the chunk as changed, which also drops its cached chunk packet
+            chunk.setBlockSkyLight(x & 0x0f, unpackY(node), z & 0x0f, entry.getByteValue());
+        }
+
+        LongIterator columns = result.columns.iterator();
+        while (columns.hasNext()) {
+            long column = columns.nextLong();
+            int x = Level.getHashX(column);
+            int z = Level.getHashZ(column);
+            chunk = this.level.getChunkIfLoaded(x >> 4, z >> 4);
+            if (chunk != null) {
+                chunk.getHighestBlockAt(x & 0x0f, z & 0x0f, false);
+            }
+        }
+    }
+
+    private static class Result {
+        private final Long2ByteOpenHashMap light;
+        private final LongOpenHashSet columns;
+
+        private Result(Long2ByteOpenHashMap light, LongOpenHashSet columns) {
+            this.light = light;
+            this.columns = columns;
+        }
+    }
+
+    private class SkyLightTask extends AsyncTask {
+
+        private final Long2ObjectOpenHashMap<IntOpenHashSet> batch;
+
+        private final Long2ByteOpenHashMap light = new Long2ByteOpenHashMap();
+        private final LongOpenHashSet columns = new LongOpenHashSet();
+        private final Long2IntOpenHashMap skyFloors = new Long2IntOpenHashMap();
+        private final Long2ObjectOpenHashMap<BaseFullChunk> chunkCache = new Long2ObjectOpenHashMap<>();
+        private final LongRingBuffer removalQueue = new LongRingBuffer(1024);
+        private final LongRingBuffer spreadQueue = new LongRingBuffer(1024);
+
+        private SkyLightTask(Long2ObjectOpenHashMap<IntOpenHashSet> batch) {
+            this.batch = batch;
+            this.light.defaultReturnValue((byte) -1);
+            this.skyFloors.defaultReturnValue(-1);
+        }
+
+        @Override
+        public AsyncLane getLane() {
+            return AsyncLane.GENERATION;
+        }
+
+        @Override
+        public void onRun() {
+            try {
+                ObjectIterator<Long2ObjectMap.Entry<IntOpenHashSet>> iter = this.batch.long2ObjectEntrySet().fastIterator();
+                while (iter.hasNext()) {
+                    Long2ObjectMap.Entry<IntOpenHashSet> entry = iter.next();
+                    int bx = Level.getHashX(entry.getLongKey()) << 4;
+                    int bz = Level.getHashZ(entry.getLongKey()) << 4;
+                    if (this.chunkAt(bx >> 4, bz >> 4) == null) {
+                        continue;
+                    }
+                    IntIterator blocks = entry.getValue().iterator();
+                    while (blocks.hasNext()) {
+                        int hash = blocks.nextInt();
+                        this.update(bx | (hash & 0x0f), hash >> 8, bz | ((hash >> 4) & 0x0f));
+                    }
+                }
+
+                this.propagateRemoval();
+                this.propagateSpread();
+            } catch (Exception e) {
+                log.error("Failed to recalculate sky light", e);
+                // A half-propagated overlay would leave seams, keep the old light instead
+                this.light.clear();
+            } finally {
+                published.set(new Result(this.light, this.columns));
+            }
+        }
+
+        private void update(int x, int y, int z) {
+            long column = Level.chunkHash(x, z);
+            if (this.columns.add(column)) {
+                int floor = this.skyFloor(x, z);
+                // The open part of the column is lit directly
+                for (int yy = 255; yy >= floor; yy--) {
+                    if (this.getLight(x, yy, z) != 15) {
+                        this.setLight(x, yy, z, 15);
+                        this.spreadQueue.add(pack(x, yy, z, 0));
+                    }
+                }
+                // Spreading never reaches 15, so 15 below the floor is direct light that is now blocked
+                for (int yy = floor - 1; yy >= 0 && this.getLight(x, yy, z) == 15; yy--) {
+                    this.setLight(x, yy, z, 0);
+                    this.removalQueue.add(pack(x, yy, z, 15));
+                }
+            }
+
+            if (y < this.skyFloor(x, z)) {
+                int current = this.getLight(x, y, z);
+                if (current > 0) {
+                    this.setLight(x, y, z, 0);
+                    this.removalQueue.add(pack(x, y, z, current));
+                }
+                // Lets the neighbours light the block again if it lets more light through now
+                for (int face = 0; face < 6; face++) {
+                    int ny = y + OFFSET_Y[face];
+                    if (ny >= 0 && ny <= 255) {
+                        this.spreadQueue.add(pack(x + OFFSET_X[face], ny, z + OFFSET_Z[face], 0));
+                    }
+                }
+            }
+        }
+
+        private void propagateRemoval() {
+            LongRingBuffer queue = this.removalQueue;
+            while (!queue.isEmpty()) {
+                long node = queue.poll();
+                int x = unpackX(node);
+                int y = unpackY(node);
+                int z = unpackZ(node);
+                int lightLevel = unpackLevel(node);
+
+                for (int face = 0; face < 6; face++) {
+                    int nx = x + OFFSET_X[face];
+                    int ny = y + OFFSET_Y[face];
+                    int nz = z + OFFSET_Z[face];
+                    if (ny < 0 || ny > 255 || this.chunkAt(nx >> 4, nz >> 4) == null) {
+                        continue;
+                    }
+                    int current = this.getLight(nx, ny, nz);
+                    if (ny >= this.skyFloor(nx, nz)) {
+                        this.spreadQueue.add(pack(nx, ny, nz, 0));
+                    } else if (current != 0 && current < lightLevel) {
+                        this.setLight(nx, ny, nz, 0);
+                        queue.add(pack(nx, ny, nz, current));
+                    } else if (current >= lightLevel) {
+                        this.spreadQueue.add(pack(nx, ny, nz, 0));
+                    }
+                }
+            }
+        }
+
+        private void propagateSpread() {
+            LongRingBuffer queue = this.spreadQueue;
+            while (!queue.isEmpty()) {
+                long node = queue.poll();
+                int x = unpackX(node);
+                int y = unpackY(node);
+                int z = unpackZ(node);
+                if (this.chunkAt(x >> 4, z >> 4) == null) {
+                    continue;
+                }
+                int lightLevel = this.getLight(x, y, z);
+                if (lightLevel <= 1) {
+                    continue;
+                }
+
+                for (int face = 0; face < 6; face++) {
+                    int nx = x + OFFSET_X[face];
+                    int ny = y + OFFSET_Y[face];
+                    int nz = z + OFFSET_Z[face];
+                    if (ny < 0 || ny > 255) {
+                        continue;
+                    }
+                    BaseFullChunk chunk = this.chunkAt(nx >> 4, nz >> 4);
+                    if (chunk == null || ny >= this.skyFloor(nx, nz)) {
+                        continue;
+                    }
+                    int newLevel = lightLevel - Block.lightFilter[chunk.getBlockId(nx & 0x0f, ny, nz & 0x0f)];
+                    if (newLevel > this.getLight(nx, ny, nz)) {
+                        this.setLight(nx, ny, nz, newLevel);
+                        queue.add(pack(nx, ny, nz, 0));
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the lowest y of the open part of the column, 256 if the top block is solid
+         */
+        private int skyFloor(int x, int z) {
+            long column = Level.chunkHash(x, z);
+            int floor = this.skyFloors.get(column);
+            if (floor == -1) {
+                BaseFullChunk chunk = this.chunkAt(x >> 4, z >> 4);
+                floor = 0;
+                if (chunk != null) {
+                    for (int y = 255; y >= 0; y--) {
+                        if (Block.solid[chunk.getBlockId(x & 0x0f, y, z & 0x0f)]) {
+                            floor = y + 1;
+                            break;
+                        }
+                    }
+                }
+                this.skyFloors.put(column, floor);
+            }
+            return floor;
+        }
+
+        private int getLight(int x, int y, int z) {
+            byte light = this.light.get(pack(x, y, z, 0));
+            if (light != -1) {
+                return light;
+            }
+            BaseFullChunk chunk = this.chunkAt(x >> 4, z >> 4);
+            return chunk == null ? 0 : chunk.getBlockSkyLight(x & 0x0f, y, z & 0x0f);
+        }
+
+        private void setLight(int x, int y, int z, int level) {
+            this.light.put(pack(x, y, z, 0), (byte) level);
+        }
+
+        private BaseFullChunk chunkAt(int chunkX, int chunkZ) {
+            long index = Level.chunkHash(chunkX, chunkZ);
+            BaseFullChunk chunk = this.chunkCache.get(index);
+            if (chunk == null && !this.chunkCache.containsKey(index)) {
+                // Never load chunks from a worker thread, light stops at unloaded chunks
+                chunk = level.getChunkIfLoaded(chunkX, chunkZ);
+                this.chunkCache.put(index, chunk);
+            }
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cn.nukkit.level.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A growable FIFO queue of primitive longs backed by a power-of-two ring buffer.
+ * Not thread-safe. Once it has grown to its working size, adding and polling never allocate.
+ */
+public class LongRingBuffer {
+
+    private long[] elements;
+    private int mask;
+    private int head;
+    private int tail;
+
+    public LongRingBuffer() {
+        this(256);
+    }
+
+    public LongRingBuffer(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+        this.elements = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public void add(long value) {
+        this.elements[this.tail] = value;
+        this.tail = (this.tail + 1) & this.mask;
+        if (this.tail == this.head) {
+            grow();
+        }
+    }
+
+    public long poll() {
+        if (this.head == this.tail) {
+            throw new NoSuchElementException();
+        }
+        long value = this.elements[this.head];
+        this.head = (this.head + 1) & this.mask;
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return this.head == this.tail;
+    }
+
+    public int size() {
+        return (this.tail - this.head) & this.mask;
+    }
+
+    public void clear() {
+        this.head = 0;
+        this.tail = 0;
+    }
+
+    private void grow() {
+        int capacity = this.elements.length;
+        long[] grown = new long[capacity << 1];
+        int headPart = capacity - this.head;
+        System.arraycopy(this.elements, this.head, grown, 0, headPart);
+        System.arraycopy(this.elements, 0, grown, headPart, this.head);
+        this.elements = grown;
+        this.mask = grown.length - 1;
+        this.head = 0;
+        this.tail = capacity;
+    }
+}
@@ -4,8 +4,10 @@ import cn.nukkit.item.Item;
 import cn.nukkit.nbt.stream.FastByteArrayOutputStream;
 import cn.nukkit.nbt.stream.NBTInputStream;
 import cn.nukkit.nbt.stream.NBTOutputStream;
+import cn.nukkit.nbt.stream.NBTStreamReader;
 import cn.nukkit.nbt.stream.PGZIPOutputStream;
 import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.nbt.tag.ListTag;
 import cn.nukkit.nbt.tag.Tag;
 import cn.nukkit.utils.ThreadCache;
 
@@ -92,6 +94,39 @@ public class NBTIO {
         }
     }
 
+    /**
+     * Reads a compound whose nested compounds, including those in lists, are only parsed once accessed. Meant
+     * for reading a few entries of a large compound, or for passing parts of it on unchanged.
+     */
+    public static CompoundTag readLazy(InputStream inputStream, ByteOrder endianness) throws IOException {
+        try (NBTInputStream stream = new NBTInputStream(inputStream, endianness)) {
+            NBTStreamReader reader = new NBTStreamReader(stream);
+            CompoundTag tag = new CompoundTag(reader.readRoot());
+            while (reader.next() != Tag.TAG_End) {
+                tag.put(reader.getName(), readLazyValue(reader));
+            }
+            return tag;
+        }
+    }
+
+    private static Tag readLazyValue(NBTStreamReader reader) throws IOException {
+        switch (reader.getType()) {
+            case Tag.TAG_Compound:
+                return reader.readLazyCompound(reader.getName());
+            case Tag.TAG_List:
+                ListTag<Tag> list = new ListTag<>(reader.getName());
+                int size = reader.readListHeader();
+                byte type = reader.getListType();
+                for (int i = 0; i < size; i++) {
+                    list.add(type == Tag.TAG_Compound ? reader.readLazyCompound("") : reader.readTag(type, ""));
+                }
+                list.type = type;
+                return list;
+            default:
+                return reader.readTag();
+        }
+    }
+
     public static Tag readTag(InputStream inputStream, ByteOrder endianness, boolean network) throws IOException {
         try (NBTInputStream stream = new NBTInputStream(inputStream, endianness, network)) {
             return Tag.readNamedTag(stream);
@@ -118,6 +153,13 @@ public class NBTIO {
         return read(new BufferedInputStream(new GZIPInputStream(inputStream)), endianness);
     }
 
+    /**
+     * @see #readLazy(InputStream, ByteOrder)
+     */
+    public static CompoundTag readCompressedLazy(InputStream inputStream) throws IOException {
+        return readLazy(new BufferedInputStream(new GZIPInputStream(inputStream)), ByteOrder.BIG_ENDIAN);
+    }
+
     public static CompoundTag readCompressed(byte[] data) throws IOException {
         return readCompressed(data, ByteOrder.BIG_ENDIAN);
     }
@@ -270,4 +312,17 @@ public class NBTIO {
         write(tag, tmpFile);
         Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
+
+    /**
+     * Streams the tag gzip compressed into a temporary file and moves it over the given one, which is left as
+     * it was if writing fails.
+     */
+    public static void safeWriteGZIPCompressed(CompoundTag tag, File file) throws IOException {
+        File tmpFile = new File(file.getAbsolutePath() + "_tmp");
+        if (tmpFile.exists()) {
+            tmpFile.delete();
+        }
+        writeGZIPCompressed(tag, new FileOutputStream(tmpFile));
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 }
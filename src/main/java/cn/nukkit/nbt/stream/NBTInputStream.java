@@ -145,10 +145,32 @@ public class NBTInputStream implements DataInput, AutoCloseable {
     public String readUTF() throws IOException {
         int length = network ? (int) VarInt.readUnsignedVarInt(stream) : this.readUnsignedShort();
         byte[] bytes = new byte[length];
-        this.stream.read(bytes);
+        this.stream.readFully(bytes);
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Skips a string written by {@link NBTOutputStream#writeUTF(String)} without decoding it.
+     */
+    public void skipUTF() throws IOException {
+        int length = network ? (int) VarInt.readUnsignedVarInt(stream) : this.readUnsignedShort();
+        this.skipFully(length);
+    }
+
+    /**
+     * Like {@link #skipBytes(int)}, but always skips the given number of bytes or fails.
+     */
+    public void skipFully(int n) throws IOException {
+        while (n > 0) {
+            int skipped = this.stream.skipBytes(n);
+            if (skipped <= 0) {
+                this.stream.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
     public int available() throws IOException {
         return this.stream.available();
     }
@@ -0,0 +1,257 @@
+package cn.nukkit.nbt.stream;
+
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.nbt.tag.Tag;
+
+import java.io.IOException;
+
+/**
+ * Reads NBT one tag at a time, without building a tree.
+ * <p>
+ * {@link #next()} reads the type and name of the next entry of the compound being read. The value must then be
+ * consumed, either with the read method for its type, with {@link #skip()}, or for a compound by calling
+ * {@link #next()} until it returns {@link Tag#TAG_End}. A list is opened with {@link #readListHeader()}, after
+ * which its elements follow without type or name and are read with the same methods.
+ */
+public class NBTStreamReader {
+
+    private final NBTInputStream stream;
+
+    private byte type;
+    private String name;
+    private byte listType;
+
+    private byte[] copyBuffer;
+    private FastByteArrayOutputStream capture;
+
+    public NBTStreamReader(NBTInputStream stream) {
+        this.stream = stream;
+    }
+
+    public NBTInputStream getStream() {
+        return stream;
+    }
+
+    /**
+     * Reads the header of the next entry.
+     *
+     * @return the type of the entry, {@link Tag#TAG_End} once the compound has no more entries
+     */
+    public byte next() throws IOException {
+        this.type = this.stream.readByte();
+        this.name = this.type == Tag.TAG_End ? null : this.stream.readUTF();
+        return this.type;
+    }
+
+    /**
+     * Reads the header of the root tag, which has to be a compound.
+     */
+    public String readRoot() throws IOException {
+        if (this.next() != Tag.TAG_Compound) {
+            throw new IOException("Root tag must be a named compound tag");
+        }
+        return this.name;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte readByte() throws IOException {
+        return this.stream.readByte();
+    }
+
+    public short readShort() throws IOException {
+        return this.stream.readShort();
+    }
+
+    public int readInt() throws IOException {
+        return this.stream.readInt();
+    }
+
+    public long readLong() throws IOException {
+        return this.stream.readLong();
+    }
+
+    public float readFloat() throws IOException {
+        return this.stream.readFloat();
+    }
+
+    public double readDouble() throws IOException {
+        return this.stream.readDouble();
+    }
+
+    public String readString() throws IOException {
+        return this.stream.readUTF();
+    }
+
+    public byte[] readByteArray() throws IOException {
+        return this.readByteArray(null);
+    }
+
+    /**
+     * @param buffer returned filled if it has the length of the array, so it can be reused
+     */
+    public byte[] readByteArray(byte[] buffer) throws IOException {
+        int length = this.stream.readInt();
+        byte[] data = buffer != null && buffer.length == length ? buffer : new byte[length];
+        this.stream.readFully(data);
+        return data;
+    }
+
+    public int[] readIntArray() throws IOException {
+        int length = this.stream.readInt();
+        int[] data = new int[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = this.stream.readInt();
+        }
+        return data;
+    }
+
+    /**
+     * Opens a list, the type of its elements is then given by {@link #getListType()}.
+     *
+     * @return the number of elements
+     */
+    public int readListHeader() throws IOException {
+        this.listType = this.stream.readByte();
+        return this.stream.readInt();
+    }
+
+    public byte getListType() {
+        return listType;
+    }
+
+    /**
+     * Reads the value of the current entry as a tag.
+     */
+    public Tag readTag() throws IOException {
+        return this.readTag(this.type, this.name);
+    }
+
+    public Tag readTag(byte type, String name) throws IOException {
+        return Tag.readTag(type, name, this.stream);
+    }
+
+    /**
+     * Reads a compound value as a {@link CompoundTag} whose entries are only parsed once accessed.
+     */
+    public CompoundTag readLazyCompound(String name) throws IOException {
+        if (this.capture == null) {
+            this.capture = new FastByteArrayOutputStream(256);
+        }
+        this.capture.reset();
+        NBTOutputStream out = new NBTOutputStream(this.capture, this.stream.getEndianness(), this.stream.isNetwork());
+        this.consume(Tag.TAG_Compound, out);
+        return new CompoundTag(name, this.capture.toByteArray(), this.stream.getEndianness(), this.stream.isNetwork());
+    }
+
+    /**
+     * Skips the value of the current entry.
+     */
+    public void skip() throws IOException {
+        this.skip(this.type);
+    }
+
+    public void skip(byte type) throws IOException {
+        this.consume(type, null);
+    }
+
+    /**
+     * Reads a value, copying it to {@code copy} unless it is null.
+     */
+    private void consume(byte type, NBTOutputStream copy) throws IOException {
+        switch (type) {
+            case Tag.TAG_Byte:
+                byte b = this.stream.readByte();
+                if (copy != null) copy.writeByte(b);
+                break;
+            case Tag.TAG_Short:
+                short s = this.stream.readShort();
+                if (copy != null) copy.writeShort(s);
+                break;
+            case Tag.TAG_Int:
+                int i = this.stream.readInt();
+                if (copy != null) copy.writeInt(i);
+                break;
+            case Tag.TAG_Long:
+                long l = this.stream.readLong();
+                if (copy != null) copy.writeLong(l);
+                break;
+            case Tag.TAG_Float:
+                float f = this.stream.readFloat();
+                if (copy != null) copy.writeFloat(f);
+                break;
+            case Tag.TAG_Double:
+                double d = this.stream.readDouble();
+                if (copy != null) copy.writeDouble(d);
+                break;
+            case Tag.TAG_Byte_Array:
+                int length = this.stream.readInt();
+                if (copy != null) {
+                    copy.writeInt(length);
+                    this.copyBytes(length, copy);
+                } else {
+                    this.stream.skipFully(length);
+                }
+                break;
+            case Tag.TAG_String:
+                if (copy != null) {
+                    copy.writeUTF(this.stream.readUTF());
+                } else {
+                    this.stream.skipUTF();
+                }
+                break;
+            case Tag.TAG_List:
+                byte elementType = this.stream.readByte();
+                int size = this.stream.readInt();
+                if (copy != null) {
+                    copy.writeByte(elementType);
+                    copy.writeInt(size);
+                }
+                for (int j = 0; j < size; j++) {
+                    this.consume(elementType, copy);
+                }
+                break;
+            case Tag.TAG_Compound:
+                byte entryType;
+                while ((entryType = this.stream.readByte()) != Tag.TAG_End) {
+                    if (copy != null) {
+                        copy.writeByte(entryType);
+                        copy.writeUTF(this.stream.readUTF());
+                    } else {
+                        this.stream.skipUTF();
+                    }
+                    this.consume(entryType, copy);
+                }
+                if (copy != null) copy.writeByte(Tag.TAG_End);
+                break;
+            case Tag.TAG_Int_Array:
+                int count = this.stream.readInt();
+                if (copy != null) copy.writeInt(count);
+                for (int j = 0; j < count; j++) {
+                    int value = this.stream.readInt();
+                    if (copy != null) copy.writeInt(value);
+                }
+                break;
+            default:
+                throw new IOException("Unknown tag type " + type);
+        }
+    }
+
+    private void copyBytes(int length, NBTOutputStream copy) throws IOException {
+        if (this.copyBuffer == null) {
+            this.copyBuffer = new byte[4096];
+        }
+        while (length > 0) {
+            int chunk = Math.min(length, this.copyBuffer.length);
+            this.stream.readFully(this.copyBuffer, 0, chunk);
+            copy.write(this.copyBuffer, 0, chunk);
+            length -= chunk;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package cn.nukkit.nbt.stream;
+
+import cn.nukkit.nbt.tag.Tag;
+
+import java.io.IOException;
+
+/**
+ * Writes NBT one tag at a time, without building a tree first.
+ * <p>
+ * The {@code put} methods write a named entry of the compound being written. A compound is opened with
+ * {@link #beginCompound(String)} and closed with {@link #endCompound()}. A list is opened with
+ * {@link #beginList(String, byte, int)} and followed by exactly that many elements, which have no name: a
+ * compound element is its entries followed by {@link #endCompound()}, any other element is written with
+ * {@link #writeTag(Tag)} or directly to {@link #getStream()}.
+ */
+public class NBTStreamWriter {
+
+    private final NBTOutputStream stream;
+
+    public NBTStreamWriter(NBTOutputStream stream) {
+        this.stream = stream;
+    }
+
+    public NBTOutputStream getStream() {
+        return stream;
+    }
+
+    private void header(byte type, String name) throws IOException {
+        this.stream.writeByte(type);
+        this.stream.writeUTF(name);
+    }
+
+    public NBTStreamWriter beginCompound(String name) throws IOException {
+        this.header(Tag.TAG_Compound, name);
+        return this;
+    }
+
+    public NBTStreamWriter endCompound() throws IOException {
+        this.stream.writeByte(Tag.TAG_End);
+        return this;
+    }
+
+    public NBTStreamWriter beginList(String name, byte type, int size) throws IOException {
+        this.header(Tag.TAG_List, name);
+        this.stream.writeByte(type);
+        this.stream.writeInt(size);
+        return this;
+    }
+
+    public NBTStreamWriter putByte(String name, int value) throws IOException {
+        this.header(Tag.TAG_Byte, name);
+        this.stream.writeByte(value);
+        return this;
+    }
+
+    public NBTStreamWriter putBoolean(String name, boolean value) throws IOException {
+        return this.putByte(name, value ? 1 : 0);
+    }
+
+    public NBTStreamWriter putShort(String name, int value) throws IOException {
+        this.header(Tag.TAG_Short, name);
+        this.stream.writeShort(value);
+        return this;
+    }
+
+    public NBTStreamWriter putInt(String name, int value) throws IOException {
+        this.header(Tag.TAG_Int, name);
+        this.stream.writeInt(value);
+        return this;
+    }
+
+    public NBTStreamWriter putLong(String name, long value) throws IOException {
+        this.header(Tag.TAG_Long, name);
+        this.stream.writeLong(value);
+        return this;
+    }
+
+    public NBTStreamWriter putFloat(String name, float value) throws IOException {
+        this.header(Tag.TAG_Float, name);
+        this.stream.writeFloat(value);
+        return this;
+    }
+
+    public NBTStreamWriter putDouble(String name, double value) throws IOException {
+        this.header(Tag.TAG_Double, name);
+        this.stream.writeDouble(value);
+        return this;
+    }
+
+    public NBTStreamWriter putString(String name, String value) throws IOException {
+        this.header(Tag.TAG_String, name);
+        this.stream.writeUTF(value);
+        return this;
+    }
+
+    public NBTStreamWriter putByteArray(String name, byte[] value) throws IOException {
+        return this.putByteArray(name, value, 0, value.length);
+    }
+
+    public NBTStreamWriter putByteArray(String name, byte[] value, int offset, int length) throws IOException {
+        this.header(Tag.TAG_Byte_Array, name);
+        this.stream.writeInt(length);
+        this.stream.write(value, offset, length);
+        return this;
+    }
+
+    public NBTStreamWriter putIntArray(String name, int[] value) throws IOException {
+        this.header(Tag.TAG_Int_Array, name);
+        this.stream.writeInt(value.length);
+        for (int i : value) {
+            this.stream.writeInt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a tag as an entry with the given name.
+     */
+    public NBTStreamWriter put(String name, Tag tag) throws IOException {
+        Tag.writeNamedTag(tag, name, this.stream);
+        return this;
+    }
+
+    /**
+     * Writes a tag as a list element.
+     */
+    public NBTStreamWriter writeTag(Tag tag) throws IOException {
+        Tag.writeTag(tag, this.stream);
+        return this;
+    }
+}
@@ -3,8 +3,10 @@ package cn.nukkit.nbt.tag;
 import cn.nukkit.nbt.stream.NBTInputStream;
 import cn.nukkit.nbt.stream.NBTOutputStream;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,6 +16,11 @@ import java.util.StringJoiner;
 public class CompoundTag extends Tag implements Cloneable {
     private final Map<String, Tag> tags = new HashMap<>();
 
+    // Payload of a compound read lazily, parsed into the map on first access
+    private volatile byte[] payload;
+    private ByteOrder payloadEndianness;
+    private boolean payloadNetwork;
+
     public CompoundTag() {
         super("");
     }
@@ -22,10 +29,52 @@ public class CompoundTag extends Tag implements Cloneable {
         super(name);
     }
 
+    /**
+     * Creates a compound whose entries stay encoded until first accessed. A compound that is never accessed is
+     * written back by copying the payload, provided it is written with the same encoding.
+     *
+     * @param payload the entries as read from a stream with the given encoding, including the closing end tag
+     */
+    public CompoundTag(String name, byte[] payload, ByteOrder endianness, boolean network) {
+        super(name);
+        this.payloadEndianness = endianness;
+        this.payloadNetwork = network;
+        this.payload = payload;
+    }
+
+    private Map<String, Tag> tags() {
+        if (this.payload != null) {
+            synchronized (this.tags) {
+                byte[] payload = this.payload;
+                if (payload != null) {
+                    try (NBTInputStream stream = new NBTInputStream(new ByteArrayInputStream(payload), this.payloadEndianness, this.payloadNetwork)) {
+                        this.readEntries(stream);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Unable to read lazy compound " + this.getName(), e);
+                    }
+                    this.payload = null;
+                }
+            }
+        }
+        return this.tags;
+    }
+
+    /**
+     * @return whether the entries have not been parsed yet
+     */
+    public boolean isLazy() {
+        return this.payload != null;
+    }
+
     @Override
     public void write(NBTOutputStream dos) throws IOException {
+        byte[] payload = this.payload;
+        if (payload != null && dos.getEndianness() == this.payloadEndianness && dos.isNetwork() == this.payloadNetwork) {
+            dos.write(payload);
+            return;
+        }
 
-        for (Map.Entry<String, Tag> entry : this.tags.entrySet()) {
+        for (Map.Entry<String, Tag> entry : this.tags().entrySet()) {
             Tag.writeNamedTag(entry.getValue(), entry.getKey(), dos);
         }
 
@@ -34,6 +83,13 @@ public class CompoundTag extends Tag implements Cloneable {
 
     @Override
     public void load(NBTInputStream dis) throws IOException {
+        synchronized (this.tags) {
+            this.payload = null;
+            this.readEntries(dis);
+        }
+    }
+
+    private void readEntries(NBTInputStream dis) throws IOException {
         tags.clear();
         Tag tag;
         while ((tag = Tag.readNamedTag(dis)).getId() != Tag.TAG_End) {
@@ -42,7 +98,7 @@ public class CompoundTag extends Tag implements Cloneable {
     }
 
     public Collection<Tag> getAllTags() {
-        return tags.values();
+        return tags().values();
     }
 
     @Override
@@ -51,62 +107,62 @@ public class CompoundTag extends Tag implements Cloneable {
     }
 
     public CompoundTag put(String name, Tag tag) {
-        tags.put(name, tag.setName(name));
+        tags().put(name, tag.setName(name));
         return this;
     }
 
     public CompoundTag putByte(String name, int value) {
-        tags.put(name, new ByteTag(name, value));
+        tags().put(name, new ByteTag(name, value));
         return this;
     }
 
     public CompoundTag putShort(String name, int value) {
-        tags.put(name, new ShortTag(name, value));
+        tags().put(name, new ShortTag(name, value));
         return this;
     }
 
     public CompoundTag putInt(String name, int value) {
-        tags.put(name, new IntTag(name, value));
+        tags().put(name, new IntTag(name, value));
         return this;
     }
 
     public CompoundTag putLong(String name, long value) {
-        tags.put(name, new LongTag(name, value));
+        tags().put(name, new LongTag(name, value));
         return this;
     }
 
     public CompoundTag putFloat(String name, float value) {
-        tags.put(name, new FloatTag(name, value));
+        tags().put(name, new FloatTag(name, value));
         return this;
     }
 
     public CompoundTag putDouble(String name, double value) {
-        tags.put(name, new DoubleTag(name, value));
+        tags().put(name, new DoubleTag(name, value));
         return this;
     }
 
     public CompoundTag putString(String name, String value) {
-        tags.put(name, new StringTag(name, value));
+        tags().put(name, new StringTag(name, value));
         return this;
     }
 
     public CompoundTag putByteArray(String name, byte[] value) {
-        tags.put(name, new ByteArrayTag(name, value));
+        tags().put(name, new ByteArrayTag(name, value));
         return this;
     }
 
     public CompoundTag putIntArray(String name, int[] value) {
-        tags.put(name, new IntArrayTag(name, value));
+        tags().put(name, new IntArrayTag(name, value));
         return this;
     }
 
     public CompoundTag putList(ListTag<? extends Tag> listTag) {
-        tags.put(listTag.getName(), listTag);
+        tags().put(listTag.getName(), listTag);
         return this;
     }
 
     public CompoundTag putCompound(String name, CompoundTag value) {
-        tags.put(name, value.setName(name));
+        tags().put(name, value.setName(name));
         return this;
     }
 
@@ -116,56 +172,56 @@ public class CompoundTag extends Tag implements Cloneable {
     }
 
     public Tag get(String name) {
-        return tags.get(name);
+        return tags().get(name);
     }
 
     public boolean contains(String name) {
-        return tags.containsKey(name);
+        return tags().containsKey(name);
     }
 
     public CompoundTag remove(String name) {
-        tags.remove(name);
+        tags().remove(name);
         return this;
     }
 
     public <T extends Tag> T removeAndGet(String name) {
-        return (T) tags.remove(name);
+        return (T) tags().remove(name);
     }
 
 
     public int getByte(String name) {
-        if (!tags.containsKey(name)) return (byte) 0;
-        return ((NumberTag) tags.get(name)).getData().intValue();
+        if (!tags().containsKey(name)) return (byte) 0;
+        return ((NumberTag) tags().get(name)).getData().intValue();
     }
 
     public int getShort(String name) {
-        if (!tags.containsKey(name)) return 0;
-        return ((NumberTag) tags.get(name)).getData().intValue();
+        if (!tags().containsKey(name)) return 0;
+        return ((NumberTag) tags().get(name)).getData().intValue();
     }
 
     public int getInt(String name) {
-        if (!tags.containsKey(name)) return 0;
-        return ((NumberTag) tags.get(name)).getData().intValue();
+        if (!tags().containsKey(name)) return 0;
+        return ((NumberTag) tags().get(name)).getData().intValue();
     }
 
     public long getLong(String name) {
-        if (!tags.containsKey(name)) return 0;
-        return ((NumberTag) tags.get(name)).getData().longValue();
+        if (!tags().containsKey(name)) return 0;
+        return ((NumberTag) tags().get(name)).getData().longValue();
     }
 
     public float getFloat(String name) {
-        if (!tags.containsKey(name)) return (float) 0;
-        return ((NumberTag) tags.get(name)).getData().floatValue();
+        if (!tags().containsKey(name)) return (float) 0;
+        return ((NumberTag) tags().get(name)).getData().floatValue();
     }
 
     public double getDouble(String name) {
-        if (!tags.containsKey(name)) return 0;
-        return ((NumberTag) tags.get(name)).getData().doubleValue();
+        if (!tags().containsKey(name)) return 0;
+        return ((NumberTag) tags().get(name)).getData().doubleValue();
     }
 
     public String getString(String name) {
-        if (!tags.containsKey(name)) return "";
-        Tag tag = tags.get(name);
+        if (!tags().containsKey(name)) return "";
+        Tag tag = tags().get(name);
         if (tag instanceof NumberTag) {
             return String.valueOf(((NumberTag) tag).getData());
         }
@@ -173,42 +229,42 @@ public class CompoundTag extends Tag implements Cloneable {
     }
 
     public byte[] getByteArray(String name) {
-        if (!tags.containsKey(name)) return new byte[0];
-        return ((ByteArrayTag) tags.get(name)).data;
+        if (!tags().containsKey(name)) return new byte[0];
+        return ((ByteArrayTag) tags().get(name)).data;
     }
 
     public int[] getIntArray(String name) {
-        if (!tags.containsKey(name)) return new int[0];
-        return ((IntArrayTag) tags.get(name)).data;
+        if (!tags().containsKey(name)) return new int[0];
+        return ((IntArrayTag) tags().get(name)).data;
     }
 
     public CompoundTag getCompound(String name) {
-        if (!tags.containsKey(name)) return new CompoundTag(name);
-        return (CompoundTag) tags.get(name);
+        if (!tags().containsKey(name)) return new CompoundTag(name);
+        return (CompoundTag) tags().get(name);
     }
 
     public ListTag<? extends Tag> getList(String name) {
-        if (!tags.containsKey(name)) return new ListTag<>(name);
-        return (ListTag<? extends Tag>) tags.get(name);
+        if (!tags().containsKey(name)) return new ListTag<>(name);
+        return (ListTag<? extends Tag>) tags().get(name);
     }
 
     @SuppressWarnings("unchecked")
     public <T extends Tag> ListTag<T> getList(String name, Class<T> type) {
-        if (tags.containsKey(name)) {
-            return (ListTag<T>) tags.get(name);
+        if (tags().containsKey(name)) {
+            return (ListTag<T>) tags().get(name);
         }
         return new ListTag<>(name);
     }
 
     public Map<String, Tag> getTags() {
-        return new HashMap<>(this.tags);
+        return new HashMap<>(this.tags());
     }
 
     @Override
     public Map<String, Object> parseValue() {
-        Map<String, Object> value = new HashMap<>(this.tags.size());
+        Map<String, Object> value = new HashMap<>(this.tags().size());
 
-        for (Entry<String, Tag> entry : this.tags.entrySet()) {
+        for (Entry<String, Tag> entry : this.tags().entrySet()) {
             value.put(entry.getKey(), entry.getValue().parseValue());
         }
 
@@ -221,8 +277,8 @@ public class CompoundTag extends Tag implements Cloneable {
 
     public String toString() {
         StringJoiner joiner = new StringJoiner(",\n\t");
-        tags.forEach((key, tag) -> joiner.add('\'' + key + "' : " + tag.toString().replace("\n", "\n\t")));
-        return "CompoundTag '" + this.getName() + "' (" + tags.size() + " entries) {\n\t" + joiner.toString() + "\n}";
+        tags().forEach((key, tag) -> joiner.add('\'' + key + "' : " + tag.toString().replace("\n", "\n\t")));
+        return "CompoundTag '" + this.getName() + "' (" + tags().size() + " entries) {\n\t" + joiner.toString() + "\n}";
     }
 
     public void print(String prefix, PrintStream out) {
@@ -230,20 +286,25 @@ public class CompoundTag extends Tag implements Cloneable {
         out.println(prefix + "{");
         String orgPrefix = prefix;
         prefix += "   ";
-        for (Tag tag : tags.values()) {
+        for (Tag tag : tags().values()) {
             tag.print(prefix, out);
         }
         out.println(orgPrefix + "}");
     }
 
     public boolean isEmpty() {
-        return tags.isEmpty();
+        return tags().isEmpty();
     }
 
     public CompoundTag copy() {
+        byte[] payload = this.payload;
+        if (payload != null) {
+            // The payload is never modified, so the copy can share it
+            return new CompoundTag(getName(), payload, this.payloadEndianness, this.payloadNetwork);
+        }
         CompoundTag tag = new CompoundTag(getName());
-        for (String key : tags.keySet()) {
-            tag.put(key, tags.get(key).copy());
+        for (String key : tags().keySet()) {
+            tag.put(key, tags().get(key).copy());
         }
         return tag;
     }
@@ -252,7 +313,7 @@ public class CompoundTag extends Tag implements Cloneable {
     public boolean equals(Object obj) {
         if (super.equals(obj)) {
             CompoundTag o = (CompoundTag) obj;
-            return tags.entrySet().equals(o.tags.entrySet());
+            return tags().entrySet().equals(o.tags().entrySet());
         }
         return false;
     }
@@ -264,7 +325,7 @@ public class CompoundTag extends Tag implements Cloneable {
      * @return - true, if tag exists
      */
     public boolean exist(String name) {
-        return tags.containsKey(name);
+        return tags().containsKey(name);
     }
 
     @Override
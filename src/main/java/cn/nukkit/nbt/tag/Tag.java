@@ -101,6 +101,22 @@ public abstract class Tag {
         tag.write(dos);
     }
 
+    /**
+     * Reads the payload of a tag whose type and name were already read.
+     */
+    public static Tag readTag(byte type, String name, NBTInputStream dis) throws IOException {
+        Tag tag = newTag(type, name);
+        tag.load(dis);
+        return tag;
+    }
+
+    /**
+     * Writes the payload of a tag, without its type and name.
+     */
+    public static void writeTag(Tag tag, NBTOutputStream dos) throws IOException {
+        tag.write(dos);
+    }
+
     public static Tag newTag(byte type, String name) {
         switch (type) {
             case TAG_End:
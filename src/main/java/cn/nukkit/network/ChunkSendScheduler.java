@@ -0,0 +1,54 @@
+package cn.nukkit.network;
+
+import cn.nukkit.Player;
+
+import java.util.Collection;
+
+/**
+ * Shares a server-wide budget of chunk requests per tick between the players that are waiting for chunks.
+ * <p>
+ * Every waiting player gets an equal share of the budget at the start of the tick, limited by its own
+ * {@link ChunkSendWindow}. A slow client therefore never takes more than its connection can absorb, and a
+ * fast client can use whatever the budget and its window allow.
+ */
+public class ChunkSendScheduler {
+
+    private final int chunksPerTick;
+    private int budget;
+    private int share;
+
+    public ChunkSendScheduler(int chunksPerTick) {
+        this.chunksPerTick = Math.max(1, chunksPerTick);
+    }
+
+    public void startTick(Collection<Player> players) {
+        int waiting = 0;
+        for (Player player : players) {
+            if (player.isWaitingForChunks()) {
+                waiting++;
+            }
+        }
+        this.budget = this.chunksPerTick;
+        this.share = waiting == 0 ? this.chunksPerTick : Math.max(1, (this.chunksPerTick + waiting - 1) / waiting);
+    }
+
+    /**
+     * @return the number of chunks the player may request this tick
+     */
+    public int acquire(ChunkSendWindow window) {
+        int granted = Math.min(Math.min(this.share, this.budget), window.available());
+        this.budget -= granted;
+        return granted;
+    }
+
+    /**
+     * Returns budget that was acquired but not used.
+     */
+    public void release(int unused) {
+        this.budget += unused;
+    }
+
+    public int getChunksPerTick() {
+        return this.chunksPerTick;
+    }
+}
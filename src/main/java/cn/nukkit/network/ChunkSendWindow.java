@@ -0,0 +1,165 @@
+package cn.nukkit.network;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+/**
+ * Tracks the chunks a player has requested or been sent but not yet acknowledged, and how many may be
+ * outstanding at once.
+ * <p>
+ * Chunk packets are acknowledged with probes: after a tick in which chunks were sent, a
+ * {@link cn.nukkit.network.protocol.NetworkStackLatencyPacket} asking for a response is queued behind them
+ * on the same ordered channel. Each probe carries an id in its timestamp, which the client sends back once it
+ * has received everything before the probe, so an answer acknowledges the chunks of its probe and of any
+ * earlier probe whose answer went missing.
+ * <p>
+ * The window follows the connection: it never exceeds what the RakNet ping allows and it is halved when
+ * probes take much longer than the ping, which means packets are piling up in the send queue. Otherwise it
+ * grows by one chunk per acknowledged probe.
+ */
+public class ChunkSendWindow {
+
+    /**
+     * Round trip time up to which the full window is allowed
+     */
+    private static final int TARGET_RTT = 50;
+    /**
+     * Time a probe may take beyond the ping before the send queue is considered backed up
+     */
+    private static final int MAX_QUEUE_DELAY = 250;
+    /**
+     * Probes that are not answered in this time are treated as lost
+     */
+    private static final int PROBE_TIMEOUT = 3000;
+    /**
+     * Requested chunks the level has not sent in this time no longer count against the window
+     */
+    private static final int REQUEST_TIMEOUT = 10000;
+
+    private final int minWindow;
+    private final int maxWindow;
+
+    private int window;
+    // chunk index to the time it was requested
+    private final Long2LongOpenHashMap requested = new Long2LongOpenHashMap();
+    private int unprobed;
+    private int probed;
+    // send time in the high bits, covered chunks in the low 16 bits
+    private final LongArrayFIFOQueue probes = new LongArrayFIFOQueue();
+    // id of the first probe in the queue, the others follow in order
+    private long firstProbeId = 1;
+    private long nextProbeId = 1;
+    private long lastRtt;
+
+    public ChunkSendWindow(int initialWindow, int minWindow, int maxWindow) {
+        this.minWindow = Math.max(1, minWindow);
+        this.maxWindow = Math.max(this.minWindow, maxWindow);
+        this.window = Math.max(this.minWindow, Math.min(this.maxWindow, initialWindow));
+    }
+
+    /**
+     * @return how many more chunks may be requested right now
+     */
+    public int available() {
+        return Math.max(0, this.window - this.inFlight());
+    }
+
+    public int inFlight() {
+        return this.requested.size() + this.unprobed + this.probed;
+    }
+
+    public int getWindow() {
+        return this.window;
+    }
+
+    public long getLastRtt() {
+        return this.lastRtt;
+    }
+
+    public void onRequested(long index, long now) {
+        this.requested.put(index, now);
+    }
+
+    public void onSent(long index) {
+        if (this.requested.containsKey(index)) {
+            this.requested.remove(index);
+            this.unprobed++;
+        }
+    }
+
+    /**
+     * The chunk is no longer wanted, so it will not be sent.
+     */
+    public void onCancelled(long index) {
+        this.requested.remove(index);
+    }
+
+    public void clearRequests() {
+        this.requested.clear();
+    }
+
+    public boolean needsProbe() {
+        return this.unprobed > 0;
+    }
+
+    /**
+     * @return the id to send with the probe
+     */
+    public long onProbeSent(long now) {
+        int covered = Math.min(this.unprobed, 0xffff);
+        this.probes.enqueue(now << 16 | covered);
+        this.probed += covered;
+        this.unprobed -= covered;
+        return this.nextProbeId++;
+    }
+
+    public void onProbeResponse(long id, long now, int ping) {
+        // Not one of ours, or already answered or expired
+        if (id < this.firstProbeId || id >= this.nextProbeId) {
+            return;
+        }
+        long probe;
+        do {
+            probe = this.probes.dequeueLong();
+            this.probed -= (int) (probe & 0xffff);
+        } while (this.firstProbeId++ < id);
+        this.lastRtt = now - (probe >>> 16);
+
+        int limit = ping > TARGET_RTT ? Math.max(this.minWindow, this.maxWindow * TARGET_RTT / ping) : this.maxWindow;
+        if (this.lastRtt - Math.max(0, ping) > MAX_QUEUE_DELAY) {
+            this.window = Math.max(this.minWindow, this.window >> 1);
+        } else {
+            this.window = Math.min(limit, this.window + 1);
+        }
+        this.window = Math.min(this.window, limit);
+    }
+
+    /**
+     * Forgets probes the client has not answered in time, shrinking the window as if they were congested.
+     */
+    public void expireProbes(long now) {
+        while (!this.probes.isEmpty() && now - (this.probes.firstLong() >>> 16) > PROBE_TIMEOUT) {
+            this.probed -= (int) (this.probes.dequeueLong() & 0xffff);
+            this.firstProbeId++;
+            this.window = Math.max(this.minWindow, this.window >> 1);
+        }
+    }
+
+    /**
+     * Forgets requests the level has not sent in time, so a chunk that failed to load does not hold its place
+     * in the window forever.
+     */
+    public void expireRequests(long now) {
+        if (this.requested.isEmpty()) {
+            return;
+        }
+        ObjectIterator<Long2LongMap.Entry> iterator = this.requested.long2LongEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getLongValue() > REQUEST_TIMEOUT) {
+                iterator.remove();
+            }
+        }
+    }
+}
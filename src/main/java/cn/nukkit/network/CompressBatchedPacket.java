@@ -1,6 +1,7 @@
 package cn.nukkit.network;
 
 import cn.nukkit.Server;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.scheduler.AsyncTask;
 import cn.nukkit.utils.Zlib;
 
@@ -40,6 +41,11 @@ public class CompressBatchedPacket extends AsyncTask {
         this.zlibRaw = zlibRaw;
     }
 
+    @Override
+    public AsyncLane getLane() {
+        return AsyncLane.CHUNK_SEND;
+    }
+
     @Override
     public void onRun() {
         try {
@@ -1,6 +1,7 @@
 package cn.nukkit.network;
 
 import cn.nukkit.Server;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.scheduler.AsyncTask;
 import cn.nukkit.utils.Zlib;
 
@@ -44,6 +45,11 @@ public class CompressBatchedTask extends AsyncTask {
         this.zlibRaw = zlibRaw;
     }
 
+    @Override
+    public AsyncLane getLane() {
+        return AsyncLane.CHUNK_SEND;
+    }
+
     @Override
     public void onRun() {
         try {
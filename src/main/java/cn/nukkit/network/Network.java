@@ -5,26 +5,28 @@ import cn.nukkit.Player;
 import cn.nukkit.Server;
 import cn.nukkit.nbt.stream.FastByteArrayOutputStream;
 import cn.nukkit.network.protocol.*;
-import cn.nukkit.utils.BinaryStream;
 import cn.nukkit.utils.ThreadCache;
 import cn.nukkit.utils.Utils;
-import cn.nukkit.utils.VarInt;
-import cn.nukkit.utils.Zlib;
+import com.google.common.base.Preconditions;
+import com.nukkitx.network.raknet.RakNetReliability;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import lombok.extern.log4j.Log4j2;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ProtocolException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -37,6 +39,8 @@ import java.util.zip.Inflater;
 public class Network {
 
     private static final ThreadLocal<Inflater> INFLATER_RAW = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> INPUT_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
     private static final ThreadLocal<Deflater> DEFLATER_RAW = ThreadLocal.withInitial(() -> new Deflater(Server.getInstance().networkCompressionLevel, true));
     private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[2 * 1024 * 1024]);
 
@@ -50,7 +54,12 @@ public class Network {
     public static final byte CHANNEL_TEXT = 7; //Chat and other text stuff
     public static final byte CHANNEL_END = 31;
 
-    private Class<? extends DataPacket>[] packetPool = new Class[1024];
+    public static final int MAX_BATCH_SIZE = 2 * 1024 * 1024;
+
+    private Supplier<? extends DataPacket>[] packetPool = new Supplier[1024];
+
+    private final int[] packetSizeLimits = new int[1024];
+    private final int[] packetRateLimits = new int[1024];
 
     private final Server server;
 
@@ -65,7 +74,10 @@ public class Network {
     private String subName;
 
     public Network(Server server) {
+        Arrays.fill(this.packetSizeLimits, MAX_BATCH_SIZE);
+        Arrays.fill(this.packetRateLimits, Integer.MAX_VALUE);
         this.registerPackets();
+        this.registerPacketLimits();
         this.server = server;
     }
 
@@ -91,6 +103,71 @@ public class Network {
         }
     }
 
+    /**
+     * Inflates a batch payload into a pooled heap buffer. Both zlib-wrapped and raw deflate streams are accepted.
+     * The caller owns the returned buffer and must release it.
+     */
+    public static ByteBuf inflate(ByteBuf input, int maxSize) throws ProtocolException {
+        int length = input.readableBytes();
+        int index = input.readerIndex();
+        boolean zlibHeader = length >= 2 && (input.getByte(index) & 0x0f) == 8
+                && ((input.getUnsignedByte(index) << 8) | input.getUnsignedByte(index + 1)) % 31 == 0;
+        Inflater inflater = zlibHeader ? INFLATER.get() : INFLATER_RAW.get();
+
+        ByteBuf output = ByteBufAllocator.DEFAULT.heapBuffer(Math.min(maxSize, Math.max(256, length * 4)));
+        try {
+            if (input.hasArray()) {
+                inflater.setInput(input.array(), input.arrayOffset() + index, length);
+            } else {
+                byte[] data = INPUT_BUFFER.get();
+                if (data.length < length) {
+                    data = new byte[length];
+                    INPUT_BUFFER.set(data);
+                }
+                input.getBytes(index, data, 0, length);
+                inflater.setInput(data, 0, length);
+            }
+
+            while (!inflater.finished()) {
+                if (!output.isWritable()) {
+                    output.ensureWritable(8192);
+                }
+                int i = inflater.inflate(output.array(), output.arrayOffset() + output.writerIndex(), output.writableBytes());
+                if (i == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ProtocolException("Truncated batch payload");
+                }
+                output.writerIndex(output.writerIndex() + i);
+                if (output.readableBytes() > maxSize) {
+                    throw new ProtocolException("Inflated batch exceeds " + maxSize + " bytes");
+                }
+            }
+            return output;
+        } catch (DataFormatException e) {
+            output.release();
+            throw new ProtocolException("Unable to inflate batch: " + e.getMessage());
+        } catch (ProtocolException | RuntimeException e) {
+            output.release();
+            throw e;
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    public static int readUnsignedVarInt(ByteBuf buffer) throws ProtocolException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.isReadable()) {
+                throw new ProtocolException("VarInt ended unexpectedly");
+            }
+            byte b = buffer.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("VarInt too big");
+    }
+
     public static byte[] deflateRaw(byte[] data, int level) throws IOException {
         Deflater deflater = DEFLATER_RAW.get();
         try {
@@ -111,6 +188,39 @@ public class Network {
         }
     }
 
+    /**
+     * Deflates the readable bytes of {@code input} straight into {@code output} without creating intermediate arrays.
+     */
+    public static void deflateRaw(ByteBuf input, ByteBuf output, int level) throws IOException {
+        Deflater deflater = DEFLATER_RAW.get();
+        try {
+            deflater.setLevel(level);
+            if (input.hasArray()) {
+                deflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+            } else {
+                byte[] data = new byte[input.readableBytes()];
+                input.getBytes(input.readerIndex(), data);
+                deflater.setInput(data);
+            }
+            deflater.finish();
+            byte[] buffer = BUFFER.get();
+            while (!deflater.finished()) {
+                int i = deflater.deflate(buffer);
+                output.writeBytes(buffer, 0, i);
+            }
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    public static void writeUnsignedVarInt(ByteBuf buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.writeByte(value);
+    }
+
     public static byte[] deflateRaw(byte[][] datas, int level) throws IOException {
         Deflater deflater = DEFLATER_RAW.get();
         try {
@@ -175,6 +285,73 @@ public class Network {
         }
     }
 
+    /**
+     * Called at the end of every server tick so outbound packets leave right after the tick that produced them.
+     */
+    public void flushInterfaces() {
+        for (SourceInterface interfaz : this.interfaces) {
+            try {
+                interfaz.flush();
+            } catch (Exception e) {
+                log.error("Unable to flush network interface " + interfaz.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Picks a compression level for a batch: tiny batches are stored, medium ones use the fastest level
+     * and only large batches (chunks, inventories) pay for the configured level.
+     */
+    public int getCompressionLevel(int length) {
+        if (length < this.server.networkCompressionThreshold) {
+            return Deflater.NO_COMPRESSION;
+        }
+        if (length < 8192) {
+            return Math.min(this.server.networkCompressionLevel, Deflater.BEST_SPEED);
+        }
+        return this.server.networkCompressionLevel;
+    }
+
+    /**
+     * Encodes and compresses the packets into a single batch that can be queued to any number of players.
+     * The returned packet holds one reference which the caller must release once it has been handed out.
+     */
+    public SharedBatchPacket compressShared(DataPacket... packets) {
+        RakNetReliability reliability = packets[0].reliability;
+        int channel = packets[0].getChannel();
+
+        ByteBuf batched = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            for (DataPacket packet : packets) {
+                Preconditions.checkArgument(packet.pid() != ProtocolInfo.BATCH_PACKET, "Cannot batch BatchPacket");
+                packet.tryEncode();
+                if (packet.reliability != reliability || packet.getChannel() != channel) {
+                    reliability = RakNetReliability.RELIABLE_ORDERED;
+                    channel = DataPacket.CHANNEL_BASE;
+                }
+                int length = packet.getCount();
+                writeUnsignedVarInt(batched, length);
+                batched.writeBytes(packet.getBufferUnsafe(), 0, length);
+            }
+
+            ByteBuf payload = ByteBufAllocator.DEFAULT.ioBuffer(1 + batched.readableBytes());
+            try {
+                payload.writeByte(0xfe);
+                deflateRaw(batched, payload, this.getCompressionLevel(batched.readableBytes()));
+            } catch (Exception e) {
+                payload.release();
+                throw new RuntimeException(e);
+            }
+
+            SharedBatchPacket batch = new SharedBatchPacket(payload);
+            batch.setReliability(reliability);
+            batch.setChannel(channel);
+            return batch;
+        } finally {
+            batched.release();
+        }
+    }
+
     public void registerInterface(SourceInterface interfaz) {
         this.interfaces.add(interfaz);
         if (interfaz instanceof AdvancedSourceInterface) {
@@ -214,14 +391,40 @@ public class Network {
         }
     }
 
+    public void registerPacket(int id, Supplier<? extends DataPacket> factory) {
+        this.packetPool[id] = factory;
+    }
+
     public void registerPacket(int id, Class<? extends DataPacket> clazz) {
-        this.packetPool[id] = clazz;
+        Constructor<? extends DataPacket> constructor;
+        try {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(clazz.getName() + " has no default constructor", e);
+        }
+        this.registerPacket(id, () -> {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     public void registerPacket(byte id, Class<? extends DataPacket> clazz) {
         this.registerPacket((int) id, clazz);
     }
 
+    /**
+     * Sets the limits enforced while decoding inbound batches. A sub-packet larger than {@code maxSize} bytes or
+     * received more than {@code maxPerSecond} times per second by one session gets the session disconnected.
+     */
+    public void setPacketLimits(int id, int maxSize, int maxPerSecond) {
+        this.packetSizeLimits[id] = maxSize;
+        this.packetRateLimits[id] = maxPerSecond;
+    }
+
     public Server getServer() {
         return server;
     }
@@ -229,63 +432,103 @@ public class Network {
     public void processBatch(BatchPacket packet, Player player) {
         List<DataPacket> packets = new ObjectArrayList<>();
         try {
-            processBatch(packet.payload, packets);
+            processBatch(Unpooled.wrappedBuffer(packet.payload), packets, null);
         } catch (ProtocolException e) {
             player.close("", e.getMessage());
             log.error("Unable to process player packets ", e);
         }
-        processPackets(player, packets);
+        try {
+            processPackets(player, packets);
+        } finally {
+            for (DataPacket pk : packets) {
+                pk.releaseSource();
+            }
+        }
     }
 
+    /**
+     * Decodes a compressed batch, the packets keep copies of their bytes.
+     */
     public void processBatch(byte[] payload, Collection<DataPacket> packets) throws ProtocolException {
-        byte[] data;
+        List<DataPacket> decoded = new ObjectArrayList<>();
         try {
-            data = Zlib.inflate(payload, 2 * 1024 * 1024); // Max 2MB //TODO: zlibRaw? 2020/08/27
-        } catch (Exception e) {
+            this.processBatch(Unpooled.wrappedBuffer(payload), decoded, null);
+        } finally {
+            for (DataPacket pk : decoded) {
+                pk.detach();
+            }
+            packets.addAll(decoded);
+        }
+    }
+
+    /**
+     * Decodes a compressed batch without copying it: the payload is inflated into a pooled buffer and every
+     * sub-packet is decoded in place from that buffer. Each decoded packet holds a reference to the buffer, which
+     * has to be given back with {@link DataPacket#releaseSource()} once the packet was handled.
+     *
+     * @param payload compressed batch, without the 0xfe header
+     * @param packets collection the decoded packets are added to
+     * @param limiter per-session counters for the rate limits, or null to skip rate limiting
+     * @throws ProtocolException if the batch is malformed or exceeds a size or rate limit
+     */
+    public void processBatch(ByteBuf payload, Collection<DataPacket> packets, PacketLimiter limiter) throws ProtocolException {
+        ByteBuf batch;
+        try {
+            batch = inflate(payload, MAX_BATCH_SIZE);
+        } catch (ProtocolException e) {
             log.debug("Exception while inflating batch packet", e);
             return;
         }
 
-        BinaryStream stream = new BinaryStream(data);
         try {
             int count = 0;
-            while (!stream.feof()) {
+            while (batch.isReadable()) {
                 count++;
                 if (count >= 1000) {
                     throw new ProtocolException("Illegal batch with " + count + " packets");
                 }
-                byte[] buf = stream.getByteArray();
-
-                ByteArrayInputStream bais = new ByteArrayInputStream(buf);
-                int header = (int) VarInt.readUnsignedVarInt(bais);
+                int length = readUnsignedVarInt(batch);
+                if (length <= 0 || length > batch.readableBytes()) {
+                    throw new ProtocolException("Invalid packet length " + length);
+                }
+                int end = batch.readerIndex() + length;
 
                 // | Client ID | Sender ID | Packet ID |
                 // |   2 bits  |   2 bits  |  10 bits  |
-                int packetId = header & 0x3ff;
+                int packetId = readUnsignedVarInt(batch) & 0x3ff;
 
-                DataPacket pk = this.getPacket(packetId);
+                if (length > this.packetSizeLimits[packetId]) {
+                    throw new ProtocolException("Packet 0x" + Integer.toHexString(packetId) + " is too big (" + length + " bytes)");
+                }
+                if (limiter != null && !limiter.tryAcquire(packetId, this.packetRateLimits[packetId])) {
+                    throw new ProtocolException("Packet 0x" + Integer.toHexString(packetId) + " sent too often");
+                }
 
-                if (pk != null) {
-                    pk.setBuffer(buf, buf.length - bais.available());
+                Supplier<? extends DataPacket> factory = this.packetPool[packetId];
+                if (factory != null) {
+                    DataPacket pk = factory.get();
+                    pk.setSource(batch, end - length, end);
+                    pk.setOffset(batch.arrayOffset() + batch.readerIndex());
                     try {
                         pk.decode();
                     } catch (Exception e) {
+                        pk.releaseSource();
                         if (log.isTraceEnabled()) {
-                            log.trace("Dumping Packet\n{}", ByteBufUtil.prettyHexDump(Unpooled.wrappedBuffer(buf)));
+                            log.trace("Dumping Packet\n{}", ByteBufUtil.prettyHexDump(batch, end - length, length));
                         }
-                        log.error("Unable to decode packet", e);
-                        throw new IllegalStateException("Unable to decode " + pk.getClass().getSimpleName());
+                        log.error("Unable to decode " + pk.getClass().getSimpleName(), e);
+                        batch.readerIndex(end);
+                        continue;
                     }
 
                     packets.add(pk);
                 } else {
                     log.debug("Received unknown packet with ID: {}", Integer.toHexString(packetId));
                 }
+                batch.readerIndex(end);
             }
-        } catch (Exception e) {
-            if (log.isDebugEnabled()) {
-                log.debug("Error whilst decoding batch packet", e);
-            }
+        } finally {
+            batch.release();
         }
     }
 
@@ -309,10 +552,10 @@ public class Network {
     }
 
     public DataPacket getPacket(int id) {
-        Class<? extends DataPacket> clazz = this.packetPool[id];
-        if (clazz != null) {
+        Supplier<? extends DataPacket> factory = this.packetPool[id];
+        if (factory != null) {
             try {
-                return clazz.newInstance();
+                return factory.get();
             } catch (Exception e) {
                 Server.getInstance().getLogger().logException(e);
             }
@@ -345,86 +588,100 @@ public class Network {
     }
 
     private void registerPackets() {
-        this.packetPool = new Class[1024];
-
-        this.registerPacket(ProtocolInfo.ADD_ENTITY_PACKET, AddEntityPacket.class);
-        this.registerPacket(ProtocolInfo.ADD_ITEM_ENTITY_PACKET, AddItemEntityPacket.class);
-        this.registerPacket(ProtocolInfo.ADD_PAINTING_PACKET, AddPaintingPacket.class);
-        this.registerPacket(ProtocolInfo.ADD_PLAYER_PACKET, AddPlayerPacket.class);
-        this.registerPacket(ProtocolInfo.ADVENTURE_SETTINGS_PACKET, AdventureSettingsPacket.class);
-        this.registerPacket(ProtocolInfo.ANIMATE_PACKET, AnimatePacket.class);
-        this.registerPacket(ProtocolInfo.AVAILABLE_COMMANDS_PACKET, AvailableCommandsPacket.class);
-        this.registerPacket(ProtocolInfo.BATCH_PACKET, BatchPacket.class);
-        this.registerPacket(ProtocolInfo.BLOCK_ENTITY_DATA_PACKET, BlockEntityDataPacket.class);
-        this.registerPacket(ProtocolInfo.BLOCK_EVENT_PACKET, BlockEventPacket.class);
-        this.registerPacket(ProtocolInfo.BLOCK_PICK_REQUEST_PACKET, BlockPickRequestPacket.class);
-        this.registerPacket(ProtocolInfo.BOSS_EVENT_PACKET, BossEventPacket.class);
-        this.registerPacket(ProtocolInfo.CHANGE_DIMENSION_PACKET, ChangeDimensionPacket.class);
-        this.registerPacket(ProtocolInfo.CHUNK_RADIUS_UPDATED_PACKET, ChunkRadiusUpdatedPacket.class);
-        this.registerPacket(ProtocolInfo.CLIENTBOUND_MAP_ITEM_DATA_PACKET, ClientboundMapItemDataPacket.class);
-        this.registerPacket(ProtocolInfo.COMMAND_REQUEST_PACKET, CommandRequestPacket.class);
-        this.registerPacket(ProtocolInfo.CONTAINER_CLOSE_PACKET, ContainerClosePacket.class);
-        this.registerPacket(ProtocolInfo.CONTAINER_OPEN_PACKET, ContainerOpenPacket.class);
-        this.registerPacket(ProtocolInfo.CONTAINER_SET_DATA_PACKET, ContainerSetDataPacket.class);
-        this.registerPacket(ProtocolInfo.CRAFTING_DATA_PACKET, CraftingDataPacket.class);
-        this.registerPacket(ProtocolInfo.CRAFTING_EVENT_PACKET, CraftingEventPacket.class);
-        this.registerPacket(ProtocolInfo.DISCONNECT_PACKET, DisconnectPacket.class);
-        this.registerPacket(ProtocolInfo.ENTITY_EVENT_PACKET, EntityEventPacket.class);
-        this.registerPacket(ProtocolInfo.ENTITY_FALL_PACKET, EntityFallPacket.class);
-        this.registerPacket(ProtocolInfo.FULL_CHUNK_DATA_PACKET, FullChunkDataPacket.class);
-        this.registerPacket(ProtocolInfo.GAME_RULES_CHANGED_PACKET, GameRulesChangedPacket.class);
-        this.registerPacket(ProtocolInfo.HURT_ARMOR_PACKET, HurtArmorPacket.class);
-        this.registerPacket(ProtocolInfo.INTERACT_PACKET, InteractPacket.class);
-        this.registerPacket(ProtocolInfo.INVENTORY_CONTENT_PACKET, InventoryContentPacket.class);
-        this.registerPacket(ProtocolInfo.INVENTORY_SLOT_PACKET, InventorySlotPacket.class);
-        this.registerPacket(ProtocolInfo.INVENTORY_TRANSACTION_PACKET, InventoryTransactionPacket.class);
-        this.registerPacket(ProtocolInfo.ITEM_FRAME_DROP_ITEM_PACKET, ItemFrameDropItemPacket.class);
-        this.registerPacket(ProtocolInfo.LEVEL_EVENT_PACKET, LevelEventPacket.class);
-        this.registerPacket(ProtocolInfo.LEVEL_SOUND_EVENT_PACKET, LevelSoundEventPacket.class);
-        this.registerPacket(ProtocolInfo.LOGIN_PACKET, LoginPacket.class);
-        this.registerPacket(ProtocolInfo.MAP_INFO_REQUEST_PACKET, MapInfoRequestPacket.class);
-        this.registerPacket(ProtocolInfo.MOB_ARMOR_EQUIPMENT_PACKET, MobArmorEquipmentPacket.class);
-        this.registerPacket(ProtocolInfo.MOB_EQUIPMENT_PACKET, MobEquipmentPacket.class);
-        this.registerPacket(ProtocolInfo.MODAL_FORM_REQUEST_PACKET, ModalFormRequestPacket.class);
-        this.registerPacket(ProtocolInfo.MODAL_FORM_RESPONSE_PACKET, ModalFormResponsePacket.class);
-        this.registerPacket(ProtocolInfo.MOVE_ENTITY_PACKET, MoveEntityPacket.class);
-        this.registerPacket(ProtocolInfo.MOVE_PLAYER_PACKET, MovePlayerPacket.class);
-        this.registerPacket(ProtocolInfo.PLAYER_ACTION_PACKET, PlayerActionPacket.class);
-        this.registerPacket(ProtocolInfo.PLAYER_INPUT_PACKET, PlayerInputPacket.class);
-        this.registerPacket(ProtocolInfo.PLAYER_LIST_PACKET, PlayerListPacket.class);
-        this.registerPacket(ProtocolInfo.PLAYER_HOTBAR_PACKET, PlayerHotbarPacket.class);
-        this.registerPacket(ProtocolInfo.PLAY_SOUND_PACKET, PlaySoundPacket.class);
-        this.registerPacket(ProtocolInfo.PLAY_STATUS_PACKET, PlayStatusPacket.class);
-        this.registerPacket(ProtocolInfo.REMOVE_ENTITY_PACKET, RemoveEntityPacket.class);
-        this.registerPacket(ProtocolInfo.REQUEST_CHUNK_RADIUS_PACKET, RequestChunkRadiusPacket.class);
-        this.registerPacket(ProtocolInfo.RESOURCE_PACKS_INFO_PACKET, ResourcePacksInfoPacket.class);
-        this.registerPacket(ProtocolInfo.RESOURCE_PACK_STACK_PACKET, ResourcePackStackPacket.class);
-        this.registerPacket(ProtocolInfo.RESOURCE_PACK_CLIENT_RESPONSE_PACKET, ResourcePackClientResponsePacket.class);
-        this.registerPacket(ProtocolInfo.RESOURCE_PACK_DATA_INFO_PACKET, ResourcePackDataInfoPacket.class);
-        this.registerPacket(ProtocolInfo.RESOURCE_PACK_CHUNK_DATA_PACKET, ResourcePackChunkDataPacket.class);
-        this.registerPacket(ProtocolInfo.RESOURCE_PACK_CHUNK_REQUEST_PACKET, ResourcePackChunkRequestPacket.class);
-        this.registerPacket(ProtocolInfo.RESPAWN_PACKET, RespawnPacket.class);
-        this.registerPacket(ProtocolInfo.RIDER_JUMP_PACKET, RiderJumpPacket.class);
-        this.registerPacket(ProtocolInfo.SET_COMMANDS_ENABLED_PACKET, SetCommandsEnabledPacket.class);
-        this.registerPacket(ProtocolInfo.SET_DIFFICULTY_PACKET, SetDifficultyPacket.class);
-        this.registerPacket(ProtocolInfo.SET_ENTITY_DATA_PACKET, SetEntityDataPacket.class);
-        this.registerPacket(ProtocolInfo.SET_ENTITY_LINK_PACKET, SetEntityLinkPacket.class);
-        this.registerPacket(ProtocolInfo.SET_ENTITY_MOTION_PACKET, SetEntityMotionPacket.class);
-        this.registerPacket(ProtocolInfo.SET_HEALTH_PACKET, SetHealthPacket.class);
-        this.registerPacket(ProtocolInfo.SET_PLAYER_GAME_TYPE_PACKET, SetPlayerGameTypePacket.class);
-        this.registerPacket(ProtocolInfo.SET_SPAWN_POSITION_PACKET, SetSpawnPositionPacket.class);
-        this.registerPacket(ProtocolInfo.SET_TITLE_PACKET, SetTitlePacket.class);
-        this.registerPacket(ProtocolInfo.SET_TIME_PACKET, SetTimePacket.class);
-        this.registerPacket(ProtocolInfo.SERVER_SETTINGS_REQUEST_PACKET, ServerSettingsRequestPacket.class);
-        this.registerPacket(ProtocolInfo.SERVER_SETTINGS_RESPONSE_PACKET, ServerSettingsResponsePacket.class);
-        this.registerPacket(ProtocolInfo.SHOW_CREDITS_PACKET, ShowCreditsPacket.class);
-        this.registerPacket(ProtocolInfo.SPAWN_EXPERIENCE_ORB_PACKET, SpawnExperienceOrbPacket.class);
-        this.registerPacket(ProtocolInfo.START_GAME_PACKET, StartGamePacket.class);
-        this.registerPacket(ProtocolInfo.TAKE_ITEM_ENTITY_PACKET, TakeItemEntityPacket.class);
-        this.registerPacket(ProtocolInfo.TEXT_PACKET, TextPacket.class);
-        this.registerPacket(ProtocolInfo.UPDATE_BLOCK_PACKET, UpdateBlockPacket.class);
-        this.registerPacket(ProtocolInfo.PHOTO_TRANSFER_PACKET, PhotoTransferPacket.class);
-        this.registerPacket(ProtocolInfo.UPDATE_TRADE_PACKET, UpdateTradePacket.class);
+        this.packetPool = new Supplier[1024];
+
+        this.registerPacket(ProtocolInfo.ADD_ENTITY_PACKET, AddEntityPacket::new);
+        this.registerPacket(ProtocolInfo.ADD_ITEM_ENTITY_PACKET, AddItemEntityPacket::new);
+        this.registerPacket(ProtocolInfo.ADD_PAINTING_PACKET, AddPaintingPacket::new);
+        this.registerPacket(ProtocolInfo.ADD_PLAYER_PACKET, AddPlayerPacket::new);
+        this.registerPacket(ProtocolInfo.ADVENTURE_SETTINGS_PACKET, AdventureSettingsPacket::new);
+        this.registerPacket(ProtocolInfo.ANIMATE_PACKET, AnimatePacket::new);
+        this.registerPacket(ProtocolInfo.AVAILABLE_COMMANDS_PACKET, AvailableCommandsPacket::new);
+        this.registerPacket(ProtocolInfo.BATCH_PACKET, BatchPacket::new);
+        this.registerPacket(ProtocolInfo.BLOCK_ENTITY_DATA_PACKET, BlockEntityDataPacket::new);
+        this.registerPacket(ProtocolInfo.BLOCK_EVENT_PACKET, BlockEventPacket::new);
+        this.registerPacket(ProtocolInfo.BLOCK_PICK_REQUEST_PACKET, BlockPickRequestPacket::new);
+        this.registerPacket(ProtocolInfo.BOSS_EVENT_PACKET, BossEventPacket::new);
+        this.registerPacket(ProtocolInfo.CHANGE_DIMENSION_PACKET, ChangeDimensionPacket::new);
+        this.registerPacket(ProtocolInfo.CHUNK_RADIUS_UPDATED_PACKET, ChunkRadiusUpdatedPacket::new);
+        this.registerPacket(ProtocolInfo.CLIENTBOUND_MAP_ITEM_DATA_PACKET, ClientboundMapItemDataPacket::new);
+        this.registerPacket(ProtocolInfo.COMMAND_REQUEST_PACKET, CommandRequestPacket::new);
+        this.registerPacket(ProtocolInfo.CONTAINER_CLOSE_PACKET, ContainerClosePacket::new);
+        this.registerPacket(ProtocolInfo.CONTAINER_OPEN_PACKET, ContainerOpenPacket::new);
+        this.registerPacket(ProtocolInfo.CONTAINER_SET_DATA_PACKET, ContainerSetDataPacket::new);
+        this.registerPacket(ProtocolInfo.CRAFTING_DATA_PACKET, CraftingDataPacket::new);
+        this.registerPacket(ProtocolInfo.CRAFTING_EVENT_PACKET, CraftingEventPacket::new);
+        this.registerPacket(ProtocolInfo.DISCONNECT_PACKET, DisconnectPacket::new);
+        this.registerPacket(ProtocolInfo.ENTITY_EVENT_PACKET, EntityEventPacket::new);
+        this.registerPacket(ProtocolInfo.ENTITY_FALL_PACKET, EntityFallPacket::new);
+        this.registerPacket(ProtocolInfo.FULL_CHUNK_DATA_PACKET, FullChunkDataPacket::new);
+        this.registerPacket(ProtocolInfo.GAME_RULES_CHANGED_PACKET, GameRulesChangedPacket::new);
+        this.registerPacket(ProtocolInfo.HURT_ARMOR_PACKET, HurtArmorPacket::new);
+        this.registerPacket(ProtocolInfo.INTERACT_PACKET, InteractPacket::new);
+        this.registerPacket(ProtocolInfo.INVENTORY_CONTENT_PACKET, InventoryContentPacket::new);
+        this.registerPacket(ProtocolInfo.INVENTORY_SLOT_PACKET, InventorySlotPacket::new);
+        this.registerPacket(ProtocolInfo.INVENTORY_TRANSACTION_PACKET, InventoryTransactionPacket::new);
+        this.registerPacket(ProtocolInfo.ITEM_FRAME_DROP_ITEM_PACKET, ItemFrameDropItemPacket::new);
+        this.registerPacket(ProtocolInfo.LEVEL_EVENT_PACKET, LevelEventPacket::new);
+        this.registerPacket(ProtocolInfo.LEVEL_SOUND_EVENT_PACKET, LevelSoundEventPacket::new);
+        this.registerPacket(ProtocolInfo.LOGIN_PACKET, LoginPacket::new);
+        this.registerPacket(ProtocolInfo.MAP_INFO_REQUEST_PACKET, MapInfoRequestPacket::new);
+        this.registerPacket(ProtocolInfo.MOB_ARMOR_EQUIPMENT_PACKET, MobArmorEquipmentPacket::new);
+        this.registerPacket(ProtocolInfo.MOB_EQUIPMENT_PACKET, MobEquipmentPacket::new);
+        this.registerPacket(ProtocolInfo.MODAL_FORM_REQUEST_PACKET, ModalFormRequestPacket::new);
+        this.registerPacket(ProtocolInfo.MODAL_FORM_RESPONSE_PACKET, ModalFormResponsePacket::new);
+        this.registerPacket(ProtocolInfo.MOVE_ENTITY_PACKET, MoveEntityPacket::new);
+        this.registerPacket(ProtocolInfo.MOVE_ENTITY_DELTA_PACKET, MoveEntityDeltaPacket::new);
+        this.registerPacket(ProtocolInfo.MOVE_PLAYER_PACKET, MovePlayerPacket::new);
+        this.registerPacket(ProtocolInfo.NETWORK_STACK_LATENCY_PACKET, NetworkStackLatencyPacket::new);
+        this.registerPacket(ProtocolInfo.PLAYER_ACTION_PACKET, PlayerActionPacket::new);
+        this.registerPacket(ProtocolInfo.PLAYER_INPUT_PACKET, PlayerInputPacket::new);
+        this.registerPacket(ProtocolInfo.PLAYER_LIST_PACKET, PlayerListPacket::new);
+        this.registerPacket(ProtocolInfo.PLAYER_HOTBAR_PACKET, PlayerHotbarPacket::new);
+        this.registerPacket(ProtocolInfo.PLAY_SOUND_PACKET, PlaySoundPacket::new);
+        this.registerPacket(ProtocolInfo.PLAY_STATUS_PACKET, PlayStatusPacket::new);
+        this.registerPacket(ProtocolInfo.REMOVE_ENTITY_PACKET, RemoveEntityPacket::new);
+        this.registerPacket(ProtocolInfo.REQUEST_CHUNK_RADIUS_PACKET, RequestChunkRadiusPacket::new);
+        this.registerPacket(ProtocolInfo.RESOURCE_PACKS_INFO_PACKET, ResourcePacksInfoPacket::new);
+        this.registerPacket(ProtocolInfo.RESOURCE_PACK_STACK_PACKET, ResourcePackStackPacket::new);
+        this.registerPacket(ProtocolInfo.RESOURCE_PACK_CLIENT_RESPONSE_PACKET, ResourcePackClientResponsePacket::new);
+        this.registerPacket(ProtocolInfo.RESOURCE_PACK_DATA_INFO_PACKET, ResourcePackDataInfoPacket::new);
+        this.registerPacket(ProtocolInfo.RESOURCE_PACK_CHUNK_DATA_PACKET, ResourcePackChunkDataPacket::new);
+        this.registerPacket(ProtocolInfo.RESOURCE_PACK_CHUNK_REQUEST_PACKET, ResourcePackChunkRequestPacket::new);
+        this.registerPacket(ProtocolInfo.RESPAWN_PACKET, RespawnPacket::new);
+        this.registerPacket(ProtocolInfo.RIDER_JUMP_PACKET, RiderJumpPacket::new);
+        this.registerPacket(ProtocolInfo.SET_COMMANDS_ENABLED_PACKET, SetCommandsEnabledPacket::new);
+        this.registerPacket(ProtocolInfo.SET_DIFFICULTY_PACKET, SetDifficultyPacket::new);
+        this.registerPacket(ProtocolInfo.SET_ENTITY_DATA_PACKET, SetEntityDataPacket::new);
+        this.registerPacket(ProtocolInfo.SET_ENTITY_LINK_PACKET, SetEntityLinkPacket::new);
+        this.registerPacket(ProtocolInfo.SET_ENTITY_MOTION_PACKET, SetEntityMotionPacket::new);
+        this.registerPacket(ProtocolInfo.SET_HEALTH_PACKET, SetHealthPacket::new);
+        this.registerPacket(ProtocolInfo.SET_PLAYER_GAME_TYPE_PACKET, SetPlayerGameTypePacket::new);
+        this.registerPacket(ProtocolInfo.SET_SPAWN_POSITION_PACKET, SetSpawnPositionPacket::new);
+        this.registerPacket(ProtocolInfo.SET_TITLE_PACKET, SetTitlePacket::new);
+        this.registerPacket(ProtocolInfo.SET_TIME_PACKET, SetTimePacket::new);
+        this.registerPacket(ProtocolInfo.SERVER_SETTINGS_REQUEST_PACKET, ServerSettingsRequestPacket::new);
+        this.registerPacket(ProtocolInfo.SERVER_SETTINGS_RESPONSE_PACKET, ServerSettingsResponsePacket::new);
+        this.registerPacket(ProtocolInfo.SHOW_CREDITS_PACKET, ShowCreditsPacket::new);
+        this.registerPacket(ProtocolInfo.SPAWN_EXPERIENCE_ORB_PACKET, SpawnExperienceOrbPacket::new);
+        this.registerPacket(ProtocolInfo.START_GAME_PACKET, StartGamePacket::new);
+        this.registerPacket(ProtocolInfo.TAKE_ITEM_ENTITY_PACKET, TakeItemEntityPacket::new);
+        this.registerPacket(ProtocolInfo.TEXT_PACKET, TextPacket::new);
+        this.registerPacket(ProtocolInfo.UPDATE_BLOCK_PACKET, UpdateBlockPacket::new);
+        this.registerPacket(ProtocolInfo.PHOTO_TRANSFER_PACKET, PhotoTransferPacket::new);
+        this.registerPacket(ProtocolInfo.UPDATE_TRADE_PACKET, UpdateTradePacket::new);
         //this.registerPacket(ProtocolInfo.PLAYER_SKIN_PACKET, PlayerSkinPacket.class); //玩家在暂停界面更换皮肤会发这个包 暂时不需要
     }
+
+    private void registerPacketLimits() {
+        // Limits are generous on purpose, they only exist to stop obviously abusive clients
+        this.setPacketLimits(ProtocolInfo.LOGIN_PACKET, MAX_BATCH_SIZE, 2);
+        this.setPacketLimits(ProtocolInfo.MOVE_PLAYER_PACKET, 256, 100);
+        this.setPacketLimits(ProtocolInfo.PLAYER_ACTION_PACKET, 256, 200);
+        this.setPacketLimits(ProtocolInfo.ANIMATE_PACKET, 256, 100);
+        this.setPacketLimits(ProtocolInfo.TEXT_PACKET, 16 * 1024, 50);
+        this.setPacketLimits(ProtocolInfo.COMMAND_REQUEST_PACKET, 16 * 1024, 50);
+        this.setPacketLimits(ProtocolInfo.REQUEST_CHUNK_RADIUS_PACKET, 64, 10);
+        this.setPacketLimits(ProtocolInfo.INVENTORY_TRANSACTION_PACKET, 64 * 1024, 500);
+    }
 }
@@ -0,0 +1,25 @@
+package cn.nukkit.network;
+
+import java.util.Arrays;
+
+/**
+ * Counts the packets a single session sends per packet id, in one second windows.
+ * Only used from the thread that decodes the session's batches, so it is not thread safe.
+ *
+ * @see Network#setPacketLimits(int, int, int)
+ */
+public class PacketLimiter {
+
+    private final int[] counts = new int[1024];
+
+    private long windowStart = System.currentTimeMillis();
+
+    public boolean tryAcquire(int packetId, int limit) {
+        long now = System.currentTimeMillis();
+        if (now - this.windowStart >= 1000) {
+            Arrays.fill(this.counts, 0);
+            this.windowStart = now;
+        }
+        return ++this.counts[packetId] <= limit;
+    }
+}
@@ -6,8 +6,10 @@ import cn.nukkit.event.player.PlayerCreationEvent;
 import cn.nukkit.event.server.QueryRegenerateEvent;
 import cn.nukkit.network.protocol.BatchPacket;
 import cn.nukkit.network.protocol.DataPacket;
+import cn.nukkit.network.protocol.LoginPacket;
 import cn.nukkit.network.protocol.ProtocolInfo;
-import cn.nukkit.utils.BinaryStream;
+import cn.nukkit.network.protocol.SharedBatchPacket;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.utils.Utils;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -33,7 +35,7 @@ import java.net.InetSocketAddress;
 import java.net.ProtocolException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -49,12 +51,19 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
 
     private final RakNetServer raknet;
 
-    private final Map<InetSocketAddress, NukkitRakNetSession> sessions = new HashMap<>();
+    // Looked up by putPacket from the threads ticking levels
+    private final Map<InetSocketAddress, NukkitRakNetSession> sessions = new ConcurrentHashMap<>();
 
     private final Queue<NukkitRakNetSession> sessionCreationQueue = PlatformDependent.newMpscQueue();
 
 
-    private final Set<ScheduledFuture<?>> tickFutures = new HashSet<>();
+    private final List<EventExecutor> executors = new ObjectArrayList<>();
+
+    private final Runnable flushTask = () -> {
+        for (NukkitRakNetSession session : this.sessionsToTick.get()) {
+            session.sendOutbound();
+        }
+    };
 
     private final FastThreadLocal<Set<NukkitRakNetSession>> sessionsToTick = new FastThreadLocal<Set<NukkitRakNetSession>>() {
         @Override
@@ -75,11 +84,7 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
         this.raknet.setListener(this);
 
         for (EventExecutor executor : this.raknet.getBootstrap().config().group()) {
-            this.tickFutures.add(executor.scheduleAtFixedRate(() -> {
-                for (NukkitRakNetSession session : sessionsToTick.get()) {
-                    session.sendOutbound();
-                }
-            }, 0, 50, TimeUnit.MILLISECONDS));
+            this.executors.add(executor);
         }
     }
 
@@ -115,6 +120,13 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
             if (nukkitSession.disconnectReason != null) {
                 player.close(player.getLeaveMessage(), nukkitSession.disconnectReason, false);
                 iterator.remove();
+                // Packets may have been queued since the disconnect drained the queue
+                nukkitSession.closed = true;
+                nukkitSession.raknet.getEventLoop().execute(nukkitSession::releaseOutbound);
+                DataPacket packet;
+                while ((packet = nukkitSession.inbound.poll()) != null) {
+                    packet.releaseSource();
+                }
                 continue;
             }
             DataPacket packet;
@@ -124,12 +136,28 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
                 } catch (Exception e) {
                     log.error(new FormattedMessage("An error occurred whilst handling {} for {}",
                             new Object[]{packet.getClass().getSimpleName(), nukkitSession.player.getName()}, e));
+                } finally {
+                    // Gives the pooled batch buffer back once all of its packets were handled
+                    packet.releaseSource();
                 }
             }
         }
         return true;
     }
 
+    @Override
+    public void flush() {
+        // Sessions belong to the event loop that created them, so every loop drains its own sessions
+        for (EventExecutor executor : this.executors) {
+            executor.execute(this.flushTask);
+        }
+    }
+
+    @Override
+    public boolean supportsSharedBatches() {
+        return true;
+    }
+
     @Override
     public int getNetworkLatency(Player player) {
         RakNetServerSession session = this.raknet.getSession(player.getSocketAddress());
@@ -151,13 +179,11 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
 
     @Override
     public void shutdown() {
-        this.tickFutures.forEach(future -> future.cancel(false));
         this.raknet.close();
     }
 
     @Override
     public void emergencyShutdown() {
-        this.tickFutures.forEach(future -> future.cancel(false));
         this.raknet.close();
     }
 
@@ -216,9 +242,16 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
     public Integer putPacket(Player player, DataPacket packet, boolean needACK, boolean immediate) {
         NukkitRakNetSession session = this.sessions.get(player.getSocketAddress());
 
-        if (session != null) {
+        if (session != null && !session.closed) {
             packet.tryEncode();
+            if (packet instanceof SharedBatchPacket) {
+                ((SharedBatchPacket) packet).retain();
+            }
             session.outbound.offer(packet);
+            if (session.closed) {
+                // Removed while queueing, the release that ran on removal may have missed this packet
+                session.raknet.getEventLoop().execute(session::releaseOutbound);
+            }
         }
 
         return null;
@@ -256,8 +289,15 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
     private class NukkitRakNetSession implements RakNetSessionListener {
         private final RakNetServerSession raknet;
         private final Queue<DataPacket> inbound = PlatformDependent.newSpscQueue();
-        private final Queue<DataPacket> outbound = PlatformDependent.newSpscQueue();
-        private String disconnectReason = null;
+        private final Queue<DataPacket> outbound = PlatformDependent.newMpscQueue();
+        private final PacketLimiter limiter = new PacketLimiter();
+        // Only used on the session's event loop
+        private final List<DataPacket> decoded = new ObjectArrayList<>();
+        private final Queue<DataPacket> heldBack = new ArrayDeque<>();
+        private boolean preparingLogin;
+        private volatile String disconnectReason = null;
+        // Set once the session is removed, nothing sends its outbound queue anymore
+        private volatile boolean closed;
         private Player player;
 
         @Override
@@ -279,18 +319,78 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
             ByteBuf buffer = packet.getBuffer();
             short packetId = buffer.readUnsignedByte();
             if (packetId == 0xfe) {
-                byte[] packetBuffer = new byte[buffer.readableBytes()];
-                buffer.readBytes(packetBuffer);
-
                 try {
-                    RakNetInterface.this.network.processBatch(packetBuffer, this.inbound);
+                    RakNetInterface.this.network.processBatch(buffer, this.decoded, this.limiter);
                 } catch (ProtocolException e) {
                     this.disconnect("Sent malformed packet");
                     log.error("Unable to process batch packet", e);
+                } finally {
+                    for (DataPacket pk : this.decoded) {
+                        this.receive(pk);
+                    }
+                    this.decoded.clear();
                 }
             }
         }
 
+        /**
+         * Queues a packet for the main thread. While a login packet is prepared on the login lane, the packets
+         * after it are held back so they are still handled in the order they were sent.
+         */
+        private void receive(DataPacket packet) {
+            if (this.preparingLogin) {
+                this.heldBack.offer(packet);
+            } else if (!(packet instanceof LoginPacket) || !this.prepareLogin((LoginPacket) packet)) {
+                this.inbound.offer(packet);
+            }
+        }
+
+        /**
+         * @return false if the login lane is full, the packet is then prepared on the main thread instead
+         */
+        private boolean prepareLogin(LoginPacket packet) {
+            Runnable task = () -> {
+                Exception error = null;
+                try {
+                    packet.prepare();
+                    packet.preloadPlayerData(RakNetInterface.this.server);
+                } catch (Exception e) {
+                    error = e;
+                }
+                Exception failure = error;
+                this.raknet.getEventLoop().execute(() -> this.onLoginPrepared(packet, failure));
+            };
+            this.preparingLogin = RakNetInterface.this.server.getScheduler().getAsyncPool().tryExecute(task, AsyncLane.LOGIN);
+            return this.preparingLogin;
+        }
+
+        private void onLoginPrepared(LoginPacket packet, Exception error) {
+            this.preparingLogin = false;
+            if (this.disconnectReason != null) {
+                this.releaseHeldBack();
+                return;
+            }
+            if (error != null) {
+                log.debug("Unable to prepare login packet", error);
+                this.releaseHeldBack();
+                this.disconnect("Sent malformed login");
+                return;
+            }
+
+            this.inbound.offer(packet);
+            DataPacket held;
+            while (!this.preparingLogin && (held = this.heldBack.poll()) != null) {
+                this.receive(held);
+            }
+        }
+
+        private void releaseHeldBack() {
+            DataPacket held;
+            while ((held = this.heldBack.poll()) != null) {
+                held.releaseSource();
+            }
+        }
+
         @Override
         public void onDirect(ByteBuf byteBuf) {
             // We don't allow any direct packets so ignore.
@@ -299,51 +399,86 @@ public class RakNetInterface implements RakNetServerListener, AdvancedSourceInte
         private void disconnect(String message) {
             this.disconnectReason = message;
             RakNetInterface.this.sessionsToTick.get().remove(this);
+            this.releaseOutbound();
+        }
+
+        /**
+         * Drops the queued packets. Only runs on the session's event loop, the only reader of the queue.
+         */
+        private void releaseOutbound() {
+            DataPacket packet;
+            while ((packet = this.outbound.poll()) != null) {
+                if (packet instanceof SharedBatchPacket) {
+                    ((SharedBatchPacket) packet).release();
+                }
+            }
         }
 
+        /**
+         * Drains the outbound queue. Consecutive packets that share reliability and ordering channel
+         * are batched together, so the order packets were queued in is kept.
+         */
         private void sendOutbound() {
-            List<DataPacket> toBatch = new ObjectArrayList<>();
+            ByteBuf batched = null;
+            RakNetReliability reliability = null;
+            int channel = 0;
+
             DataPacket packet;
             while ((packet = this.outbound.poll()) != null) {
+                if (batched != null && (packet.pid() == ProtocolInfo.BATCH_PACKET || packet.reliability != reliability || packet.getChannel() != channel)) {
+                    this.sendBatch(batched, reliability, channel);
+                    batched = null;
+                }
+
+                if (packet instanceof SharedBatchPacket) {
+                    // The reference retained in putPacket is handed over to RakNet
+                    this.raknet.send(((SharedBatchPacket) packet).getPayload(), RakNetPriority.MEDIUM, packet.reliability, packet.getChannel());
+                    continue;
+                }
+
                 if (packet.pid() == ProtocolInfo.BATCH_PACKET) {
-                    if (!toBatch.isEmpty()) {
-                        this.sendPackets(toBatch);
-                        toBatch.clear();
-                    }
+                    this.sendPacket(((BatchPacket) packet).payload, packet.reliability, packet.getChannel());
+                    continue;
+                }
 
-                    this.sendPacket(((BatchPacket) packet).payload);
-                } else {
-                    toBatch.add(packet);
+                Preconditions.checkState(packet.isEncoded, "Packet should have already been encoded");
+                if (batched == null) {
+                    batched = ByteBufAllocator.DEFAULT.heapBuffer();
+                    reliability = packet.reliability;
+                    channel = packet.getChannel();
                 }
+                int length = packet.getCount();
+                Network.writeUnsignedVarInt(batched, length);
+                batched.writeBytes(packet.getBufferUnsafe(), 0, length);
             }
 
-            if (!toBatch.isEmpty()) {
-                this.sendPackets(toBatch);
+            if (batched != null) {
+                this.sendBatch(batched, reliability, channel);
             }
         }
 
-        private void sendPackets(Collection<DataPacket> packets) {
-            BinaryStream batched = new BinaryStream();
-            for (DataPacket packet : packets) {
-                Preconditions.checkArgument(!(packet instanceof BatchPacket), "Cannot batch BatchPacket");
-                Preconditions.checkState(packet.isEncoded, "Packet should have already been encoded");
-                byte[] buf = packet.getBuffer();
-                batched.putUnsignedVarInt(buf.length);
-                batched.put(buf);
-            }
-
+        private void sendBatch(ByteBuf batched, RakNetReliability reliability, int channel) {
+            ByteBuf payload = ByteBufAllocator.DEFAULT.ioBuffer(1 + batched.readableBytes());
             try {
-                this.sendPacket(Network.deflateRaw(batched.getBuffer(), network.getServer().networkCompressionLevel));
+                payload.writeByte(0xfe);
+                Network.deflateRaw(batched, payload, RakNetInterface.this.network.getCompressionLevel(batched.readableBytes()));
+                this.raknet.send(payload, RakNetPriority.MEDIUM, reliability, channel);
+                payload = null;
             } catch (IOException e) {
                 log.error("Unable to compress batched packets", e);
+            } finally {
+                batched.release();
+                if (payload != null) {
+                    payload.release();
+                }
             }
         }
 
-        private void sendPacket(byte[] payload) {
+        private void sendPacket(byte[] payload, RakNetReliability reliability, int channel) {
             ByteBuf byteBuf = ByteBufAllocator.DEFAULT.ioBuffer(1 + payload.length);
             byteBuf.writeByte(0xfe);
             byteBuf.writeBytes(payload);
-            this.raknet.send(byteBuf);
+            this.raknet.send(byteBuf, RakNetPriority.MEDIUM, reliability, channel);
         }
     }
 }
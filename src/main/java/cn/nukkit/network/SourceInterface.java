@@ -26,6 +26,20 @@ public interface SourceInterface {
 
     boolean process();
 
+    /**
+     * Sends everything queued through putPacket. Called once at the end of every server tick.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Whether a {@link cn.nukkit.network.protocol.SharedBatchPacket} can be put. Players on other interfaces get the
+     * packets of a shared broadcast one by one.
+     */
+    default boolean supportsSharedBatches() {
+        return false;
+    }
+
     void shutdown();
 
     void emergencyShutdown();
@@ -6,6 +6,9 @@ import cn.nukkit.utils.Binary;
 import cn.nukkit.utils.BinaryStream;
 import cn.nukkit.utils.Zlib;
 import com.nukkitx.network.raknet.RakNetReliability;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
 
 /**
  * author: MagicDroidX
@@ -26,6 +29,12 @@ public abstract class DataPacket extends BinaryStream implements Cloneable {
 
     public Throwable stack = null;
 
+    private static final byte[] EMPTY = new byte[0];
+
+    // Pooled batch buffer a received packet was decoded from, kept until the packet is released
+    private ByteBuf source;
+    private int sourceStart;
+
     public abstract int pid();
 
     public abstract void decode();
@@ -41,6 +50,7 @@ public abstract class DataPacket extends BinaryStream implements Cloneable {
 
     @Override
     public void reset() {
+        this.releaseSource();
         super.reset();
         this.putByte((byte) this.pid());
         this.putShort(0);
@@ -70,12 +80,78 @@ public abstract class DataPacket extends BinaryStream implements Cloneable {
     @Override
     public DataPacket clone() {
         try {
-            return (DataPacket) super.clone();
+            DataPacket packet = (DataPacket) super.clone();
+            if (packet.source != null) {
+                // The clone does not hold a reference of its own
+                packet.source = null;
+                packet.copySource();
+            }
+            return packet;
         } catch (CloneNotSupportedException e) {
             return null;
         }
     }
 
+    /**
+     * Decodes this packet in place from bytes {@code start} to {@code end} of a pooled batch buffer. The packet holds
+     * a reference to the buffer until {@link #releaseSource()}.
+     */
+    public void setSource(ByteBuf source, int start, int end) {
+        this.releaseSource();
+        super.setBuffer(source.array(), source.arrayOffset() + start, source.arrayOffset() + end);
+        this.source = source.retain();
+        this.sourceStart = source.arrayOffset() + start;
+    }
+
+    /**
+     * Gives the pooled batch buffer back once the packet was handled. The bytes of a released packet that were not
+     * read with {@link #getBuffer()} while it was handled are gone.
+     */
+    public void releaseSource() {
+        ByteBuf source = this.source;
+        if (source != null) {
+            this.source = null;
+            super.setBuffer(EMPTY);
+            source.release();
+        }
+    }
+
+    /**
+     * Copies the bytes of this packet out of the pooled batch buffer and releases it.
+     */
+    public void detach() {
+        ByteBuf source = this.source;
+        if (source != null) {
+            this.source = null;
+            this.copySource();
+            source.release();
+        }
+    }
+
+    private void copySource() {
+        int start = this.sourceStart;
+        super.setBuffer(Arrays.copyOfRange(this.getBufferUnsafe(), start, this.getCount()), this.getOffset() - start);
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        // The bytes escape the handler, so they may not stay in the pooled buffer
+        this.detach();
+        return super.getBuffer();
+    }
+
+    @Override
+    public void setBuffer(byte[] buffer) {
+        this.releaseSource();
+        super.setBuffer(buffer);
+    }
+
+    @Override
+    public void setBuffer(byte[] buffer, int offset, int end) {
+        this.releaseSource();
+        super.setBuffer(buffer, offset, end);
+    }
+
     public BatchPacket compress() {
         return compress(Server.getInstance().networkCompressionLevel);
     }
@@ -1,18 +1,23 @@
 package cn.nukkit.network.protocol;
 
+import cn.nukkit.Player;
+import cn.nukkit.Server;
 import cn.nukkit.entity.data.Skin;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.utils.ClientChainData;
+import cn.nukkit.utils.TextFormat;
 import lombok.ToString;
 
-import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.util.UUID;
 
 /**
  * Created by on 15-10-13.
+ * <p>
+ * Decoding only keeps the protocol and the raw login data. The chain and the skin are parsed by
+ * {@link #prepare()}, which is expensive and so is called off the main thread when the packet arrives
+ * through RakNet.
  */
-@ToString
+@ToString(exclude = {"loginData", "playerData"})
 public class LoginPacket extends DataPacket {
 
     public static final int NETWORK_ID = ProtocolInfo.LOGIN_PACKET;
@@ -24,6 +29,13 @@ public class LoginPacket extends DataPacket {
 
     public Skin skin;
 
+    private byte[] loginData;
+    private volatile ClientChainData chainData;
+    private boolean skinValid;
+
+    private CompoundTag playerData;
+    private long playerDataModified;
+
     @Override
     public int pid() {
         return NETWORK_ID;
@@ -32,9 +44,7 @@ public class LoginPacket extends DataPacket {
     @Override
     public void decode() {
         this.protocol = this.getInt();
-        this.setBuffer(this.getByteArray(), 0);
-        decodeChainData();
-        decodeSkinData();
+        this.loginData = this.getByteArray();
     }
 
     @Override
@@ -46,58 +56,67 @@ public class LoginPacket extends DataPacket {
         return protocol;
     }
 
-    private void decodeChainData() {
-        Map<String, List<String>> map = new Gson().fromJson(new String(this.get(getLInt()), StandardCharsets.UTF_8),
-                new TypeToken<Map<String, List<String>>>() {
-                }.getType());
-        if (map.isEmpty() || !map.containsKey("chain") || map.get("chain").isEmpty()) return;
-        List<String> chains = map.get("chain");
-        for (String c : chains) {
-            JsonObject chainMap = decodeToken(c);
-            if (chainMap == null) continue;
-            if (chainMap.has("extraData")) {
-                JsonObject extra = chainMap.get("extraData").getAsJsonObject();
-                if (extra.has("displayName")) this.username = extra.get("displayName").getAsString();
-                if (extra.has("identity")) this.clientUUID = UUID.fromString(extra.get("identity").getAsString());
-            }
+    /**
+     * Parses and verifies the chain and decodes and validates the skin. Does nothing if the packet was
+     * prepared before.
+     */
+    public void prepare() {
+        if (this.chainData != null) {
+            return;
         }
+        ClientChainData chainData = ClientChainData.of(this.loginData);
+        this.username = chainData.getUsername();
+        this.clientUUID = chainData.getClientUUID();
+        this.clientId = chainData.getClientId();
+        this.skin = chainData.getSkin();
+        this.skinValid = this.skin != null && this.skin.isValid();
+        this.chainData = chainData;
+    }
+
+    public boolean isPrepared() {
+        return this.chainData != null;
     }
 
-    private void decodeSkinData() {
-        JsonObject skinToken = decodeToken(new String(this.get(this.getLInt())));
-        if (skinToken.has("ClientRandomId")) this.clientId = skinToken.get("ClientRandomId").getAsLong();
-        skin = new Skin().setPlayerSkin(true);
-        if (skinToken.has("SkinId")) {
-            skin.setSkinId(skinToken.get("SkinId").getAsString());
+    /**
+     * Reads the saved data of the player ahead of the login, if there is any. Must be called after
+     * {@link #prepare()}.
+     */
+    public void preloadPlayerData(Server server) {
+        if (this.username == null || !server.shouldSavePlayerData()) {
+            return;
         }
-        if (skinToken.has("SkinData")) {
-            skin.setSkinData(Base64.getDecoder().decode(skinToken.get("SkinData").getAsString()));
+        String name = TextFormat.clean(this.username);
+        if (!Player.isValidUserName(name)) {
+            return;
         }
-
-        if (skinToken.has("CapeData")) {
-            this.skin.setCapeData(Base64.getDecoder().decode(skinToken.get("CapeData").getAsString()));
+        // Taken before reading, so a save while reading makes the data count as stale
+        long modified = server.getOfflinePlayerDataModified(name);
+        if (modified != 0) {
+            this.playerData = server.readOfflinePlayerData(name);
+            this.playerDataModified = modified;
         }
+    }
 
-        if (skinToken.has("SkinGeometryName")) {
-            skin.setGeometryName(skinToken.get("SkinGeometryName").getAsString());
-        }
+    public ClientChainData getChainData() {
+        return chainData;
+    }
 
-        if (skinToken.has("SkinGeometry")) {
-            skin.setGeometryData(skinToken.get("SkinGeometry").getAsString());
-        }
+    public boolean isSkinValid() {
+        return skinValid;
+    }
+
+    /**
+     * @return the data read by {@link #preloadPlayerData(Server)}, or null if it was not read
+     */
+    public CompoundTag getPlayerData() {
+        return playerData;
     }
 
-    private JsonObject decodeToken(String token) {
-        String[] base = token.split("\\.");
-        if (base.length < 2) return null;
-        
-        byte[] decode = null;
-    	try {
-    		decode = Base64.getUrlDecoder().decode(base[1]);
-    	} catch(IllegalArgumentException e) {
-    		decode = Base64.getDecoder().decode(base[1]);
-    	}
-        return new Gson().fromJson(new String(decode, StandardCharsets.UTF_8), JsonObject.class);
+    /**
+     * @return when the file of the preloaded data was last modified
+     */
+    public long getPlayerDataModified() {
+        return playerDataModified;
     }
 
     @Override
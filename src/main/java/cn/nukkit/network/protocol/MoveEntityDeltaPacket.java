@@ -0,0 +1,81 @@
+package cn.nukkit.network.protocol;
+
+import lombok.ToString;
+
+/**
+ * Moves an entity relative to the last position the client got for it. Only the components flagged are written.
+ * <p>
+ * Coordinates are sent as the difference between the bits of the new and the old position as floats, so they add up
+ * exactly on the client. Rotations are sent as absolute angles.
+ */
+@ToString
+public class MoveEntityDeltaPacket extends DataPacket {
+
+    public static final int NETWORK_ID = ProtocolInfo.MOVE_ENTITY_DELTA_PACKET;
+
+    public static final int FLAG_HAS_X = 0b1;
+    public static final int FLAG_HAS_Y = 0b10;
+    public static final int FLAG_HAS_Z = 0b100;
+    public static final int FLAG_HAS_YAW = 0b1000;
+    public static final int FLAG_HAS_HEAD_YAW = 0b10000;
+    public static final int FLAG_HAS_PITCH = 0b100000;
+
+    public long eid;
+    public int flags;
+    public int xDelta;
+    public int yDelta;
+    public int zDelta;
+    public double yaw;
+    public double headYaw;
+    public double pitch;
+
+    @Override
+    public int pid() {
+        return NETWORK_ID;
+    }
+
+    @Override
+    public void decode() {
+        this.eid = this.getEntityRuntimeId();
+        this.flags = this.getByte();
+        this.xDelta = this.getCoordinate(FLAG_HAS_X);
+        this.yDelta = this.getCoordinate(FLAG_HAS_Y);
+        this.zDelta = this.getCoordinate(FLAG_HAS_Z);
+        this.yaw = this.getRotation(FLAG_HAS_YAW);
+        this.headYaw = this.getRotation(FLAG_HAS_HEAD_YAW);
+        this.pitch = this.getRotation(FLAG_HAS_PITCH);
+    }
+
+    @Override
+    public void encode() {
+        this.reset();
+        this.putEntityRuntimeId(this.eid);
+        this.putByte((byte) this.flags);
+        this.putCoordinate(FLAG_HAS_X, this.xDelta);
+        this.putCoordinate(FLAG_HAS_Y, this.yDelta);
+        this.putCoordinate(FLAG_HAS_Z, this.zDelta);
+        this.putRotation(FLAG_HAS_YAW, this.yaw);
+        this.putRotation(FLAG_HAS_HEAD_YAW, this.headYaw);
+        this.putRotation(FLAG_HAS_PITCH, this.pitch);
+    }
+
+    private int getCoordinate(int flag) {
+        return (this.flags & flag) != 0 ? this.getVarInt() : 0;
+    }
+
+    private double getRotation(int flag) {
+        return (this.flags & flag) != 0 ? this.getByte() * (360d / 256d) : 0d;
+    }
+
+    private void putCoordinate(int flag, int value) {
+        if ((this.flags & flag) != 0) {
+            this.putVarInt(value);
+        }
+    }
+
+    private void putRotation(int flag, double value) {
+        if ((this.flags & flag) != 0) {
+            this.putByte((byte) (value / (360d / 256d)));
+        }
+    }
+}
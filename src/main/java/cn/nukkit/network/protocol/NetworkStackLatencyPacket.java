@@ -0,0 +1,31 @@
+package cn.nukkit.network.protocol;
+
+import lombok.ToString;
+
+@ToString
+public class NetworkStackLatencyPacket extends DataPacket {
+    public static final int NETWORK_ID = ProtocolInfo.NETWORK_STACK_LATENCY_PACKET;
+
+    public long timestamp;
+    public boolean needsResponse;
+
+    @Override
+    public int pid() {
+        return NETWORK_ID;
+    }
+
+    @Override
+    public void decode() {
+        this.timestamp = this.getLLong();
+        if (!this.feof()) {
+            this.needsResponse = this.getBoolean();
+        }
+    }
+
+    @Override
+    public void encode() {
+        this.reset();
+        this.putLLong(this.timestamp);
+        this.putBoolean(this.needsResponse);
+    }
+}
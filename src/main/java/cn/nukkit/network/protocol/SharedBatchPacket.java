@@ -0,0 +1,53 @@
+package cn.nukkit.network.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A batch that has been encoded and compressed once so the same buffer can be sent to many players.
+ * <p>
+ * The payload is reference counted: every session that queues the packet retains it, and the
+ * reference is released once the payload has been handed to RakNet.
+ *
+ * @see cn.nukkit.Server#broadcastPacketsShared(cn.nukkit.Player[], DataPacket...)
+ */
+public class SharedBatchPacket extends DataPacket {
+    public static final int NETWORK_ID = ProtocolInfo.BATCH_PACKET;
+
+    private final ByteBuf payload;
+
+    public SharedBatchPacket(ByteBuf payload) {
+        this.payload = payload;
+        this.isEncoded = true;
+    }
+
+    @Override
+    public int pid() {
+        return NETWORK_ID;
+    }
+
+    @Override
+    public void decode() {
+        throw new UnsupportedOperationException("SharedBatchPacket is outbound only");
+    }
+
+    @Override
+    public void encode() {
+
+    }
+
+    /**
+     * @return a duplicate of the compressed payload (including the batch header byte) that shares its reference count
+     */
+    public ByteBuf getPayload() {
+        return this.payload.duplicate();
+    }
+
+    public SharedBatchPacket retain() {
+        this.payload.retain();
+        return this;
+    }
+
+    public boolean release() {
+        return this.payload.release();
+    }
+}
@@ -104,6 +104,8 @@ public abstract class DefaultPermissions {
         registerPermission(new Permission(ROOT + ".command.seed", "Allows the user to view the seed of the world", Permission.DEFAULT_OP), commands);
         registerPermission(new Permission(ROOT + ".command.status", "Allows the user to view the server performance", Permission.DEFAULT_OP), commands);
         registerPermission(new Permission(ROOT + ".command.gc", "Allows the user to fire garbage collection tasks", Permission.DEFAULT_OP), commands);
+        registerPermission(new Permission(ROOT + ".command.pregenerate", "Allows the user to pre-generate worlds", Permission.DEFAULT_OP), commands);
+        registerPermission(new Permission(ROOT + ".command.entities", "Allows the user to list the chunks with the most entities", Permission.DEFAULT_OP), commands);
         registerPermission(new Permission(ROOT + ".command.dumpmemory", "Allows the user to dump memory contents", Permission.DEFAULT_OP), commands);
         registerPermission(new Permission(ROOT + ".command.timings", "Allows the user to records timings for all plugin events", Permission.DEFAULT_OP), commands);
         registerPermission(new Permission(ROOT + ".command.title", "Allows the user to send titles to players", Permission.DEFAULT_OP), commands);
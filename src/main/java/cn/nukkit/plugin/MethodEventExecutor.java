@@ -4,36 +4,50 @@ import cn.nukkit.event.Event;
 import cn.nukkit.event.Listener;
 import cn.nukkit.utils.EventException;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 /**
  * author: MagicDroidX
  * Nukkit Project
+ * <p>
+ * Calls the handler through a method handle resolved once when the listener is registered, so firing an
+ * event neither looks up parameter types nor goes through {@link Method#invoke(Object, Object...)}.
  */
 public class MethodEventExecutor implements EventExecutor {
 
+    private static final MethodType EXECUTOR_TYPE = MethodType.methodType(void.class, Listener.class, Event.class);
+
     private final Method method;
+    private final Class<?> eventClass;
+    private final MethodHandle handle;
 
     public MethodEventExecutor(Method method) {
         this.method = method;
+        this.eventClass = method.getParameterTypes()[0];
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            if (Modifier.isStatic(method.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Listener.class);
+            }
+            this.handle = handle.asType(EXECUTOR_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to access event handler " + method.toGenericString(), e);
+        }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void execute(Listener listener, Event event) throws EventException {
+        // A handler for EntityDamageByEntityEvent is also offered a plain EntityDamageEvent, which it skips
+        if (!this.eventClass.isInstance(event)) {
+            return;
+        }
         try {
-            Class<Event>[] params = (Class<Event>[]) method.getParameterTypes();
-            for (Class<Event> param : params) {
-                if (param.isAssignableFrom(event.getClass())) {
-                    method.invoke(listener, event);
-                    break;
-                }
-            }
-        } catch (InvocationTargetException ex) {
-            throw new EventException(ex.getCause());
-        } catch (ClassCastException ex) {
-            // We are going to ignore ClassCastException because EntityDamageEvent can't be cast to EntityDamageByEntityEvent
+            this.handle.invokeExact(listener, event);
         } catch (Throwable t) {
             throw new EventException(t);
         }
@@ -42,4 +56,4 @@ public class MethodEventExecutor implements EventExecutor {
     public Method getMethod() {
         return method;
     }
-}
\ No newline at end of file
+}
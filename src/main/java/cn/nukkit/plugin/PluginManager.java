@@ -4,6 +4,7 @@ import cn.nukkit.Server;
 import cn.nukkit.command.PluginCommand;
 import cn.nukkit.command.SimpleCommandMap;
 import cn.nukkit.event.*;
+import cn.nukkit.level.ParallelLevelTicker;
 import cn.nukkit.permission.Permissible;
 import cn.nukkit.permission.Permission;
 import cn.nukkit.utils.MainLogger;
@@ -17,6 +18,8 @@ import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 /**
@@ -45,6 +48,14 @@ public class PluginManager {
 
     protected final Map<String, PluginLoader> fileAssociations = new HashMap<>();
 
+    private final ReentrantLock levelTickEventLock = new ReentrantLock();
+
+    /**
+     * The handler list of every event class fired or listened to so far. The lists are static per event
+     * class, so once found they never change.
+     */
+    private final Map<Class<? extends Event>, HandlerList> handlerLists = new ConcurrentHashMap<>();
+
     public PluginManager(Server server, SimpleCommandMap commandMap) {
         this.server = server;
         this.commandMap = commandMap;
@@ -534,7 +545,37 @@ public class PluginManager {
         this.defaultPermsOp.clear();
     }
 
+    /**
+     * Whether anything listens to the event class. Events fired very often, for every packet or every
+     * move, check this first so that they aren't even created when nobody is listening.
+     */
+    public boolean hasListeners(Class<? extends Event> type) {
+        try {
+            return this.getEventListeners(type).getRegisteredListeners().length > 0;
+        } catch (IllegalAccessException e) {
+            this.server.getLogger().logException(e);
+            return false;
+        }
+    }
+
     public void callEvent(Event event) {
+        if (ParallelLevelTicker.isLevelTickThread()) {
+            // Listeners are written for a single thread, so events fired by levels ticking in parallel are dispatched one at a time
+            if (!this.levelTickEventLock.tryLock()) {
+                // The holder may be a listener waiting for the other levels to pause
+                ParallelLevelTicker.waitFor(this.levelTickEventLock::lock);
+            }
+            try {
+                this.dispatchEvent(event);
+            } finally {
+                this.levelTickEventLock.unlock();
+            }
+        } else {
+            this.dispatchEvent(event);
+        }
+    }
+
+    private void dispatchEvent(Event event) {
         try {
             for (RegisteredListener registration : getEventListeners(event.getClass()).getRegisteredListeners()) {
                 if (!registration.getPlugin().isEnabled()) {
@@ -618,6 +659,15 @@ public class PluginManager {
     }
 
     private HandlerList getEventListeners(Class<? extends Event> type) throws IllegalAccessException {
+        HandlerList handlers = this.handlerLists.get(type);
+        if (handlers == null) {
+            handlers = this.findEventListeners(type);
+            this.handlerLists.put(type, handlers);
+        }
+        return handlers;
+    }
+
+    private HandlerList findEventListeners(Class<? extends Event> type) throws IllegalAccessException {
         try {
             Method method = getRegistrationClass(type).getDeclaredMethod("getHandlers");
             method.setAccessible(true);
@@ -0,0 +1,38 @@
+package cn.nukkit.scheduler;
+
+/**
+ * The lanes of the {@link AsyncPool}. Each lane has its own workers and queue, so a burst of work in one
+ * lane cannot starve the others. Lanes are listed from the highest priority to the lowest.
+ */
+public enum AsyncLane {
+    /**
+     * Serializing and compressing chunks and packets for players
+     */
+    CHUNK_SEND("Chunk Send"),
+    /**
+     * Verifying login chains, decoding skins and reading the data of joining players
+     */
+    LOGIN("Login"),
+    /**
+     * Terrain generation, population and lighting
+     */
+    GENERATION("Generation"),
+    /**
+     * File and region I/O
+     */
+    IO("I/O"),
+    /**
+     * Plugin tasks and everything that does not pick a lane
+     */
+    PLUGIN("Plugin");
+
+    private final String displayName;
+
+    AsyncLane(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
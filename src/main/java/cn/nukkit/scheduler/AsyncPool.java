@@ -1,36 +1,262 @@
 package cn.nukkit.scheduler;
 
 import cn.nukkit.Server;
+import co.aikar.timings.Timing;
+import co.aikar.timings.Timings;
 import lombok.extern.log4j.Log4j2;
 
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * A bounded pool of async workers split into {@link AsyncLane}s.
+ * <p>
+ * Every lane is a work-stealing {@link ForkJoinPool} with a fixed number of workers, so a burst of tasks
+ * queues up instead of creating threads. Each lane also has a soft queue capacity. {@link #tryExecute(Runnable)}
+ * refuses tasks while the lane is full and {@link #execute(Runnable)} makes threads other than the main thread
+ * and the pool's own workers wait for room, which pushes back on whoever is flooding the lane.
+ * <p>
+ * Time spent waiting in the queue and execution time are collected per lane and recorded into timings by
+ * {@link #recordTimings()} on the main thread. The deepest the queue got is recorded as a counter, see
+ * {@link #getPeakQueueDepth(AsyncLane)}.
+ *
  * @author Nukkit Project Team
  */
 @Log4j2
-public class AsyncPool extends ThreadPoolExecutor {
+public class AsyncPool {
     private final Server server;
+    private final Lane[] lanes;
+    private final int size;
 
     public AsyncPool(Server server, int size) {
-        super(size, Integer.MAX_VALUE, 60, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
-        this.setThreadFactory(runnable -> new Thread(runnable) {{
-            setDaemon(true);
-            setName(String.format("Nukkit Asynchronous Task Handler #%s", getPoolSize()));
-        }});
+        this(server, size, 1024);
+    }
+
+    public AsyncPool(Server server, int size, int queueCapacity) {
         this.server = server;
+        AsyncLane[] values = AsyncLane.values();
+        this.lanes = new Lane[values.length];
+        int total = 0;
+        for (AsyncLane lane : values) {
+            int workers = workersFor(lane, size);
+            this.lanes[lane.ordinal()] = new Lane(lane, workers, Math.max(1, queueCapacity));
+            total += workers;
+        }
+        this.size = total;
+    }
+
+    private static int workersFor(AsyncLane lane, int size) {
+        switch (lane) {
+            case GENERATION:
+                return Math.max(1, size);
+            case IO:
+                return Math.max(1, Math.min(4, size / 2));
+            default:
+                return Math.max(1, size / 2);
+        }
+    }
+
+    public static AsyncLane getLane(Runnable task) {
+        return task instanceof AsyncTask ? ((AsyncTask) task).getLane() : AsyncLane.PLUGIN;
+    }
+
+    public void execute(Runnable task) {
+        this.execute(task, getLane(task));
+    }
+
+    public void execute(Runnable task, AsyncLane lane) {
+        this.awaitCapacity(lane);
+        this.lanes[lane.ordinal()].submit(task);
+    }
+
+    /**
+     * Blocks while the lane is full. The main thread and the pool's own workers never block here,
+     * their tasks may go over capacity instead.
+     */
+    public void awaitCapacity(AsyncLane lane) {
+        if (!(Thread.currentThread() instanceof WorkerThread) && !this.server.isPrimaryThread()) {
+            this.lanes[lane.ordinal()].awaitCapacity();
+        }
+    }
+
+    /**
+     * @return false if the task's lane is full and the task was not queued
+     */
+    public boolean tryExecute(Runnable task) {
+        return this.tryExecute(task, getLane(task));
+    }
+
+    /**
+     * @return false if the lane is full and the task was not queued
+     */
+    public boolean tryExecute(Runnable task, AsyncLane lane) {
+        Lane target = this.lanes[lane.ordinal()];
+        if (target.isSaturated()) {
+            return false;
+        }
+        target.submit(task);
+        return true;
+    }
+
+    public boolean isSaturated(AsyncLane lane) {
+        return this.lanes[lane.ordinal()].isSaturated();
+    }
+
+    public int getQueueDepth(AsyncLane lane) {
+        return this.lanes[lane.ordinal()].depth.get();
+    }
+
+    /**
+     * @return the deepest the lane's queue got between the last two calls to {@link #recordTimings()}
+     */
+    public int getPeakQueueDepth(AsyncLane lane) {
+        return this.lanes[lane.ordinal()].peakDepth;
+    }
+
+    public int getWorkers(AsyncLane lane) {
+        return this.lanes[lane.ordinal()].pool.getParallelism();
+    }
+
+    /**
+     * @return the total number of workers over all lanes
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Moves the statistics collected by the workers since the last call into timings.
+     * Must be called from the main thread.
+     */
+    public void recordTimings() {
+        for (Lane lane : this.lanes) {
+            lane.recordTimings();
+        }
+    }
+
+    public void shutdown() {
+        for (Lane lane : this.lanes) {
+            lane.pool.shutdown();
+        }
     }
 
-    @Override
-    protected void afterExecute(Runnable runnable, Throwable throwable) {
-        if (throwable != null) {
-            log.fatal("Exception in asynchronous task", throwable);
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Lane lane : this.lanes) {
+            if (!lane.pool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
         }
+        return true;
     }
 
     public Server getServer() {
         return server;
     }
+
+    private static class WorkerThread extends ForkJoinWorkerThread {
+        private WorkerThread(ForkJoinPool pool) {
+            super(pool);
+        }
+    }
+
+    private static class Lane {
+        private final ForkJoinPool pool;
+        private final int capacity;
+
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Object capacityLock = new Object();
+
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong executionNanos = new AtomicLong();
+        private int maxDepth;
+        private volatile int peakDepth;
+
+        private final Timing waitTiming;
+        private final Timing executionTiming;
+        private final Timing depthTiming;
+
+        private Lane(AsyncLane lane, int workers, int capacity) {
+            this.capacity = capacity;
+            AtomicInteger threadCount = new AtomicInteger();
+            ClassLoader classLoader = AsyncPool.class.getClassLoader();
+            this.pool = new ForkJoinPool(workers, pool -> {
+                WorkerThread thread = new WorkerThread(pool);
+                thread.setName("Nukkit Asynchronous Task Handler - " + lane.getDisplayName() + " #" + threadCount.incrementAndGet());
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }, null, true);
+            this.waitTiming = Timings.getAsyncLaneTiming(lane, "Queue Wait");
+            this.executionTiming = Timings.getAsyncLaneTiming(lane, "Execution");
+            this.depthTiming = Timings.getAsyncLaneTiming(lane, "Queue Depth");
+        }
+
+        private boolean isSaturated() {
+            return this.depth.get() >= this.capacity;
+        }
+
+        private void awaitCapacity() {
+            if (!this.isSaturated()) {
+                return;
+            }
+            this.waiting.incrementAndGet();
+            try {
+                synchronized (this.capacityLock) {
+                    while (this.isSaturated() && !this.pool.isShutdown()) {
+                        this.capacityLock.wait(50);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                this.waiting.decrementAndGet();
+            }
+        }
+
+        private void submit(Runnable task) {
+            int queued = this.depth.incrementAndGet();
+            if (queued > this.maxDepth) {
+                // Racy, only used for reporting
+                this.maxDepth = queued;
+            }
+            long submitted = System.nanoTime();
+            this.pool.execute(() -> {
+                long start = System.nanoTime();
+                if (this.depth.decrementAndGet() < this.capacity && this.waiting.get() > 0) {
+                    synchronized (this.capacityLock) {
+                        this.capacityLock.notifyAll();
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable throwable) {
+                    log.fatal("Exception in asynchronous task", throwable);
+                } finally {
+                    this.waitNanos.addAndGet(start - submitted);
+                    this.executionNanos.addAndGet(System.nanoTime() - start);
+                    this.completed.incrementAndGet();
+                }
+            });
+        }
+
+        private void recordTimings() {
+            int count = this.completed.getAndSet(0);
+            if (count > 0) {
+                this.waitTiming.addSamples(count, this.waitNanos.getAndSet(0));
+                this.executionTiming.addSamples(count, this.executionNanos.getAndSet(0));
+            }
+            // A counter, not a duration: the count per tick is the deepest the queue got in that tick
+            int depth = Math.max(this.maxDepth, this.depth.get());
+            this.maxDepth = 0;
+            this.peakDepth = depth;
+            if (depth > 0) {
+                this.depthTiming.addCount(depth);
+            }
+        }
+    }
 }
@@ -67,6 +67,13 @@ public abstract class AsyncTask implements Runnable {
 
     public abstract void onRun();
 
+    /**
+     * @return the lane of the {@link AsyncPool} this task runs in
+     */
+    public AsyncLane getLane() {
+        return AsyncLane.PLUGIN;
+    }
+
     public void onCompletion(Server server) {
 
     }
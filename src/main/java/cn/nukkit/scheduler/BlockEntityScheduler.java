@@ -0,0 +1,200 @@
+package cn.nukkit.scheduler;
+
+import cn.nukkit.blockentity.BlockEntity;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.math.BlockVector3;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Block entity updates of a single level.
+ * <p>
+ * Only the block entities that asked to run on the next tick are ticked. The others sleep, either until the tick
+ * they gave to {@link #schedule(BlockEntity, int)}, kept in a timing wheel of 256 one-tick slots, or until something
+ * wakes them through {@link #wake(BlockEntity)} or {@link #wakeAround(int, int, int)}, in which case they are not
+ * stored at all. Each tick only looks at the slot of that tick, so sleeping block entities cost nothing. Timers more
+ * than 256 ticks away stay in their slot for a few more rounds of the wheel.
+ * <p>
+ * Wake ups may come from any thread and are applied at the start of the next tick. Timers are set from the thread
+ * ticking the level.
+ */
+public class BlockEntityScheduler {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_MASK = (1 << WHEEL_BITS) - 1;
+
+    private final Level level;
+    private long lastTick;
+
+    private final List<BlockEntity> active = new ArrayList<>();
+    private final ReferenceOpenHashSet<BlockEntity> activeSet = new ReferenceOpenHashSet<>();
+
+    @SuppressWarnings("unchecked")
+    private final List<BlockEntity>[] wheel = new List[1 << WHEEL_BITS];
+    private final Reference2LongOpenHashMap<BlockEntity> timers = new Reference2LongOpenHashMap<>();
+
+    private final ConcurrentLinkedQueue<BlockEntity> wakeQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<BlockVector3> wakeAroundQueue = new ConcurrentLinkedQueue<>();
+
+    public BlockEntityScheduler(Level level, long currentTick) {
+        this.level = level;
+        this.lastTick = currentTick;
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        timers.defaultReturnValue(-1);
+    }
+
+    /**
+     * Runs the block entity on the next tick. Safe to call from any thread.
+     */
+    public void wake(BlockEntity blockEntity) {
+        wakeQueue.add(blockEntity);
+    }
+
+    /**
+     * Runs the block entity at the position and those next to it on the next tick, used when an inventory they may
+     * move items from or into changes. Safe to call from any thread.
+     */
+    public void wakeAround(int x, int y, int z) {
+        wakeAroundQueue.add(new BlockVector3(x, y, z));
+    }
+
+    /**
+     * Runs the block entity in the given number of ticks, whatever its updates return until then. An earlier timer
+     * of the same block entity is kept.
+     */
+    public void schedule(BlockEntity blockEntity, int delay) {
+        long tick = lastTick + Math.max(1, delay);
+        long current = timers.getLong(blockEntity);
+        if (current != -1) {
+            if (current <= tick) {
+                return;
+            }
+            removeFromSlot(blockEntity, current);
+        }
+        timers.put(blockEntity, tick);
+        wheel[(int) tick & WHEEL_MASK].add(blockEntity);
+    }
+
+    public void remove(BlockEntity blockEntity) {
+        long tick = timers.removeLong(blockEntity);
+        if (tick != -1) {
+            removeFromSlot(blockEntity, tick);
+        }
+        // Left in the active list, it is dropped there once it is seen closed
+    }
+
+    public boolean isScheduled(BlockEntity blockEntity) {
+        return activeSet.contains(blockEntity) || timers.containsKey(blockEntity);
+    }
+
+    /**
+     * @return how many block entities run every tick
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * @return how many block entities sleep until a given tick
+     */
+    public int getSleepingCount() {
+        return timers.size();
+    }
+
+    public void tick(long currentTick) {
+        BlockEntity blockEntity;
+        while ((blockEntity = wakeQueue.poll()) != null) {
+            activate(blockEntity);
+        }
+        BlockVector3 pos;
+        while ((pos = wakeAroundQueue.poll()) != null) {
+            activate(pos.x, pos.y, pos.z);
+            activate(pos.x, pos.y - 1, pos.z);
+            activate(pos.x, pos.y + 1, pos.z);
+            activate(pos.x - 1, pos.y, pos.z);
+            activate(pos.x + 1, pos.y, pos.z);
+            activate(pos.x, pos.y, pos.z - 1);
+            activate(pos.x, pos.y, pos.z + 1);
+        }
+
+        if (!timers.isEmpty()) {
+            for (long tick = Math.max(lastTick + 1, currentTick - WHEEL_MASK); tick <= currentTick; tick++) {
+                fire(wheel[(int) tick & WHEEL_MASK], currentTick);
+            }
+        }
+        lastTick = currentTick;
+
+        int size = active.size();
+        int kept = 0;
+        int i = 0;
+        try {
+            for (; i < size; i++) {
+                blockEntity = active.get(i);
+                if (!blockEntity.closed && blockEntity.isValid() && blockEntity.onUpdate()) {
+                    active.set(kept++, blockEntity);
+                } else {
+                    activeSet.remove(blockEntity);
+                }
+            }
+        } finally {
+            // Keeps the ones not reached if an update threw
+            for (; i < active.size(); i++) {
+                active.set(kept++, active.get(i));
+            }
+            active.subList(kept, active.size()).clear();
+        }
+    }
+
+    private void fire(List<BlockEntity> slot, long currentTick) {
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            BlockEntity blockEntity = slot.get(i);
+            if (timers.getLong(blockEntity) <= currentTick) {
+                timers.removeLong(blockEntity);
+                removeAt(slot, i);
+                activate(blockEntity);
+            }
+        }
+    }
+
+    private void activate(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return;
+        }
+        FullChunk chunk = level.getChunkIfLoaded(x >> 4, z >> 4);
+        if (chunk != null) {
+            BlockEntity blockEntity = chunk.getTile(x & 0x0f, y, z & 0x0f);
+            if (blockEntity != null) {
+                activate(blockEntity);
+            }
+        }
+    }
+
+    private void activate(BlockEntity blockEntity) {
+        if (!blockEntity.closed && activeSet.add(blockEntity)) {
+            active.add(blockEntity);
+        }
+    }
+
+    private void removeFromSlot(BlockEntity blockEntity, long tick) {
+        List<BlockEntity> slot = wheel[(int) tick & WHEEL_MASK];
+        // Block entities are compared by position otherwise
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            if (slot.get(i) == blockEntity) {
+                removeAt(slot, i);
+                return;
+            }
+        }
+    }
+
+    private static void removeAt(List<BlockEntity> slot, int index) {
+        int last = slot.size() - 1;
+        slot.set(index, slot.get(last));
+        slot.remove(last);
+    }
+}
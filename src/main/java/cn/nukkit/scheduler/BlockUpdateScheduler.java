@@ -2,138 +2,379 @@ package cn.nukkit.scheduler;
 
 import cn.nukkit.block.Block;
 import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseFullChunk;
 import cn.nukkit.math.AxisAlignedBB;
 import cn.nukkit.math.NukkitMath;
 import cn.nukkit.math.Vector3;
 import cn.nukkit.utils.BlockUpdateEntry;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
-import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
-import java.util.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
+/**
+ * Scheduled block updates of a single level, kept in a hierarchical timing wheel.
+ * <p>
+ * Updates due in the current block of 256 ticks sit in the near wheel, one slot per tick. Updates due
+ * later in the current block of 16384 ticks sit in the far wheel, one slot per 256 ticks, and anything
+ * further away is kept in a sorted overflow map keyed by its block of 16384 ticks. Whenever the tick
+ * crosses into a new block the matching far slot or overflow entry is spread over the finer wheel, so
+ * scheduling, cancelling and dispatching an update never depend on how many others are queued.
+ * <p>
+ * Every update is also linked into a list per chunk, which is what {@link #contains(BlockUpdateEntry)},
+ * {@link #remove(BlockUpdateEntry)} and the chunk save path walk. Updates of the same tick run in the
+ * order they were scheduled.
+ */
 public class BlockUpdateScheduler {
+    private static final int NEAR_BITS = 8;
+    private static final int FAR_BITS = 6;
+    private static final int HORIZON_BITS = NEAR_BITS + FAR_BITS;
+    private static final int NEAR_MASK = (1 << NEAR_BITS) - 1;
+    private static final int FAR_MASK = (1 << FAR_BITS) - 1;
+    private static final int HORIZON_MASK = (1 << HORIZON_BITS) - 1;
+
     private final Level level;
     private long lastTick;
-    private Long2ObjectMap<LinkedHashSet<BlockUpdateEntry>> queuedUpdates;
 
-    private Set<BlockUpdateEntry> pendingUpdates;
+    private final Bucket[] near = new Bucket[1 << NEAR_BITS];
+    private final Bucket[] far = new Bucket[1 << FAR_BITS];
+    private final Long2ObjectRBTreeMap<Bucket> overflow = new Long2ObjectRBTreeMap<>();
+    private int nearCount;
+    private int farCount;
+    private int size;
+
+    private final Long2ObjectOpenHashMap<Node> chunkIndex = new Long2ObjectOpenHashMap<>();
 
     public BlockUpdateScheduler(Level level, long currentTick) {
-        queuedUpdates = new Long2ObjectOpenHashMap<>(); // Change to ConcurrentHashMap if this needs to be concurrent
         lastTick = currentTick;
         this.level = level;
+        for (int i = 0; i < near.length; i++) {
+            near[i] = new Bucket(Bucket.NEAR, 0);
+        }
+        for (int i = 0; i < far.length; i++) {
+            far[i] = new Bucket(Bucket.FAR, 0);
+        }
     }
 
     public synchronized void tick(long currentTick) {
-        // Should only perform once, unless ticks were skipped
-        if (currentTick - lastTick < Short.MAX_VALUE) {// Arbitrary
-            for (long tick = lastTick + 1; tick <= currentTick; tick++) {
-                perform(tick);
-            }
-        } else {
-            LongList times = new LongArrayList(queuedUpdates.keySet());
-            Collections.sort(times);
-            for (long tick : times) {
-                if (tick <= currentTick) {
-                    perform(tick);
+        while (lastTick < currentTick && size > 0) {
+            long next = lastTick + 1;
+            if (nearCount == 0) {
+                // Nothing is due in the current block of ticks, jump to the next one that has updates
+                long skipTo;
+                if (farCount == 0) {
+                    skipTo = overflow.firstLongKey() << HORIZON_BITS;
+                } else if ((next & NEAR_MASK) != 0) {
+                    skipTo = ((next >> NEAR_BITS) + 1) << NEAR_BITS;
                 } else {
+                    skipTo = next;
+                }
+                if (skipTo > currentTick) {
                     break;
                 }
+                lastTick = skipTo - 1;
             }
+            perform(lastTick + 1);
         }
         lastTick = currentTick;
     }
 
     private void perform(long tick) {
-        try {
-            lastTick = tick;
-            Set<BlockUpdateEntry> updates = pendingUpdates = queuedUpdates.remove(tick);
-            if (updates != null) {
-                for (BlockUpdateEntry entry : updates) {
-                    Vector3 pos = entry.pos;
-                    if (level.isChunkLoaded(NukkitMath.floorDouble(pos.x) >> 4, NukkitMath.floorDouble(pos.z) >> 4)) {
-                        Block block = level.getBlock(entry.pos);
-
-                        if (Block.equals(block, entry.block, false)) {
-                            block.onUpdate(Level.BLOCK_UPDATE_SCHEDULED);
-                        }
-                    } else {
-                        level.scheduleUpdate(entry.block, entry.pos, 0);
-                    }
+        if ((tick & NEAR_MASK) == 0) {
+            cascade(far[(int) (tick >> NEAR_BITS) & FAR_MASK]);
+            if ((tick & HORIZON_MASK) == 0) {
+                Bucket bucket = overflow.remove(tick >> HORIZON_BITS);
+                if (bucket != null) {
+                    cascade(bucket);
                 }
             }
+        }
+        lastTick = tick;
+
+        Bucket bucket = near[(int) tick & NEAR_MASK];
+        Node head = bucket.head;
+        if (head == null) {
+            return;
+        }
+        bucket.head = bucket.tail = null;
+        // Detached first so isBlockTickPending sees the whole tick while it runs
+        for (Node node = head; node != null; node = node.next) {
+            node.bucket = null;
+            node.dispatching = true;
+            nearCount--;
+            size--;
+        }
+
+        try {
+            for (Node node = head; node != null; node = node.next) {
+                dispatch(node);
+            }
         } finally {
-            pendingUpdates = null;
+            Node node = head;
+            while (node != null) {
+                Node next = node.next;
+                unindex(node);
+                node.prev = node.next = null;
+                node = next;
+            }
         }
     }
 
-    public Set<BlockUpdateEntry> getPendingBlockUpdates(AxisAlignedBB boundingBox) {
-        Set<BlockUpdateEntry> set = null;
+    private void dispatch(Node node) {
+        BlockUpdateEntry entry = node.entry;
+        BaseFullChunk chunk = level.getChunkIfLoaded(node.x >> 4, node.z >> 4);
+        if (chunk == null) {
+            level.scheduleUpdate(entry.block, entry.pos, 0);
+            return;
+        }
+        if (node.y < 0 || node.y > 255) {
+            return;
+        }
 
-        for (Map.Entry<Long, LinkedHashSet<BlockUpdateEntry>> tickEntries : this.queuedUpdates.long2ObjectEntrySet()) {
-            LinkedHashSet<BlockUpdateEntry> tickSet = tickEntries.getValue();
-            for (BlockUpdateEntry update : tickSet) {
-                Vector3 pos = update.pos;
+        int x = node.x & 0x0f;
+        int z = node.z & 0x0f;
+        if (chunk.getBlockId(x, node.y, z) != node.blockId) {
+            return;
+        }
+        Block block = entry.block;
+        // The scheduled block is usually still exactly what is there, only look it up again if not
+        if (block.level != level || block.x != node.x || block.y != node.y || block.z != node.z
+                || block.getDamage() != chunk.getBlockData(x, node.y, z)) {
+            block = level.getBlock(node.x, node.y, node.z);
+        }
+        block.onUpdate(Level.BLOCK_UPDATE_SCHEDULED);
+    }
 
-                if (pos.getX() >= boundingBox.getMinX() && pos.getX() < boundingBox.getMaxX() && pos.getZ() >= boundingBox.getMinZ() && pos.getZ() < boundingBox.getMaxZ()) {
-                    if (set == null) {
-                        set = new LinkedHashSet<>();
-                    }
+    /**
+     * Spreads a far slot or an overflow bucket over the finer wheels. Runs before anything new is
+     * scheduled for the block of ticks, so the moved updates go in front of the ones already there.
+     */
+    private void cascade(Bucket bucket) {
+        Node node = bucket.tail;
+        while (node != null) {
+            Node prev = node.prev;
+            unlink(node);
+            place(node, true);
+            node = prev;
+        }
+    }
+
+    public synchronized Set<BlockUpdateEntry> getPendingBlockUpdates(AxisAlignedBB boundingBox) {
+        Set<BlockUpdateEntry> set = null;
+        int minChunkX = NukkitMath.floorDouble(boundingBox.getMinX()) >> 4;
+        int maxChunkX = NukkitMath.ceilDouble(boundingBox.getMaxX()) >> 4;
+        int minChunkZ = NukkitMath.floorDouble(boundingBox.getMinZ()) >> 4;
+        int maxChunkZ = NukkitMath.ceilDouble(boundingBox.getMaxZ()) >> 4;
 
-                    set.add(update);
+        if ((long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) <= chunkIndex.size()) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    set = collect(chunkIndex.get(Level.chunkHash(chunkX, chunkZ)), boundingBox, set);
                 }
             }
+        } else {
+            ObjectIterator<Long2ObjectMap.Entry<Node>> iterator = chunkIndex.long2ObjectEntrySet().fastIterator();
+            while (iterator.hasNext()) {
+                set = collect(iterator.next().getValue(), boundingBox, set);
+            }
         }
 
         return set;
     }
 
-    public boolean isBlockTickPending(Vector3 pos, Block block) {
-        Set<BlockUpdateEntry> tmpUpdates = pendingUpdates;
-        if (tmpUpdates == null || tmpUpdates.isEmpty()) return false;
-        return tmpUpdates.contains(new BlockUpdateEntry(pos, block));
+    /**
+     * @return the updates queued in the chunk, or null if there are none
+     */
+    public synchronized Set<BlockUpdateEntry> getPendingBlockUpdates(int chunkX, int chunkZ) {
+        return collect(chunkIndex.get(Level.chunkHash(chunkX, chunkZ)), null, null);
+    }
+
+    private static Set<BlockUpdateEntry> collect(Node node, AxisAlignedBB boundingBox, Set<BlockUpdateEntry> set) {
+        for (; node != null; node = node.chunkNext) {
+            if (node.dispatching) {
+                continue;
+            }
+            if (boundingBox != null && (node.x < boundingBox.getMinX() || node.x >= boundingBox.getMaxX()
+                    || node.z < boundingBox.getMinZ() || node.z >= boundingBox.getMaxZ())) {
+                continue;
+            }
+            if (set == null) {
+                set = new LinkedHashSet<>();
+            }
+            set.add(node.entry);
+        }
+        return set;
+    }
+
+    public synchronized boolean isBlockTickPending(Vector3 pos, Block block) {
+        return block != null && find(pos, block.getId(), true) != null;
     }
 
-    private long getMinTime(BlockUpdateEntry entry) {
-        return Math.max(entry.delay, lastTick + 1);
+    public synchronized void add(BlockUpdateEntry entry) {
+        Node node = new Node(entry, Math.max(entry.delay, lastTick + 1));
+        long index = Level.chunkHash(node.x >> 4, node.z >> 4);
+        Node head = chunkIndex.put(index, node);
+        if (head != null) {
+            node.chunkNext = head;
+            head.chunkPrev = node;
+        }
+        place(node, false);
+        size++;
     }
 
-    public void add(BlockUpdateEntry entry) {
-        long time = getMinTime(entry);
-        LinkedHashSet<BlockUpdateEntry> updateSet = queuedUpdates.get(time);
-        if (updateSet == null) {
-            LinkedHashSet<BlockUpdateEntry> tmp = queuedUpdates.putIfAbsent(time, updateSet = new LinkedHashSet<>());
-            if (tmp != null) updateSet = tmp;
+    public synchronized boolean contains(BlockUpdateEntry entry) {
+        return entry.block != null && find(entry.pos, entry.block.getId(), false) != null;
+    }
+
+    public synchronized boolean remove(BlockUpdateEntry entry) {
+        return entry.block != null && remove(find(entry.pos, entry.block.getId(), false));
+    }
+
+    public synchronized boolean remove(Vector3 pos) {
+        return remove(find(pos, -1, false));
+    }
+
+    private boolean remove(Node node) {
+        if (node == null) {
+            return false;
         }
-        updateSet.add(entry);
+        unlink(node);
+        unindex(node);
+        size--;
+        return true;
     }
 
-    public boolean contains(BlockUpdateEntry entry) {
-        for (Map.Entry<Long, LinkedHashSet<BlockUpdateEntry>> tickUpdateSet : queuedUpdates.long2ObjectEntrySet()) {
-            if (tickUpdateSet.getValue().contains(entry)) {
-                return true;
+    /**
+     * @param blockId the id of the scheduled block, or -1 for any
+     */
+    private Node find(Vector3 pos, int blockId, boolean dispatching) {
+        int x = pos.getFloorX();
+        int y = pos.getFloorY();
+        int z = pos.getFloorZ();
+        for (Node node = chunkIndex.get(Level.chunkHash(x >> 4, z >> 4)); node != null; node = node.chunkNext) {
+            if (node.dispatching == dispatching && node.x == x && node.y == y && node.z == z
+                    && (blockId == -1 || node.blockId == blockId)) {
+                return node;
             }
         }
-        return false;
+        return null;
     }
 
-    public boolean remove(BlockUpdateEntry entry) {
-        for (Map.Entry<Long, LinkedHashSet<BlockUpdateEntry>> tickUpdateSet : queuedUpdates.long2ObjectEntrySet()) {
-            if (tickUpdateSet.getValue().remove(entry)) {
-                return true;
+    private void place(Node node, boolean first) {
+        long next = lastTick + 1;
+        long tick = node.tick;
+        Bucket bucket;
+        if ((tick >> NEAR_BITS) == (next >> NEAR_BITS)) {
+            bucket = near[(int) tick & NEAR_MASK];
+            nearCount++;
+        } else if ((tick >> HORIZON_BITS) == (next >> HORIZON_BITS)) {
+            bucket = far[(int) (tick >> NEAR_BITS) & FAR_MASK];
+            farCount++;
+        } else {
+            long key = tick >> HORIZON_BITS;
+            bucket = overflow.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(Bucket.OVERFLOW, key);
+                overflow.put(key, bucket);
             }
         }
-        return false;
+
+        node.bucket = bucket;
+        if (bucket.head == null) {
+            bucket.head = bucket.tail = node;
+        } else if (first) {
+            node.next = bucket.head;
+            bucket.head.prev = node;
+            bucket.head = node;
+        } else {
+            node.prev = bucket.tail;
+            bucket.tail.next = node;
+            bucket.tail = node;
+        }
+    }
+
+    private void unlink(Node node) {
+        Bucket bucket = node.bucket;
+        if (node.prev == null) {
+            bucket.head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            bucket.tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = node.next = null;
+        node.bucket = null;
+
+        if (bucket.kind == Bucket.NEAR) {
+            nearCount--;
+        } else if (bucket.kind == Bucket.FAR) {
+            farCount--;
+        } else if (bucket.head == null && overflow.get(bucket.key) == bucket) {
+            overflow.remove(bucket.key);
+        }
     }
 
-    public boolean remove(Vector3 pos) {
-        for (Map.Entry<Long, LinkedHashSet<BlockUpdateEntry>> tickUpdateSet : queuedUpdates.long2ObjectEntrySet()) {
-            if (tickUpdateSet.getValue().remove(pos)) {
-                return true;
+    private void unindex(Node node) {
+        if (node.chunkPrev == null) {
+            long index = Level.chunkHash(node.x >> 4, node.z >> 4);
+            if (node.chunkNext == null) {
+                chunkIndex.remove(index);
+            } else {
+                chunkIndex.put(index, node.chunkNext);
             }
+        } else {
+            node.chunkPrev.chunkNext = node.chunkNext;
+        }
+        if (node.chunkNext != null) {
+            node.chunkNext.chunkPrev = node.chunkPrev;
+        }
+        node.chunkPrev = node.chunkNext = null;
+    }
+
+    private static class Bucket {
+        private static final int NEAR = 0;
+        private static final int FAR = 1;
+        private static final int OVERFLOW = 2;
+
+        private final int kind;
+        private final long key;
+        private Node head;
+        private Node tail;
+
+        private Bucket(int kind, long key) {
+            this.kind = kind;
+            this.key = key;
+        }
+    }
+
+    private static class Node {
+        private final BlockUpdateEntry entry;
+        private final long tick;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final int blockId;
+        private boolean dispatching;
+
+        private Bucket bucket;
+        private Node prev;
+        private Node next;
+        private Node chunkPrev;
+        private Node chunkNext;
+
+        private Node(BlockUpdateEntry entry, long tick) {
+            this.entry = entry;
+            this.tick = tick;
+            this.x = entry.pos.getFloorX();
+            this.y = entry.pos.getFloorY();
+            this.z = entry.pos.getFloorZ();
+            this.blockId = entry.block.getId();
         }
-        return false;
     }
 }
@@ -45,6 +45,11 @@ public class FileWriteTask extends AsyncTask {
         this.contents = contents;
     }
 
+    @Override
+    public AsyncLane getLane() {
+        return AsyncLane.IO;
+    }
+
     @Override
     public void onRun() {
         try {
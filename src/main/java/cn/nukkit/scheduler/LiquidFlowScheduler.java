@@ -0,0 +1,225 @@
+package cn.nukkit.scheduler;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.block.BlockLiquid;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.math.Vector3;
+import cn.nukkit.utils.BlockUpdateEntry;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Flowing liquid blocks of a single level waiting for their next flow step.
+ * <p>
+ * Liquids are kept apart from the other scheduled block updates: every flowing block is in the set of its chunk
+ * once, keyed by position, and in a queue ordered by the tick it is due. At most {@code max-updates-per-tick}
+ * flow steps run per tick, the rest stay due and run first on the next ticks, so a broken dam or a lava cast
+ * spreads slower instead of stalling the tick. Blocks are only created for positions that still hold a liquid.
+ * <p>
+ * Pending flow steps are saved with their chunk as regular tile ticks, and scheduled the usual way when the chunk
+ * is loaded again.
+ */
+public class LiquidFlowScheduler {
+
+    private final Level level;
+    private final int maxUpdatesPerTick;
+
+    private final Long2LongOpenHashMap due = new Long2LongOpenHashMap();
+    private final Long2ObjectRBTreeMap<LongArrayList> queue = new Long2ObjectRBTreeMap<>();
+    private final Long2ObjectOpenHashMap<LongOpenHashSet> chunks = new Long2ObjectOpenHashMap<>();
+    // Position in the first list of the queue when the last tick ran out of budget
+    private int cursor;
+    // Flow steps of the running tick, only used by the thread ticking the level
+    private final LongArrayList batch = new LongArrayList();
+
+    private long updates;
+    private long deferred;
+
+    public LiquidFlowScheduler(Level level) {
+        this.level = level;
+        this.maxUpdatesPerTick = level.getServer().getConfig("liquid-flow.max-updates-per-tick", 4096);
+        this.due.defaultReturnValue(-1);
+    }
+
+    private static int getX(long key) {
+        return (int) (key >> 36);
+    }
+
+    private static int getY(long key) {
+        return (int) (key >>> 28) & 0xff;
+    }
+
+    private static int getZ(long key) {
+        return ((int) key << 4) >> 4;
+    }
+
+    /**
+     * Runs the next flow step of the liquid at the position in the given number of ticks. Does nothing if one is
+     * already pending or the chunk is not loaded.
+     */
+    public synchronized void schedule(int x, int y, int z, int delay) {
+        if (y < 0 || y > 255 || !level.isChunkLoaded(x >> 4, z >> 4)) {
+            return;
+        }
+        long key = Level.blockHash(x, y, z);
+        if (due.containsKey(key)) {
+            return;
+        }
+        long tick = level.getCurrentTick() + Math.max(1, delay);
+        due.put(key, tick);
+
+        LongArrayList list = queue.get(tick);
+        if (list == null) {
+            queue.put(tick, list = new LongArrayList());
+        }
+        list.add(key);
+
+        long chunkKey = Level.chunkHash(x >> 4, z >> 4);
+        LongOpenHashSet chunk = chunks.get(chunkKey);
+        if (chunk == null) {
+            chunks.put(chunkKey, chunk = new LongOpenHashSet());
+        }
+        chunk.add(key);
+    }
+
+    public synchronized boolean isPending(int x, int y, int z) {
+        return y >= 0 && y <= 255 && due.containsKey(Level.blockHash(x, y, z));
+    }
+
+    /**
+     * Runs the flow steps due by the tick, as many as the per tick limit allows. The due steps are taken under
+     * the lock and run outside of it, so the steps they schedule do not wait on it.
+     */
+    public void tick(long currentTick) {
+        LongArrayList batch = this.batch;
+        batch.clear();
+        poll(currentTick, batch);
+        for (int i = 0; i < batch.size(); i++) {
+            flow(batch.getLong(i));
+        }
+        batch.clear();
+    }
+
+    private synchronized void poll(long currentTick, LongArrayList batch) {
+        int budget = maxUpdatesPerTick > 0 ? maxUpdatesPerTick : Integer.MAX_VALUE;
+        while (!queue.isEmpty()) {
+            long tick = queue.firstLongKey();
+            if (tick > currentTick) {
+                return;
+            }
+            LongArrayList list = queue.get(tick);
+            while (cursor < list.size()) {
+                if (budget == 0) {
+                    deferred += list.size() - cursor;
+                    return;
+                }
+                long key = list.getLong(cursor++);
+                // Left over from a chunk unload
+                if (due.get(key) != tick) {
+                    continue;
+                }
+                due.remove(key);
+                untrack(key);
+                budget--;
+                updates++;
+                batch.add(key);
+            }
+            queue.remove(tick);
+            cursor = 0;
+        }
+    }
+
+    private void flow(long key) {
+        int x = getX(key);
+        int y = getY(key);
+        int z = getZ(key);
+        BaseFullChunk chunk = level.getChunkIfLoaded(x >> 4, z >> 4);
+        if (chunk == null) {
+            return;
+        }
+        int fullId = chunk.getFullBlock(x & 0x0f, y, z & 0x0f);
+        if (!(Block.fullList[fullId] instanceof BlockLiquid)) {
+            return;
+        }
+        Block.get(fullId, level, x, y, z).onUpdate(Level.BLOCK_UPDATE_SCHEDULED);
+    }
+
+    private void untrack(long key) {
+        long chunkKey = Level.chunkHash(getX(key) >> 4, getZ(key) >> 4);
+        LongOpenHashSet chunk = chunks.get(chunkKey);
+        if (chunk != null && chunk.remove(key) && chunk.isEmpty()) {
+            chunks.remove(chunkKey);
+        }
+    }
+
+    /**
+     * Forgets the flow steps of an unloaded chunk, they were saved with it.
+     */
+    public synchronized void removeChunk(int chunkX, int chunkZ) {
+        LongOpenHashSet chunk = chunks.remove(Level.chunkHash(chunkX, chunkZ));
+        if (chunk != null) {
+            LongIterator iterator = chunk.iterator();
+            while (iterator.hasNext()) {
+                due.remove(iterator.nextLong());
+            }
+        }
+    }
+
+    /**
+     * Adds the flow steps pending in the chunk to the set of updates saved with it.
+     *
+     * @return the given set with the flow steps added, a new set if it was null and there are any
+     */
+    public synchronized Set<BlockUpdateEntry> addPendingUpdates(FullChunk chunk, Set<BlockUpdateEntry> set) {
+        LongOpenHashSet keys = chunks.get(Level.chunkHash(chunk.getX(), chunk.getZ()));
+        if (keys == null) {
+            return set;
+        }
+        LongIterator iterator = keys.iterator();
+        while (iterator.hasNext()) {
+            long key = iterator.nextLong();
+            int x = getX(key);
+            int y = getY(key);
+            int z = getZ(key);
+            int fullId = chunk.getFullBlock(x & 0x0f, y, z & 0x0f);
+            if (!(Block.fullList[fullId] instanceof BlockLiquid)) {
+                continue;
+            }
+            if (set == null) {
+                set = new LinkedHashSet<>();
+            }
+            set.add(new BlockUpdateEntry(new Vector3(x, y, z), Block.get(fullId >> 4, fullId & 0x0f), due.get(key), 0));
+        }
+        return set;
+    }
+
+    /**
+     * @return how many liquid blocks wait for their next flow step
+     */
+    public synchronized int getPendingCount() {
+        return due.size();
+    }
+
+    /**
+     * @return how many flow steps ran since the level was loaded
+     */
+    public long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return how many due flow steps were pushed to a later tick by the per tick limit since the level was loaded
+     */
+    public long getDeferred() {
+        return deferred;
+    }
+}
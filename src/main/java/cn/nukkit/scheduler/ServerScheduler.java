@@ -20,6 +20,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class ServerScheduler {
 
     public static int WORKERS = 4;
+    public static int QUEUE_CAPACITY = 1024;
 
     private final AsyncPool asyncPool;
 
@@ -41,7 +42,7 @@ public class ServerScheduler {
             return i;
         });
         this.taskMap = new ConcurrentHashMap<>();
-        this.asyncPool = new AsyncPool(Server.getInstance(), WORKERS);
+        this.asyncPool = new AsyncPool(Server.getInstance(), WORKERS, QUEUE_CAPACITY);
     }
 
     public TaskHandler scheduleTask(Task task) {
@@ -90,7 +91,11 @@ public class ServerScheduler {
     }
 
     public int getAsyncTaskPoolSize() {
-        return asyncPool.getCorePoolSize();
+        return asyncPool.getSize();
+    }
+
+    public AsyncPool getAsyncPool() {
+        return asyncPool;
     }
 
     public void increaseAsyncTaskPoolSize(int newSize) {
@@ -259,6 +264,11 @@ public class ServerScheduler {
             ((Task) task).setHandler(taskHandler);
         }
 
+        if (asynchronous && !taskHandler.isDelayed()) {
+            // Backpressure: threads other than the main thread and the pool's workers wait while the lane is full
+            asyncPool.awaitCapacity(AsyncPool.getLane(task));
+        }
+
         pending.offer(taskHandler);
         taskMap.put(taskHandler.getTaskId(), taskHandler);
 
@@ -278,7 +288,12 @@ public class ServerScheduler {
                 taskMap.remove(taskHandler.getTaskId());
                 continue;
             } else if (taskHandler.isAsynchronous()) {
-                asyncPool.execute(taskHandler.getTask());
+                if (!asyncPool.tryExecute(taskHandler.getTask())) {
+                    // The lane is full, try again next tick
+                    taskHandler.setNextRunTick(currentTick + 1);
+                    pending.offer(taskHandler);
+                    continue;
+                }
             } else {
                 taskHandler.timing.startTiming();
                 try {
@@ -301,6 +316,7 @@ public class ServerScheduler {
             }
         }
         AsyncTask.collectTask();
+        asyncPool.recordTimings();
     }
 
     public int getQueueSize() {
@@ -12,12 +12,16 @@ public class LevelTimings {
     public final Timing doChunkUnload;
     public final Timing doTickPending;
     public final Timing doChunkGC;
+    public final Timing doChunkSave;
     public final Timing doTick;
 
     public final Timing tickChunks;
     public final Timing entityTick;
+    public final Timing entityMerge;
+    public final Timing entityTrack;
     public final Timing blockEntityTick;
     public final Timing blockUpdate;
+    public final Timing liquidFlow;
 
     public final Timing syncChunkSendTimer;
     public final Timing syncChunkSendPrepareTimer;
@@ -32,12 +36,16 @@ public class LevelTimings {
         this.doChunkUnload = TimingsManager.getTiming(name + "doChunkUnload");
         this.doTickPending = TimingsManager.getTiming(name + "doTickPending");
         this.doChunkGC = TimingsManager.getTiming(name + "doChunkGC");
+        this.doChunkSave = TimingsManager.getTiming(name + "doChunkSave");
         this.doTick = TimingsManager.getTiming(name + "doTick");
 
         this.tickChunks = TimingsManager.getTiming(name + "tickChunks");
         this.entityTick = TimingsManager.getTiming(name + "entityTick");
+        this.entityMerge = TimingsManager.getTiming(name + "entityMerge");
+        this.entityTrack = TimingsManager.getTiming(name + "entityTrack");
         this.blockEntityTick = TimingsManager.getTiming(name + "blockEntityTick");
         this.blockUpdate = TimingsManager.getTiming(name + "blockUpdate");
+        this.liquidFlow = TimingsManager.getTiming(name + "liquidFlow");
 
         this.syncChunkSendTimer = TimingsManager.getTiming(name + "syncChunkSend");
         this.syncChunkSendPrepareTimer = TimingsManager.getTiming(name + "syncChunkSendPrepare");
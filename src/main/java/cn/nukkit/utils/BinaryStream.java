@@ -79,6 +79,15 @@ public class BinaryStream {
         this.setOffset(offset);
     }
 
+    /**
+     * Reads from a window of a shared array without copying it: reading starts at {@code offset} and stops at {@code end}.
+     */
+    public void setBuffer(byte[] buffer, int offset, int end) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.count = end;
+    }
+
     public int getOffset() {
         return offset;
     }
@@ -91,6 +100,13 @@ public class BinaryStream {
         return Arrays.copyOf(buffer, count);
     }
 
+    /**
+     * Returns the backing array without copying it. Only the first {@link #getCount()} bytes are valid.
+     */
+    public byte[] getBufferUnsafe() {
+        return buffer;
+    }
+
     public int getCount() {
         return count;
     }
@@ -1204,7 +1220,7 @@ public class BinaryStream {
     }
 
     public boolean feof() {
-        return this.offset < 0 || this.offset >= this.buffer.length;
+        return this.offset < 0 || this.offset >= this.count;
     }
 
     private void ensureCapacity(int minCapacity) {
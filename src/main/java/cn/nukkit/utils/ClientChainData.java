@@ -1,11 +1,21 @@
 package cn.nukkit.utils;
 
+import cn.nukkit.entity.data.Skin;
 import cn.nukkit.network.protocol.LoginPacket;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
 
+import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.text.ParseException;
 import java.util.*;
 
 /**
@@ -16,6 +26,10 @@ import java.util.*;
  * <p>
  * To get chain data, you can use player.getLoginChainData() or read(loginPacket)
  * <p>
+ * Every token of the chain is verified with the key of the token before it, see {@link #isXboxAuthed()}. The
+ * player's identity is only read from the token Mojang signed or the one signed with the key Mojang issued, and no
+ * token may follow it.
+ * <p>
  * ===============
  * author: boybook
  * Nukkit Project
@@ -23,12 +37,28 @@ import java.util.*;
  */
 public final class ClientChainData implements LoginChainData {
 
+    private static final Gson GSON = new Gson();
+    private static final Type CHAIN_TYPE = new TypeToken<Map<String, List<String>>>() {
+    }.getType();
+
+    private static final String MOJANG_PUBLIC_KEY_BASE64 = "MHYwEAYHKoZIzj0CAQYFK4EEACIDYgAE8ELkixyLcwlZryUQcu1TvPOmI2B7vX83ndnWRUaXm74wFfa5f/lwQNTfrLVHa2PmenpGI6JhIMUJaWZrjmMj90NoKNFSNBuKdm8rYiXsfaz3K36x/1U26HpG0ZxK/V1V";
+
     public static ClientChainData of(byte[] buffer) {
-        return new ClientChainData(buffer);
+        return of(buffer, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Reads the chain data, checking the validity period of every token against the given time.
+     *
+     * @param time unix time in seconds
+     */
+    public static ClientChainData of(byte[] buffer, long time) {
+        return new ClientChainData(buffer, time);
     }
 
     public static ClientChainData read(LoginPacket pk) {
-        return of(pk.getBuffer());
+        pk.prepare();
+        return pk.getChainData();
     }
 
     @Override
@@ -101,6 +131,22 @@ public final class ClientChainData implements LoginChainData {
         return capeData;
     }
 
+    /**
+     * @return the skin sent with the client data, null if there was none
+     */
+    public Skin getSkin() {
+        return skin;
+    }
+
+    /**
+     * @return whether the chain was signed by Mojang and every token and the client data were signed by the
+     * key the token before them names, which means the player is logged in to Xbox Live
+     */
+    @Override
+    public boolean isXboxAuthed() {
+        return xboxAuthed;
+    }
+
     public final static int UI_PROFILE_CLASSIC = 0;
     public final static int UI_PROFILE_POCKET = 1;
 
@@ -146,37 +192,93 @@ public final class ClientChainData implements LoginChainData {
 
     private String capeData;
 
+    private Skin skin;
+    private boolean xboxAuthed;
+
     private BinaryStream bs = new BinaryStream();
 
-    private ClientChainData(byte[] buffer) {
+    private ClientChainData(byte[] buffer, long time) {
         bs.setBuffer(buffer, 0);
-        decodeChainData();
-        decodeSkinData();
+        ECPublicKey identityKey = decodeChainData(time);
+        decodeSkinData(identityKey);
     }
 
-    private void decodeChainData() {
-        Map<String, List<String>> map = new Gson().fromJson(new String(bs.get(bs.getLInt()), StandardCharsets.UTF_8),
-                new TypeToken<Map<String, List<String>>>() {
-                }.getType());
-        if (map.isEmpty() || !map.containsKey("chain") || map.get("chain").isEmpty()) return;
+    /**
+     * Reads the chain, verifying every token with the key of the one before it. The first token carries the
+     * key it was signed with in its header.
+     *
+     * @param time unix time in seconds every token has to be valid at
+     * @return the identity key the client data has to be signed with, or null if the chain is not valid
+     */
+    private ECPublicKey decodeChainData(long time) {
+        Map<String, List<String>> map = GSON.fromJson(new String(bs.get(bs.getLInt()), StandardCharsets.UTF_8), CHAIN_TYPE);
+        if (map == null || map.isEmpty() || !map.containsKey("chain") || map.get("chain").isEmpty()) return null;
         List<String> chains = map.get("chain");
-        for (String c : chains) {
-            JsonObject chainMap = decodeToken(c);
-            if (chainMap == null) continue;
+
+        boolean verified = true;
+        int mojangIndex = -1;
+        boolean identityRead = false;
+        String signerKey = null;
+        ECPublicKey signer = null;
+        for (int i = 0; i < chains.size(); i++) {
+            JWSObject token = parseToken(chains.get(i));
+            JsonObject chainMap = decodePayload(token);
+            if (chainMap == null) {
+                verified = false;
+                continue;
+            }
+            if (identityRead) {
+                // Anything after the identity is signed with a key the client holds, so it could say anything
+                verified = false;
+                break;
+            }
+            if (verified) {
+                if (signer == null) {
+                    signerKey = token.getHeader().getX509CertURL() == null ? null : token.getHeader().getX509CertURL().toString();
+                    signer = generateKey(signerKey);
+                }
+                if (signer != null && verify(token, signer) && isValidAt(chainMap, time)) {
+                    if (MOJANG_PUBLIC_KEY_BASE64.equals(signerKey)) {
+                        mojangIndex = i;
+                    }
+                } else {
+                    verified = false;
+                }
+            }
             if (chainMap.has("extraData")) {
-                JsonObject extra = chainMap.get("extraData").getAsJsonObject();
-                if (extra.has("displayName")) this.username = extra.get("displayName").getAsString();
-                if (extra.has("identity")) this.clientUUID = UUID.fromString(extra.get("identity").getAsString());
-                if (extra.has("XUID")) this.xuid = extra.get("XUID").getAsString();
+                identityRead = true;
+                // Without Mojang's signature the player is not authenticated and the identity is only a claim
+                if (mojangIndex < 0 || i <= mojangIndex + 1) {
+                    JsonObject extra = chainMap.get("extraData").getAsJsonObject();
+                    if (extra.has("displayName")) this.username = extra.get("displayName").getAsString();
+                    if (extra.has("identity")) this.clientUUID = UUID.fromString(extra.get("identity").getAsString());
+                    if (extra.has("XUID")) this.xuid = extra.get("XUID").getAsString();
+                } else {
+                    verified = false;
+                }
             }
-            if (chainMap.has("identityPublicKey"))
+            if (chainMap.has("identityPublicKey")) {
                 this.identityPublicKey = chainMap.get("identityPublicKey").getAsString();
+                signerKey = this.identityPublicKey;
+                signer = generateKey(signerKey);
+            } else {
+                verified = false;
+            }
         }
+        this.xboxAuthed = verified && mojangIndex >= 0;
+        return verified ? signer : null;
     }
 
-    private void decodeSkinData() {
-        JsonObject skinToken = decodeToken(new String(bs.get(bs.getLInt())));
-        if (skinToken == null) return;
+    private void decodeSkinData(ECPublicKey identityKey) {
+        JWSObject token = parseToken(new String(bs.get(bs.getLInt()), StandardCharsets.UTF_8));
+        JsonObject skinToken = decodePayload(token);
+        if (skinToken == null) {
+            this.xboxAuthed = false;
+            return;
+        }
+        if (identityKey == null || !verify(token, identityKey)) {
+            this.xboxAuthed = false;
+        }
         if (skinToken.has("ClientRandomId")) this.clientId = skinToken.get("ClientRandomId").getAsLong();
         if (skinToken.has("ServerAddress")) this.serverAddress = skinToken.get("ServerAddress").getAsString();
         if (skinToken.has("DeviceModel")) this.deviceModel = skinToken.get("DeviceModel").getAsString();
@@ -188,21 +290,48 @@ public final class ClientChainData implements LoginChainData {
         if (skinToken.has("DefaultInputMode")) this.defaultInputMode = skinToken.get("DefaultInputMode").getAsInt();
         if (skinToken.has("UIProfile")) this.UIProfile = skinToken.get("UIProfile").getAsInt();
         if (skinToken.has("CapeData")) this.capeData = skinToken.get("CapeData").getAsString();
+
+        this.skin = new Skin().setPlayerSkin(true);
+        if (skinToken.has("SkinId")) this.skin.setSkinId(skinToken.get("SkinId").getAsString());
+        if (skinToken.has("SkinData")) this.skin.setSkinData(Base64.getDecoder().decode(skinToken.get("SkinData").getAsString()));
+        if (this.capeData != null) this.skin.setCapeData(Base64.getDecoder().decode(this.capeData));
+        if (skinToken.has("SkinGeometryName")) this.skin.setGeometryName(skinToken.get("SkinGeometryName").getAsString());
+        if (skinToken.has("SkinGeometry")) this.skin.setGeometryData(skinToken.get("SkinGeometry").getAsString());
+    }
+
+    private static JWSObject parseToken(String token) {
+        try {
+            return JWSObject.parse(token);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static JsonObject decodePayload(JWSObject token) {
+        if (token == null) return null;
+        return GSON.fromJson(token.getPayload().toString(), JsonObject.class);
+    }
+
+    private static boolean verify(JWSObject token, ECPublicKey key) {
+        try {
+            return token.verify(new ECDSAVerifier(key));
+        } catch (JOSEException e) {
+            return false;
+        }
+    }
+
+    private static boolean isValidAt(JsonObject claims, long time) {
+        if (claims.has("nbf") && claims.get("nbf").getAsLong() > time) return false;
+        return !claims.has("exp") || claims.get("exp").getAsLong() >= time;
     }
 
-    private JsonObject decodeToken(String token) {
-        String[] base = token.split("\\.");
-        if (base.length < 2) return null;
-        
-        byte[] decode = null;
-    	try {
-        	decode = Base64.getUrlDecoder().decode(base[1]);
-        } catch(IllegalArgumentException e) {
-        	decode = Base64.getDecoder().decode(base[1]);
+    private static ECPublicKey generateKey(String base64) {
+        if (base64 == null) return null;
+        try {
+            return (ECPublicKey) KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(base64)));
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return null;
         }
-        String json = new String(decode, StandardCharsets.UTF_8);
-        //Server.getInstance().getLogger().debug(json);
-        return new Gson().fromJson(json, JsonObject.class);
     }
 
 }
@@ -36,4 +36,12 @@ public interface LoginChainData {
     String getCapeData();
 
     int getUIProfile();
+
+    /**
+     * @return whether the login chain was verified to be signed by Mojang, which means the player is logged in to
+     * Xbox Live
+     */
+    default boolean isXboxAuthed() {
+        return false;
+    }
 }
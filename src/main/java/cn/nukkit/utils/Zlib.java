@@ -48,6 +48,13 @@ public abstract class Zlib {
         return provider.deflate(data, level);
     }
 
+    /**
+     * Compresses part of an array, the data must not be in the buffer of {@link ThreadCache#fbaos}.
+     */
+    public static byte[] deflate(byte[] data, int offset, int length, int level) throws Exception {
+        return provider.deflate(data, offset, length, level);
+    }
+
     public static byte[] deflate(byte[][] data, int level) throws Exception {
         return provider.deflate(data, level);
     }
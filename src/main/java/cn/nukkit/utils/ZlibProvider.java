@@ -1,6 +1,7 @@
 package cn.nukkit.utils;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  *
@@ -11,5 +12,9 @@ interface ZlibProvider {
 
     byte[] deflate(byte[] data, int level) throws IOException;
 
+    default byte[] deflate(byte[] data, int offset, int length, int level) throws IOException {
+        return deflate(Arrays.copyOfRange(data, offset, offset + length), level);
+    }
+
     byte[] inflate(byte[] data, int maxSize) throws IOException;
 }
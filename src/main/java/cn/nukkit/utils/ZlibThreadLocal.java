@@ -40,10 +40,15 @@ public final class ZlibThreadLocal implements ZlibProvider {
 
     @Override
     public byte[] deflate(byte[] data, int level) throws IOException {
+        return deflate(data, 0, data.length, level);
+    }
+
+    @Override
+    public byte[] deflate(byte[] data, int offset, int length, int level) throws IOException {
         Deflater deflater = DEFLATER.get();
         try {
             deflater.setLevel(level);
-            deflater.setInput(data);
+            deflater.setInput(data, offset, length);
             deflater.finish();
             FastByteArrayOutputStream bos = ThreadCache.fbaos.get();
             bos.reset();
@@ -23,6 +23,8 @@
  */
 package co.aikar.timings;
 
+import cn.nukkit.level.ParallelLevelTicker;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -79,7 +81,8 @@ public class Timing implements AutoCloseable {
     }
 
     public Timing startTiming() {
-        if (!this.enabled) {
+        // Timings keep a single thread's call stack, so levels ticked in parallel are not recorded
+        if (!this.enabled || ParallelLevelTicker.isLevelTickThread()) {
             return this;
         }
 
@@ -93,7 +96,7 @@ public class Timing implements AutoCloseable {
     }
 
     public void stopTiming() {
-        if (!this.enabled) {
+        if (!this.enabled || ParallelLevelTicker.isLevelTickThread()) {
             return;
         }
 
@@ -109,6 +112,32 @@ public class Timing implements AutoCloseable {
         }
     }
 
+    /**
+     * Records work that was measured on another thread, such as tasks run by the async pool.
+     * Must be called from the main thread like every other timing call.
+     */
+    public void addSamples(int count, long totalNanos) {
+        if (!this.enabled || count <= 0) {
+            return;
+        }
+
+        this.record.add(totalNanos, count);
+        if (!this.added) {
+            this.added = true;
+            this.timed = true;
+            TimingsManager.TIMINGS.add(this);
+        }
+    }
+
+    /**
+     * Records a counter that is not a duration, such as a queue length. Only the count grows, so the
+     * count per tick shows the value and the time spent stays untouched.
+     * Must be called from the main thread like every other timing call.
+     */
+    public void addCount(int count) {
+        this.addSamples(count, 0);
+    }
+
     void addDiff(long diff) {
         if (TimingsManager.CURRENT == this) {
             TimingsManager.CURRENT = this.parent;
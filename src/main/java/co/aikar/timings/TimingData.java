@@ -35,7 +35,7 @@ class TimingData {
     private long lagTotalTime = 0;
 
     int curTickCount = 0;
-    int curTickTotal = 0;
+    long curTickTotal = 0;
 
     TimingData(int id) {
         this.id = id;
@@ -54,6 +54,11 @@ class TimingData {
         this.curTickTotal += diff;
     }
 
+    void add(long diff, int count) {
+        this.curTickCount += count;
+        this.curTickTotal += diff;
+    }
+
     void tick(boolean violated) {
         this.count += this.curTickCount;
         this.totalTime += this.curTickTotal;
@@ -33,6 +33,7 @@ import cn.nukkit.network.protocol.DataPacket;
 import cn.nukkit.plugin.EventExecutor;
 import cn.nukkit.plugin.MethodEventExecutor;
 import cn.nukkit.plugin.Plugin;
+import cn.nukkit.scheduler.AsyncLane;
 import cn.nukkit.scheduler.PluginTask;
 import cn.nukkit.scheduler.TaskHandler;
 import lombok.extern.log4j.Log4j2;
@@ -235,6 +236,10 @@ public final class Timings {
                 + " (" + event.getSimpleName() + ")", group);
     }
 
+    public static Timing getAsyncLaneTiming(AsyncLane lane, String kind) {
+        return TimingsManager.getTiming(DEFAULT_GROUP.name, "Async " + lane.getDisplayName() + " - " + kind, null);
+    }
+
     public static Timing getEntityTiming(Entity entity) {
         return TimingsManager.getTiming(DEFAULT_GROUP.name, "## Entity Tick: " + entity.getClass().getSimpleName(), tickEntityTimer);
     }
@@ -0,0 +1,270 @@
+package cn.nukkit.test;
+
+import cn.nukkit.Player;
+import cn.nukkit.block.Block;
+import cn.nukkit.blockentity.BlockEntity;
+import cn.nukkit.blockentity.BlockEntityChest;
+import cn.nukkit.blockentity.BlockEntityFurnace;
+import cn.nukkit.blockentity.BlockEntityHopper;
+import cn.nukkit.inventory.FurnaceInventory;
+import cn.nukkit.inventory.FurnaceRecipe;
+import cn.nukkit.item.Item;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.FullChunk;
+import cn.nukkit.math.Vector3;
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.scheduler.BlockEntityScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The timing wheel of {@link BlockEntityScheduler}: timers run on their tick however far away they are or however
+ * many ticks were skipped, and a furnace that sleeps while it smelts ends up like one that is ticked every tick.
+ */
+@DisplayName("Block entity scheduler")
+class BlockEntitySchedulerTest {
+
+    private LevelFixture fixture;
+    private Level level;
+    private BlockEntityScheduler scheduler;
+    private long currentTick;
+
+    @BeforeEach
+    void setUp() {
+        this.fixture = LevelFixture.open();
+        this.level = this.fixture.createLevel();
+        LevelFixture.loadChunks(this.level, 0, 0, 0, 0);
+        this.scheduler = new BlockEntityScheduler(this.level, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.fixture.close();
+    }
+
+    @DisplayName("Timers run on their tick, also more than a round of the wheel away")
+    @Test
+    void testLongTimers() {
+        int[] delays = {1, 255, 256, 257, 300, 512, 1000};
+        List<Recorder> recorders = new ArrayList<>();
+        for (int i = 0; i < delays.length; i++) {
+            Recorder recorder = this.create(i);
+            this.scheduler.schedule(recorder, delays[i]);
+            recorders.add(recorder);
+        }
+        this.tickUntil(1100);
+        for (int i = 0; i < delays.length; i++) {
+            assertEquals(Collections.singletonList((long) delays[i]), recorders.get(i).updates, "delay " + delays[i]);
+        }
+        assertEquals(0, this.scheduler.getSleepingCount());
+    }
+
+    @DisplayName("Skipped ticks run every timer that became due")
+    @Test
+    void testLagJump() {
+        Recorder near = this.create(0);
+        Recorder far = this.create(1);
+        Recorder later = this.create(2);
+        this.scheduler.schedule(near, 10);
+        this.scheduler.schedule(far, 300);
+        this.scheduler.schedule(later, 5000);
+
+        this.tick(2000);
+        assertEquals(Collections.singletonList(2000L), near.updates);
+        assertEquals(Collections.singletonList(2000L), far.updates);
+        assertTrue(later.updates.isEmpty());
+
+        this.tick(4999);
+        assertTrue(later.updates.isEmpty());
+        this.tick(5300);
+        assertEquals(Collections.singletonList(5300L), later.updates);
+    }
+
+    @DisplayName("The earlier of two timers is kept")
+    @Test
+    void testEarlierTimer() {
+        Recorder later = this.create(0);
+        this.scheduler.schedule(later, 50);
+        this.scheduler.schedule(later, 20);
+        Recorder earlier = this.create(1);
+        this.scheduler.schedule(earlier, 20);
+        this.scheduler.schedule(earlier, 300);
+        assertEquals(2, this.scheduler.getSleepingCount());
+
+        this.tickUntil(400);
+        assertEquals(Collections.singletonList(20L), later.updates);
+        assertEquals(Collections.singletonList(20L), earlier.updates);
+    }
+
+    @DisplayName("Removed block entities do not wake up")
+    @Test
+    void testRemoveWhileSleeping() {
+        Recorder removed = this.create(0);
+        Recorder kept = this.create(1);
+        this.scheduler.schedule(removed, 100);
+        this.scheduler.schedule(kept, 100);
+        this.scheduler.schedule(this.create(2), 700);
+        this.tickUntil(50);
+
+        this.scheduler.remove(removed);
+        assertFalse(this.scheduler.isScheduled(removed));
+        assertTrue(this.scheduler.isScheduled(kept));
+        this.tickUntil(200);
+        assertTrue(removed.updates.isEmpty());
+        assertEquals(Collections.singletonList(100L), kept.updates);
+        assertEquals(1, this.scheduler.getSleepingCount());
+    }
+
+    @DisplayName("Woken block entities run until they go to sleep")
+    @Test
+    void testWake() {
+        Recorder recorder = this.create(0);
+        recorder.runFor = 3;
+        this.scheduler.wake(recorder);
+        this.tickUntil(10);
+        assertEquals(Arrays.asList(1L, 2L, 3L), recorder.updates);
+        assertEquals(0, this.scheduler.getActiveCount());
+    }
+
+    @DisplayName("A sleeping furnace smelts like one that is watched")
+    @Test
+    void testFurnace() throws ReflectiveOperationException {
+        when(this.level.getServer().getCraftingManager().matchFurnaceRecipe(any(Item.class))).thenAnswer(invocation -> {
+            Item input = invocation.getArgument(0);
+            return input.getId() == Block.IRON_ORE ? new FurnaceRecipe(Item.get(Item.IRON_INGOT), Item.get(Block.IRON_ORE)) : null;
+        });
+        Field tickField = Level.class.getDeclaredField("levelCurrentTick");
+        tickField.setAccessible(true);
+        BlockEntityScheduler scheduler = this.level.getBlockEntityScheduler();
+        long tick = this.level.getCurrentTick();
+
+        // Ten ores and one coal: eight are smelted before the fuel runs out. The coal added at tick 2000 smelts the
+        // other two, then burns with nothing to smelt, which the sleeping furnace sleeps through in one timer
+        BlockEntityFurnace sleeping = this.createFurnace(new Vector3(2, 10, 2));
+        BlockEntityFurnace watched = this.createFurnace(new Vector3(6, 10, 2));
+        watched.getInventory().getViewers().add(mock(Player.class));
+        for (BlockEntityFurnace furnace : new BlockEntityFurnace[]{sleeping, watched}) {
+            FurnaceInventory inventory = furnace.getInventory();
+            inventory.setSmelting(Item.get(Block.IRON_ORE, 0, 10));
+            inventory.setFuel(Item.get(Item.COAL, 0, 1));
+        }
+
+        for (int i = 1; i <= 3700; i++) {
+            tickField.setLong(this.level, ++tick);
+            if (i == 2000) {
+                sleeping.getInventory().setFuel(Item.get(Item.COAL, 0, 1));
+                watched.getInventory().setFuel(Item.get(Item.COAL, 0, 1));
+            }
+            scheduler.tick(tick);
+            assertEquals(watched.getInventory().getResult().getCount(), sleeping.getInventory().getResult().getCount(), "tick " + i);
+            if (i == 100 || i == 3000) {
+                // Only the watched furnace is ticked
+                assertEquals(1, scheduler.getSleepingCount());
+                assertEquals(1, scheduler.getActiveCount());
+            }
+        }
+
+        for (BlockEntityFurnace furnace : new BlockEntityFurnace[]{sleeping, watched}) {
+            assertEquals(10, furnace.getInventory().getResult().getCount());
+            assertEquals(0, furnace.getInventory().getSmelting().getCount());
+            assertEquals(0, furnace.getInventory().getFuel().getCount());
+        }
+        assertEquals(watched.getBurnTime(), sleeping.getBurnTime());
+        assertEquals(watched.getCookTime(), sleeping.getCookTime());
+    }
+
+    @DisplayName("A hopper under a double chest wakes up for items put in the other half")
+    @Test
+    void testDoubleChest() throws ReflectiveOperationException {
+        Field tickField = Level.class.getDeclaredField("levelCurrentTick");
+        tickField.setAccessible(true);
+        BlockEntityScheduler scheduler = this.level.getBlockEntityScheduler();
+        long tick = this.level.getCurrentTick();
+
+        BlockEntityChest filled = (BlockEntityChest) this.createBlockEntity(new Vector3(2, 10, 2), Block.CHEST, BlockEntity.CHEST);
+        BlockEntityChest above = (BlockEntityChest) this.createBlockEntity(new Vector3(3, 10, 2), Block.CHEST, BlockEntity.CHEST);
+        assertTrue(filled.pairWith(above));
+        BlockEntityHopper hopper = (BlockEntityHopper) this.createBlockEntity(new Vector3(3, 9, 2), Block.HOPPER_BLOCK, BlockEntity.HOPPER);
+
+        for (int i = 0; i < 20; i++) {
+            tickField.setLong(this.level, ++tick);
+            scheduler.tick(tick);
+        }
+        assertFalse(scheduler.isScheduled(hopper));
+
+        filled.getRealInventory().setItem(0, Item.get(Item.IRON_INGOT, 0, 1));
+        for (int i = 0; i < 20; i++) {
+            tickField.setLong(this.level, ++tick);
+            scheduler.tick(tick);
+        }
+        assertTrue(filled.getRealInventory().getItem(0).isNull());
+        assertEquals(Item.IRON_INGOT, hopper.getInventory().getItem(0).getId());
+    }
+
+    private void tickUntil(long tick) {
+        while (this.currentTick < tick) {
+            this.tick(this.currentTick + 1);
+        }
+    }
+
+    private void tick(long tick) {
+        this.currentTick = tick;
+        this.scheduler.tick(tick);
+    }
+
+    private Recorder create(int x) {
+        return new Recorder(this.level.getChunk(0, 0), BlockEntity.getDefaultCompound(new Vector3(x, 10, 0), "Recorder"));
+    }
+
+    private BlockEntityFurnace createFurnace(Vector3 pos) {
+        return (BlockEntityFurnace) this.createBlockEntity(pos, Block.FURNACE, BlockEntity.FURNACE);
+    }
+
+    private BlockEntity createBlockEntity(Vector3 pos, int blockId, String type) {
+        FullChunk chunk = this.level.getChunk(pos.getFloorX() >> 4, pos.getFloorZ() >> 4);
+        chunk.setBlock(pos.getFloorX() & 0x0f, pos.getFloorY(), pos.getFloorZ() & 0x0f, blockId);
+        CompoundTag nbt = BlockEntity.getDefaultCompound(pos, type);
+        switch (type) {
+            case BlockEntity.CHEST:
+                return new BlockEntityChest(chunk, nbt);
+            case BlockEntity.HOPPER:
+                return new BlockEntityHopper(chunk, nbt);
+            default:
+                return new BlockEntityFurnace(chunk, nbt);
+        }
+    }
+
+    private class Recorder extends BlockEntity {
+
+        private final List<Long> updates = new ArrayList<>();
+        private int runFor;
+
+        private Recorder(FullChunk chunk, CompoundTag nbt) {
+            super(chunk, nbt);
+        }
+
+        @Override
+        public boolean isBlockEntityValid() {
+            return true;
+        }
+
+        @Override
+        public boolean onUpdate() {
+            this.updates.add(BlockEntitySchedulerTest.this.currentTick);
+            return this.updates.size() < this.runFor;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.light.BlockLightEngine;
+import cn.nukkit.utils.Hash;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Compares {@link BlockLightEngine} with the breadth-first passes Level.updateBlockLight used before, kept below
+ * as {@link #legacyUpdate(Level, LongArrayList)}. Both levels get the same blocks and the same updates.
+ */
+@DisplayName("Block light")
+class BlockLightTest {
+
+    private static final int MIN = -8;
+    private static final int MAX = 23;
+    private static final int MIN_Y = 20;
+    private static final int MAX_Y = 50;
+    private static final int SIZE_XZ = MAX - MIN + 33;
+    private static final int SIZE_Y = MAX_Y - MIN_Y + 33;
+    private static final int[] OFFSET_X = {-1, 1, 0, 0, 0, 0};
+    private static final int[] OFFSET_Y = {0, 0, -1, 1, 0, 0};
+    private static final int[] OFFSET_Z = {0, 0, 0, 0, -1, 1};
+
+    private LevelFixture fixture;
+    private Level level;
+    private Level legacy;
+    private BlockLightEngine engine;
+    private final LongArrayList changed = new LongArrayList();
+
+    @BeforeEach
+    void setUp() {
+        this.fixture = LevelFixture.open();
+        this.level = this.fixture.createLevel();
+        this.legacy = this.fixture.createLevel();
+        LevelFixture.loadChunks(this.level, -2, -2, 3, 3);
+        LevelFixture.loadChunks(this.legacy, -2, -2, 3, 3);
+        this.engine = new BlockLightEngine(this.level);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.fixture.close();
+    }
+
+    @DisplayName("Single torch")
+    @Test
+    void testSingleTorch() {
+        this.set(0, 30, 0, Block.TORCH);
+        this.update();
+        assertEquals(14, this.level.getBlockLightAt(0, 30, 0));
+        assertEquals(13, this.level.getBlockLightAt(1, 30, 0));
+        assertEquals(2, this.level.getBlockLightAt(12, 30, 0));
+        // A neighbour is only raised when it gains two levels, light 1 is never set by spreading
+        assertEquals(0, this.level.getBlockLightAt(13, 30, 0));
+        this.assertSameLight();
+
+        this.set(0, 30, 0, Block.AIR);
+        this.update();
+        assertEquals(0, this.level.getBlockLightAt(0, 30, 0));
+        this.assertSameLight();
+    }
+
+    @DisplayName("Placing and removing lights one at a time")
+    @Test
+    void testOneAtATime() {
+        Random random = new Random(42);
+        this.placeObstacles(random);
+
+        LongArrayList lights = this.randomLights(random);
+        for (int i = 0; i < lights.size(); i++) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light), Hash.hashBlockY(light), Hash.hashBlockZ(light), random.nextBoolean() ? Block.TORCH : Block.GLOWSTONE);
+            this.update();
+        }
+        this.assertSameLight();
+
+        // Walls next to the lights, some of them cut light off. The old passes skipped positions they had visited
+        // before even when those were raised again later, so from here on they leave spots darker than their
+        // neighbours and the new engine is checked against a recompute instead.
+        for (int i = 0; i < lights.size(); i += 3) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light) + 1, Hash.hashBlockY(light), Hash.hashBlockZ(light), Block.STONE);
+            this.update();
+        }
+        this.assertSpread();
+
+        for (int i = 0; i < lights.size(); i++) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light), Hash.hashBlockY(light), Hash.hashBlockZ(light), Block.AIR);
+            this.update();
+            if (i % 20 == 0) {
+                this.assertSpread();
+            }
+        }
+        this.assertSameLight();
+        this.assertDark();
+    }
+
+    /**
+     * With many changes in one update the old passes leave spots darker than their neighbours even when only
+     * lights are placed, see {@link #testOneAtATime()}.
+     */
+    @DisplayName("Placing and removing lights in bulk")
+    @Test
+    void testBulk() {
+        Random random = new Random(42);
+        this.placeObstacles(random);
+
+        LongArrayList lights = this.randomLights(random);
+        for (int i = 0; i < lights.size(); i++) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light), Hash.hashBlockY(light), Hash.hashBlockZ(light), random.nextBoolean() ? Block.TORCH : Block.GLOWSTONE);
+        }
+        this.update();
+        this.assertSpread();
+
+        for (int i = 0; i < lights.size(); i += 3) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light) + 1, Hash.hashBlockY(light), Hash.hashBlockZ(light), Block.STONE);
+        }
+        this.update();
+        this.assertSpread();
+
+        for (int i = 0; i < lights.size(); i += 2) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light), Hash.hashBlockY(light), Hash.hashBlockZ(light), Block.AIR);
+        }
+        this.update();
+        this.assertSpread();
+
+        for (int i = 0; i < lights.size(); i++) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light), Hash.hashBlockY(light), Hash.hashBlockZ(light), Block.AIR);
+        }
+        this.update();
+        this.assertSameLight();
+        this.assertDark();
+    }
+
+    @DisplayName("Light across chunk borders")
+    @Test
+    void testChunkBorders() {
+        for (int x = -1; x <= 16; x += 17) {
+            for (int z = -1; z <= 16; z += 17) {
+                this.set(x, 30, z, Block.GLOWSTONE);
+            }
+        }
+        this.set(15, 31, 15, Block.LAVA);
+        this.update();
+        this.assertSameLight();
+
+        for (int y = 25; y <= 35; y++) {
+            for (int z = -8; z <= 23; z++) {
+                this.set(0, y, z, Block.STONE);
+            }
+        }
+        this.update();
+        this.assertSameLight();
+    }
+
+    @DisplayName("Lighting a chunk from scratch")
+    @Test
+    void testPopulate() {
+        Random random = new Random(7);
+        this.placeObstacles(random);
+        LongArrayList lights = this.randomLights(random);
+        for (int i = 0; i < lights.size(); i++) {
+            long light = lights.getLong(i);
+            this.set(Hash.hashBlockX(light), Hash.hashBlockY(light), Hash.hashBlockZ(light), random.nextBoolean() ? Block.TORCH : Block.GLOWSTONE);
+        }
+        this.changed.clear();
+
+        BaseFullChunk[] area = new BaseFullChunk[9];
+        for (int i = 0; i < area.length; i++) {
+            area[i] = this.legacy.getChunk(i % 3 - 1, i / 3 - 1);
+        }
+        BlockLightEngine.populate(area);
+
+        int[] expected = this.recompute();
+        int lit = 0;
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = MIN_Y - 16; y <= MAX_Y + 16; y++) {
+                    assertEquals(expected[this.index(x, y, z)], this.legacy.getBlockLightAt(x, y, z), "block light at " + x + ", " + y + ", " + z);
+                    if (expected[this.index(x, y, z)] > 0) {
+                        lit++;
+                    }
+                }
+            }
+        }
+        assertTrue(lit > 1000);
+    }
+
+    private void placeObstacles(Random random) {
+        for (int i = 0; i < 600; i++) {
+            this.set(this.randomX(random), this.randomY(random), this.randomX(random), random.nextBoolean() ? Block.STONE : Block.GLASS);
+        }
+        this.update();
+    }
+
+    private LongArrayList randomLights(Random random) {
+        LongArrayList lights = new LongArrayList();
+        for (int i = 0; i < 120; i++) {
+            lights.add(Hash.hashBlock(this.randomX(random), this.randomY(random), this.randomX(random)));
+        }
+        return lights;
+    }
+
+    private int randomX(Random random) {
+        return MIN + random.nextInt(MAX - MIN + 1);
+    }
+
+    private int randomY(Random random) {
+        return MIN_Y + random.nextInt(MAX_Y - MIN_Y + 1);
+    }
+
+    /**
+     * Sets the block in both levels without touching light, the update is run by {@link #update()}.
+     */
+    private void set(int x, int y, int z, int id) {
+        this.level.getChunk(x >> 4, z >> 4).setBlock(x & 0x0f, y, z & 0x0f, id);
+        this.legacy.getChunk(x >> 4, z >> 4).setBlock(x & 0x0f, y, z & 0x0f, id);
+        this.engine.queue(x, y, z);
+        this.changed.add(Hash.hashBlock(x, y, z));
+    }
+
+    private void update() {
+        this.engine.process();
+        legacyUpdate(this.legacy, this.changed);
+        this.changed.clear();
+    }
+
+    private void assertSameLight() {
+        for (int x = MIN - 16; x <= MAX + 16; x++) {
+            for (int z = MIN - 16; z <= MAX + 16; z++) {
+                for (int y = MIN_Y - 16; y <= MAX_Y + 16; y++) {
+                    int expected = this.legacy.getBlockLightAt(x, y, z);
+                    int actual = this.level.getBlockLightAt(x, y, z);
+                    if (expected != actual) {
+                        fail("Block light at " + x + ", " + y + ", " + z + " is " + actual + ", expected " + expected);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks what spreading must leave behind: no neighbour that could still be raised, and no light brighter than
+     * a full recompute of the area.
+     */
+    private void assertSpread() {
+        int[] brightest = this.recompute();
+        for (int x = MIN - 15; x <= MAX + 15; x++) {
+            for (int z = MIN - 15; z <= MAX + 15; z++) {
+                for (int y = MIN_Y - 15; y <= MAX_Y + 15; y++) {
+                    int light = this.level.getBlockLightAt(x, y, z);
+                    if (light > brightest[this.index(x, y, z)]) {
+                        fail("Block light at " + x + ", " + y + ", " + z + " is " + light + ", a recompute gives " + brightest[this.index(x, y, z)]);
+                    }
+                    int spread = light - Block.lightFilter[this.level.getBlockIdAt(x, y, z)];
+                    if (spread < 1) {
+                        continue;
+                    }
+                    for (int face = 0; face < 6; face++) {
+                        int nx = x + OFFSET_X[face];
+                        int ny = y + OFFSET_Y[face];
+                        int nz = z + OFFSET_Z[face];
+                        if (this.level.getBlockLightAt(nx, ny, nz) < spread - 1) {
+                            fail("Block light at " + nx + ", " + ny + ", " + nz + " was not raised from " + x + ", " + y + ", " + z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Block light of the area around the test blocks spread from scratch, brightest sources first.
+     */
+    private int[] recompute() {
+        IntArrayList[] levels = new IntArrayList[16];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new IntArrayList();
+        }
+        int[] light = new int[SIZE_XZ * SIZE_XZ * SIZE_Y];
+        for (int x = MIN - 16; x <= MAX + 16; x++) {
+            for (int z = MIN - 16; z <= MAX + 16; z++) {
+                for (int y = MIN_Y - 16; y <= MAX_Y + 16; y++) {
+                    int emitted = Block.light[this.level.getBlockIdAt(x, y, z)];
+                    if (emitted > 0) {
+                        light[this.index(x, y, z)] = emitted;
+                        levels[emitted].add(this.index(x, y, z));
+                    }
+                }
+            }
+        }
+        for (int level = 15; level > 0; level--) {
+            IntArrayList nodes = levels[level];
+            for (int i = 0; i < nodes.size(); i++) {
+                int index = nodes.getInt(i);
+                if (light[index] != level) {
+                    continue;
+                }
+                int x = index / (SIZE_XZ * SIZE_Y) + MIN - 16;
+                int z = index / SIZE_Y % SIZE_XZ + MIN - 16;
+                int y = index % SIZE_Y + MIN_Y - 16;
+                int spread = level - Block.lightFilter[this.level.getBlockIdAt(x, y, z)];
+                if (spread < 1) {
+                    continue;
+                }
+                for (int face = 0; face < 6; face++) {
+                    int nx = x + OFFSET_X[face];
+                    int ny = y + OFFSET_Y[face];
+                    int nz = z + OFFSET_Z[face];
+                    if (nx < MIN - 16 || nx > MAX + 16 || nz < MIN - 16 || nz > MAX + 16 || ny < MIN_Y - 16 || ny > MAX_Y + 16) {
+                        continue;
+                    }
+                    int neighbour = this.index(nx, ny, nz);
+                    if (light[neighbour] < spread - 1) {
+                        light[neighbour] = spread;
+                        if (spread > 1) {
+                            levels[spread].add(neighbour);
+                        }
+                    }
+                }
+            }
+        }
+        return light;
+    }
+
+    private int index(int x, int y, int z) {
+        return ((x - MIN + 16) * SIZE_XZ + z - MIN + 16) * SIZE_Y + y - MIN_Y + 16;
+    }
+
+    private void assertDark() {
+        for (int x = MIN - 16; x <= MAX + 16; x++) {
+            for (int z = MIN - 16; z <= MAX + 16; z++) {
+                for (int y = MIN_Y - 16; y <= MAX_Y + 16; y++) {
+                    if (this.level.getBlockLightAt(x, y, z) != 0) {
+                        fail("Block light left at " + x + ", " + y + ", " + z);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Level.updateBlockLight before it was replaced by {@link BlockLightEngine}.
+     */
+    private static void legacyUpdate(Level level, LongArrayList changed) {
+        Queue<Long> lightPropagationQueue = new ArrayDeque<>();
+        Queue<Object[]> lightRemovalQueue = new ArrayDeque<>();
+        LongOpenHashSet visited = new LongOpenHashSet();
+        LongOpenHashSet removalVisited = new LongOpenHashSet();
+
+        for (int i = 0; i < changed.size(); i++) {
+            long hash = changed.getLong(i);
+            int x = Hash.hashBlockX(hash);
+            int y = Hash.hashBlockY(hash);
+            int z = Hash.hashBlockZ(hash);
+            int oldLevel = level.getBlockLightAt(x, y, z);
+            int newLevel = Block.light[level.getBlockIdAt(x, y, z)];
+            if (oldLevel != newLevel) {
+                level.setBlockLightAt(x, y, z, newLevel);
+                if (newLevel < oldLevel) {
+                    removalVisited.add(hash);
+                    lightRemovalQueue.add(new Object[]{hash, oldLevel});
+                } else {
+                    visited.add(hash);
+                    lightPropagationQueue.add(hash);
+                }
+            }
+        }
+
+        while (!lightRemovalQueue.isEmpty()) {
+            Object[] val = lightRemovalQueue.poll();
+            long node = (long) val[0];
+            int x = Hash.hashBlockX(node);
+            int y = Hash.hashBlockY(node);
+            int z = Hash.hashBlockZ(node);
+            int lightLevel = (int) val[1];
+
+            legacyRemove(level, x - 1, y, z, lightLevel, lightRemovalQueue, lightPropagationQueue, removalVisited, visited);
+            legacyRemove(level, x + 1, y, z, lightLevel, lightRemovalQueue, lightPropagationQueue, removalVisited, visited);
+            legacyRemove(level, x, y - 1, z, lightLevel, lightRemovalQueue, lightPropagationQueue, removalVisited, visited);
+            legacyRemove(level, x, y + 1, z, lightLevel, lightRemovalQueue, lightPropagationQueue, removalVisited, visited);
+            legacyRemove(level, x, y, z - 1, lightLevel, lightRemovalQueue, lightPropagationQueue, removalVisited, visited);
+            legacyRemove(level, x, y, z + 1, lightLevel, lightRemovalQueue, lightPropagationQueue, removalVisited, visited);
+        }
+
+        while (!lightPropagationQueue.isEmpty()) {
+            long node = lightPropagationQueue.poll();
+            int x = Hash.hashBlockX(node);
+            int y = Hash.hashBlockY(node);
+            int z = Hash.hashBlockZ(node);
+            int lightLevel = level.getBlockLightAt(x, y, z) - Block.lightFilter[level.getBlockIdAt(x, y, z)];
+
+            if (lightLevel >= 1) {
+                legacySpread(level, x - 1, y, z, lightLevel, lightPropagationQueue, visited);
+                legacySpread(level, x + 1, y, z, lightLevel, lightPropagationQueue, visited);
+                legacySpread(level, x, y - 1, z, lightLevel, lightPropagationQueue, visited);
+                legacySpread(level, x, y + 1, z, lightLevel, lightPropagationQueue, visited);
+                legacySpread(level, x, y, z - 1, lightLevel, lightPropagationQueue, visited);
+                legacySpread(level, x, y, z + 1, lightLevel, lightPropagationQueue, visited);
+            }
+        }
+    }
+
+    private static void legacyRemove(Level level, int x, int y, int z, int currentLight, Queue<Object[]> queue,
+                                     Queue<Long> spreadQueue, LongOpenHashSet visited, LongOpenHashSet spreadVisited) {
+        int current = level.getBlockLightAt(x, y, z);
+        long index = Hash.hashBlock(x, y, z);
+        if (current != 0 && current < currentLight) {
+            level.setBlockLightAt(x, y, z, 0);
+            if (current > 1 && visited.add(index)) {
+                queue.add(new Object[]{index, current});
+            }
+        } else if (current >= currentLight && spreadVisited.add(index)) {
+            spreadQueue.add(index);
+        }
+    }
+
+    private static void legacySpread(Level level, int x, int y, int z, int currentLight, Queue<Long> queue,
+                                     LongOpenHashSet visited) {
+        int current = level.getBlockLightAt(x, y, z);
+        long index = Hash.hashBlock(x, y, z);
+        if (current < currentLight - 1) {
+            level.setBlockLightAt(x, y, z, currentLight);
+            if (visited.add(index) && currentLight > 1) {
+                queue.add(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.block.BlockStone;
+import cn.nukkit.level.Level;
+import cn.nukkit.math.AxisAlignedBB;
+import cn.nukkit.math.SimpleAxisAlignedBB;
+import cn.nukkit.math.Vector3;
+import cn.nukkit.scheduler.BlockUpdateScheduler;
+import cn.nukkit.utils.BlockUpdateEntry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The timing wheel of {@link BlockUpdateScheduler}: updates in the near wheel, the far wheel and the overflow map
+ * run on their tick, in the order they were scheduled, and can be found and cancelled through the chunk index.
+ */
+@DisplayName("Block update scheduler")
+class BlockUpdateSchedulerTest {
+
+    private LevelFixture fixture;
+    private Level level;
+    private BlockUpdateScheduler scheduler;
+    private long currentTick;
+    private final List<String> fired = new ArrayList<>();
+    private final List<Long> firedTicks = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        this.fixture = LevelFixture.open();
+        this.level = this.fixture.createLevel();
+        LevelFixture.loadChunks(this.level, 0, 0, 1, 1);
+        this.scheduler = new BlockUpdateScheduler(this.level, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.fixture.close();
+    }
+
+    @DisplayName("Updates run on their tick in every wheel")
+    @Test
+    void testDueTicks() {
+        long[] due = {1, 5, 255, 256, 300, 1000, 16383, 16384, 20000, 40000, 100000};
+        for (int i = 0; i < due.length; i++) {
+            this.schedule("u" + i, i, 10, 0, due[i]);
+        }
+        for (this.currentTick = 1; this.currentTick <= 100001; this.currentTick++) {
+            this.scheduler.tick(this.currentTick);
+        }
+        assertEquals(due.length, this.firedTicks.size());
+        for (int i = 0; i < due.length; i++) {
+            assertEquals(due[i], (long) this.firedTicks.get(i), "update " + i);
+        }
+    }
+
+    @DisplayName("Skipped ticks run everything that became due, in order")
+    @Test
+    void testLagJump() {
+        this.schedule("late", 0, 10, 0, 40000);
+        this.schedule("far", 1, 10, 0, 700);
+        this.schedule("near", 2, 10, 0, 3);
+        this.schedule("later", 3, 10, 0, 90000);
+
+        this.currentTick = 50000;
+        this.scheduler.tick(this.currentTick);
+        assertEquals(Arrays.asList("near", "far", "late"), this.fired);
+
+        this.currentTick = 90000;
+        this.scheduler.tick(this.currentTick);
+        assertEquals(Arrays.asList("near", "far", "late", "later"), this.fired);
+    }
+
+    @DisplayName("Updates of the same tick run in the order they were scheduled")
+    @Test
+    void testSameTickOrder() {
+        // Scheduled into the far wheel, then cascaded, then joined by updates scheduled into the near wheel
+        this.schedule("a", 0, 10, 0, 600);
+        this.schedule("b", 1, 10, 0, 600);
+        this.scheduler.tick(this.currentTick = 520);
+        this.schedule("c", 2, 10, 0, 600);
+        this.schedule("d", 3, 10, 0, 600);
+        this.scheduler.tick(this.currentTick = 600);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), this.fired);
+    }
+
+    @DisplayName("Updates in the past run on the next tick")
+    @Test
+    void testPastDelay() {
+        this.scheduler.tick(this.currentTick = 100);
+        this.schedule("past", 0, 10, 0, 20);
+        this.scheduler.tick(this.currentTick = 101);
+        assertEquals(Arrays.asList(101L), this.firedTicks);
+    }
+
+    @DisplayName("Contains and remove")
+    @Test
+    void testRemove() {
+        BlockUpdateEntry near = this.schedule("near", 0, 10, 0, 10);
+        BlockUpdateEntry far = this.schedule("far", 1, 10, 0, 1000);
+        BlockUpdateEntry overflow = this.schedule("overflow", 2, 10, 0, 50000);
+        this.schedule("kept", 3, 10, 0, 1000);
+
+        assertTrue(this.scheduler.contains(near));
+        assertTrue(this.scheduler.remove(near));
+        assertFalse(this.scheduler.contains(near));
+        assertFalse(this.scheduler.remove(near));
+        assertTrue(this.scheduler.remove(far));
+        assertTrue(this.scheduler.remove(new Vector3(2, 10, 0)));
+        assertFalse(this.scheduler.contains(overflow));
+
+        this.scheduler.tick(this.currentTick = 60000);
+        assertEquals(Arrays.asList("kept"), this.fired);
+    }
+
+    @DisplayName("Pending updates by chunk and by area")
+    @Test
+    void testPendingUpdates() {
+        BlockUpdateEntry first = this.schedule("first", 1, 10, 1, 10);
+        BlockUpdateEntry second = this.schedule("second", 5, 10, 5, 5000);
+        BlockUpdateEntry other = this.schedule("other", 17, 10, 1, 10);
+
+        Set<BlockUpdateEntry> chunk = this.scheduler.getPendingBlockUpdates(0, 0);
+        assertEquals(2, chunk.size());
+        assertTrue(chunk.contains(first));
+        assertTrue(chunk.contains(second));
+        assertNull(this.scheduler.getPendingBlockUpdates(0, 1));
+
+        AxisAlignedBB area = new SimpleAxisAlignedBB(0, 0, 0, 18, 256, 4);
+        Set<BlockUpdateEntry> inArea = this.scheduler.getPendingBlockUpdates(area);
+        assertEquals(2, inArea.size());
+        assertTrue(inArea.contains(first));
+        assertTrue(inArea.contains(other));
+
+        this.scheduler.tick(this.currentTick = 10);
+        assertEquals(1, this.scheduler.getPendingBlockUpdates(0, 0).size());
+        assertNull(this.scheduler.getPendingBlockUpdates(1, 0));
+    }
+
+    @DisplayName("An update is pending while it runs")
+    @Test
+    void testPendingWhileDispatching() {
+        Vector3 pos = new Vector3(3, 10, 3);
+        List<Boolean> pending = new ArrayList<>();
+        Block block = new BlockStone() {
+            @Override
+            public int onUpdate(int type) {
+                pending.add(BlockUpdateSchedulerTest.this.scheduler.isBlockTickPending(pos, this));
+                return 0;
+            }
+        };
+        this.place(block, pos);
+        this.scheduler.add(new BlockUpdateEntry(pos, block, 5, 0));
+        assertFalse(this.scheduler.isBlockTickPending(pos, block));
+
+        this.scheduler.tick(this.currentTick = 5);
+        assertEquals(Arrays.asList(true), pending);
+        assertFalse(this.scheduler.isBlockTickPending(pos, block));
+    }
+
+    @DisplayName("Updates of replaced blocks are dropped")
+    @Test
+    void testReplacedBlock() {
+        this.schedule("replaced", 4, 10, 4, 5);
+        this.level.getChunk(0, 0).setBlock(4, 10, 4, Block.DIRT);
+        this.scheduler.tick(this.currentTick = 5);
+        assertTrue(this.fired.isEmpty());
+    }
+
+    private BlockUpdateEntry schedule(String name, int x, int y, int z, long tick) {
+        Vector3 pos = new Vector3(x, y, z);
+        Block block = new BlockStone() {
+            @Override
+            public int onUpdate(int type) {
+                assertEquals(Level.BLOCK_UPDATE_SCHEDULED, type);
+                BlockUpdateSchedulerTest.this.fired.add(name);
+                BlockUpdateSchedulerTest.this.firedTicks.add(BlockUpdateSchedulerTest.this.currentTick);
+                return 0;
+            }
+        };
+        this.place(block, pos);
+        BlockUpdateEntry entry = new BlockUpdateEntry(pos, block, tick, 0);
+        this.scheduler.add(entry);
+        return entry;
+    }
+
+    private void place(Block block, Vector3 pos) {
+        block.x = pos.x;
+        block.y = pos.y;
+        block.z = pos.z;
+        block.level = this.level;
+        this.level.getChunk(pos.getFloorX() >> 4, pos.getFloorZ() >> 4)
+                .setBlock(pos.getFloorX() & 0x0f, pos.getFloorY(), pos.getFloorZ() & 0x0f, block.getId());
+    }
+}
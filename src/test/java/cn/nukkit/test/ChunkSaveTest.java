@@ -0,0 +1,91 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.anvil.Anvil;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.format.generic.BaseRegionLoader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Autosaves that write chunks on the I/O lane: a chunk whose write failed is saved again instead of being taken as
+ * saved. Without a server the I/O lane is never available, so writes run right away.
+ */
+@DisplayName("Chunk saving")
+class ChunkSaveTest {
+
+    private LevelFixture fixture;
+    private Level level;
+    private Anvil anvil;
+    private Method processAutoSave;
+
+    @BeforeEach
+    void setUp() throws ReflectiveOperationException {
+        this.fixture = LevelFixture.open();
+        this.level = this.fixture.createLevel();
+        LevelFixture.loadChunks(this.level, 0, 0, 1, 0);
+        this.level.setAutoSave(true);
+        this.anvil = (Anvil) this.level.getProvider();
+        this.processAutoSave = Level.class.getDeclaredMethod("processAutoSave");
+        this.processAutoSave.setAccessible(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.fixture.close();
+    }
+
+    @DisplayName("Written chunks are no longer changed")
+    @Test
+    void testSave() throws ReflectiveOperationException {
+        BaseFullChunk chunk = this.level.getChunk(0, 0);
+        chunk.setBlock(1, 10, 1, Block.STONE);
+        assertTrue(chunk.hasChanged());
+
+        this.level.autoSave();
+        for (int i = 0; i < 100 && this.level.getSaveLag() > 0; i++) {
+            this.processAutoSave.invoke(this.level);
+        }
+        assertEquals(0, this.level.getSaveLag());
+        assertFalse(chunk.hasChanged());
+        assertEquals(0, this.level.getChunksPendingSave());
+        assertEquals(0, this.level.getChunkSaveFailures());
+    }
+
+    @DisplayName("Chunks whose write failed are changed again")
+    @Test
+    void testFailedWrite() throws Exception {
+        BaseFullChunk first = this.level.getChunk(0, 0);
+        BaseFullChunk second = this.level.getChunk(1, 0);
+        first.setBlock(1, 10, 1, Block.STONE);
+        second.setBlock(1, 10, 1, Block.STONE);
+        // A closed region fails every write
+        Method loadRegion = Anvil.class.getDeclaredMethod("loadRegion", int.class, int.class);
+        loadRegion.setAccessible(true);
+        ((BaseRegionLoader) loadRegion.invoke(this.anvil, 0, 0)).close();
+
+        this.level.autoSave();
+        for (int i = 0; i < 100 && this.level.getChunkSaveFailures() < 2; i++) {
+            this.processAutoSave.invoke(this.level);
+        }
+        assertEquals(2, this.level.getChunkSaveFailures());
+
+        // The level takes the failures on its next tick
+        this.processAutoSave.invoke(this.level);
+        assertTrue(first.hasChanged());
+        assertTrue(second.hasChanged());
+        assertEquals(0, this.anvil.getPendingWrites());
+        assertEquals(0, this.anvil.pollFailedWrites().length);
+
+        // Taken up by the next autosave
+        this.processAutoSave.invoke(this.level);
+        assertEquals(0, this.level.getSaveLag());
+    }
+}
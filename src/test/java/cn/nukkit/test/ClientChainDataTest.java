@@ -1,13 +1,31 @@
 package cn.nukkit.test;
 
 import cn.nukkit.utils.ClientChainData;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.ECDSASigner;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * An example to show how to use ClientChainData
@@ -19,6 +37,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 @DisplayName("ClientChainData")
 class ClientChainDataTest {
 
+	/**
+	 * A time every token of chain.dat is valid at.
+	 */
+	private static final long CHAIN_VALID = 1496900000L;
+
 	@DisplayName("Getters")
 	@Test
 	void testGetter() throws Exception {
@@ -51,6 +74,57 @@ class ClientChainDataTest {
 		assertEquals(got, expecting);
 	}
 
+	@DisplayName("Authenticated while the chain is valid")
+	@Test
+	void testValidity() throws Exception {
+		byte[] buffer = readStream(ClientChainDataTest.class.getResourceAsStream("chain.dat"));
+		assertTrue(ClientChainData.of(buffer, CHAIN_VALID).isXboxAuthed());
+		// Before the first token and after the last token of the chain expired
+		assertFalse(ClientChainData.of(buffer, 1496819000L).isXboxAuthed());
+		assertFalse(ClientChainData.of(buffer, 1496906139L).isXboxAuthed());
+		assertFalse(ClientChainData.of(buffer).isXboxAuthed());
+	}
+
+	@DisplayName("A token appended after the identity is rejected")
+	@Test
+	void testAppendedToken() throws Exception {
+		byte[] buffer = readStream(ClientChainDataTest.class.getResourceAsStream("chain.dat"));
+		ByteBuffer in = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] chain = new byte[in.getInt()];
+		in.get(chain);
+		byte[] clientData = Arrays.copyOfRange(buffer, in.position(), buffer.length);
+
+		// Signed with a key of its own, the client holds the key the last token of a real chain names
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp384r1"));
+		KeyPair keyPair = generator.generateKeyPair();
+		String publicKey = Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+		JsonObject extraData = new JsonObject();
+		extraData.addProperty("displayName", "someone");
+		extraData.addProperty("identity", "00000000-0000-3000-8000-000000000000");
+		extraData.addProperty("XUID", "1");
+		JsonObject claims = new JsonObject();
+		claims.add("extraData", extraData);
+		claims.addProperty("identityPublicKey", publicKey);
+		JWSObject forged = new JWSObject(new JWSHeader.Builder(JWSAlgorithm.ES384).x509CertURL(new URI(publicKey)).build(),
+				new Payload(claims.toString()));
+		forged.sign(new ECDSASigner((ECPrivateKey) keyPair.getPrivate()));
+
+		Gson gson = new Gson();
+		JsonObject map = gson.fromJson(new String(chain, StandardCharsets.UTF_8), JsonObject.class);
+		JsonArray tokens = map.getAsJsonArray("chain");
+		tokens.add(forged.serialize());
+		byte[] forgedChain = map.toString().getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer out = ByteBuffer.allocate(4 + forgedChain.length + clientData.length).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(forgedChain.length).put(forgedChain).put(clientData);
+		ClientChainData data = ClientChainData.of(out.array(), CHAIN_VALID);
+		assertFalse(data.isXboxAuthed());
+		assertEquals("lmlstarqaq", data.getUsername());
+		assertEquals("2535465134455915", data.getXUID());
+		assertNotEquals(publicKey, data.getIdentityPublicKey());
+	}
+
 	private static byte[] readStream(InputStream inStream) throws Exception {
 		ByteArrayOutputStream outSteam = new ByteArrayOutputStream();
 		byte[] buffer = new byte[65536];
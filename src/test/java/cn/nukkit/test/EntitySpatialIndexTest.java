@@ -0,0 +1,188 @@
+package cn.nukkit.test;
+
+import cn.nukkit.entity.Entity;
+import cn.nukkit.entity.item.EntityItem;
+import cn.nukkit.level.EntitySpatialIndex;
+import cn.nukkit.math.AxisAlignedBB;
+import cn.nukkit.math.SimpleAxisAlignedBB;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Queries of {@link EntitySpatialIndex} against a scan of every entity: whatever was added, moved or removed, a
+ * query finds exactly the entities whose bounding box intersects the queried box.
+ */
+@DisplayName("Entity spatial index")
+class EntitySpatialIndexTest {
+
+    private final EntitySpatialIndex index = new EntitySpatialIndex();
+    private final List<Entity> entities = new ArrayList<>();
+    private long nextId = 1;
+
+    private static LevelFixture fixture;
+
+    @BeforeAll
+    static void init() {
+        fixture = LevelFixture.open();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        fixture.close();
+    }
+
+    @DisplayName("Queries match a scan of every entity")
+    @Test
+    void testQueries() {
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            this.add(Entity.class, random.nextDouble() * 80 - 40, random.nextDouble() * 80, random.nextDouble() * 80 - 40,
+                    0.1 + random.nextDouble(), 0.2 + random.nextDouble() * 2);
+        }
+        for (int i = 0; i < 500; i++) {
+            this.assertQuery(randomBox(random, 1 + random.nextDouble() * 8));
+        }
+        // Boxes covering more cells than are occupied
+        this.assertQuery(new SimpleAxisAlignedBB(-1000, -64, -1000, 1000, 320, 1000));
+        this.assertQuery(new SimpleAxisAlignedBB(-30, 10, -30, 30, 12, 30));
+    }
+
+    @DisplayName("Moved entities are found at their new position only")
+    @Test
+    void testUpdate() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            this.add(Entity.class, random.nextDouble() * 40 - 20, random.nextDouble() * 40, random.nextDouble() * 40 - 20, 0.3, 1.8);
+        }
+        for (int step = 0; step < 50; step++) {
+            for (Entity entity : this.entities) {
+                // Small steps that mostly stay in their cell, and jumps across cells and chunks
+                double distance = random.nextInt(10) == 0 ? 30 : 0.5;
+                entity.boundingBox.offset((random.nextDouble() - 0.5) * distance, (random.nextDouble() - 0.5) * distance,
+                        (random.nextDouble() - 0.5) * distance);
+                this.index.update(entity);
+            }
+            for (int i = 0; i < 20; i++) {
+                this.assertQuery(randomBox(random, 1 + random.nextDouble() * 6));
+            }
+        }
+        assertEquals(this.entities.size(), this.index.size());
+    }
+
+    @DisplayName("Removed entities are not found")
+    @Test
+    void testRemove() {
+        Entity first = this.add(Entity.class, 1.5, 64, 1.5, 0.3, 1.8);
+        Entity second = this.add(Entity.class, 1.7, 64, 1.2, 0.3, 1.8);
+        AxisAlignedBB box = new SimpleAxisAlignedBB(0, 63, 0, 3, 66, 3);
+        assertEquals(2, this.index.toArray(box, null, false).length);
+
+        this.index.remove(first);
+        this.entities.remove(first);
+        assertArrayEquals(new Entity[]{second}, this.index.toArray(box, null, false));
+        assertEquals(1, this.index.size());
+
+        // Removing twice and updating a removed entity do nothing
+        this.index.remove(first);
+        this.index.update(first);
+        assertEquals(1, this.index.size());
+        this.index.remove(second);
+        assertEquals(0, this.index.toArray(box, null, false).length);
+        assertEquals(0, this.index.size());
+    }
+
+    @DisplayName("Large entities are found from far outside their cell")
+    @Test
+    void testLargeEntity() {
+        Entity large = this.add(Entity.class, 100, 64, 100, 12, 20);
+        // Only the far edges of the bounding box intersect
+        assertArrayEquals(new Entity[]{large}, this.index.toArray(new SimpleAxisAlignedBB(111, 83, 111, 112, 84, 112), null, false));
+        assertArrayEquals(new Entity[]{large}, this.index.toArray(new SimpleAxisAlignedBB(87, 60, 87, 89, 65, 89), null, false));
+        assertEquals(0, this.index.toArray(new SimpleAxisAlignedBB(113, 64, 100, 114, 65, 101), null, false).length);
+    }
+
+    @DisplayName("Excluded, non-colliding and other types are left out")
+    @Test
+    void testFilters() {
+        Entity self = this.add(Entity.class, 0.5, 64, 0.5, 0.3, 1.8);
+        Entity colliding = this.add(Entity.class, 1, 64, 1, 0.3, 1.8);
+        Entity passive = this.add(Entity.class, 0.2, 64, 0.8, 0.3, 1.8);
+        EntityItem item = this.add(EntityItem.class, 0.7, 64, 0.3, 0.125, 0.25);
+        when(self.canCollideWith(colliding)).thenReturn(true);
+        when(self.canCollideWith(item)).thenReturn(true);
+
+        AxisAlignedBB box = new SimpleAxisAlignedBB(-1, 63, -1, 2, 66, 2);
+        assertEquals(set(colliding, passive, item), set(this.index.toArray(box, self, false)));
+        assertEquals(set(colliding, item), set(this.index.toArray(box, self, true)));
+
+        List<EntityItem> items = new ArrayList<>();
+        this.index.forEach(box, null, false, EntityItem.class, items::add);
+        assertEquals(Collections.singletonList(item), items);
+    }
+
+    @DisplayName("Queries can run inside of queries")
+    @Test
+    void testNestedQueries() {
+        Random random = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            this.add(Entity.class, random.nextDouble() * 16, 64, random.nextDouble() * 16, 0.3, 1.8);
+        }
+        AxisAlignedBB box = new SimpleAxisAlignedBB(0, 60, 0, 16, 70, 16);
+        Map<Entity, Set<Entity>> neighbours = new HashMap<>();
+        this.index.forEach(box, null, false, Entity.class, entity -> {
+            Set<Entity> found = new HashSet<>();
+            this.index.forEach(entity.boundingBox.grow(2, 2, 2), entity, false, Entity.class, found::add);
+            neighbours.put(entity, found);
+        });
+
+        assertEquals(this.entities.size(), neighbours.size());
+        for (Entity entity : this.entities) {
+            Set<Entity> expected = this.scan(entity.boundingBox.grow(2, 2, 2));
+            expected.remove(entity);
+            assertEquals(expected, neighbours.get(entity));
+        }
+    }
+
+    private <T extends Entity> T add(Class<T> type, double x, double y, double z, double halfWidth, double height) {
+        T entity = mock(type);
+        long id = this.nextId++;
+        when(entity.getId()).thenReturn(id);
+        entity.boundingBox = new SimpleAxisAlignedBB(x - halfWidth, y, z - halfWidth, x + halfWidth, y + height, z + halfWidth);
+        this.index.add(entity);
+        this.entities.add(entity);
+        return entity;
+    }
+
+    private void assertQuery(AxisAlignedBB box) {
+        assertEquals(this.scan(box), set(this.index.toArray(box, null, false)), box::toString);
+    }
+
+    private Set<Entity> scan(AxisAlignedBB box) {
+        Set<Entity> found = new HashSet<>();
+        for (Entity entity : this.entities) {
+            if (entity.boundingBox.intersectsWith(box)) {
+                found.add(entity);
+            }
+        }
+        return found;
+    }
+
+    private static AxisAlignedBB randomBox(Random random, double size) {
+        double x = random.nextDouble() * 100 - 50;
+        double y = random.nextDouble() * 100 - 10;
+        double z = random.nextDouble() * 100 - 50;
+        return new SimpleAxisAlignedBB(x, y, z, x + size, y + size, z + size);
+    }
+
+    private static Set<Entity> set(Entity... entities) {
+        return new HashSet<>(Arrays.asList(entities));
+    }
+}
@@ -0,0 +1,84 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.biome.EnumBiome;
+import cn.nukkit.level.format.anvil.Chunk;
+import cn.nukkit.level.generator.*;
+import cn.nukkit.math.NukkitRandom;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk generation throughput of the built in generators. Each operation generates a chunk that was not
+ * generated before, so caches only help as much as they would while exploring a world.
+ * <p>
+ * Run with the main method from the test classpath, this is not picked up as a unit test.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    private static final long SEED = 1234567890L;
+
+    @Param({"normal", "nether", "flat"})
+    public String generatorName;
+
+    private Generator generator;
+    private SimpleChunkManager manager;
+    private int chunkX;
+    private int chunkZ;
+
+    @Setup
+    public void setUp() {
+        Block.init();
+        EnumBiome.values(); //load class, this also registers biomes
+
+        switch (this.generatorName) {
+            case "nether":
+                this.generator = new Nether(new HashMap<>());
+                break;
+            case "flat":
+                this.generator = new Flat(new HashMap<>());
+                break;
+            default:
+                this.generator = new Normal(new HashMap<>());
+                break;
+        }
+        this.manager = new SingleChunkManager(SEED);
+        this.generator.init(this.manager, new NukkitRandom(SEED));
+    }
+
+    @Benchmark
+    public Chunk generateChunk() {
+        // Walk rows of 64 chunks, so neighbouring chunks are generated one after another like while exploring
+        int x = this.chunkX++;
+        if (this.chunkX >= 64) {
+            this.chunkX = 0;
+            this.chunkZ++;
+        }
+        int z = this.chunkZ;
+
+        Chunk chunk = Chunk.getEmptyChunk(x, z);
+        this.manager.cleanChunks(SEED);
+        this.manager.setChunk(x, z, chunk);
+        this.generator.generateChunk(x, z);
+        return chunk;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(GeneratorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
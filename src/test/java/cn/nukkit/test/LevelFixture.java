@@ -0,0 +1,148 @@
+package cn.nukkit.test;
+
+import cn.nukkit.Server;
+import cn.nukkit.block.Block;
+import cn.nukkit.item.Item;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.anvil.Anvil;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.generator.Flat;
+import org.mockito.Answers;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Levels for tests that need real chunks and blocks, without starting a server.
+ * <p>
+ * The server is a mock: every config value is its default, events are dropped and nothing is scheduled. It is
+ * {@link Server#getInstance()} from {@link #open()} until the fixture is closed. Each level is an empty Anvil world in
+ * a temporary folder, chunks have to be loaded with {@link #loadChunks(Level, int, int, int, int)} before blocks are
+ * set. Closing the fixture closes its levels and deletes their folders.
+ */
+final class LevelFixture implements AutoCloseable {
+
+    private static final Field INSTANCE;
+    private static int levels;
+
+    static {
+        Block.init();
+        Item.init();
+        try {
+            INSTANCE = Server.class.getDeclaredField("instance");
+            INSTANCE.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final Server server;
+    private final Server previous;
+    private final List<Level> created = new ArrayList<>();
+    private final List<File> folders = new ArrayList<>();
+    private boolean closed;
+
+    private LevelFixture(Server server, Server previous) {
+        this.server = server;
+        this.previous = previous;
+    }
+
+    /**
+     * Sets up a mock server as the server instance, until {@link #close()}.
+     */
+    static LevelFixture open() {
+        Server server = mock(Server.class, Answers.RETURNS_DEEP_STUBS);
+        when(server.getConfig(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        try {
+            Server previous = (Server) INSTANCE.get(null);
+            INSTANCE.set(null, server);
+            return new LevelFixture(server, previous);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Server getServer() {
+        return this.server;
+    }
+
+    Level createLevel() {
+        try {
+            File folder = Files.createTempDirectory("nukkit-test").toFile();
+            this.folders.add(folder);
+            String path = folder.getPath() + "/";
+            Anvil.generate(path, "test", 0, Flat.class);
+
+            Level level = new Level(this.server, "test" + levels++, path, Anvil.class);
+            this.created.add(level);
+            level.initLevel();
+            return level;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads empty chunks and keeps them loaded.
+     */
+    static void loadChunks(Level level, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        for (int x = minChunkX; x <= maxChunkX; x++) {
+            for (int z = minChunkZ; z <= maxChunkZ; z++) {
+                BaseFullChunk chunk = level.getChunk(x, z, true);
+                chunk.setGenerated();
+                chunk.setPopulated();
+                level.cancelUnloadChunkRequest(x, z);
+            }
+        }
+    }
+
+    /**
+     * Closes the levels without saving them, deletes their folders and restores the server instance from before
+     * {@link #open()}.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            for (Level level : this.created) {
+                if (level.getProvider() != null) {
+                    level.setAutoSave(false);
+                    level.close();
+                }
+            }
+        } finally {
+            for (File folder : this.folders) {
+                delete(folder);
+            }
+            try {
+                INSTANCE.set(null, this.previous);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IllegalStateException("Could not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.light.BlockLightEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block light updates for placing and then removing many torches or glowstone blocks at once, like a build
+ * pasted and undone by a world editor. Each operation places every light in one update and removes them all in
+ * the next, so the level is dark again for the following operation.
+ * <p>
+ * Run with the main method from the test classpath, this is not picked up as a unit test.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LightingBenchmark {
+
+    @Param({"torch", "glowstone"})
+    public String light;
+
+    @Param({"64", "1024"})
+    public int count;
+
+    private LevelFixture fixture;
+    private Level level;
+    private BlockLightEngine engine;
+    private int id;
+    private int[] positions;
+
+    @Setup
+    public void setUp() {
+        this.fixture = LevelFixture.open();
+        this.level = this.fixture.createLevel();
+        LevelFixture.loadChunks(this.level, -4, -4, 4, 4);
+        this.engine = new BlockLightEngine(this.level);
+        this.id = "torch".equals(this.light) ? Block.TORCH : Block.GLOWSTONE;
+
+        // Lights spread over 4x4 chunks, close enough for their light to overlap
+        Random random = new Random(1234567890L);
+        this.positions = new int[this.count * 3];
+        for (int i = 0; i < this.positions.length; i += 3) {
+            this.positions[i] = random.nextInt(64) - 32;
+            this.positions[i + 1] = 20 + random.nextInt(64);
+            this.positions[i + 2] = random.nextInt(64) - 32;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public void placeAndRemove() {
+        this.setAll(this.id);
+        this.engine.process();
+        this.setAll(Block.AIR);
+        this.engine.process();
+    }
+
+    private void setAll(int id) {
+        int[] positions = this.positions;
+        for (int i = 0; i < positions.length; i += 3) {
+            int x = positions[i];
+            int y = positions[i + 1];
+            int z = positions[i + 2];
+            BaseFullChunk chunk = this.level.getChunk(x >> 4, z >> 4);
+            chunk.setBlock(x & 0x0f, y, z & 0x0f, id);
+            this.engine.queue(x, y, z);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LightingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
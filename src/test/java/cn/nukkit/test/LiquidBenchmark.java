@@ -0,0 +1,174 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.format.generic.BaseFullChunk;
+import cn.nukkit.level.light.BlockLightEngine;
+import cn.nukkit.math.Vector3;
+import cn.nukkit.scheduler.LiquidFlowScheduler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Field;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liquid flow until it settles, for a broken ocean wall and a lava cast. Each operation builds the scene again,
+ * then ticks the level's liquid flow, the neighbour updates and block light like a level tick would until no flow
+ * step is left.
+ * <ul>
+ * <li>{@code ocean-wall}: a wall holding back 48 by 48 blocks of water eight deep is removed, the water floods a
+ * valley stepping down beside it.</li>
+ * <li>{@code lava-cast}: lava poured on top of a stepped cone runs down its sides, then water poured on top turns
+ * it into stone.</li>
+ * </ul>
+ * Run with the main method from the test classpath, this is not picked up as a unit test.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LiquidBenchmark {
+
+    private static final int MIN_X = -48;
+    private static final int MAX_X = 47;
+    private static final int MIN_Z = -24;
+    private static final int MAX_Z = 23;
+    private static final int MAX_Y = 40;
+    // Liquid still flowing after this many ticks is left unfinished
+    private static final int MAX_TICKS = 6000;
+
+    @Param({"ocean-wall", "lava-cast"})
+    public String scene;
+
+    private LevelFixture fixture;
+    private Level level;
+    private LiquidFlowScheduler liquidFlow;
+    private BlockLightEngine blockLight;
+    private Queue<Block> normalUpdateQueue;
+    private Field tickField;
+    private long tick;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        this.fixture = LevelFixture.open();
+        this.level = this.fixture.createLevel();
+        LevelFixture.loadChunks(this.level, MIN_X >> 4, MIN_Z >> 4, MAX_X >> 4, MAX_Z >> 4);
+        this.liquidFlow = this.level.getLiquidFlow();
+
+        Field field = Level.class.getDeclaredField("blockLightEngine");
+        field.setAccessible(true);
+        this.blockLight = (BlockLightEngine) field.get(this.level);
+        field = Level.class.getDeclaredField("normalUpdateQueue");
+        field.setAccessible(true);
+        //noinspection unchecked
+        this.normalUpdateQueue = (Queue<Block>) field.get(this.level);
+        this.tickField = Level.class.getDeclaredField("levelCurrentTick");
+        this.tickField.setAccessible(true);
+        this.tick = this.level.getCurrentTick();
+    }
+
+    @Setup(org.openjdk.jmh.annotations.Level.Invocation)
+    public void build() {
+        // Flow steps of an unfinished operation
+        for (int chunkX = MIN_X >> 4; chunkX <= MAX_X >> 4; chunkX++) {
+            for (int chunkZ = MIN_Z >> 4; chunkZ <= MAX_Z >> 4; chunkZ++) {
+                this.liquidFlow.removeChunk(chunkX, chunkZ);
+            }
+        }
+        this.normalUpdateQueue.clear();
+
+        for (int x = MIN_X; x <= MAX_X; x++) {
+            for (int z = MIN_Z; z <= MAX_Z; z++) {
+                BaseFullChunk chunk = this.level.getChunk(x >> 4, z >> 4);
+                for (int y = 0; y <= MAX_Y; y++) {
+                    chunk.setBlock(x & 0x0f, y, z & 0x0f, Block.AIR);
+                    chunk.setBlockLight(x & 0x0f, y, z & 0x0f, 0);
+                }
+                int height = "ocean-wall".equals(this.scene) ? this.buildOcean(chunk, x, z) : this.buildCone(x, z);
+                for (int y = 0; y <= height; y++) {
+                    chunk.setBlock(x & 0x0f, y, z & 0x0f, Block.STONE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the height of the ground
+     */
+    private int buildOcean(BaseFullChunk chunk, int x, int z) {
+        if (x < 0) {
+            for (int y = 10; y <= 17; y++) {
+                chunk.setBlock(x & 0x0f, y, z & 0x0f, Block.STILL_WATER);
+            }
+            return 9;
+        } else if (x == 0) {
+            // The wall
+            return 17;
+        }
+        // One step down every six blocks, so the water keeps spreading
+        return Math.max(1, 9 - x / 6);
+    }
+
+    /**
+     * @return the height of the ground
+     */
+    private int buildCone(int x, int z) {
+        int distance = Math.max(Math.abs(x), Math.abs(z));
+        return 9 + Math.max(0, 24 - distance) / 2;
+    }
+
+    @Benchmark
+    public int flood() {
+        if ("ocean-wall".equals(this.scene)) {
+            for (int y = 10; y <= 17; y++) {
+                for (int z = MIN_Z; z <= MAX_Z; z++) {
+                    this.level.setBlock(new Vector3(0, y, z), Block.get(Block.AIR), true, true);
+                }
+            }
+            return this.tickUntilSettled();
+        }
+
+        this.level.setBlock(new Vector3(0, 22, 0), Block.get(Block.LAVA), true, true);
+        int ticks = this.tickUntilSettled();
+        this.level.setBlock(new Vector3(0, 22, 0), Block.get(Block.WATER), true, true);
+        return ticks + this.tickUntilSettled();
+    }
+
+    private int tickUntilSettled() {
+        int ticks = 0;
+        while (ticks < MAX_TICKS && (this.liquidFlow.getPendingCount() > 0 || !this.normalUpdateQueue.isEmpty())) {
+            try {
+                this.tickField.setLong(this.level, ++this.tick);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            this.blockLight.process();
+            this.liquidFlow.tick(this.tick);
+            Block block;
+            while ((block = this.normalUpdateQueue.poll()) != null) {
+                block.onUpdate(Level.BLOCK_UPDATE_NORMAL);
+            }
+            ticks++;
+        }
+        return ticks;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LiquidBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
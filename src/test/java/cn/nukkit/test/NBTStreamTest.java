@@ -0,0 +1,255 @@
+package cn.nukkit.test;
+
+import cn.nukkit.level.format.LevelProvider;
+import cn.nukkit.level.format.anvil.Chunk;
+import cn.nukkit.nbt.NBTIO;
+import cn.nukkit.nbt.stream.FastByteArrayOutputStream;
+import cn.nukkit.nbt.stream.NBTInputStream;
+import cn.nukkit.nbt.stream.NBTOutputStream;
+import cn.nukkit.nbt.stream.NBTStreamReader;
+import cn.nukkit.nbt.stream.NBTStreamWriter;
+import cn.nukkit.nbt.tag.*;
+import cn.nukkit.utils.Zlib;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trips through {@link NBTStreamReader} and {@link NBTStreamWriter}, and through the streamed Anvil chunk
+ * reader and writer, compared with the tree based {@link NBTIO} and chunk constructor.
+ */
+@DisplayName("NBT streams")
+class NBTStreamTest {
+
+    private static LevelFixture fixture;
+
+    @BeforeAll
+    static void init() {
+        fixture = LevelFixture.open();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        fixture.close();
+    }
+
+    @DisplayName("Writer output reads as the same tree")
+    @Test
+    void testWriter() throws IOException {
+        FastByteArrayOutputStream buffer = new FastByteArrayOutputStream(256);
+        NBTStreamWriter writer = new NBTStreamWriter(new NBTOutputStream(buffer, ByteOrder.BIG_ENDIAN));
+        writer.beginCompound("root");
+        writer.putByte("byte", -3);
+        writer.putBoolean("flag", true);
+        writer.putShort("short", 1234);
+        writer.putInt("int", -56789);
+        writer.putLong("long", Long.MIN_VALUE + 1);
+        writer.putFloat("float", 1.5f);
+        writer.putDouble("double", -2.25);
+        writer.putString("string", "Nukkit ä");
+        writer.putByteArray("bytes", new byte[]{9, 8, 7, 6, 5}, 1, 3);
+        writer.putIntArray("ints", new int[]{1, -1, Integer.MAX_VALUE});
+        writer.beginList("list", Tag.TAG_Compound, 2);
+        writer.putInt("a", 1);
+        writer.endCompound();
+        writer.writeTag(new CompoundTag().putString("b", "two"));
+        writer.put("nested", new CompoundTag().putLong("c", 3));
+        writer.beginCompound("empty");
+        writer.endCompound();
+        writer.endCompound();
+        writer.getStream().close();
+
+        CompoundTag tag = NBTIO.read(Arrays.copyOf(buffer.array, buffer.length));
+        assertEquals(createTree(), tag);
+    }
+
+    @DisplayName("Reader reads, skips and captures what NBTIO wrote")
+    @Test
+    void testReader() throws IOException {
+        CompoundTag tree = createTree();
+        NBTStreamReader reader = new NBTStreamReader(new NBTInputStream(new ByteArrayInputStream(NBTIO.write(tree)), ByteOrder.BIG_ENDIAN));
+        assertEquals("root", reader.readRoot());
+
+        int entries = 0;
+        while (reader.next() != Tag.TAG_End) {
+            entries++;
+            switch (reader.getName()) {
+                case "byte":
+                    assertEquals(Tag.TAG_Byte, reader.getType());
+                    assertEquals(-3, reader.readByte());
+                    break;
+                case "short":
+                    assertEquals(1234, reader.readShort());
+                    break;
+                case "int":
+                    assertEquals(-56789, reader.readInt());
+                    break;
+                case "long":
+                    assertEquals(Long.MIN_VALUE + 1, reader.readLong());
+                    break;
+                case "float":
+                    assertEquals(1.5f, reader.readFloat());
+                    break;
+                case "double":
+                    assertEquals(-2.25, reader.readDouble());
+                    break;
+                case "string":
+                    assertEquals("Nukkit ä", reader.readString());
+                    break;
+                case "bytes":
+                    assertArrayEquals(new byte[]{8, 7, 6}, reader.readByteArray());
+                    break;
+                case "ints":
+                    assertArrayEquals(new int[]{1, -1, Integer.MAX_VALUE}, reader.readIntArray());
+                    break;
+                case "list":
+                    assertEquals(2, reader.readListHeader());
+                    assertEquals(Tag.TAG_Compound, reader.getListType());
+                    assertEquals(tree.getList("list", CompoundTag.class).get(0), reader.readLazyCompound(""));
+                    reader.skip(reader.getListType());
+                    break;
+                case "nested":
+                    CompoundTag nested = reader.readLazyCompound("nested");
+                    assertEquals("nested", nested.getName());
+                    assertEquals(tree.getCompound("nested"), nested);
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
+        }
+        assertEquals(tree.getAllTags().size(), entries);
+    }
+
+    @DisplayName("Lazy compounds write back the same bytes")
+    @Test
+    void testLazyCompound() throws IOException {
+        CompoundTag tree = createTree();
+        byte[] data = NBTIO.write(tree);
+        CompoundTag lazy = NBTIO.readCompressedLazy(new ByteArrayInputStream(compressGZIP(data)));
+        assertArrayEquals(data, NBTIO.write(lazy));
+        assertEquals(tree, lazy);
+        assertEquals(tree, lazy.copy());
+    }
+
+    @DisplayName("Anvil chunk round trip")
+    @Test
+    void testChunk() throws Exception {
+        Random random = new Random(12345);
+        CompoundTag level = createChunkTree(random);
+        Chunk expected = new Chunk((LevelProvider) null, level);
+
+        byte[] data = NBTIO.write(new CompoundTag("").putCompound("Level", level));
+        Chunk chunk = Chunk.fromBinary(Zlib.deflate(data));
+        assertNotNull(chunk);
+        assertSameChunk(expected, chunk);
+
+        // Written again and read once more, everything the chunk does not use is kept as it was
+        byte[] written = chunk.toBinary();
+        CompoundTag writtenLevel = NBTIO.read(Zlib.inflate(written)).getCompound("Level");
+        for (String key : new String[]{"Entities", "TileEntities", "TileTicks", "Biomes", "HeightMap", "xPos", "zPos"}) {
+            assertEquals(level.get(key), writtenLevel.get(key), key);
+        }
+        assertEquals(level.getList("Sections").size(), writtenLevel.getList("Sections").size());
+        assertSameChunk(expected, Chunk.fromBinary(written));
+        assertSameChunk(expected, Chunk.fromFastBinary(chunk.toFastBinary()));
+    }
+
+    private static void assertSameChunk(Chunk expected, Chunk actual) {
+        assertEquals(expected.getX(), actual.getX());
+        assertEquals(expected.getZ(), actual.getZ());
+        assertEquals(expected.isGenerated(), actual.isGenerated());
+        assertEquals(expected.isPopulated(), actual.isPopulated());
+        assertArrayEquals(expected.getBiomeIdArray(), actual.getBiomeIdArray());
+        assertArrayEquals(expected.getHeightMapArray(), actual.getHeightMapArray());
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    assertEquals(expected.getBlockId(x, y, z), actual.getBlockId(x, y, z));
+                    assertEquals(expected.getBlockData(x, y, z), actual.getBlockData(x, y, z));
+                    assertEquals(expected.getBlockLight(x, y, z), actual.getBlockLight(x, y, z));
+                    assertEquals(expected.getBlockSkyLight(x, y, z), actual.getBlockSkyLight(x, y, z));
+                }
+            }
+        }
+    }
+
+    private static CompoundTag createTree() {
+        return new CompoundTag("root")
+                .putByte("byte", -3)
+                .putBoolean("flag", true)
+                .putShort("short", 1234)
+                .putInt("int", -56789)
+                .putLong("long", Long.MIN_VALUE + 1)
+                .putFloat("float", 1.5f)
+                .putDouble("double", -2.25)
+                .putString("string", "Nukkit ä")
+                .putByteArray("bytes", new byte[]{8, 7, 6})
+                .putIntArray("ints", new int[]{1, -1, Integer.MAX_VALUE})
+                .putList(new ListTag<CompoundTag>("list")
+                        .add(new CompoundTag().putInt("a", 1))
+                        .add(new CompoundTag().putString("b", "two")))
+                .putCompound("nested", new CompoundTag().putLong("c", 3))
+                .putCompound("empty", new CompoundTag());
+    }
+
+    private static CompoundTag createChunkTree(Random random) {
+        ListTag<CompoundTag> sections = new ListTag<>("Sections");
+        for (int y : new int[]{0, 3, 15}) {
+            sections.add(new CompoundTag()
+                    .putByte("Y", y)
+                    .putByteArray("Blocks", randomBytes(random, 4096, 100))
+                    .putByteArray("Data", randomBytes(random, 2048, 256))
+                    .putByteArray("BlockLight", randomBytes(random, 2048, 256))
+                    .putByteArray("SkyLight", randomBytes(random, 2048, 256)));
+        }
+        int[] heightMap = new int[256];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = random.nextInt(256);
+        }
+        return new CompoundTag("Level")
+                .putInt("xPos", -7)
+                .putInt("zPos", 12)
+                .putLong("InhabitedTime", 4321)
+                .putBoolean("TerrainGenerated", true)
+                .putBoolean("TerrainPopulated", true)
+                .putBoolean("LightPopulated", true)
+                .putList(sections)
+                .putByteArray("Biomes", randomBytes(random, 256, 40))
+                .putIntArray("HeightMap", heightMap)
+                .putList(new ListTag<CompoundTag>("Entities")
+                        .add(new CompoundTag().putString("id", "Zombie").putList(new ListTag<DoubleTag>("Pos")
+                                .add(new DoubleTag("", -100.5)).add(new DoubleTag("", 64)).add(new DoubleTag("", 200.5)))))
+                .putList(new ListTag<CompoundTag>("TileEntities")
+                        .add(new CompoundTag().putString("id", "Chest").putInt("x", -110).putInt("y", 64).putInt("z", 195)
+                                .putList(new ListTag<CompoundTag>("Items").add(new CompoundTag().putShort("id", 1).putByte("Count", 64)))))
+                .putList(new ListTag<CompoundTag>("TileTicks")
+                        .add(new CompoundTag().putString("i", "BlockWater").putInt("x", -108).putInt("y", 60).putInt("z", 199)
+                                .putInt("t", 5).putInt("p", 0)));
+    }
+
+    private static byte[] randomBytes(Random random, int length, int bound) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) random.nextInt(bound);
+        }
+        return bytes;
+    }
+
+    private static byte[] compressGZIP(byte[] data) throws IOException {
+        FastByteArrayOutputStream buffer = new FastByteArrayOutputStream(data.length);
+        try (java.util.zip.GZIPOutputStream stream = new java.util.zip.GZIPOutputStream(buffer)) {
+            stream.write(data);
+        }
+        return Arrays.copyOf(buffer.array, buffer.length);
+    }
+}
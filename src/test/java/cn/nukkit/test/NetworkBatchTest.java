@@ -0,0 +1,125 @@
+package cn.nukkit.test;
+
+import cn.nukkit.network.Network;
+import cn.nukkit.network.protocol.DataPacket;
+import cn.nukkit.network.protocol.ProtocolInfo;
+import cn.nukkit.network.protocol.TextPacket;
+import cn.nukkit.utils.Binary;
+import cn.nukkit.utils.BinaryStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Inbound batches decoded in place by {@link Network#processBatch(ByteBuf, java.util.Collection, cn.nukkit.network.PacketLimiter)}:
+ * packets read from the pooled batch buffer until they are released, and only copy their bytes when they are asked
+ * for them.
+ */
+@DisplayName("Network batches")
+class NetworkBatchTest {
+
+    private LevelFixture fixture;
+    private Network network;
+
+    @BeforeEach
+    void setUp() {
+        this.fixture = LevelFixture.open();
+        this.network = new Network(this.fixture.getServer());
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.fixture.close();
+    }
+
+    @DisplayName("Packets are decoded in place and keep the batch until released")
+    @Test
+    void testRelease() throws Exception {
+        byte[] first = text("first");
+        byte[] second = text("second");
+        List<DataPacket> packets = new ArrayList<>();
+        this.network.processBatch(Unpooled.wrappedBuffer(batch(first, second)), packets, null);
+
+        assertEquals(2, packets.size());
+        assertEquals("first", ((TextPacket) packets.get(0)).message);
+        assertEquals("second", ((TextPacket) packets.get(1)).message);
+        ByteBuf source = getSource(packets.get(0));
+        assertSame(source, getSource(packets.get(1)));
+        assertEquals(2, source.refCnt());
+
+        // Asking for the bytes copies them out of the batch
+        assertArrayEquals(first, packets.get(0).getBuffer());
+        assertNull(getSource(packets.get(0)));
+        assertEquals(1, source.refCnt());
+        assertArrayEquals(first, packets.get(0).getBuffer());
+
+        packets.get(1).releaseSource();
+        assertEquals(0, source.refCnt());
+        assertEquals(0, packets.get(1).getBuffer().length);
+    }
+
+    @DisplayName("Packets of byte array batches keep copies of their bytes")
+    @Test
+    void testByteArray() throws Exception {
+        byte[] first = text("one");
+        byte[] second = text("two");
+        List<DataPacket> packets = new ArrayList<>();
+        this.network.processBatch(batch(first, second), packets);
+
+        assertEquals(2, packets.size());
+        assertNull(getSource(packets.get(0)));
+        assertNull(getSource(packets.get(1)));
+        assertArrayEquals(first, packets.get(0).getBuffer());
+        assertArrayEquals(second, packets.get(1).getBuffer());
+
+        DataPacket copy = packets.get(1).clone();
+        assertEquals("two", ((TextPacket) copy).message);
+    }
+
+    @DisplayName("Clones read their own copy")
+    @Test
+    void testClone() throws Exception {
+        byte[] data = text("cloned");
+        List<DataPacket> packets = new ArrayList<>();
+        this.network.processBatch(Unpooled.wrappedBuffer(batch(data)), packets, null);
+
+        DataPacket packet = packets.get(0);
+        DataPacket clone = packet.clone();
+        packet.releaseSource();
+        assertNull(getSource(clone));
+        assertArrayEquals(data, clone.getBuffer());
+    }
+
+    private static byte[] text(String message) {
+        BinaryStream stream = new BinaryStream();
+        stream.putUnsignedVarInt(ProtocolInfo.TEXT_PACKET);
+        stream.putByte(TextPacket.TYPE_RAW);
+        stream.putBoolean(false);
+        stream.putString(message);
+        return stream.getBuffer();
+    }
+
+    private static byte[] batch(byte[]... packets) throws Exception {
+        byte[][] parts = new byte[packets.length * 2][];
+        for (int i = 0; i < packets.length; i++) {
+            parts[i * 2] = Binary.writeUnsignedVarInt(packets[i].length);
+            parts[i * 2 + 1] = packets[i];
+        }
+        return Network.deflateRaw(parts, 7);
+    }
+
+    private static ByteBuf getSource(DataPacket packet) throws ReflectiveOperationException {
+        Field field = DataPacket.class.getDeclaredField("source");
+        field.setAccessible(true);
+        return (ByteBuf) field.get(packet);
+    }
+}
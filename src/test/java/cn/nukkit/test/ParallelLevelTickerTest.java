@@ -0,0 +1,114 @@
+package cn.nukkit.test;
+
+import cn.nukkit.level.Level;
+import cn.nukkit.level.ParallelLevelTicker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tasks a level hands to the main thread with {@link ParallelLevelTicker#runWithLevelsPaused(java.util.function.Supplier)}:
+ * they run while no other level is ticking and their result goes back to the level right away.
+ */
+@DisplayName("Parallel level ticker")
+class ParallelLevelTickerTest {
+
+    private ParallelLevelTicker ticker;
+    private List<Level> levels;
+
+    @BeforeEach
+    void setUp() {
+        this.ticker = new ParallelLevelTicker(2);
+        this.levels = Arrays.asList(mock(Level.class), mock(Level.class), mock(Level.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.ticker.shutdown();
+    }
+
+    @DisplayName("Tasks run on the main thread while the other levels are paused")
+    @Test
+    void testPausedTask() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger runningInTask = new AtomicInteger(-1);
+        AtomicBoolean levelThread = new AtomicBoolean(true);
+        AtomicInteger result = new AtomicInteger();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> this.ticker.tick(this.levels, level -> {
+            running.incrementAndGet();
+            try {
+                sleep(20);
+                if (level == this.levels.get(0)) {
+                    running.decrementAndGet();
+                    result.set(this.ticker.runWithLevelsPaused(() -> {
+                        runningInTask.set(running.get());
+                        levelThread.set(ParallelLevelTicker.isLevelTickThread());
+                        return 42;
+                    }));
+                    running.incrementAndGet();
+                }
+                sleep(20);
+            } finally {
+                running.decrementAndGet();
+            }
+        }));
+
+        assertEquals(42, result.get());
+        assertEquals(0, runningInTask.get());
+        assertFalse(levelThread.get());
+    }
+
+    @DisplayName("Levels waiting for a lock held by a paused level do not hold up its task")
+    @Test
+    void testLockHeldWhilePaused() {
+        ReentrantLock lock = new ReentrantLock();
+        CountDownLatch held = new CountDownLatch(1);
+        AtomicBoolean ran = new AtomicBoolean();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> this.ticker.tick(this.levels.subList(0, 2), level -> {
+            if (level == this.levels.get(0)) {
+                lock.lock();
+                try {
+                    held.countDown();
+                    sleep(50);
+                    ran.set(this.ticker.runWithLevelsPaused(() -> true));
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                try {
+                    held.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (!lock.tryLock()) {
+                    ParallelLevelTicker.waitFor(lock::lock);
+                }
+                lock.unlock();
+            }
+        }));
+
+        assertTrue(ran.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
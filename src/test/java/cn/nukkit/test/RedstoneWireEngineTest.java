@@ -0,0 +1,512 @@
+package cn.nukkit.test;
+
+import cn.nukkit.block.Block;
+import cn.nukkit.block.BlockID;
+import cn.nukkit.block.BlockRedstoneWire;
+import cn.nukkit.block.BlockStone;
+import cn.nukkit.event.block.BlockRedstoneEvent;
+import cn.nukkit.event.redstone.RedstoneUpdateEvent;
+import cn.nukkit.item.Item;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.RedstoneWireEngine;
+import cn.nukkit.math.BlockFace;
+import cn.nukkit.math.BlockFace.Plane;
+import cn.nukkit.math.Vector3;
+import cn.nukkit.scheduler.BlockUpdateScheduler;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link RedstoneWireEngine} against the wire that recalculated itself one step at a time, which it replaced. Each
+ * circuit is built and changed once with each, after every change the blocks of both levels and the blocks that got
+ * a redstone update have to be the same.
+ * <p>
+ * Every stone block records its redstone updates, circuits are built on and out of stone.
+ */
+@DisplayName("Redstone wire engine")
+class RedstoneWireEngineTest {
+
+    private static final int MIN_X = -4;
+    private static final int MAX_X = 28;
+    private static final int MIN_Y = 8;
+    private static final int MAX_Y = 20;
+    private static final int MIN_Z = -4;
+    private static final int MAX_Z = 8;
+
+    private static final LongSet notified = new LongOpenHashSet();
+
+    private static LevelFixture fixture;
+
+    @BeforeAll
+    static void init() {
+        fixture = LevelFixture.open();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        fixture.close();
+    }
+
+    @DisplayName("Straight line of 20 wires")
+    @Test
+    void testLine() {
+        Circuit[] circuits = this.compare(circuit -> {
+            circuit.floor(0, 21, 0);
+            for (int x = 0; x < 20; x++) {
+                circuit.placeWire(x, 10, 0);
+            }
+        }, circuit -> circuit.set(-1, 10, 0, Block.REDSTONE_BLOCK), circuit -> circuit.set(-1, 10, 0, Block.AIR),
+                circuit -> circuit.set(20, 10, 0, Block.REDSTONE_BLOCK), circuit -> circuit.set(-1, 10, 0, Block.REDSTONE_BLOCK));
+
+        assertEquals(15, circuits[1].level.getBlockDataAt(0, 10, 0));
+        assertEquals(6, circuits[1].level.getBlockDataAt(10, 10, 0));
+    }
+
+    @DisplayName("Staircase up and down")
+    @Test
+    void testStaircase() {
+        this.compare(circuit -> {
+            // Up five steps, along the top and down five steps again
+            int[] heights = {0, 1, 2, 3, 4, 5, 5, 5, 4, 3, 2, 1, 0};
+            for (int x = 0; x < heights.length; x++) {
+                for (int y = 9; y <= 9 + heights[x]; y++) {
+                    circuit.set(x, y, 0, Block.STONE);
+                }
+            }
+            for (int x = 0; x < heights.length; x++) {
+                circuit.placeWire(x, 10 + heights[x], 0);
+            }
+        }, circuit -> circuit.set(-1, 10, 0, Block.REDSTONE_BLOCK), circuit -> circuit.set(13, 10, 0, Block.REDSTONE_BLOCK),
+                circuit -> circuit.set(-1, 10, 0, Block.AIR), circuit -> circuit.set(13, 10, 0, Block.AIR));
+    }
+
+    @DisplayName("Wire cut by a covering block")
+    @Test
+    void testCovered() {
+        this.compare(circuit -> {
+            circuit.floor(0, 3, 0);
+            circuit.set(4, 10, 0, Block.STONE);
+            circuit.set(5, 10, 0, Block.STONE);
+            circuit.floor(6, 12, 0);
+            for (int x = 0; x < 4; x++) {
+                circuit.placeWire(x, 10, 0);
+            }
+            circuit.placeWire(4, 11, 0);
+            circuit.placeWire(5, 11, 0);
+            for (int x = 6; x < 12; x++) {
+                circuit.placeWire(x, 10, 0);
+            }
+            circuit.set(-1, 10, 0, Block.REDSTONE_BLOCK);
+        }, circuit -> circuit.set(3, 11, 0, Block.STONE), circuit -> circuit.set(6, 11, 0, Block.STONE),
+                circuit -> circuit.set(3, 11, 0, Block.AIR), circuit -> circuit.set(6, 11, 0, Block.AIR));
+    }
+
+    @DisplayName("Torch clock")
+    @Test
+    void testTorchClock() {
+        List<Consumer<Circuit>> ticks = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ticks.add(Circuit::tick);
+        }
+        //noinspection unchecked
+        Circuit[] circuits = this.compare(circuit -> {
+            // The torch on the side of the block powers the wire leading onto the block, which turns the torch off
+            circuit.set(0, 10, 0, Block.STONE);
+            circuit.set(1, 9, 1, Block.STONE);
+            circuit.set(0, 9, 1, Block.STONE);
+            circuit.set(1, 10, 0, Block.REDSTONE_TORCH, 1);
+            circuit.placeWire(1, 10, 1);
+            circuit.placeWire(0, 10, 1);
+            circuit.placeWire(0, 11, 0);
+        }, ticks.toArray(new Consumer[0]));
+
+        // It has to be a clock for the comparison to mean anything
+        assertTrue(circuits[1].torchToggles >= 5, "torch toggled " + circuits[1].torchToggles + " times");
+    }
+
+    @DisplayName("Breaking a powered wire")
+    @Test
+    void testBreak() {
+        Circuit[] circuits = this.compare(circuit -> {
+            circuit.floor(0, 12, 0);
+            circuit.floor(5, 5, 1);
+            for (int x = 0; x < 12; x++) {
+                circuit.placeWire(x, 10, 0);
+            }
+            circuit.placeWire(5, 10, 1);
+            circuit.set(-1, 10, 0, Block.REDSTONE_BLOCK);
+        }, circuit -> circuit.breakWire(5, 10, 0), circuit -> circuit.breakWire(2, 10, 0), circuit -> circuit.placeWire(5, 10, 0));
+
+        assertEquals(14, circuits[1].level.getBlockDataAt(1, 10, 0));
+        assertEquals(Block.AIR, circuits[1].level.getBlockIdAt(2, 10, 0));
+        assertEquals(0, circuits[1].level.getBlockDataAt(5, 10, 0));
+    }
+
+    /**
+     * Builds the circuit in a level with the old wire and in a level with the engine, then runs each change on both.
+     *
+     * @return the circuit with the old wire and the circuit with the engine
+     */
+    @SafeVarargs
+    private final Circuit[] compare(Consumer<Circuit> build, Consumer<Circuit>... changes) {
+        Circuit legacy = new Circuit(true);
+        Circuit engine = new Circuit(false);
+        legacy.run(build);
+        engine.run(build);
+        assertSameBlocks(legacy, engine, "built");
+        for (int i = 0; i < changes.length; i++) {
+            LongSet legacyNotified = legacy.run(changes[i]);
+            LongSet engineNotified = engine.run(changes[i]);
+            assertSameBlocks(legacy, engine, "change " + i);
+            assertEquals(legacyNotified, engineNotified, "notified blocks of change " + i);
+        }
+        return new Circuit[]{legacy, engine};
+    }
+
+    private static void assertSameBlocks(Circuit legacy, Circuit engine, String step) {
+        for (int x = MIN_X; x <= MAX_X; x++) {
+            for (int y = MIN_Y; y <= MAX_Y; y++) {
+                for (int z = MIN_Z; z <= MAX_Z; z++) {
+                    assertEquals(legacy.level.getFullBlock(x, y, z), engine.level.getFullBlock(x, y, z),
+                            step + " at " + x + ", " + y + ", " + z);
+                }
+            }
+        }
+    }
+
+    private static class Circuit {
+
+        private final boolean legacy;
+        private final Level level;
+        private final BlockUpdateScheduler updateQueue;
+        private final Queue<Block> normalUpdateQueue;
+        private final Field tickField;
+        private long tick;
+        private int torchToggles;
+
+        private Circuit(boolean legacy) {
+            this.legacy = legacy;
+            this.level = fixture.createLevel();
+            LevelFixture.loadChunks(this.level, -1, -1, 1, 1);
+            try {
+                Field field = Level.class.getDeclaredField("updateQueue");
+                field.setAccessible(true);
+                this.updateQueue = (BlockUpdateScheduler) field.get(this.level);
+                field = Level.class.getDeclaredField("normalUpdateQueue");
+                field.setAccessible(true);
+                //noinspection unchecked
+                this.normalUpdateQueue = (Queue<Block>) field.get(this.level);
+                this.tickField = Level.class.getDeclaredField("levelCurrentTick");
+                this.tickField.setAccessible(true);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            this.tick = this.level.getCurrentTick();
+        }
+
+        /**
+         * Runs a change with the wire and stone of this circuit in the block list.
+         *
+         * @return the positions of the stone blocks that got a redstone update
+         */
+        private LongSet run(Consumer<Circuit> change) {
+            Block[] wires = new Block[16];
+            Block stone = Block.fullList[Block.STONE << 4];
+            System.arraycopy(Block.fullList, Block.REDSTONE_WIRE << 4, wires, 0, 16);
+            try {
+                for (int meta = 0; meta < 16; meta++) {
+                    Block.fullList[(Block.REDSTONE_WIRE << 4) | meta] = this.legacy ? new LegacyRedstoneWire(meta) : new BlockRedstoneWire(meta);
+                }
+                Block.fullList[Block.STONE << 4] = new ProbeStone();
+                notified.clear();
+                change.accept(this);
+                this.runNormalUpdates();
+                return new LongOpenHashSet(notified);
+            } finally {
+                System.arraycopy(wires, 0, Block.fullList, Block.REDSTONE_WIRE << 4, 16);
+                Block.fullList[Block.STONE << 4] = stone;
+            }
+        }
+
+        /**
+         * Runs the neighbour updates the level runs once a tick.
+         */
+        private void runNormalUpdates() {
+            Block block;
+            while ((block = this.normalUpdateQueue.poll()) != null) {
+                block.onUpdate(Level.BLOCK_UPDATE_NORMAL);
+            }
+        }
+
+        private void set(int x, int y, int z, int id) {
+            this.set(x, y, z, id, 0);
+        }
+
+        private void set(int x, int y, int z, int id, int meta) {
+            this.level.setBlock(new Vector3(x, y, z), Block.get(id, meta), true, true);
+        }
+
+        private void floor(int minX, int maxX, int z) {
+            for (int x = minX; x <= maxX; x++) {
+                this.set(x, 9, z, Block.STONE);
+            }
+        }
+
+        private void placeWire(int x, int y, int z) {
+            Block wire = Block.get(Block.REDSTONE_WIRE);
+            Block block = this.level.getBlock(x, y, z);
+            wire.x = x;
+            wire.y = y;
+            wire.z = z;
+            wire.level = this.level;
+            assertTrue(wire.place(Item.get(Item.REDSTONE), block, this.level.getBlock(x, y - 1, z), BlockFace.UP, 0.5, 1, 0.5, null));
+        }
+
+        private void breakWire(int x, int y, int z) {
+            Block wire = this.level.getBlock(x, y, z);
+            assertEquals(Block.REDSTONE_WIRE, wire.getId());
+            wire.onBreak(Item.get(Item.AIR));
+        }
+
+        private void tick() {
+            int torch = this.level.getBlockIdAt(1, 10, 0);
+            try {
+                this.tickField.setLong(this.level, ++this.tick);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            this.updateQueue.tick(this.tick);
+            this.runNormalUpdates();
+            if (this.level.getBlockIdAt(1, 10, 0) != torch) {
+                this.torchToggles++;
+            }
+        }
+    }
+
+    private static class ProbeStone extends BlockStone {
+
+        @Override
+        public int onUpdate(int type) {
+            if (type == Level.BLOCK_UPDATE_REDSTONE) {
+                notified.add(Level.blockHash(this.getFloorX(), this.getFloorY(), this.getFloorZ()));
+            }
+            return super.onUpdate(type);
+        }
+    }
+
+    /**
+     * The wire as it was before {@link RedstoneWireEngine}: each wire recalculates itself and updates the blocks
+     * around it, which makes the wires next to it recalculate in turn.
+     */
+    private static class LegacyRedstoneWire extends BlockRedstoneWire {
+
+        private LegacyRedstoneWire(int meta) {
+            super(meta);
+        }
+
+        @Override
+        public boolean place(Item item, Block block, Block target, BlockFace face, double fx, double fy, double fz, cn.nukkit.Player player) {
+            if (face != BlockFace.UP || !canBePlacedOn(target)) {
+                return false;
+            }
+
+            this.getLevel().setBlock(block, this, true, false);
+            this.calculateCurrentChanges(true);
+            Vector3 pos = getLocation();
+
+            for (BlockFace blockFace : Plane.VERTICAL) {
+                this.level.updateAroundRedstone(pos.getSide(blockFace), blockFace.getOpposite());
+            }
+
+            for (BlockFace blockFace : Plane.VERTICAL) {
+                this.updateAround(pos.getSide(blockFace), blockFace.getOpposite());
+            }
+
+            for (BlockFace blockFace : Plane.HORIZONTAL) {
+                Vector3 v = pos.getSide(blockFace);
+
+                if (this.level.getBlock(v).isNormalBlock()) {
+                    this.updateAround(v.up(), BlockFace.DOWN);
+                } else {
+                    this.updateAround(v.down(), BlockFace.UP);
+                }
+            }
+            return true;
+        }
+
+        private void updateAround(Vector3 pos, BlockFace face) {
+            if (this.level.getBlock(pos).getId() == Block.REDSTONE_WIRE) {
+                this.level.updateAroundRedstone(pos, face);
+
+                for (BlockFace side : BlockFace.values0()) {
+                    this.level.updateAroundRedstone(pos.getSide(side), side.getOpposite());
+                }
+            }
+        }
+
+        private void calculateCurrentChanges(boolean force) {
+            Vector3 pos = this.getLocation();
+
+            int meta = this.getDamage();
+            int maxStrength = meta;
+            int power = this.getIndirectPower();
+
+            if (power > 0 && power > maxStrength - 1) {
+                maxStrength = power;
+            }
+
+            int strength = 0;
+
+            for (BlockFace face : Plane.HORIZONTAL) {
+                Vector3 v = pos.getSide(face);
+
+                if (v.getX() == this.getX() && v.getZ() == this.getZ()) {
+                    continue;
+                }
+
+                strength = this.getMaxCurrentStrength(v, strength);
+
+                boolean vNormal = this.level.getBlock(v).isNormalBlock();
+
+                if (vNormal && !this.level.getBlock(pos.up()).isNormalBlock()) {
+                    strength = this.getMaxCurrentStrength(v.up(), strength);
+                } else if (!vNormal) {
+                    strength = this.getMaxCurrentStrength(v.down(), strength);
+                }
+            }
+
+            if (strength > maxStrength) {
+                maxStrength = strength - 1;
+            } else if (maxStrength > 0) {
+                --maxStrength;
+            } else {
+                maxStrength = 0;
+            }
+
+            if (power > maxStrength - 1) {
+                maxStrength = power;
+            } else if (power < maxStrength && strength <= maxStrength) {
+                maxStrength = Math.max(power, strength - 1);
+            }
+
+            if (meta != maxStrength) {
+                this.level.getServer().getPluginManager().callEvent(new BlockRedstoneEvent(this, meta, maxStrength));
+
+                this.setDamage(maxStrength);
+                this.level.setBlock(this, this, false, false);
+
+                this.level.updateAroundRedstone(this, null);
+                for (BlockFace face : BlockFace.values0()) {
+                    this.level.updateAroundRedstone(pos.getSide(face), face.getOpposite());
+                }
+            } else if (force) {
+                for (BlockFace face : BlockFace.values0()) {
+                    this.level.updateAroundRedstone(pos.getSide(face), face.getOpposite());
+                }
+            }
+        }
+
+        private int getMaxCurrentStrength(Vector3 pos, int maxStrength) {
+            if (this.level.getBlockIdAt(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ()) != this.getId()) {
+                return maxStrength;
+            } else {
+                int strength = this.level.getBlockDataAt(pos.getFloorX(), pos.getFloorY(), pos.getFloorZ());
+                return Math.max(strength, maxStrength);
+            }
+        }
+
+        @Override
+        public boolean onBreak(Item item) {
+            this.getLevel().setBlock(this, Block.get(BlockID.AIR), true, true);
+
+            Vector3 pos = getLocation();
+
+            this.calculateCurrentChanges(false);
+
+            for (BlockFace blockFace : BlockFace.values()) {
+                this.level.updateAroundRedstone(pos.getSide(blockFace), null);
+            }
+
+            for (BlockFace blockFace : Plane.HORIZONTAL) {
+                Vector3 v = pos.getSide(blockFace);
+
+                if (this.level.getBlock(v).isNormalBlock()) {
+                    this.updateAround(v.up(), BlockFace.DOWN);
+                } else {
+                    this.updateAround(v.down(), BlockFace.UP);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int onUpdate(int type) {
+            if (type != Level.BLOCK_UPDATE_NORMAL && type != Level.BLOCK_UPDATE_REDSTONE) {
+                return 0;
+            }
+            RedstoneUpdateEvent ev = new RedstoneUpdateEvent(this);
+            getLevel().getServer().getPluginManager().callEvent(ev);
+            if (ev.isCancelled()) {
+                return 0;
+            }
+
+            if (type == Level.BLOCK_UPDATE_NORMAL && !this.canBePlacedOn(this.getLocation().down())) {
+                this.getLevel().useBreakOn(this);
+                return Level.BLOCK_UPDATE_NORMAL;
+            }
+
+            this.calculateCurrentChanges(false);
+
+            return Level.BLOCK_UPDATE_NORMAL;
+        }
+
+        private int getIndirectPower() {
+            int power = 0;
+            Vector3 pos = getLocation();
+
+            for (BlockFace face : BlockFace.values()) {
+                int blockPower = this.getIndirectPower(pos.getSide(face), face);
+
+                if (blockPower >= 15) {
+                    return 15;
+                }
+
+                if (blockPower > power) {
+                    power = blockPower;
+                }
+            }
+
+            return power;
+        }
+
+        private int getIndirectPower(Vector3 pos, BlockFace face) {
+            Block block = this.level.getBlock(pos);
+            if (block.getId() == Block.REDSTONE_WIRE) {
+                return 0;
+            }
+            return block.isNormalBlock() ? this.getStrongPower(pos.getSide(face), face) : block.getWeakPower(face);
+        }
+
+        private int getStrongPower(Vector3 pos, BlockFace direction) {
+            Block block = this.level.getBlock(pos);
+
+            if (block.getId() == Block.REDSTONE_WIRE) {
+                return 0;
+            }
+
+            return block.getStrongPower(direction);
+        }
+    }
+}